@@ -17,7 +17,11 @@
 
 package net.shibboleth.idp.admin.impl;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
@@ -25,12 +29,14 @@ import java.time.format.DateTimeFormatter;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
 
+import net.shibboleth.idp.metrics.OpenMetricsWriter;
 import net.shibboleth.idp.profile.AbstractProfileAction;
 import net.shibboleth.idp.profile.context.SpringRequestContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
@@ -63,6 +69,9 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 /**
  * Action that outputs one or more {@link Metric} objects.
  * 
+ * <p>Output is JSON by default, or the OpenMetrics text format if the client's Accept header
+ * includes {@link #OPENMETRICS_MEDIA_TYPE}.</p>
+ * 
  * <p>On success, a 200 HTTP status is returned. On failure, a non-successful HTTP status is returned.</p>
  * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
@@ -77,6 +86,22 @@ public class OutputMetrics extends AbstractProfileAction {
     /** Flow variable indicating ID of metric or group of metrics to output. */
     @Nonnull @NotEmpty public static final String METRIC_ID = "metricId";
     
+    /**
+     * Media type selecting OpenMetrics output.
+     * 
+     * @since 4.2.0
+     */
+    @Nonnull @NotEmpty public static final String OPENMETRICS_MEDIA_TYPE = "application/openmetrics-text";
+
+    /** Writer for OpenMetrics output. */
+    @Nonnull private static final OpenMetricsWriter OPENMETRICS_WRITER = new OpenMetricsWriter();
+    
+    /** JSON mappers, keyed by date/time format, shared across instances. */
+    @Nonnull private static final Map<String,ObjectMapper> OBJECT_MAPPERS = new ConcurrentHashMap<>();
+    
+    /** Filter applying to the current thread's output, consulted by the shared mappers. */
+    @Nonnull private static final ThreadLocal<MetricFilter> CURRENT_FILTER = new ThreadLocal<>();
+    
     /** Class logger. */
     @Nonnull private Logger log = LoggerFactory.getLogger(OutputMetrics.class);
     
@@ -95,6 +120,9 @@ public class OutputMetrics extends AbstractProfileAction {
     /** Formatter for date/time fields. */
     @Nonnull private DateTimeFormatter dateTimeFormatter;
 
+    /** Formatting string for date/time fields, if any. */
+    @Nullable private String dateTimeFormat;
+
     /** Convert date/time fields to default time zone. */
     private boolean useDefaultTimeZone;
 
@@ -163,7 +191,8 @@ public class OutputMetrics extends AbstractProfileAction {
         ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
         
         if (format != null) {
-            dateTimeFormatter = DateTimeFormatter.ofPattern(StringSupport.trimOrNull(format));
+            dateTimeFormat = StringSupport.trimOrNull(format);
+            dateTimeFormatter = DateTimeFormatter.ofPattern(dateTimeFormat);
         }
     }
     
@@ -280,15 +309,62 @@ public class OutputMetrics extends AbstractProfileAction {
                 response.setHeader("Access-Control-Allow-Origin", allowedOrigin);
             }
             
+            final String accept = getHttpServletRequest() != null
+                    ? getHttpServletRequest().getHeader("Accept") : null;
+            if (jsonpCallbackName == null && accept != null && accept.contains(OPENMETRICS_MEDIA_TYPE)) {
+                response.setContentType(OpenMetricsWriter.CONTENT_TYPE);
+                final Writer writer = new BufferedWriter(
+                        new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+                OPENMETRICS_WRITER.write(metricRegistry, filter, writer);
+                return;
+            }
+            
+            final ObjectMapper mapper = getObjectMapper();
+            CURRENT_FILTER.set(filter);
+            try {
+                if (jsonpCallbackName != null) {
+                    response.setContentType("application/javascript");
+                    mapper.writer().writeValue(response.getOutputStream(),
+                            new JSONPObject(jsonpCallbackName, metricRegistry));
+                } else {
+                    response.setContentType("application/json");
+                    mapper.writer().writeValue(response.getOutputStream(), metricRegistry);
+                }
+            } finally {
+                CURRENT_FILTER.remove();
+            }
+        } catch (final IOException e) {
+            log.error("{} I/O error responding to request", getLogPrefix(), e);
+            ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+        }
+    }
+
+    /**
+     * Get a JSON mapper for the configured date/time format, creating it if necessary.
+     * 
+     * <p>Mappers are expensive to build, so they are shared across instances, and apply the filter
+     * set on the calling thread.</p>
+     * 
+     * @return the mapper
+     */
+    @Nonnull private ObjectMapper getObjectMapper() {
+        final String key = (dateTimeFormat != null ? dateTimeFormat : "") + '|' + useDefaultTimeZone;
+        return OBJECT_MAPPERS.computeIfAbsent(key, k -> {
+            final DateTimeFormatter formatter = dateTimeFormatter;
             final ObjectMapper mapper = new ObjectMapper().registerModule(
-                    new MetricsModule(TimeUnit.SECONDS, TimeUnit.SECONDS, true, filter));
+                    new MetricsModule(TimeUnit.SECONDS, TimeUnit.SECONDS, true, new MetricFilter() {
+                        public boolean matches(final String name, final Metric metric) {
+                            final MetricFilter filter = CURRENT_FILTER.get();
+                            return filter == null || filter.matches(name, metric);
+                        }
+                    }));
 
             // The default Instant serializer cannot leverage a custom formatter. Seriously.
             final JavaTimeModule javatime = new JavaTimeModule();
             javatime.addSerializer(Instant.class, new JsonSerializer<Instant>() {
                 public void serialize(final Instant value, final JsonGenerator gen,
                         final SerializerProvider serializers) throws IOException {
-                    gen.writeString(dateTimeFormatter.format(value));
+                    gen.writeString(formatter.format(value));
                 }
             });
             
@@ -297,19 +373,8 @@ public class OutputMetrics extends AbstractProfileAction {
             mapper.configure(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS, false);
             mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
             mapper.configure(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, false);
-            
-            if (jsonpCallbackName != null) {
-                response.setContentType("application/javascript");
-                mapper.writer().writeValue(response.getOutputStream(),
-                        new JSONPObject(jsonpCallbackName, metricRegistry));
-            } else {
-                response.setContentType("application/json");
-                mapper.writer().writeValue(response.getOutputStream(), metricRegistry);
-            }
-        } catch (final IOException e) {
-            log.error("{} I/O error responding to request", getLogPrefix(), e);
-            ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
-        }
+            return mapper;
+        });
     }
 
     /**
@@ -0,0 +1,516 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.template;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.escape.Escaper;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+/**
+ * A precompiled form of a Velocity template that consists only of literal text and simple references.
+ * 
+ * <p>Most templates used to build searches, such as <code>(uid=$resolutionContext.principal)</code> or
+ * <code>uid=$uid.get(0)</code>, do no more than substitute a few values. {@link #compile(String, Function)}
+ * recognizes such templates and turns them into an array of literal and reference segments, which can be
+ * rendered without a Velocity context merge. The supported references are a context variable, in the forms
+ * <code>$name</code>, <code>${name}</code>, <code>$!name</code> and <code>$!{name}</code>, followed by any
+ * number of bean properties (<code>.name</code>), list elements (<code>.get(0)</code>) and escaper calls
+ * (<code>.escape($reference)</code>).</p>
+ * 
+ * <p>Rendering reproduces Velocity's output exactly, and gives up by returning null in any case where it
+ * might not, such as a null value, an unresolvable property, or a value other than a string, number,
+ * boolean or character. The caller should then merge the full template instead.</p>
+ * 
+ * @since 4.2.0
+ */
+@ThreadSafe
+public final class SimpleTemplate {
+
+    /** Engine properties that install global reference insertion handlers. */
+    @Nonnull @NonnullElements private static final String[] HANDLER_PROPERTIES = {
+        "event_handler.reference_insertion.class", "eventhandler.referenceinsertion.class",
+    };
+
+    /** Engine properties that name the introspection strategy. */
+    @Nonnull @NonnullElements private static final String[] UBERSPECT_PROPERTIES = {
+        "introspector.uberspect.class", "runtime.introspector.uberspect",
+    };
+
+    /** Introspection strategies whose property resolution is reproduced here. */
+    @Nonnull @NonnullElements private static final Set<String> SUPPORTED_UBERSPECTS = Set.of(
+            "org.apache.velocity.util.introspection.UberspectImpl",
+            "org.apache.velocity.util.introspection.SecureUberspector");
+
+    /** Longest index accepted in a <code>get</code> call. */
+    private static final int MAX_INDEX_DIGITS = 9;
+
+    /** Literal text, as {@link String}s, and {@link Reference}s. */
+    @Nonnull @NonnullElements private final Object[] segments;
+
+    /** Total length of the literal text. */
+    private final int literalLength;
+
+    /**
+     * Constructor.
+     * 
+     * @param templateSegments literal and reference segments
+     */
+    private SimpleTemplate(@Nonnull @NonnullElements final List<Object> templateSegments) {
+        segments = templateSegments.toArray();
+        int length = 0;
+        for (final Object segment : segments) {
+            if (segment instanceof String) {
+                length += ((String) segment).length();
+            }
+        }
+        literalLength = length;
+    }
+
+    /**
+     * Compile a template, if it is simple enough.
+     * 
+     * @param text template text
+     * @param engineProperties source of the Velocity engine's configuration properties
+     * 
+     * @return the compiled template, or null if the template or engine configuration is not supported
+     */
+    @Nullable public static SimpleTemplate compile(@Nullable final String text,
+            @Nonnull final Function<String,Object> engineProperties) {
+        if (text == null || !isSupportedEngine(engineProperties)) {
+            return null;
+        }
+
+        // Directives, comments and escapes are left to Velocity.
+        if (text.indexOf('#') >= 0 || text.indexOf('\\') >= 0) {
+            return null;
+        }
+
+        final List<Object> segments = new ArrayList<>();
+        final int[] pos = {0};
+        int literalStart = 0;
+        while (pos[0] < text.length()) {
+            if (text.charAt(pos[0]) != '$') {
+                pos[0]++;
+                continue;
+            }
+            if (pos[0] > literalStart) {
+                segments.add(text.substring(literalStart, pos[0]));
+            }
+            final Reference reference = parseReference(text, pos);
+            if (reference == null) {
+                return null;
+            }
+            segments.add(reference);
+            literalStart = pos[0];
+        }
+        if (literalStart < text.length()) {
+            segments.add(text.substring(literalStart));
+        }
+
+        return new SimpleTemplate(segments);
+    }
+
+    /**
+     * Render the template.
+     * 
+     * @param lookup source of context variables
+     * @param inserter reference insertion handler, taking the reference text and value
+     * 
+     * @return the rendered text, or null if the full template should be merged instead
+     */
+    @Nullable public String render(@Nonnull final Function<String,Object> lookup,
+            @Nullable final BiFunction<String,Object,Object> inserter) {
+        final StringBuilder out = new StringBuilder(literalLength + 32 * segments.length);
+        for (final Object segment : segments) {
+            if (segment instanceof String) {
+                out.append((String) segment);
+                continue;
+            }
+
+            final Reference reference = (Reference) segment;
+            Object value = reference.resolve(lookup);
+            if (value == null) {
+                return null;
+            }
+            if (inserter != null) {
+                value = inserter.apply(reference.source, value);
+            }
+            if (value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof Character) {
+                out.append(value);
+            } else {
+                return null;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Check whether the engine is configured in a way that rendering can reproduce.
+     * 
+     * @param engineProperties source of the Velocity engine's configuration properties
+     * 
+     * @return true iff the engine has no global insertion handlers and uses a standard introspector
+     */
+    private static boolean isSupportedEngine(@Nonnull final Function<String,Object> engineProperties) {
+        for (final String name : HANDLER_PROPERTIES) {
+            final Object value = engineProperties.apply(name);
+            if (value != null && !(value instanceof Collection && ((Collection<?>) value).isEmpty())
+                    && !"".equals(value)) {
+                return false;
+            }
+        }
+        for (final String name : UBERSPECT_PROPERTIES) {
+            Object value = engineProperties.apply(name);
+            if (value instanceof Collection && ((Collection<?>) value).size() == 1) {
+                value = ((Collection<?>) value).iterator().next();
+            }
+            if (value != null && !SUPPORTED_UBERSPECTS.contains(value.toString().trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a reference starting at the current position.
+     * 
+     * @param text template text
+     * @param pos current position, updated to the end of the reference
+     * 
+     * @return the reference, or null if it is not supported
+     */
+    @Nullable private static Reference parseReference(@Nonnull final String text, @Nonnull final int[] pos) {
+        final int start = pos[0];
+        int i = start + 1;
+        if (i < text.length() && text.charAt(i) == '!') {
+            i++;
+        }
+        final boolean braced = i < text.length() && text.charAt(i) == '{';
+        if (braced) {
+            i++;
+        }
+
+        final int rootEnd = identifierEnd(text, i);
+        if (rootEnd == i) {
+            return null;
+        }
+        final String root = text.substring(i, rootEnd);
+        i = rootEnd;
+
+        final List<Accessor> accessors = new ArrayList<>();
+        while (i < text.length() && text.charAt(i) == '.') {
+            final int nameEnd = identifierEnd(text, i + 1);
+            if (nameEnd == i + 1) {
+                // A trailing dot would be literal text, but keep it simple.
+                return null;
+            }
+            final String name = text.substring(i + 1, nameEnd);
+            i = nameEnd;
+            if (i < text.length() && text.charAt(i) == '(') {
+                final int close = text.indexOf(')', i);
+                if (close < 0) {
+                    return null;
+                }
+                final String argument = text.substring(i + 1, close);
+                if ("get".equals(name) && isIndex(argument)) {
+                    accessors.add(new Index(Integer.parseInt(argument)));
+                } else if ("escape".equals(name) && argument.startsWith("$")) {
+                    final int[] argumentPos = {0};
+                    final Reference nested = parseReference(argument, argumentPos);
+                    if (nested == null || argumentPos[0] != argument.length()) {
+                        return null;
+                    }
+                    accessors.add(new Escape(nested));
+                } else {
+                    return null;
+                }
+                i = close + 1;
+            } else {
+                accessors.add(new Property(name));
+            }
+        }
+
+        if (braced) {
+            if (i >= text.length() || text.charAt(i) != '}') {
+                return null;
+            }
+            i++;
+        } else if (i < text.length()) {
+            // Anything that might extend the reference under other parser settings is left to Velocity.
+            final char next = text.charAt(i);
+            if (next == '(' || next == '[' || next == '-' || Character.isLetterOrDigit(next)) {
+                return null;
+            }
+        }
+
+        pos[0] = i;
+        return new Reference(text.substring(start, i), root, accessors.toArray(new Accessor[accessors.size()]));
+    }
+
+    /**
+     * Find the end of an identifier.
+     * 
+     * @param text template text
+     * @param start start of the identifier
+     * 
+     * @return the end of the identifier, equal to the start if there is none
+     */
+    private static int identifierEnd(@Nonnull final String text, final int start) {
+        if (start >= text.length() || !isAsciiLetter(text.charAt(start))) {
+            return start;
+        }
+        int i = start + 1;
+        while (i < text.length()) {
+            final char ch = text.charAt(i);
+            if (!isAsciiLetter(ch) && !(ch >= '0' && ch <= '9') && ch != '_') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Check for an ASCII letter.
+     * 
+     * @param ch character to check
+     * 
+     * @return true iff the character is an ASCII letter
+     */
+    private static boolean isAsciiLetter(final char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z');
+    }
+
+    /**
+     * Check for an integer literal usable as a list index.
+     * 
+     * @param argument method argument text
+     * 
+     * @return true iff the argument is a short string of digits
+     */
+    private static boolean isIndex(@Nonnull final String argument) {
+        if (argument.isEmpty() || argument.length() > MAX_INDEX_DIGITS) {
+            return false;
+        }
+        for (int i = 0; i < argument.length(); ++i) {
+            if (argument.charAt(i) < '0' || argument.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** A reference to a context variable. */
+    private static final class Reference {
+
+        /** Text of the reference, as passed to insertion handlers. */
+        @Nonnull @NotEmpty private final String source;
+
+        /** Name of the context variable. */
+        @Nonnull @NotEmpty private final String root;
+
+        /** Accessors applied in turn to the variable. */
+        @Nonnull @NonnullElements private final Accessor[] accessors;
+
+        /**
+         * Constructor.
+         * 
+         * @param text text of the reference
+         * @param name name of the context variable
+         * @param chain accessors to apply
+         */
+        Reference(@Nonnull @NotEmpty final String text, @Nonnull @NotEmpty final String name,
+                @Nonnull @NonnullElements final Accessor[] chain) {
+            source = text;
+            root = name;
+            accessors = chain;
+        }
+
+        /**
+         * Resolve the value of the reference.
+         * 
+         * @param lookup source of context variables
+         * 
+         * @return the value, or null if it cannot be resolved here
+         */
+        @Nullable Object resolve(@Nonnull final Function<String,Object> lookup) {
+            Object value = lookup.apply(root);
+            for (final Accessor accessor : accessors) {
+                if (value == null) {
+                    return null;
+                }
+                value = accessor.apply(value, lookup);
+            }
+            return value;
+        }
+    }
+
+    /** A step in resolving a reference. */
+    private interface Accessor {
+
+        /**
+         * Apply the step.
+         * 
+         * @param target the value so far
+         * @param lookup source of context variables
+         * 
+         * @return the new value, or null if it cannot be resolved here
+         */
+        @Nullable Object apply(@Nonnull Object target, @Nonnull Function<String,Object> lookup);
+    }
+
+    /** Access to a bean property through its getter. */
+    private static final class Property implements Accessor {
+
+        /** Getter names, in the order Velocity tries them. */
+        @Nonnull @NonnullElements private final String[] getterNames;
+
+        /** Getters by class, empty if unusable. */
+        @Nonnull private final Map<Class<?>,Optional<Method>> getters;
+
+        /**
+         * Constructor.
+         * 
+         * @param name property name
+         */
+        Property(@Nonnull @NotEmpty final String name) {
+            final char first = name.charAt(0);
+            final char flipped = Character.isLowerCase(first) ? Character.toUpperCase(first)
+                    : Character.toLowerCase(first);
+            getterNames = new String[] {"get" + name, "get" + flipped + name.substring(1)};
+            getters = new ConcurrentHashMap<>();
+        }
+
+        /** {@inheritDoc} */
+        @Nullable public Object apply(@Nonnull final Object target, @Nonnull final Function<String,Object> lookup) {
+            final Optional<Method> getter = getters.computeIfAbsent(target.getClass(), this::findGetter);
+            if (getter.isEmpty()) {
+                return null;
+            }
+            try {
+                return getter.get().invoke(target);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Find the getter to use for a class.
+         * 
+         * <p>Only public, non-static getters declared by public classes outside the JDK are used,
+         * which keeps clear of anything a secure introspector would refuse.</p>
+         * 
+         * @param clazz class of the target
+         * 
+         * @return the getter, if usable
+         */
+        @Nonnull private Optional<Method> findGetter(@Nonnull final Class<?> clazz) {
+            final String packageName = clazz.getPackageName();
+            if (packageName.startsWith("java.") || packageName.startsWith("javax.")
+                    || packageName.startsWith("jdk.") || packageName.startsWith("sun.")) {
+                return Optional.empty();
+            }
+            for (final String name : getterNames) {
+                if ("getClass".equals(name)) {
+                    return Optional.empty();
+                }
+                try {
+                    final Method method = clazz.getMethod(name);
+                    if (Modifier.isStatic(method.getModifiers()) || method.getReturnType() == void.class
+                            || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                        return Optional.empty();
+                    }
+                    return Optional.of(method);
+                } catch (final NoSuchMethodException e) {
+                    continue;
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    /** Access to a list element. */
+    private static final class Index implements Accessor {
+
+        /** Element index. */
+        private final int index;
+
+        /**
+         * Constructor.
+         * 
+         * @param idx element index
+         */
+        Index(final int idx) {
+            index = idx;
+        }
+
+        /** {@inheritDoc} */
+        @Nullable public Object apply(@Nonnull final Object target, @Nonnull final Function<String,Object> lookup) {
+            if (target instanceof List && index < ((List<?>) target).size()) {
+                return ((List<?>) target).get(index);
+            }
+            return null;
+        }
+    }
+
+    /** Application of an {@link Escaper} to another reference. */
+    private static final class Escape implements Accessor {
+
+        /** Reference to escape. */
+        @Nonnull private final Reference argument;
+
+        /**
+         * Constructor.
+         * 
+         * @param arg reference to escape
+         */
+        Escape(@Nonnull final Reference arg) {
+            argument = arg;
+        }
+
+        /** {@inheritDoc} */
+        @Nullable public Object apply(@Nonnull final Object target, @Nonnull final Function<String,Object> lookup) {
+            if (target instanceof Escaper) {
+                final Object value = argument.resolve(lookup);
+                if (value instanceof String) {
+                    return ((Escaper) target).escape((String) value);
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.template;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.net.UrlEscapers;
+
+import net.shibboleth.utilities.java.support.velocity.Template;
+
+/** Unit test for {@link SimpleTemplate}. */
+public class SimpleTemplateTest {
+
+    /** Engine with default configuration. */
+    private static final Function<String,Object> DEFAULTS = name -> null;
+
+    /** Bean used to test property access. */
+    public static class Bean {
+
+        /** Principal name. */
+        private final String principal;
+
+        /**
+         * Constructor.
+         *
+         * @param name principal name
+         */
+        public Bean(final String name) {
+            principal = name;
+        }
+
+        /**
+         * Get the principal name.
+         *
+         * @return principal name
+         */
+        public String getPrincipal() {
+            return principal;
+        }
+
+        /**
+         * Get a nested bean.
+         *
+         * @return nested bean
+         */
+        public Bean getNested() {
+            return new Bean(principal + "!");
+        }
+    }
+
+    /** Engine configured as the IdP's, against which output is compared. */
+    private VelocityEngine engine;
+
+    @BeforeClass public void setUp() {
+        engine = new VelocityEngine();
+        engine.addProperty("parser.space_gobbling", "bc");
+        engine.addProperty("resource.loaders", "string");
+        engine.addProperty("resource.loader.string.class",
+                "org.apache.velocity.runtime.resource.loader.StringResourceLoader");
+        engine.init();
+    }
+
+    private Map<String,Object> context() {
+        final Map<String,Object> context = new HashMap<>();
+        context.put("resolutionContext", new Bean("jdoe"));
+        context.put("uid", List.of("a", "b"));
+        context.put("count", 3);
+        context.put("paramEscaper", UrlEscapers.urlFormParameterEscaper());
+        return context;
+    }
+
+    @Test public void literal() {
+        final SimpleTemplate template = SimpleTemplate.compile("(objectClass=*)", DEFAULTS);
+        Assert.assertNotNull(template);
+        Assert.assertEquals(template.render(context()::get, null), "(objectClass=*)");
+    }
+
+    @Test public void references() {
+        final Map<String,Object> context = context();
+        SimpleTemplate template = SimpleTemplate.compile("(uid=$resolutionContext.principal)", DEFAULTS);
+        Assert.assertEquals(template.render(context::get, null), "(uid=jdoe)");
+
+        template = SimpleTemplate.compile("${resolutionContext.Nested.principal}-$!{count} $uid.get(1);", DEFAULTS);
+        Assert.assertEquals(template.render(context::get, null), "jdoe!-3 b;");
+
+        template = SimpleTemplate.compile("$count$count", DEFAULTS);
+        Assert.assertEquals(template.render(context::get, null), "33");
+    }
+
+    @Test public void escape() {
+        final Map<String,Object> context = context();
+        context.put("name", "a b&c");
+        final SimpleTemplate template =
+                SimpleTemplate.compile("http://example.org/?q=$paramEscaper.escape($name)", DEFAULTS);
+        Assert.assertEquals(template.render(context::get, null), "http://example.org/?q=a+b%26c");
+    }
+
+    @Test public void inserter() {
+        final SimpleTemplate template = SimpleTemplate.compile("(uid=$!{uid.get(0)})", DEFAULTS);
+        Assert.assertEquals(template.render(context()::get, (ref, value) -> ref + "=" + value),
+                "(uid=$!{uid.get(0)}=a)");
+    }
+
+    @Test public void unsupported() {
+        Assert.assertNull(SimpleTemplate.compile(null, DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("#if($uid)x#end", DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("\\$uid", DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("cost: $5", DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("$uid[0]", DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("$uid.size()", DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("${uid", DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("$uid.", DEFAULTS));
+        Assert.assertNull(SimpleTemplate.compile("$uid-x", DEFAULTS));
+
+        Assert.assertNull(SimpleTemplate.compile("$uid",
+                name -> name.startsWith("event_handler") ? "org.example.Handler" : null));
+        Assert.assertNull(SimpleTemplate.compile("$uid",
+                name -> name.endsWith("uberspect.class") ? "org.example.Uberspect" : null));
+        Assert.assertNotNull(SimpleTemplate.compile("$uid",
+                name -> name.endsWith("uberspect.class")
+                        ? "org.apache.velocity.util.introspection.SecureUberspector" : null));
+    }
+
+    @Test public void fallback() {
+        final Map<String,Object> context = context();
+
+        // Null, unresolvable, and non-scalar values are left to Velocity.
+        Assert.assertNull(SimpleTemplate.compile("$missing", DEFAULTS).render(context::get, null));
+        Assert.assertNull(SimpleTemplate.compile("$!missing", DEFAULTS).render(context::get, null));
+        Assert.assertNull(SimpleTemplate.compile("$uid.get(5)", DEFAULTS).render(context::get, null));
+        Assert.assertNull(SimpleTemplate.compile("$uid", DEFAULTS).render(context::get, null));
+        Assert.assertNull(SimpleTemplate.compile("$count.class", DEFAULTS).render(context::get, null));
+        Assert.assertNull(SimpleTemplate.compile("$resolutionContext.missing", DEFAULTS)
+                .render(context::get, null));
+        Assert.assertNull(SimpleTemplate.compile("$resolutionContext", DEFAULTS).render(context::get, null));
+        Assert.assertNull(SimpleTemplate.compile("$paramEscaper.escape($uid)", DEFAULTS)
+                .render(context::get, null));
+    }
+
+    @Test public void sameAsVelocity() {
+        final Map<String,Object> context = context();
+        context.put("name", "a b&c/d?e=\u00e9");
+        context.put("raw", "$uid #if($count)x#end \\$count");
+        context.put("flag", Boolean.TRUE);
+        context.put("initial", 'j');
+        context.put("ratio", 0.5d);
+
+        // Literals and whitespace, which Velocity copies through unchanged.
+        assertSameAsVelocity("(objectClass=*)", context);
+        assertSameAsVelocity("", context);
+        assertSameAsVelocity("  leading and trailing\t ", context);
+        assertSameAsVelocity("line1\nline2\r\n\n  line4\n", context);
+        assertSameAsVelocity("(cn=*) 100% {}[]", context);
+
+        // References, including adjacent ones and ones surrounded by whitespace.
+        assertSameAsVelocity("(uid=$resolutionContext.principal)", context);
+        assertSameAsVelocity("${resolutionContext.Nested.principal}-$!{count} $uid.get(1);", context);
+        assertSameAsVelocity("$count$count", context);
+        assertSameAsVelocity("\t$uid.get(0)\n  $!count  \n", context);
+        assertSameAsVelocity("a${uid.get(0)}b$!{uid.get(1)}c", context);
+        assertSameAsVelocity("$flag $initial $ratio", context);
+
+        // Escaped values, and values that Velocity would treat as markup if they were template text.
+        assertSameAsVelocity("http://example.org/?q=$paramEscaper.escape($name)", context);
+        assertSameAsVelocity("q=$paramEscaper.escape($resolutionContext.principal)&n=$name", context);
+        assertSameAsVelocity("[$raw]", context);
+    }
+
+    @Test public void missingSameAsVelocity() {
+        final Map<String,Object> context = context();
+
+        // Velocity renders a missing reference as its own text unless quiet, which is left to it.
+        for (final String text : List.of("$missing", "$!missing", "x${missing}y", "(uid=$!{missing})",
+                "$count $missing", "$resolutionContext.missing", "$uid.get(5)", "$paramEscaper.escape($missing)")) {
+            final SimpleTemplate template = SimpleTemplate.compile(text, engine::getProperty);
+            Assert.assertNotNull(template, text);
+            Assert.assertNull(template.render(context::get, null), text);
+        }
+        Assert.assertEquals(merge("x${missing}y", context), "x${missing}y");
+        Assert.assertEquals(merge("(uid=$!{missing})", context), "(uid=)");
+    }
+
+    /**
+     * Check that a template is rendered without Velocity, and identically to a Velocity merge.
+     *
+     * @param text template text
+     * @param context template context
+     */
+    private void assertSameAsVelocity(final String text, final Map<String,Object> context) {
+        final SimpleTemplate template = SimpleTemplate.compile(text, engine::getProperty);
+        Assert.assertNotNull(template, text);
+        final String rendered = template.render(context::get, null);
+        Assert.assertNotNull(rendered, text);
+        Assert.assertEquals(rendered, merge(text, context), text);
+    }
+
+    /**
+     * Merge a template through Velocity.
+     *
+     * @param text template text
+     * @param context template context
+     *
+     * @return the merged output
+     */
+    private String merge(final String text, final Map<String,Object> context) {
+        return Template.fromTemplate(engine, text).merge(new VelocityContext(new HashMap<>(context)));
+    }
+
+}
@@ -18,8 +18,10 @@
 package net.shibboleth.idp.attribute.filter;
 
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
@@ -48,4 +50,24 @@ public interface AttributeFilter extends IdentifiedComponent {
      */
     void filterAttributes(@Nonnull final AttributeFilterContext filterContext) throws AttributeFilterException;
     
+    /**
+     * Gets the IDs of the attributes that this filter could release to a requester, or that it would need to consult
+     * in doing so.
+     * 
+     * <p>The result is conservative: it may include attributes that turn out not to be released, but any attribute
+     * not included will never be released to the requester. A null result indicates that no such determination
+     * can be made, which is the default.</p>
+     * 
+     * @param issuer attribute issuer
+     * @param requester attribute requester
+     * 
+     * @return attribute IDs, or null
+     * 
+     * @since 4.2.0
+     */
+    @Nullable @NonnullElements @Unmodifiable default Set<String> getReleasableAttributeIds(
+            @Nullable final String issuer, @Nullable final String requester) {
+        return null;
+    }
+    
 }
\ No newline at end of file
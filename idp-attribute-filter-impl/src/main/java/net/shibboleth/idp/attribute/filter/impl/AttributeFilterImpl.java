@@ -20,6 +20,7 @@ package net.shibboleth.idp.attribute.filter.impl;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -40,6 +41,7 @@ import net.shibboleth.idp.attribute.filter.AttributeFilterException;
 import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterWorkContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
@@ -57,6 +59,9 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
     /** Filter policies used by this engine. */
     @Nonnull @NonnullElements private final List<AttributeFilterPolicy> filterPolicies;
 
+    /** Index used to select the policies that may apply to a request. */
+    @NonnullAfterInit private AttributeFilterPolicyIndex policyIndex;
+
     /** Log prefix. */
     @Nullable private String logPrefix;
 
@@ -112,7 +117,9 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
             log.debug("{} Beginning process of filtering the following {} attributes: {}", new Object[] {getLogPrefix(),
                     prefilteredAttributes.size(), prefilteredAttributes.keySet(),});
     
-            final List<AttributeFilterPolicy> policies = getFilterPolicies();
+            final List<AttributeFilterPolicy> policies = policyIndex.getCandidates(filterContext);
+            log.trace("{} Evaluating {} of {} filter policies", getLogPrefix(), policies.size(),
+                    filterPolicies.size());
             for (final AttributeFilterPolicy policy : policies) {
                 policy.apply(filterContext);
             }
@@ -138,6 +145,15 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
         }
     }
 
+    /** {@inheritDoc} */
+    @Override @Nullable @NonnullElements @Unmodifiable public Set<String> getReleasableAttributeIds(
+            @Nullable final String issuer, @Nullable final String requester) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        return policyIndex.getReleasableAttributeIds(issuer, requester);
+    }
+
     /**
      * Gets the permitted values for the given attribute from the
      * {@link AttributeFilterWorkContext#getPermittedIdPAttributeValues()} and removes all denied values given in the
@@ -186,6 +202,10 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
         logPrefix = null;
+        
+        policyIndex = new AttributeFilterPolicyIndex(filterPolicies);
+        log.debug("{} Indexed {} filter policies, {} of which are evaluated for every request", getLogPrefix(),
+                filterPolicies.size(), policyIndex.getResidualCount());
     }
 
     /**
@@ -0,0 +1,450 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.attribute.filter.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+import org.opensaml.saml.common.profile.logic.EntityGroupNamePredicate;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
+import net.shibboleth.idp.attribute.filter.AttributeRule;
+import net.shibboleth.idp.attribute.filter.Matcher;
+import net.shibboleth.idp.attribute.filter.MatcherFromPolicy;
+import net.shibboleth.idp.attribute.filter.PolicyFromMatcher;
+import net.shibboleth.idp.attribute.filter.PolicyFromMatcherId;
+import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
+import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.matcher.impl.ScriptedMatcher;
+import net.shibboleth.idp.attribute.filter.matcher.logic.impl.AndMatcher;
+import net.shibboleth.idp.attribute.filter.matcher.logic.impl.NotMatcher;
+import net.shibboleth.idp.attribute.filter.matcher.logic.impl.OrMatcher;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeIssuerPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.NumOfAttributeValuesPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.PredicatePolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.impl.ScriptedPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.AndPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.NotPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.OrPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.saml.impl.AttributeRequesterInEntityGroupPolicyRule;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Index of {@link AttributeFilterPolicy} objects by the requester, issuer and requester group values
+ * that their {@link PolicyRequirementRule} requires, used to avoid evaluating policies that cannot apply.
+ * 
+ * <p>For each policy, a set of values is derived such that the rule can only evaluate to
+ * {@link PolicyRequirementRule.Tristate#TRUE} if the request matches at least one of them. Exact, case-sensitive
+ * {@link AttributeRequesterPolicyRule} and {@link AttributeIssuerPolicyRule} rules contribute their value,
+ * {@link AttributeRequesterInEntityGroupPolicyRule} rules that don't check affiliations contribute their group,
+ * an {@link OrPolicyRule} contributes the union of its children (if all of them can be indexed), and an
+ * {@link AndPolicyRule} contributes the smallest set of any of its children. Policies with any other rule are
+ * residual, and are always candidates.</p>
+ * 
+ * <p>The candidates for a request are returned in their original order, and are then evaluated as usual, so
+ * the outcome is identical to evaluating every policy.</p>
+ * 
+ * <p>The index also supports a conservative determination of the attributes that could be released to a
+ * requester ahead of resolution, from the attribute IDs that the candidate policies permit or consult. Since
+ * group membership requires metadata, every group-indexed policy is a candidate for this purpose.</p>
+ * 
+ * @since 4.2.0
+ */
+@ThreadSafe
+final class AttributeFilterPolicyIndex {
+
+    /** Maximum number of issuer/requester combinations for which releasable attributes are cached. */
+    private static final int RELEASABLE_CACHE_SIZE = 10000;
+
+    /** Policies being indexed. */
+    @Nonnull @NonnullElements private final List<AttributeFilterPolicy> policies;
+
+    /** Positions of policies that cannot be indexed. */
+    @Nonnull private final BitSet residual;
+
+    /** Positions of policies indexed by requester. */
+    @Nonnull private final Map<String,BitSet> byRequester;
+
+    /** Positions of policies indexed by issuer. */
+    @Nonnull private final Map<String,BitSet> byIssuer;
+
+    /** Positions of policies indexed by requester group. */
+    @Nonnull private final Map<String,BitSet> byRequesterGroup;
+
+    /** Positions of policies indexed by any requester group. */
+    @Nonnull private final BitSet anyRequesterGroup;
+
+    /** Attribute IDs each policy may release or consult, with null entries for those that can't be determined. */
+    @Nonnull private final List<Set<String>> referencedAttributes;
+
+    /** Positions of policies whose referenced attributes can't be determined. */
+    @Nonnull private final BitSet opaque;
+
+    /** Releasable attribute IDs by issuer and requester. */
+    @Nonnull private final Cache<List<String>,Optional<Set<String>>> releasableCache;
+
+    /**
+     * Constructor.
+     * 
+     * @param filterPolicies policies to index
+     */
+    AttributeFilterPolicyIndex(@Nonnull @NonnullElements final List<AttributeFilterPolicy> filterPolicies) {
+        policies = filterPolicies;
+        residual = new BitSet(filterPolicies.size());
+        byRequester = new HashMap<>();
+        byIssuer = new HashMap<>();
+        byRequesterGroup = new HashMap<>();
+        anyRequesterGroup = new BitSet(filterPolicies.size());
+        referencedAttributes = new ArrayList<>(filterPolicies.size());
+        opaque = new BitSet(filterPolicies.size());
+        releasableCache = CacheBuilder.newBuilder().maximumSize(RELEASABLE_CACHE_SIZE).build();
+
+        for (int i = 0; i < filterPolicies.size(); i++) {
+            final Keys keys = getKeys(filterPolicies.get(i).getPolicyRequirementRule());
+            if (keys == null) {
+                residual.set(i);
+            } else {
+                addAll(byRequester, keys.requesters, i);
+                addAll(byIssuer, keys.issuers, i);
+                addAll(byRequesterGroup, keys.requesterGroups, i);
+                if (!keys.requesterGroups.isEmpty()) {
+                    anyRequesterGroup.set(i);
+                }
+            }
+
+            final Set<String> referenced = getReferencedAttributes(filterPolicies.get(i));
+            referencedAttributes.add(referenced);
+            if (referenced == null) {
+                opaque.set(i);
+            }
+        }
+    }
+
+    /**
+     * Get the number of policies that have to be evaluated for every request.
+     * 
+     * @return number of residual policies
+     */
+    int getResidualCount() {
+        return residual.cardinality();
+    }
+
+    /**
+     * Get the policies that may apply to a request, in their original order.
+     * 
+     * @param filterContext current filter context
+     * 
+     * @return candidate policies
+     */
+    @Nonnull @NonnullElements List<AttributeFilterPolicy> getCandidates(
+            @Nonnull final AttributeFilterContext filterContext) {
+
+        final BitSet candidates = (BitSet) residual.clone();
+
+        orInto(candidates, byRequester, filterContext.getAttributeRecipientID());
+        orInto(candidates, byIssuer, filterContext.getAttributeIssuerID());
+
+        if (!byRequesterGroup.isEmpty()) {
+            final SAMLMetadataContext metadataContext = filterContext.getRequesterMetadataContext();
+            final EntityDescriptor entity = metadataContext != null ? metadataContext.getEntityDescriptor() : null;
+            if (entity != null) {
+                // Each group is checked once per request, however many policies reference it.
+                for (final Map.Entry<String,BitSet> entry : byRequesterGroup.entrySet()) {
+                    if (new EntityGroupNamePredicate(Collections.singleton(entry.getKey()), null).test(entity)) {
+                        candidates.or(entry.getValue());
+                    }
+                }
+            }
+        }
+
+        final List<AttributeFilterPolicy> result = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            result.add(policies.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Get the IDs of the attributes that may be released to a requester, or consulted in doing so.
+     * 
+     * @param issuer attribute issuer
+     * @param requester attribute requester
+     * 
+     * @return attribute IDs, or null if any candidate policy depends on something that can't be determined
+     */
+    @Nullable @NonnullElements @Unmodifiable Set<String> getReleasableAttributeIds(@Nullable final String issuer,
+            @Nullable final String requester) {
+        final Optional<Set<String>> cached = releasableCache.getIfPresent(Arrays.asList(issuer, requester));
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+
+        final BitSet candidates = (BitSet) residual.clone();
+        orInto(candidates, byRequester, requester);
+        orInto(candidates, byIssuer, issuer);
+        candidates.or(anyRequesterGroup);
+
+        Set<String> result = null;
+        if (!candidates.intersects(opaque)) {
+            final Set<String> ids = new HashSet<>();
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                ids.addAll(referencedAttributes.get(i));
+            }
+            result = Set.copyOf(ids);
+        }
+
+        releasableCache.put(Arrays.asList(issuer, requester), Optional.ofNullable(result));
+        return result;
+    }
+
+    /**
+     * Derive the values of which a request must match at least one for a rule to be true.
+     * 
+     * @param rule the rule to examine
+     * 
+     * @return the values, or null if the rule cannot be indexed
+     */
+    @Nullable private static Keys getKeys(@Nonnull final PolicyRequirementRule rule) {
+        // Exact class checks guard against subclasses that change the matching behavior.
+        final Class<?> ruleClass = rule.getClass();
+        if (ruleClass == AttributeRequesterPolicyRule.class) {
+            final AttributeRequesterPolicyRule requesterRule = (AttributeRequesterPolicyRule) rule;
+            if (requesterRule.isCaseSensitive() && requesterRule.getMatchString() != null) {
+                final Keys keys = new Keys();
+                keys.requesters.add(requesterRule.getMatchString());
+                return keys;
+            }
+        } else if (ruleClass == AttributeIssuerPolicyRule.class) {
+            final AttributeIssuerPolicyRule issuerRule = (AttributeIssuerPolicyRule) rule;
+            if (issuerRule.isCaseSensitive() && issuerRule.getMatchString() != null) {
+                final Keys keys = new Keys();
+                keys.issuers.add(issuerRule.getMatchString());
+                return keys;
+            }
+        } else if (ruleClass == AttributeRequesterInEntityGroupPolicyRule.class) {
+            final AttributeRequesterInEntityGroupPolicyRule groupRule =
+                    (AttributeRequesterInEntityGroupPolicyRule) rule;
+            if (!groupRule.isCheckAffiliations() && groupRule.getEntityGroup() != null) {
+                final Keys keys = new Keys();
+                keys.requesterGroups.add(groupRule.getEntityGroup());
+                return keys;
+            }
+        } else if (ruleClass == OrPolicyRule.class) {
+            final List<PolicyRequirementRule> children = ((OrPolicyRule) rule).getComposedRules();
+            if (children != null && !children.isEmpty()) {
+                final Keys keys = new Keys();
+                for (final PolicyRequirementRule child : children) {
+                    final Keys childKeys = getKeys(child);
+                    if (childKeys == null) {
+                        return null;
+                    }
+                    keys.requesters.addAll(childKeys.requesters);
+                    keys.issuers.addAll(childKeys.issuers);
+                    keys.requesterGroups.addAll(childKeys.requesterGroups);
+                }
+                return keys;
+            }
+        } else if (ruleClass == AndPolicyRule.class) {
+            final List<PolicyRequirementRule> children = ((AndPolicyRule) rule).getComposedRules();
+            if (children != null) {
+                Keys best = null;
+                for (final PolicyRequirementRule child : children) {
+                    final Keys childKeys = getKeys(child);
+                    if (childKeys != null && (best == null || childKeys.size() < best.size())) {
+                        best = childKeys;
+                    }
+                }
+                return best;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the IDs of the attributes a policy may release or consult.
+     * 
+     * @param policy the policy to examine
+     * 
+     * @return attribute IDs, or null if they can't be determined
+     */
+    @Nullable private static Set<String> getReferencedAttributes(@Nonnull final AttributeFilterPolicy policy) {
+        final Set<String> ids = new HashSet<>();
+        if (!addReferencedAttributes(policy.getPolicyRequirementRule(), ids)) {
+            return null;
+        }
+        for (final AttributeRule rule : policy.getAttributeRules()) {
+            if (!rule.getIsDenyRule()) {
+                ids.add(rule.getAttributeId());
+            }
+            if (rule.getMatcher() != null && !addReferencedAttributes(rule.getMatcher(), ids)) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Add the IDs of any attributes, other than the one being filtered, that a rule consults.
+     * 
+     * @param rule the rule to examine
+     * @param ids the set to add to
+     * 
+     * @return false if the attributes can't be determined
+     */
+    private static boolean addReferencedAttributes(@Nonnull final PolicyRequirementRule rule,
+            @Nonnull final Set<String> ids) {
+        final Class<?> ruleClass = rule.getClass();
+        if (ruleClass == AndPolicyRule.class || ruleClass == OrPolicyRule.class) {
+            final List<PolicyRequirementRule> children = ruleClass == AndPolicyRule.class
+                    ? ((AndPolicyRule) rule).getComposedRules() : ((OrPolicyRule) rule).getComposedRules();
+            for (final PolicyRequirementRule child : children) {
+                if (!addReferencedAttributes(child, ids)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (ruleClass == NotPolicyRule.class) {
+            return addReferencedAttributes(((NotPolicyRule) rule).getNegatedRule(), ids);
+        } else if (ruleClass == NumOfAttributeValuesPolicyRule.class) {
+            ids.add(((NumOfAttributeValuesPolicyRule) rule).getAttributeId());
+            return true;
+        } else if (ruleClass == PolicyFromMatcherId.class) {
+            ids.add(((PolicyFromMatcherId) rule).getAttributeId());
+            return addReferencedAttributes(((PolicyFromMatcherId) rule).getMatcher(), ids);
+        } else if (ruleClass == PolicyFromMatcher.class || ruleClass == PredicatePolicyRule.class
+                || ruleClass == ScriptedPolicyRule.class) {
+            return false;
+        }
+        return isSelfContained(ruleClass);
+    }
+
+    /**
+     * Add the IDs of any attributes, other than the one being filtered, that a matcher consults.
+     * 
+     * @param matcher the matcher to examine
+     * @param ids the set to add to
+     * 
+     * @return false if the attributes can't be determined
+     */
+    private static boolean addReferencedAttributes(@Nonnull final Matcher matcher, @Nonnull final Set<String> ids) {
+        final Class<?> matcherClass = matcher.getClass();
+        if (matcherClass == AndMatcher.class || matcherClass == OrMatcher.class) {
+            final List<Matcher> children = matcherClass == AndMatcher.class
+                    ? ((AndMatcher) matcher).getComposedMatchers() : ((OrMatcher) matcher).getComposedMatchers();
+            for (final Matcher child : children) {
+                if (!addReferencedAttributes(child, ids)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (matcherClass == NotMatcher.class) {
+            return addReferencedAttributes(((NotMatcher) matcher).getNegatedMatcher(), ids);
+        } else if (matcherClass == MatcherFromPolicy.class) {
+            return addReferencedAttributes(((MatcherFromPolicy) matcher).getPolicyRequirementRule(), ids);
+        } else if (matcherClass == ScriptedMatcher.class) {
+            return false;
+        }
+        return isSelfContained(matcherClass);
+    }
+
+    /**
+     * Get whether a rule or matcher class is one of ours, and therefore known to consult nothing but
+     * the request, metadata, and the attribute being filtered.
+     * 
+     * @param claz the class to check
+     * 
+     * @return true iff the class is known not to consult other attributes
+     */
+    private static boolean isSelfContained(@Nonnull final Class<?> claz) {
+        return claz.getName().startsWith("net.shibboleth.idp.attribute.filter.");
+    }
+
+    /**
+     * Record a policy position against a set of values.
+     * 
+     * @param index the index to update
+     * @param values the values
+     * @param position the policy position
+     */
+    private static void addAll(@Nonnull final Map<String,BitSet> index, @Nonnull final Set<String> values,
+            final int position) {
+        for (final String value : values) {
+            index.computeIfAbsent(value, k -> new BitSet()).set(position);
+        }
+    }
+
+    /**
+     * Add the policy positions recorded against a value to a set of candidates.
+     * 
+     * @param candidates the candidates to update
+     * @param index the index to consult
+     * @param value the request value
+     */
+    private static void orInto(@Nonnull final BitSet candidates, @Nonnull final Map<String,BitSet> index,
+            @Nullable final String value) {
+        if (value != null) {
+            final BitSet positions = index.get(value);
+            if (positions != null) {
+                candidates.or(positions);
+            }
+        }
+    }
+
+    /** Values of which a request must match at least one. */
+    private static final class Keys {
+
+        /** Requester names. */
+        @Nonnull private final Set<String> requesters = new HashSet<>();
+
+        /** Issuer names. */
+        @Nonnull private final Set<String> issuers = new HashSet<>();
+
+        /** Requester group names. */
+        @Nonnull private final Set<String> requesterGroups = new HashSet<>();
+
+        /**
+         * Get the total number of values.
+         * 
+         * @return number of values
+         */
+        private int size() {
+            return requesters.size() + issuers.size() + requesterGroups.size();
+        }
+    }
+
+}
@@ -36,6 +36,8 @@ import net.shibboleth.idp.attribute.filter.Matcher;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.authn.context.SubjectContext;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
+import net.shibboleth.idp.profile.scripting.ScriptContextPool;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
@@ -44,7 +46,6 @@ import net.shibboleth.utilities.java.support.component.ComponentInitializationEx
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.component.UnmodifiableComponent;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
@@ -175,6 +176,8 @@ public class ScriptedMatcher extends AbstractIdentifiableInitializableComponent
         
         final StringBuilder builder = new StringBuilder("Scripted Attribute Filter '").append(getId()).append("':");
         scriptEvaluator.setLogPrefix(builder.toString());
+        scriptEvaluator.getContextPool().setMetricName(
+                ScriptContextPool.DEFAULT_METRIC_NAME + ".filter.matcher." + getId());
     }
     
     /**
@@ -239,7 +242,7 @@ public class ScriptedMatcher extends AbstractIdentifiableInitializableComponent
     /**
      * Evaluator bound to the Matcher semantic.
      */
-    private class MatcherScriptEvaluator extends AbstractScriptEvaluator {
+    private class MatcherScriptEvaluator extends AbstractPooledScriptEvaluator {
 
         /**
          * Constructor.
@@ -31,13 +31,14 @@ import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.authn.context.SubjectContext;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
+import net.shibboleth.idp.profile.scripting.ScriptContextPool;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.component.UnmodifiableComponent;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
@@ -196,6 +197,8 @@ public class ScriptedPolicyRule extends AbstractIdentifiableInitializableCompone
         
         final StringBuilder builder = new StringBuilder("Scripted Attribute Filter '").append(getId()).append("':");
         scriptEvaluator.setLogPrefix(builder.toString());
+        scriptEvaluator.getContextPool().setMetricName(
+                ScriptContextPool.DEFAULT_METRIC_NAME + ".filter.rule." + getId());
     }
 
     /** {@inheritDoc} */
@@ -230,7 +233,7 @@ public class ScriptedPolicyRule extends AbstractIdentifiableInitializableCompone
     /**
      * Evaluator bound to the Matcher semantic.
      */
-    private class PolicyRuleScriptEvaluator extends AbstractScriptEvaluator {
+    private class PolicyRuleScriptEvaluator extends AbstractPooledScriptEvaluator {
 
         /**
          * Constructor.
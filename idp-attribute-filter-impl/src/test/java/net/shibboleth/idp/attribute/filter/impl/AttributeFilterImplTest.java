@@ -21,17 +21,23 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.shibboleth.ext.spring.testing.MockApplicationContext;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.attribute.filter.AttributeFilter;
+import net.shibboleth.idp.attribute.filter.AttributeFilterException;
 import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
 import net.shibboleth.idp.attribute.filter.AttributeRule;
 import net.shibboleth.idp.attribute.filter.Matcher;
 import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.PredicatePolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.AndPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.OrPolicyRule;
 import net.shibboleth.idp.attribute.filter.testing.MockMatcher;
 import net.shibboleth.idp.attribute.filter.testing.MockPolicyRequirementRule;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -297,6 +303,110 @@ public class AttributeFilterImplTest {
         Assert.assertTrue(result.contains(new StringAttributeValue("two")));
     }
 
+    @Test public void testIndexedPolicies() throws Exception {
+        final AttributeRequesterPolicyRule sp2 = requesterRule("sp2", true);
+        final AndPolicyRule and = new AndPolicyRule();
+        and.setId("and");
+        and.setSubsidiaries(Arrays.asList(PolicyRequirementRule.MATCHES_ALL, sp2));
+        and.initialize();
+
+        final OrPolicyRule or = new OrPolicyRule();
+        or.setId("or");
+        or.setSubsidiaries(Arrays.asList(requesterRule("sp1", true), requesterRule("sp3", true)));
+        or.initialize();
+
+        final List<AttributeFilterPolicy> policies = Arrays.asList(
+                releasePolicy("attribute1", requesterRule("sp1", true)),
+                releasePolicy("attribute2", and),
+                releasePolicy("attribute3", or),
+                releasePolicy("attribute4", requesterRule("SP1", false)),
+                releasePolicy("attribute5", PolicyRequirementRule.MATCHES_ALL));
+
+        final AttributeFilterPolicyIndex index = new AttributeFilterPolicyIndex(policies);
+        Assert.assertEquals(index.getResidualCount(), 2);
+
+        final AttributeFilterImpl filter = new AttributeFilterImpl("engine", policies);
+        filter.setApplicationContext(new MockApplicationContext());
+        filter.initialize();
+
+        Assert.assertEquals(filterFor(filter, "sp1").keySet(),
+                Set.of("attribute1", "attribute3", "attribute4", "attribute5"));
+        Assert.assertEquals(filterFor(filter, "sp2").keySet(), Set.of("attribute2", "attribute5"));
+        Assert.assertEquals(filterFor(filter, "sp3").keySet(), Set.of("attribute3", "attribute5"));
+        Assert.assertEquals(filterFor(filter, "sp4").keySet(), Set.of("attribute5"));
+        Assert.assertEquals(filterFor(filter, null).keySet(), Set.of("attribute5"));
+    }
+
+    @Test public void testReleasableAttributeIds() throws Exception {
+        final List<AttributeFilterPolicy> policies = Arrays.asList(
+                releasePolicy("attribute1", requesterRule("sp1", true)),
+                releasePolicy("attribute2", requesterRule("sp2", true)),
+                releasePolicy("attribute3", requesterRule("SP1", false)),
+                releasePolicy("attribute4", PolicyRequirementRule.MATCHES_ALL));
+
+        final AttributeFilterImpl filter = new AttributeFilterImpl("engine", policies);
+        filter.setApplicationContext(new MockApplicationContext());
+        filter.initialize();
+
+        Assert.assertEquals(filter.getReleasableAttributeIds(null, "sp1"),
+                Set.of("attribute1", "attribute3", "attribute4"));
+        Assert.assertEquals(filter.getReleasableAttributeIds(null, "sp2"),
+                Set.of("attribute2", "attribute3", "attribute4"));
+        Assert.assertEquals(filter.getReleasableAttributeIds(null, "sp3"), Set.of("attribute3", "attribute4"));
+        Assert.assertEquals(filter.getReleasableAttributeIds(null, null), Set.of("attribute3", "attribute4"));
+
+        final PredicatePolicyRule opaque = new PredicatePolicyRule();
+        opaque.setId("opaque");
+        opaque.setRulePredicate(prc -> true);
+        opaque.initialize();
+
+        final AttributeFilterImpl opaqueFilter = new AttributeFilterImpl("engine",
+                Arrays.asList(releasePolicy("attribute1", requesterRule("sp1", true)),
+                        releasePolicy("attribute2", opaque)));
+        opaqueFilter.setApplicationContext(new MockApplicationContext());
+        opaqueFilter.initialize();
+
+        Assert.assertNull(opaqueFilter.getReleasableAttributeIds(null, "sp1"));
+    }
+
+    private AttributeRequesterPolicyRule requesterRule(final String requester, final boolean caseSensitive)
+            throws ComponentInitializationException {
+        final AttributeRequesterPolicyRule rule = new AttributeRequesterPolicyRule();
+        rule.setId("requester");
+        rule.setMatchString(requester);
+        rule.setCaseSensitive(caseSensitive);
+        rule.initialize();
+        return rule;
+    }
+
+    private AttributeFilterPolicy releasePolicy(final String attributeId, final PolicyRequirementRule rule)
+            throws ComponentInitializationException {
+        final AttributeRule attributeRule = new AttributeRule();
+        attributeRule.setId(attributeId + "Rule");
+        attributeRule.setAttributeId(attributeId);
+        attributeRule.setMatcher(Matcher.MATCHES_ALL);
+        attributeRule.setIsDenyRule(false);
+        attributeRule.initialize();
+
+        final AttributeFilterPolicy policy =
+                new AttributeFilterPolicy(attributeId + "Policy", rule, Collections.singletonList(attributeRule));
+        policy.initialize();
+        return policy;
+    }
+
+    private Map<String, IdPAttribute> filterFor(final AttributeFilterImpl filter, final String requester)
+            throws AttributeFilterException {
+        final AttributeFilterContext filterContext = new AttributeFilterContext();
+        filterContext.setAttributeRecipientID(requester);
+        for (int i = 1; i <= 5; i++) {
+            final IdPAttribute attribute = new IdPAttribute("attribute" + i);
+            attribute.setValues(Collections.singletonList(new StringAttributeValue("value")));
+            filterContext.getPrefilteredIdPAttributes().put(attribute.getId(), attribute);
+        }
+        filter.filterAttributes(filterContext);
+        return filterContext.getFilteredIdPAttributes();
+    }
+
     @Test public void testNoPolicy() throws Exception {
         AttributeRule allowPolicy = new AttributeRule();
         allowPolicy.setId("allowPolicy");
@@ -29,7 +29,10 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -54,6 +57,10 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * JDBC-based storage management for pairwise IDs.
  * 
@@ -75,6 +82,10 @@ import org.slf4j.LoggerFactory;
  * <p>The first three columns should be defined as the primary key of the table, and the other columns
  * should be indexed.</p>
  * 
+ * <p>An optional, bounded cache of the results of lookups by source value may be enabled, in which case
+ * changes made through this object are reflected immediately, and changes made externally are picked
+ * up once the corresponding cache entry expires.</p>
+ * 
  * @since 4.0.0
  */
 public class JDBCPairwiseIdStore extends AbstractInitializableComponent implements DurablePairwiseIdStore {
@@ -145,12 +156,22 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
     /** Optional hook for obtaining initial values from a primary store, usually a computed algorithm. */
     @Nullable private PairwiseIdStore initialValueStore;
 
+    /** Maximum number of lookup results to cache. */
+    @NonNegative private long cacheSize;
+
+    /** Time after which a cached lookup result expires. */
+    @Nonnull private Duration cacheExpiration;
+
+    /** Cache of lookup results by issuer, recipient, and source ID. */
+    @Nullable private Cache<List<String>,Optional<PairwiseId>> lookupCache;
+
     /** Constructor. */
     public JDBCPairwiseIdStore() {
         transactionRetry = 3;
         retryableErrors = List.of("23000", "23505");
         queryTimeout = Duration.ofSeconds(5);
         verifyDatabase = true;
+        cacheExpiration = Duration.ofMinutes(10);
         
         tableName = "shibpid";
         issuerColumn = "localEntity";
@@ -479,6 +500,60 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         
         initialValueStore = store;
     }
+
+    /**
+     * Get the maximum number of lookup results to cache.
+     * 
+     * @return cache size
+     * 
+     * @since 4.2.0
+     */
+    @NonNegative public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Set the maximum number of lookup results to cache.
+     * 
+     * <p>Defaults to 0, which disables the cache. Both active IDs and the absence of one are cached.</p>
+     * 
+     * @param size cache size
+     * 
+     * @since 4.2.0
+     */
+    public void setCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size must be greater than or equal to 0");
+    }
+
+    /**
+     * Get the time after which a cached lookup result expires.
+     * 
+     * @return cache expiration
+     * 
+     * @since 4.2.0
+     */
+    @Nonnull public Duration getCacheExpiration() {
+        return cacheExpiration;
+    }
+
+    /**
+     * Set the time after which a cached lookup result expires. Defaults to 10 minutes.
+     * 
+     * <p>This bounds how long a change made to the database by another system may go unnoticed.</p>
+     * 
+     * @param expiration cache expiration
+     * 
+     * @since 4.2.0
+     */
+    public void setCacheExpiration(@Nonnull final Duration expiration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(expiration, "Expiration cannot be null");
+        Constraint.isFalse(expiration.isNegative() || expiration.isZero(), "Expiration must be positive");
+        
+        cacheExpiration = expiration;
+    }
     
     /** {@inheritDoc} */
     @Override
@@ -531,6 +606,15 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
             deleteSQL = "DELETE FROM " + tableName + " WHERE " + issuerColumn + "= ?";
         }
         
+        if (cacheSize > 0) {
+            lookupCache = CacheBuilder.newBuilder()
+                    .maximumSize(cacheSize)
+                    .expireAfterWrite(cacheExpiration.toMillis(), TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            lookupCache = null;
+        }
+        
         try {
             verifyDatabase();
             log.info("DataSource successfully verified");
@@ -544,7 +628,6 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         }
     }
 
-    // Checkstyle: MethodLength|CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Nullable public PairwiseId getBySourceValue(@Nonnull final PairwiseId pid, final boolean allowCreate)
             throws IOException {
@@ -555,6 +638,57 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         Constraint.isNotEmpty(pid.getPrincipalName(), "Principal name cannot be null or empty");
         Constraint.isNotEmpty(pid.getSourceSystemId(), "Source system ID cannot be null or empty");
         
+        final Cache<List<String>,Optional<PairwiseId>> cache = lookupCache;
+        if (cache == null) {
+            return lookupBySourceValue(pid, allowCreate);
+        }
+        
+        final List<String> key = List.of(pid.getIssuerEntityID(), pid.getRecipientEntityID(),
+                pid.getSourceSystemId());
+        
+        // Concurrent misses on the same key are coalesced into a single trip to the database.
+        final Optional<PairwiseId> cached;
+        try {
+            cached = cache.get(key,
+                    () -> Optional.ofNullable(copyPairwiseId(lookupBySourceValue(pid, allowCreate))));
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        
+        if (cached.isPresent()) {
+            if (isActive(cached.get())) {
+                log.debug("Returning cached pairwise ID: {}", cached.get().getPairwiseId());
+                return copyPairwiseId(cached.get());
+            }
+            log.debug("Cached pairwise ID {} is no longer active", cached.get().getPairwiseId());
+            cache.asMap().remove(key, cached);
+        } else if (!allowCreate) {
+            log.debug("No existing pairwise ID (cached) and creation is not permitted by caller");
+            return null;
+        }
+        
+        final PairwiseId result = lookupBySourceValue(pid, allowCreate);
+        cache.put(key, Optional.ofNullable(copyPairwiseId(result)));
+        return result;
+    }
+
+    // Checkstyle: MethodLength|CyclomaticComplexity OFF
+    /**
+     * Obtain the active pairwise ID for a source value from the database, creating one if permitted.
+     * 
+     * @param pid partially populated object to match against
+     * @param allowCreate whether to create a new ID if none exists
+     * 
+     * @return the active pairwise ID, or null
+     * 
+     * @throws IOException if an error occurs accessing the database
+     */
+    @Nullable private PairwiseId lookupBySourceValue(@Nonnull final PairwiseId pid, final boolean allowCreate)
+            throws IOException {
+        
         log.debug("Obtaining pairwise ID for source ID: {}", pid.getSourceSystemId());
 
         log.trace("Prepared statement: {}", getBySourceSelectSQL);
@@ -579,8 +713,7 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         
                 log.debug("Getting active and/or last inactive pairwise ID entry");
                 final List<PairwiseId> entries = buildIdentifierEntries(statement.executeQuery());
-                if (entries != null && entries.size() > 0 && (entries.get(0).getDeactivationTime() == null
-                        || entries.get(0).getDeactivationTime().isAfter(Instant.now()))) {
+                if (entries != null && entries.size() > 0 && isActive(entries.get(0))) {
                     dbConn.commit();
                     log.debug("Returning existing active pairwise ID: {}", entries.get(0).getPairwiseId());
                     return entries.get(0);
@@ -713,6 +846,8 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
             
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            invalidate(pid);
         }
     }
 
@@ -746,7 +881,62 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
             }
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            invalidate(pid);
+        }
+    }
+    
+    /**
+     * Get whether a pairwise ID is active, i.e., has no deactivation time or one in the future.
+     * 
+     * @param pid the pairwise ID to check
+     * 
+     * @return true iff the ID is active
+     */
+    private boolean isActive(@Nonnull final PairwiseId pid) {
+        return pid.getDeactivationTime() == null || pid.getDeactivationTime().isAfter(Instant.now());
+    }
+    
+    /**
+     * Remove any cached lookup results for the issued value in the input object.
+     * 
+     * <p>The cache is keyed by source value, so this requires a scan, but the operations that
+     * need it are rare.</p>
+     * 
+     * @param pid the pairwise ID being modified
+     */
+    private void invalidate(@Nonnull final PairwiseId pid) {
+        final Cache<List<String>,Optional<PairwiseId>> cache = lookupCache;
+        if (cache != null) {
+            cache.asMap().values().removeIf(v -> v.isPresent()
+                    && pid.getPairwiseId().equals(v.get().getPairwiseId())
+                    && pid.getIssuerEntityID().equals(v.get().getIssuerEntityID())
+                    && pid.getRecipientEntityID().equals(v.get().getRecipientEntityID()));
+        }
+    }
+    
+    /**
+     * Copy a pairwise ID so that cached state is not exposed to modification by callers.
+     * 
+     * @param pid object to copy
+     * 
+     * @return the copy, or null
+     */
+    @Nullable private PairwiseId copyPairwiseId(@Nullable final PairwiseId pid) {
+        if (pid == null) {
+            return null;
         }
+        
+        final PairwiseId copy = new PairwiseId();
+        copy.setIssuerEntityID(pid.getIssuerEntityID());
+        copy.setRecipientEntityID(pid.getRecipientEntityID());
+        copy.setPrincipalName(pid.getPrincipalName());
+        copy.setSourceSystemId(pid.getSourceSystemId());
+        copy.setPairwiseId(pid.getPairwiseId());
+        copy.setPeerProvidedId(pid.getPeerProvidedId());
+        copy.setCreationTime(pid.getCreationTime());
+        copy.setDeactivationTime(pid.getDeactivationTime());
+        return copy;
     }
     
 // Checkstyle: MethodLength|CyclomaticComplexity ON
@@ -172,4 +172,48 @@ public class JDBCPairwiseIdStoreTest {
         Assert.assertTrue(comparePersistentIdEntrys(id3, id));
     }
     
-}
\ No newline at end of file
+    @Test public void cachedLookup() throws ComponentInitializationException, IOException, SQLException {
+        final JDBCPairwiseIdStore store = new JDBCPairwiseIdStore();
+        store.setDataSource(testSource);
+        store.setCacheSize(100);
+        store.initialize();
+        
+        final PairwiseId query = new PairwiseId();
+        query.setIssuerEntityID(DatabaseTestingSupport.IDP_ENTITY_ID);
+        query.setRecipientEntityID(DatabaseTestingSupport.SP_ENTITY_ID);
+        query.setPrincipalName(DatabaseTestingSupport.PRINCIPAL_ID);
+        query.setSourceSystemId("localID");
+        
+        Assert.assertNull(store.getBySourceValue(query, false));
+        
+        final PairwiseId id = new PairwiseId();
+        id.setIssuerEntityID(DatabaseTestingSupport.IDP_ENTITY_ID);
+        id.setRecipientEntityID(DatabaseTestingSupport.SP_ENTITY_ID);
+        id.setPrincipalName(DatabaseTestingSupport.PRINCIPAL_ID);
+        id.setSourceSystemId("localID");
+        id.setPairwiseId(UUID.randomUUID().toString());
+        id.setCreationTime(Instant.now());
+        try (final Connection conn = testSource.getConnection()) {
+            store.store(id, conn);
+        }
+        
+        // Negative result is cached, but creation bypasses it and finds the stored value.
+        Assert.assertNull(store.getBySourceValue(query, false));
+        PairwiseId result = store.getBySourceValue(query, true);
+        Assert.assertTrue(comparePersistentIdEntrys(result, id));
+        
+        // Changes to a returned object don't leak into the cache.
+        result.setPairwiseId("foo");
+        result = store.getBySourceValue(query, false);
+        Assert.assertTrue(comparePersistentIdEntrys(result, id));
+        
+        store.deactivate(id);
+        Assert.assertNull(store.getBySourceValue(query, false));
+        
+        result = store.getBySourceValue(query, true);
+        Assert.assertNotNull(result);
+        Assert.assertNotEquals(result.getPairwiseId(), id.getPairwiseId());
+        Assert.assertEquals(store.getBySourceValue(query, false).getPairwiseId(), result.getPairwiseId());
+    }
+
+}
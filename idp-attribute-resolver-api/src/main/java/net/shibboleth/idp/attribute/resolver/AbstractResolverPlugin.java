@@ -385,6 +385,10 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
     /**
      * Conditionally start a timer at the beginning of the resolution process.
      * 
+     * <p>The {@link MetricContext} is not thread-safe, and data connectors may be resolved on other threads
+     * while attribute definitions are resolved on the calling thread, so access to it is serialized on the
+     * context itself.</p>
+     * 
      * @param resolutionContext attribute resolution context
      * 
      * @return true iff the {@link #stopTimer(AttributeResolutionContext)} method needs to be called
@@ -394,7 +398,9 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
         if (prc != null) {
             final MetricContext timerCtx = prc.getSubcontext(MetricContext.class);
             if (timerCtx != null) {
-                timerCtx.start(getId());
+                synchronized (timerCtx) {
+                    timerCtx.start(getId());
+                }
                 return true;
             }
         }
@@ -411,7 +417,9 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
         if (prc != null) {
             final MetricContext timerCtx = prc.getSubcontext(MetricContext.class);
             if (timerCtx != null) {
-                timerCtx.stop(getId());
+                synchronized (timerCtx) {
+                    timerCtx.stop(getId());
+                }
             }
         }
     }
@@ -70,6 +70,9 @@ public final class AttributeResolutionContext extends BaseContext {
     
     /** Whether the resolver should allow for results to come from cache. */
     private boolean allowCachedResults;
+
+    /** Whether the requested attribute names are the only attributes needed. */
+    private boolean exhaustiveRequest;
     
     /** Label distinguishing different "types" of attribute resolution for use in resolver. */
     @Nullable private String resolutionLabel;
@@ -136,6 +139,36 @@ public final class AttributeResolutionContext extends BaseContext {
         
         return this;
     }
+
+    /**
+     * Get whether the requested attribute names are the only attributes needed.
+     * 
+     * @return whether the requested attribute names are the only attributes needed
+     * 
+     * @since 4.2.0
+     */
+    public boolean isExhaustiveRequest() {
+        return exhaustiveRequest;
+    }
+    
+    /**
+     * Set whether the requested attribute names are the only attributes needed.
+     * 
+     * <p>If set, an empty set of requested names results in nothing being resolved instead of everything, and
+     * exporting data connectors that export none of the requested attributes are only resolved if something
+     * depends on them.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @return this context
+     * 
+     * @since 4.2.0
+     */
+    @Nonnull public AttributeResolutionContext setExhaustiveRequest(final boolean flag) {
+        exhaustiveRequest = flag;
+        
+        return this;
+    }
     
     /**
      * Get the optional "contextual" label associated with this attribute resolution.
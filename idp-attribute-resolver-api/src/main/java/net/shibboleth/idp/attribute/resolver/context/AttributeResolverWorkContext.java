@@ -18,12 +18,12 @@
 package net.shibboleth.idp.attribute.resolver.context;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.resolver.AttributeDefinition;
@@ -44,8 +44,12 @@ import org.opensaml.messaging.context.BaseContext;
  * <p>
  * This should be considered a private API limited to plugin implementations.
  * </p>
+ * 
+ * <p>
+ * Results may be recorded concurrently when the resolver is running plugins in parallel.
+ * </p>
  */
-@NotThreadSafe
+@ThreadSafe
 public final class AttributeResolverWorkContext extends BaseContext {
 
     /** Attribute definitions that have been resolved and the resultant attribute. */
@@ -56,9 +60,9 @@ public final class AttributeResolverWorkContext extends BaseContext {
 
     /** Constructor. */
     public AttributeResolverWorkContext() {
-        resolvedAttributeDefinitions = new HashMap<>();
+        resolvedAttributeDefinitions = new ConcurrentHashMap<>();
 
-        resolvedDataConnectors = new HashMap<>();
+        resolvedDataConnectors = new ConcurrentHashMap<>();
     }
 
     /**
@@ -84,13 +88,11 @@ public final class AttributeResolverWorkContext extends BaseContext {
             @Nullable final IdPAttribute attribute) throws ResolutionException {
         Constraint.isNotNull(definition, "Resolver attribute definition cannot be null");
 
-        if (resolvedAttributeDefinitions.containsKey(definition.getId())) {
+        final ResolvedAttributeDefinition wrapper = new ResolvedAttributeDefinition(definition, attribute);
+        if (resolvedAttributeDefinitions.putIfAbsent(definition.getId(), wrapper) != null) {
             throw new ResolutionException("The resolution of attribute definition " + definition.getId()
                     + " has already been recorded");
         }
-
-        final ResolvedAttributeDefinition wrapper = new ResolvedAttributeDefinition(definition, attribute);
-        resolvedAttributeDefinitions.put(definition.getId(), wrapper);
     }
 
     /**
@@ -115,13 +117,11 @@ public final class AttributeResolverWorkContext extends BaseContext {
             @Nullable final Map<String, IdPAttribute> attributes) throws ResolutionException {
         Constraint.isNotNull(connector, "Resolver data connector cannot be null");
 
-        if (resolvedDataConnectors.containsKey(connector.getId())) {
+        final ResolvedDataConnector wrapper = new ResolvedDataConnector(connector, attributes);
+        if (resolvedDataConnectors.putIfAbsent(connector.getId(), wrapper) != null) {
             throw new ResolutionException("The resolution of data connector " + connector.getId()
                     + " has already been recorded");
         }
-
-        final ResolvedDataConnector wrapper = new ResolvedDataConnector(connector, attributes);
-        resolvedDataConnectors.put(connector.getId(), wrapper);
     }
 
     /**
@@ -38,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.template.SimpleTemplate;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -57,6 +58,9 @@ public class TemplatedExecutableSearchFilterBuilder extends AbstractExecutableSe
     /** Template evaluated to generate a search filter. */
     private Template template;
 
+    /** Precompiled form of the template, if it is simple enough. */
+    @Nullable private SimpleTemplate simpleTemplate;
+
     /** Template (as Text) to be evaluated. */
     private String templateText;
 
@@ -202,12 +206,23 @@ public class TemplatedExecutableSearchFilterBuilder extends AbstractExecutableSe
     /**
      * Invokes {@link Template#merge(org.apache.velocity.context.Context)} on the supplied context.
      * 
+     * <p>Templates consisting only of simple references are rendered directly, without a merge,
+     * unless a value is found that only Velocity can render.</p>
+     * 
      * @param context to merge
      * 
      * @return result of the merge operation
      */
     protected String merge(@Nonnull final VelocityContext context) {
-        String result = template.merge(context);
+        String result = null;
+        if (simpleTemplate != null) {
+            final ReferenceInsertionEventHandler handler = eventHandler;
+            result = simpleTemplate.render(context::get,
+                    handler != null ? (ref, value) -> handler.referenceInsert(context, ref, value) : null);
+        }
+        if (result == null) {
+            result = template.merge(context);
+        }
         if (result != null) {
             result = result.trim();
         }
@@ -230,6 +245,7 @@ public class TemplatedExecutableSearchFilterBuilder extends AbstractExecutableSe
         }
 
         template = Template.fromTemplate(engine, templateText);
+        simpleTemplate = SimpleTemplate.compile(templateText, engine::getProperty);
     }
 
     /** Escapes LDAP attribute values added to the template context. */
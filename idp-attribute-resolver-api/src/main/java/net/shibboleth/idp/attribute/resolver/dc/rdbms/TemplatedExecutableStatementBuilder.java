@@ -28,6 +28,7 @@ import javax.annotation.Nullable;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.template.SimpleTemplate;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -56,6 +57,9 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
     /** Template to be evaluated. */
     private Template template;
 
+    /** Precompiled form of the template, if it is simple enough. */
+    @Nullable private SimpleTemplate simpleTemplate;
+
     /** Template (as Text) to be evaluated. */
     private String templateText;
 
@@ -158,12 +162,23 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
     /**
      * Invokes {@link Template#merge(org.apache.velocity.context.Context)} on the supplied context.
      * 
+     * <p>Templates consisting only of simple references are rendered directly, without a merge,
+     * unless a value is found that only Velocity can render.</p>
+     * 
      * @param context to merge
      * 
      * @return result of the merge operation
      */
     protected String merge(@Nonnull final VelocityContext context) {
-        final String result = template.merge(context);
+        String result = null;
+        if (simpleTemplate != null) {
+            final ReferenceInsertionEventHandler handler = eventHandler;
+            result = simpleTemplate.render(context::get,
+                    handler != null ? (ref, value) -> handler.referenceInsert(context, ref, value) : null);
+        }
+        if (result == null) {
+            result = template.merge(context);
+        }
         log.debug("Template text {} yields {}", templateText, result);
         return result;
     }
@@ -229,6 +244,7 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
         }
 
         template = Template.fromTemplate(engine, templateText);
+        simpleTemplate = SimpleTemplate.compile(templateText, engine::getProperty);
     }
 
     /** Escapes SQL values added to the template context. */
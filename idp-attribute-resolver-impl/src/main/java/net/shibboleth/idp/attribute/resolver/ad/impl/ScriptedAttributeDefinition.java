@@ -37,11 +37,12 @@ import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.authn.context.SubjectContext;
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
+import net.shibboleth.idp.profile.scripting.ScriptContextPool;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
@@ -185,6 +186,8 @@ public class ScriptedAttributeDefinition extends AbstractAttributeDefinition {
         scriptEvaluator = new AttributeDefinitionScriptEvaluator(script);
         scriptEvaluator.setCustomObject(customObject);
         scriptEvaluator.setLogPrefix(getLogPrefix());
+        scriptEvaluator.getContextPool().setMetricName(
+                ScriptContextPool.DEFAULT_METRIC_NAME + ".resolver.ad." + getId());
     }
 
     /** {@inheritDoc} */
@@ -200,7 +203,7 @@ public class ScriptedAttributeDefinition extends AbstractAttributeDefinition {
     /**
      * Evaluator bound to the AttributeDefinition semantic.
      */
-    private class AttributeDefinitionScriptEvaluator extends AbstractScriptEvaluator {
+    private class AttributeDefinitionScriptEvaluator extends AbstractPooledScriptEvaluator {
 
         /**
          * Constructor.
@@ -42,6 +42,7 @@ import net.shibboleth.idp.attribute.resolver.PluginDependencySupport;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -68,6 +69,9 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
     /** Value maps. */
     @Nonnull @NonnullElements private Set<ValueMap> valueMaps = Collections.emptySet();
 
+    /** Compiled form of the value maps. */
+    @NonnullAfterInit private ValueMapIndex valueMapIndex;
+
     /** Whether the definition passes thru unmatched values. */
     private boolean passThru;
 
@@ -165,15 +169,9 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
         final List<StringAttributeValue> mappedValues = new ArrayList<>();
 
         if (!Strings.isNullOrEmpty(value)) {
-            boolean valueMapMatch = false;
-            for (final ValueMap valueMap : valueMaps) {
-                mappedValues.addAll(valueMap.apply(value));
-                if (!mappedValues.isEmpty()) {
-                    valueMapMatch = true;
-                }
-            }
+            mappedValues.addAll(valueMapIndex.apply(value));
 
-            if (!valueMapMatch) {
+            if (mappedValues.isEmpty()) {
                 if (passThru) {
                     mappedValues.add(new StringAttributeValue(value));
                 } else if (defaultValue != null) {
@@ -235,6 +233,7 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
     /** {@inheritDoc} */
     @Override protected void doDestroy() {
         valueMaps = null;
+        valueMapIndex = null;
 
         super.doDestroy();
     }
@@ -252,6 +251,8 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
             throw new ComponentInitializationException("Attribute definition '" + getId()
                     + "': no value mappings were configured");
         }
+        
+        valueMapIndex = new ValueMapIndex(valueMaps);
     }
 
 }
@@ -96,7 +96,6 @@ public class ValueMap implements Function<String, Set<StringAttributeValue>> {
         return sourceValues;
     }
 
-// CheckStyle: CyclomaticComplexity OFF
     /**
      * Evaluate an incoming attribute value against this value map.
      *
@@ -114,41 +113,61 @@ public class ValueMap implements Function<String, Set<StringAttributeValue>> {
         final Set<StringAttributeValue> mappedValues = new HashSet<>();
 
         for (final SourceValue sourceValue : sourceValues) {
-            String newValue = null;
-
-            if (sourceValue.isPartialMatch()) {
-                log.debug("Performing partial match comparison");
-                if (sourceValue.getValue() == null) {
-                    log.debug("Source value was null, no partial match");
-                } else if (attributeValue.contains(sourceValue.getValue())) {
-                    newValue = returnValue;
-                    log.debug("Attribute value '{}' contains source value '{}', will be mapped to '{}'", new Object[] {
-                            attributeValue, sourceValue.getValue(), newValue,});
-                }
-            } else {
-                log.debug("Performing regular expression based comparison");
-                try {
-                    final Matcher m = sourceValue.getPattern().matcher(attributeValue);
-                    if (m.matches()) {
-                        newValue = returnValue != null ? m.replaceAll(returnValue) : null;
-                        log.debug("Attribute value '{}' matches regular expression, will be mapped to '{}'",
-                                attributeValue, newValue);
-                    }
-                } catch (final PatternSyntaxException e) {
-                    log.debug("Error matching value '{}', skipping it", attributeValue);
-                }
-            }
-
-            if (newValue == null) {
-                log.debug("Value {} yielded a null value", attributeValue);
-            } else if ("".equals(newValue)) {
-                log.debug("Value {} yielded an empty value", attributeValue);
-            } else {
+            final String newValue = mapSourceValue(sourceValue, attributeValue);
+            if (newValue != null) {
                 mappedValues.add(new StringAttributeValue(newValue));
             }
         }
 
         return mappedValues;
     }
+
+// CheckStyle: CyclomaticComplexity OFF
+    /**
+     * Evaluate an incoming attribute value against one of this map's source values.
+     *
+     * @param sourceValue the source value to compare against
+     * @param attributeValue incoming attribute value
+     * 
+     * @return the value the incoming value mapped to, or null if it did not map to a non-empty value
+     * 
+     * @since 4.2.0
+     */
+    @Nullable protected String mapSourceValue(@Nonnull final SourceValue sourceValue,
+            @Nonnull final String attributeValue) {
+        String newValue = null;
+
+        if (sourceValue.isPartialMatch()) {
+            log.debug("Performing partial match comparison");
+            if (sourceValue.getValue() == null) {
+                log.debug("Source value was null, no partial match");
+            } else if (attributeValue.contains(sourceValue.getValue())) {
+                newValue = returnValue;
+                log.debug("Attribute value '{}' contains source value '{}', will be mapped to '{}'", new Object[] {
+                        attributeValue, sourceValue.getValue(), newValue,});
+            }
+        } else {
+            log.debug("Performing regular expression based comparison");
+            try {
+                final Matcher m = sourceValue.getPattern().matcher(attributeValue);
+                if (m.matches()) {
+                    newValue = returnValue != null ? m.replaceAll(returnValue) : null;
+                    log.debug("Attribute value '{}' matches regular expression, will be mapped to '{}'",
+                            attributeValue, newValue);
+                }
+            } catch (final PatternSyntaxException e) {
+                log.debug("Error matching value '{}', skipping it", attributeValue);
+            }
+        }
+
+        if (newValue == null) {
+            log.debug("Value {} yielded a null value", attributeValue);
+        } else if ("".equals(newValue)) {
+            log.debug("Value {} yielded an empty value", attributeValue);
+            newValue = null;
+        }
+        
+        return newValue;
+    }
 // CheckStyle: CyclomaticComplexity ON
 }
\ No newline at end of file
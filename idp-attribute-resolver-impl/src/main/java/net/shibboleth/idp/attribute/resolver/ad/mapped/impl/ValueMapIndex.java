@@ -0,0 +1,283 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.attribute.resolver.ad.mapped.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.profile.RegexSupport;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+
+/**
+ * Compiled form of a collection of {@link ValueMap}s that avoids comparing an input value with source values
+ * that cannot match it.
+ * 
+ * <p>Regular expressions without metacharacters, other than escaped punctuation and a leading <code>^</code>, can
+ * only match one string, so they are looked up in a hash table, keyed on the string with ASCII letters folded to
+ * lower case if the expression is case insensitive (which is how {@link Pattern#CASE_INSENSITIVE} compares). Other
+ * expressions are grouped by their literal prefix, if any, so an expression is only evaluated if the input starts
+ * with that prefix. Partial matches, expressions with alternation or no literal prefix, uninitialized source values,
+ * and any {@link ValueMap} or {@link SourceValue} subclass are always evaluated.</p>
+ * 
+ * <p>Candidate source values are evaluated with {@link ValueMap#mapSourceValue(SourceValue, String)}, in the same
+ * order as {@link ValueMap#apply(String)} would, so the output is identical. The maps and their source values must
+ * not be changed once this object is constructed.</p>
+ * 
+ * @since 4.2.0
+ */
+@ThreadSafe
+final class ValueMapIndex {
+
+    /** Orders candidates as {@link ValueMap#apply(String)} would evaluate them. */
+    @Nonnull private static final Comparator<Candidate> CANDIDATE_ORDER =
+            Comparator.comparingInt((Candidate c) -> c.mapIndex).thenComparingInt(c -> c.position);
+
+    /** Value maps in the order they are applied. */
+    @Nonnull @NonnullElements private final List<ValueMap> valueMaps;
+
+    /** Which value maps are applied directly rather than through the index. */
+    @Nonnull private final boolean[] applyDirectly;
+
+    /** Source values that are always evaluated. */
+    @Nonnull @NonnullElements private final List<Candidate> residual;
+
+    /** Source values that match one string exactly. */
+    @Nonnull @NonnullElements private final Map<String,List<Candidate>> literals;
+
+    /** Source values that match one string ignoring ASCII case, keyed on the folded string. */
+    @Nonnull @NonnullElements private final Map<String,List<Candidate>> foldedLiterals;
+
+    /** Source values keyed on the length of their literal prefix and then the prefix. */
+    @Nonnull @NonnullElements private final Map<Integer,Map<String,List<Candidate>>> prefixes;
+
+    /** Source values keyed on the length of their literal prefix and then the folded prefix. */
+    @Nonnull @NonnullElements private final Map<Integer,Map<String,List<Candidate>>> foldedPrefixes;
+
+    /**
+     * Constructor.
+     * 
+     * @param maps value maps to compile
+     */
+    ValueMapIndex(@Nonnull @NonnullElements final Collection<ValueMap> maps) {
+        valueMaps = List.copyOf(maps);
+        applyDirectly = new boolean[valueMaps.size()];
+        residual = new ArrayList<>();
+        literals = new HashMap<>();
+        foldedLiterals = new HashMap<>();
+        prefixes = new TreeMap<>();
+        foldedPrefixes = new TreeMap<>();
+
+        for (int i = 0; i < valueMaps.size(); i++) {
+            final ValueMap valueMap = valueMaps.get(i);
+            if (valueMap.getClass() != ValueMap.class) {
+                applyDirectly[i] = true;
+                continue;
+            }
+            int position = 0;
+            for (final SourceValue sourceValue : valueMap.getSourceValues()) {
+                index(new Candidate(i, position++, sourceValue));
+            }
+        }
+    }
+
+    /**
+     * Map an input value.
+     * 
+     * @param value the input value
+     * 
+     * @return the values produced by each value map in turn, as {@link ValueMap#apply(String)} would
+     */
+    @Nonnull @NonnullElements List<StringAttributeValue> apply(@Nonnull final String value) {
+        final List<Candidate> candidates = new ArrayList<>(residual);
+        addAll(candidates, literals.get(value));
+
+        String folded = null;
+        if (!foldedLiterals.isEmpty() || !foldedPrefixes.isEmpty()) {
+            folded = foldCase(value);
+            addAll(candidates, foldedLiterals.get(folded));
+        }
+
+        addPrefixCandidates(candidates, prefixes, value);
+        if (folded != null) {
+            addPrefixCandidates(candidates, foldedPrefixes, folded);
+        }
+
+        candidates.sort(CANDIDATE_ORDER);
+
+        final List<StringAttributeValue> mappedValues = new ArrayList<>();
+        int next = 0;
+        for (int i = 0; i < valueMaps.size(); i++) {
+            final ValueMap valueMap = valueMaps.get(i);
+            if (applyDirectly[i]) {
+                mappedValues.addAll(valueMap.apply(value));
+                continue;
+            }
+            
+            // Collect into a set to reproduce the de-duplication and iteration order of ValueMap.apply().
+            Set<StringAttributeValue> mapped = null;
+            while (next < candidates.size() && candidates.get(next).mapIndex == i) {
+                final String newValue = valueMap.mapSourceValue(candidates.get(next++).sourceValue, value);
+                if (newValue != null) {
+                    if (mapped == null) {
+                        mapped = new HashSet<>();
+                    }
+                    mapped.add(new StringAttributeValue(newValue));
+                }
+            }
+            if (mapped != null) {
+                mappedValues.addAll(mapped);
+            }
+        }
+        
+        return mappedValues;
+    }
+
+    /**
+     * Add a source value to the appropriate index.
+     * 
+     * @param candidate the source value to index
+     */
+    private void index(@Nonnull final Candidate candidate) {
+        final SourceValue sourceValue = candidate.sourceValue;
+        if (sourceValue.getClass() != SourceValue.class || !sourceValue.isInitialized()
+                || sourceValue.isPartialMatch() || sourceValue.getPattern() == null) {
+            residual.add(candidate);
+            return;
+        }
+
+        final Pattern pattern = sourceValue.getPattern();
+        final String regex = pattern.pattern();
+        final boolean caseInsensitive = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+        
+        final String literal = RegexSupport.getLiteral(regex);
+        if (literal != null) {
+            if (caseInsensitive) {
+                foldedLiterals.computeIfAbsent(foldCase(literal), k -> new ArrayList<>()).add(candidate);
+            } else {
+                literals.computeIfAbsent(literal, k -> new ArrayList<>()).add(candidate);
+            }
+            return;
+        }
+
+        final String prefix = RegexSupport.getLiteralPrefix(regex);
+        if (prefix.isEmpty()) {
+            residual.add(candidate);
+        } else if (caseInsensitive) {
+            foldedPrefixes.computeIfAbsent(prefix.length(), k -> new HashMap<>())
+                .computeIfAbsent(foldCase(prefix), k -> new ArrayList<>())
+                .add(candidate);
+        } else {
+            prefixes.computeIfAbsent(prefix.length(), k -> new HashMap<>())
+                .computeIfAbsent(prefix, k -> new ArrayList<>())
+                .add(candidate);
+        }
+    }
+
+    /**
+     * Add the source values whose literal prefix the input starts with.
+     * 
+     * @param candidates the candidates to add to
+     * @param index the prefix index to consult
+     * @param value the input value, folded if the index is
+     */
+    private static void addPrefixCandidates(@Nonnull @NonnullElements final List<Candidate> candidates,
+            @Nonnull @NonnullElements final Map<Integer,Map<String,List<Candidate>>> index,
+            @Nonnull final String value) {
+        for (final Map.Entry<Integer,Map<String,List<Candidate>>> entry : index.entrySet()) {
+            if (entry.getKey() > value.length()) {
+                break;
+            }
+            addAll(candidates, entry.getValue().get(value.substring(0, entry.getKey())));
+        }
+    }
+
+    /**
+     * Add a list of candidates if present.
+     * 
+     * @param candidates the candidates to add to
+     * @param found the candidates to add
+     */
+    private static void addAll(@Nonnull @NonnullElements final List<Candidate> candidates,
+            @Nullable @NonnullElements final List<Candidate> found) {
+        if (found != null) {
+            candidates.addAll(found);
+        }
+    }
+
+    /**
+     * Fold ASCII letters to lower case, leaving other characters alone.
+     * 
+     * @param value the value to fold
+     * 
+     * @return the folded value
+     */
+    @Nonnull private static String foldCase(@Nonnull final String value) {
+        char[] chars = null;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = value.toCharArray();
+                }
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return chars != null ? new String(chars) : value;
+    }
+
+    /** A source value and its position. */
+    private static final class Candidate {
+
+        /** Position of the value map in the collection. */
+        private final int mapIndex;
+
+        /** Position of the source value in the value map. */
+        private final int position;
+
+        /** The source value. */
+        @Nonnull private final SourceValue sourceValue;
+
+        /**
+         * Constructor.
+         * 
+         * @param map position of the value map in the collection
+         * @param pos position of the source value in the value map
+         * @param value the source value
+         */
+        private Candidate(final int map, final int pos, @Nonnull final SourceValue value) {
+            mapIndex = map;
+            position = pos;
+            sourceValue = value;
+        }
+    }
+
+}
@@ -44,12 +44,12 @@ import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.dc.http.HTTPResponseMappingStrategy;
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 import net.shibboleth.utilities.java.support.resource.Resource;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 /**
@@ -58,7 +58,7 @@ import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
  * 
  * <p>Well-suited to JSON output formats that can be parsed by the scripting engine.</p>
  */
-public final class ScriptedResponseMappingStrategy extends AbstractScriptEvaluator
+public final class ScriptedResponseMappingStrategy extends AbstractPooledScriptEvaluator
         implements HTTPResponseMappingStrategy {
     
     /** The id of the object where the results go. */
@@ -27,6 +27,7 @@ import javax.annotation.Nullable;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.template.SimpleTemplate;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -70,6 +71,15 @@ public class TemplatedBodyBuilder extends AbstractHTTPSearchBuilder {
 
     /** Cache key template to be evaluated. */
     @NonnullAfterInit private Template cacheKeyTemplate;
+
+    /** Precompiled form of the URL template, if it is simple enough. */
+    @Nullable private SimpleTemplate urlSimpleTemplate;
+
+    /** Precompiled form of the body template, if it is simple enough. */
+    @Nullable private SimpleTemplate bodySimpleTemplate;
+
+    /** Precompiled form of the cache key template, if it is simple enough. */
+    @Nullable private SimpleTemplate cacheKeySimpleTemplate;
     
     /** Text of URL template to be evaluated. */
     @NonnullAfterInit private String urlTemplateText;
@@ -306,9 +316,12 @@ public class TemplatedBodyBuilder extends AbstractHTTPSearchBuilder {
 
         urlTemplate = Template.fromTemplate(engine, urlTemplateText);
         bodyTemplate = Template.fromTemplate(engine, bodyTemplateText);
+        urlSimpleTemplate = SimpleTemplate.compile(urlTemplateText, engine::getProperty);
+        bodySimpleTemplate = SimpleTemplate.compile(bodyTemplateText, engine::getProperty);
         
         if (null != cacheKeyTemplateText) {
             cacheKeyTemplate = Template.fromTemplate(engine, cacheKeyTemplateText);
+            cacheKeySimpleTemplate = SimpleTemplate.compile(cacheKeyTemplateText, engine::getProperty);
         }
         
         contentType = ContentType.create(mimeType, charset);
@@ -317,6 +330,9 @@ public class TemplatedBodyBuilder extends AbstractHTTPSearchBuilder {
     /**
      * Invokes {@link Template#merge(org.apache.velocity.context.Context)} on the supplied template and context.
      * 
+     * <p>Templates consisting only of simple references are rendered directly, without a merge,
+     * unless a value is found that only Velocity can render.</p>
+     * 
      * @param template template to merge
      * @param context to merge
      * 
@@ -324,7 +340,19 @@ public class TemplatedBodyBuilder extends AbstractHTTPSearchBuilder {
      */
     @Nonnull @NotEmpty protected String merge(@Nonnull final Template template,
             @Nonnull final VelocityContext context) {
-        return template.merge(context);
+        final SimpleTemplate simpleTemplate;
+        if (template == urlTemplate) {
+            simpleTemplate = urlSimpleTemplate;
+        } else if (template == bodyTemplate) {
+            simpleTemplate = bodySimpleTemplate;
+        } else if (template == cacheKeyTemplate) {
+            simpleTemplate = cacheKeySimpleTemplate;
+        } else {
+            simpleTemplate = null;
+        }
+        
+        final String result = simpleTemplate != null ? simpleTemplate.render(context::get, null) : null;
+        return result != null ? result : template.merge(context);
     }
 
     /** {@inheritDoc} */
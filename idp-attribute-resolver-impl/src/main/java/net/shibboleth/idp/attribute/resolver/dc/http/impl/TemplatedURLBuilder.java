@@ -27,6 +27,7 @@ import javax.annotation.Nullable;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.template.SimpleTemplate;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -57,6 +58,9 @@ public class TemplatedURLBuilder extends AbstractHTTPSearchBuilder {
     /** Template to be evaluated. */
     @NonnullAfterInit private Template template;
 
+    /** Precompiled form of the template, if it is simple enough. */
+    @Nullable private SimpleTemplate simpleTemplate;
+
     /** Text of template to be evaluated. */
     @NonnullAfterInit private String templateText;
 
@@ -159,17 +163,24 @@ public class TemplatedURLBuilder extends AbstractHTTPSearchBuilder {
         }
 
         template = Template.fromTemplate(engine, templateText);
+        simpleTemplate = SimpleTemplate.compile(templateText, engine::getProperty);
     }
 
     /**
      * Invokes {@link Template#merge(org.apache.velocity.context.Context)} on the supplied context.
      * 
+     * <p>Templates consisting only of simple references are rendered directly, without a merge,
+     * unless a value is found that only Velocity can render.</p>
+     * 
      * @param context to merge
      * 
      * @return result of the merge operation
      */
     @Nonnull @NotEmpty protected String merge(@Nonnull final VelocityContext context) {
-        final String result = template.merge(context);
+        String result = simpleTemplate != null ? simpleTemplate.render(context::get, null) : null;
+        if (result == null) {
+            result = template.merge(context);
+        }
         log.debug("Template text {} yields {}", templateText, result);
         return result;
     }
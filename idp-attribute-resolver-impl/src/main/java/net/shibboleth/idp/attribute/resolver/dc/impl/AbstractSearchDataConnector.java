@@ -17,9 +17,19 @@
 
 package net.shibboleth.idp.attribute.resolver.dc.impl;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -36,25 +46,40 @@ import net.shibboleth.idp.attribute.resolver.dc.ExecutableSearchBuilder;
 import net.shibboleth.idp.attribute.resolver.dc.MappingStrategy;
 import net.shibboleth.idp.attribute.resolver.dc.Validator;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * A {@link net.shibboleth.idp.attribute.resolver.DataConnector} containing functionality common to data connectors that
  * retrieve attribute data by searching a data source.
  * 
+ * <p>If a results cache is supplied, concurrent misses on the same key are coalesced into a single search, and
+ * an optional refresh interval allows entries older than that interval to be served while a single background
+ * search replaces them.</p>
+ * 
  * @param <T1> type of executable search
  * @param <T2> type of mapping strategy
  */
 public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2 extends MappingStrategy<?>>
     extends AbstractDataConnector {
 
+    /** Base name for the cache metrics. */
+    @Nonnull @NotEmpty private static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.attribute.resolver.dc";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractSearchDataConnector.class);
 
@@ -70,6 +95,27 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
     /** Query result cache. */
     @Nullable private Cache<String,Map<String,IdPAttribute>> resultsCache;
     
+    /** Age after which a cached result is refreshed in the background, if set. */
+    @Nullable private Duration resultsCacheRefreshInterval;
+    
+    /** Maximum number of keys tracked for refresh-ahead. */
+    @Positive private long resultsCacheRefreshMaxSize = 500;
+    
+    /** Time source used to age cached results for refresh-ahead. */
+    @Nonnull private Ticker refreshTicker = Ticker.systemTicker();
+    
+    /** Executor for background refreshes. */
+    @Nullable private Executor refreshExecutor;
+    
+    /** Executor we created ourselves and therefore have to shut down. */
+    @Nullable private ExecutorService ownedRefreshExecutor;
+    
+    /** Keys whose cached results are still within the refresh interval. */
+    @Nullable private Cache<String,Boolean> freshResults;
+    
+    /** Keys with a background refresh in progress. */
+    @Nonnull private final Set<String> refreshesInProgress = ConcurrentHashMap.newKeySet();
+    
     /** Does DataConnector fail fast on Initialize.*/
     private boolean failFastInitialize;
 
@@ -160,6 +206,80 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
         resultsCache = cache;
     }
 
+    /**
+     * Gets the age after which a cached result is refreshed in the background.
+     * 
+     * @return refresh interval, or null if refresh-ahead is disabled
+     */
+    @Nullable public Duration getResultsCacheRefreshInterval() {
+        return resultsCacheRefreshInterval;
+    }
+
+    /**
+     * Sets the age after which a cached result is served as-is while a single background search refreshes it.
+     * 
+     * <p>This should be shorter than the expiration of the cache itself, otherwise it has no effect. A null or
+     * zero value disables refresh-ahead.</p>
+     * 
+     * @param interval refresh interval
+     */
+    public void setResultsCacheRefreshInterval(@Nullable final Duration interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        if (interval != null) {
+            Constraint.isFalse(interval.isNegative(), "Refresh interval cannot be negative");
+        }
+        resultsCacheRefreshInterval = interval;
+    }
+
+    /**
+     * Sets the maximum number of cached results tracked for refresh-ahead.
+     * 
+     * <p>This should match the maximum size of the results cache. A result that is no longer tracked is
+     * treated as due for refresh. Defaults to 500, the default size of a results cache.</p>
+     * 
+     * @param size maximum number of tracked results
+     * 
+     * @since 4.2.0
+     */
+    public void setResultsCacheRefreshMaxSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        resultsCacheRefreshMaxSize = Constraint.isGreaterThan(0, size, "Maximum size must be greater than 0");
+    }
+
+    /**
+     * Sets the time source used to age cached results for refresh-ahead.
+     * 
+     * <p>Defaults to the system ticker.</p>
+     * 
+     * @param ticker time source
+     * 
+     * @since 4.2.0
+     */
+    public void setResultsCacheRefreshTicker(@Nonnull final Ticker ticker) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        refreshTicker = Constraint.isNotNull(ticker, "Ticker cannot be null");
+    }
+
+    /**
+     * Sets the executor used to run background refreshes.
+     * 
+     * <p>If not set and refresh-ahead is enabled, a single daemon thread is used.</p>
+     * 
+     * @param executor executor to use
+     */
+    public void setRefreshExecutor(@Nullable final Executor executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        refreshExecutor = executor;
+    }
+
     /**
      * Attempts to retrieve attributes from the data source.
      * 
@@ -191,10 +311,14 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
                 log.trace("{} Cache found, resolved attributes {} using cache {}", new Object[] {getLogPrefix(),
                         resolvedAttributes, resultsCache,});
                 if (resolvedAttributes == null) {
-                    resolvedAttributes = retrieveAttributes(executable);
+                    incrementCounter("misses");
+                    resolvedAttributes = loadIntoCache(cacheKey, executable);
                     log.trace("{} Resolved attributes {}", getLogPrefix(), resolvedAttributes);
-                    resultsCache.put(cacheKey, resolvedAttributes != null ? resolvedAttributes
-                            : Collections.<String,IdPAttribute>emptyMap());
+                } else {
+                    incrementCounter("hits");
+                    if (freshResults != null && freshResults.getIfPresent(cacheKey) == null) {
+                        refreshInBackground(cacheKey, executable);
+                    }
                 }
             } else {
                 log.trace("No cache key returned, will not check for cached results");
@@ -209,6 +333,121 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
         return resolvedAttributes;
     }
 
+    /**
+     * Run the search and populate the cache, such that concurrent callers for the same key wait for a single
+     * search rather than each running their own.
+     * 
+     * @param cacheKey key for the cache entry
+     * @param executable the search to run
+     * 
+     * @return the attributes returned by the search
+     * 
+     * @throws ResolutionException if the search fails
+     */
+    @Nullable private Map<String,IdPAttribute> loadIntoCache(@Nonnull final String cacheKey,
+            @Nonnull final T1 executable) throws ResolutionException {
+        
+        // The raw result is returned to the thread that ran the search, so a null result is preserved for it.
+        final List<Map<String,IdPAttribute>> loaded = new ArrayList<>(1);
+        final Map<String,IdPAttribute> cached;
+        try {
+            cached = resultsCache.get(cacheKey, () -> {
+                final Map<String,IdPAttribute> result = timedRetrieveAttributes(executable);
+                loaded.add(result);
+                markFresh(cacheKey);
+                return result != null ? result : Collections.<String,IdPAttribute>emptyMap();
+            });
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof ResolutionException) {
+                throw (ResolutionException) e.getCause();
+            }
+            throw new ResolutionException(getLogPrefix() + " Error loading search results", e.getCause());
+        }
+        
+        return loaded.isEmpty() ? cached : loaded.get(0);
+    }
+
+    /**
+     * Replace a stale cache entry by running the search in the background, unless a refresh for that key is
+     * already running.
+     * 
+     * @param cacheKey key for the cache entry
+     * @param executable the search to run
+     */
+    private void refreshInBackground(@Nonnull final String cacheKey, @Nonnull final T1 executable) {
+        if (!refreshesInProgress.add(cacheKey)) {
+            return;
+        }
+        
+        log.debug("{} Cached results for '{}' are stale, refreshing in the background", getLogPrefix(), cacheKey);
+        incrementCounter("refreshes");
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    final Map<String,IdPAttribute> result = timedRetrieveAttributes(executable);
+                    resultsCache.put(cacheKey, result != null ? result : Collections.<String,IdPAttribute>emptyMap());
+                    markFresh(cacheKey);
+                } catch (final ResolutionException | RuntimeException e) {
+                    log.warn("{} Background refresh of cached results failed, retaining stale entry", getLogPrefix(),
+                            e);
+                } finally {
+                    refreshesInProgress.remove(cacheKey);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            log.debug("{} Background refresh rejected", getLogPrefix(), e);
+            refreshesInProgress.remove(cacheKey);
+        }
+    }
+
+    /**
+     * Run the search, recording its duration.
+     * 
+     * @param executable the search to run
+     * 
+     * @return the attributes returned by the search
+     * 
+     * @throws ResolutionException if the search fails
+     */
+    @Nullable private Map<String,IdPAttribute> timedRetrieveAttributes(@Nonnull final T1 executable)
+            throws ResolutionException {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry == null) {
+            return retrieveAttributes(executable);
+        }
+        
+        final Timer.Context timer =
+                registry.timer(MetricRegistry.name(DEFAULT_METRIC_NAME, getId(), "cache", "loads")).time();
+        try {
+            return retrieveAttributes(executable);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Record that the cache entry for a key has just been loaded.
+     * 
+     * @param cacheKey key for the cache entry
+     */
+    private void markFresh(@Nonnull final String cacheKey) {
+        if (freshResults != null) {
+            freshResults.put(cacheKey, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Increment one of the cache counters, if a metric registry is installed.
+     * 
+     * @param name counter name
+     */
+    private void incrementCounter(@Nonnull @NotEmpty final String name) {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.counter(MetricRegistry.name(DEFAULT_METRIC_NAME, getId(), "cache", name)).inc();
+        }
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -222,6 +461,31 @@ public abstract class AbstractSearchDataConnector<T1 extends ExecutableSearch,T2
         if (mappingStrategy == null) {
             throw new ComponentInitializationException(getLogPrefix() + " No mapping strategy was configured");
         }
+        
+        if (resultsCache != null && resultsCacheRefreshInterval != null && !resultsCacheRefreshInterval.isZero()) {
+            freshResults = CacheBuilder.newBuilder()
+                    .maximumSize(resultsCacheRefreshMaxSize)
+                    .expireAfterWrite(resultsCacheRefreshInterval.toMillis(), TimeUnit.MILLISECONDS)
+                    .ticker(refreshTicker)
+                    .build();
+            if (refreshExecutor == null) {
+                ownedRefreshExecutor = Executors.newSingleThreadExecutor(r -> {
+                    final Thread thread = new Thread(r, getId() + "-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                refreshExecutor = ownedRefreshExecutor;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (ownedRefreshExecutor != null) {
+            ownedRefreshExecutor.shutdownNow();
+            ownedRefreshExecutor = null;
+        }
+        super.doDestroy();
     }
 
     /** Does the data connector fails fast.
@@ -48,11 +48,12 @@ import net.shibboleth.idp.attribute.resolver.ad.impl.ScriptedIdPAttributeImpl;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.authn.context.SubjectContext;
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
+import net.shibboleth.idp.profile.scripting.ScriptContextPool;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 /**
@@ -170,6 +171,8 @@ public class ScriptedDataConnector extends AbstractDataConnector {
         scriptEvaluator = new DataConnectorScriptEvaluator(script);
         scriptEvaluator.setCustomObject(customObject);
         scriptEvaluator.setLogPrefix(getLogPrefix());
+        scriptEvaluator.getContextPool().setMetricName(
+                ScriptContextPool.DEFAULT_METRIC_NAME + ".resolver.dc." + getId());
     }
 
     /** {@inheritDoc} */
@@ -185,7 +188,7 @@ public class ScriptedDataConnector extends AbstractDataConnector {
     /**
      * Evaluator bound to the DataConnector semantic.
      */
-    private class DataConnectorScriptEvaluator extends AbstractScriptEvaluator {
+    private class DataConnectorScriptEvaluator extends AbstractPooledScriptEvaluator {
 
         /**
          * Constructor.
@@ -40,9 +40,9 @@ import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.dc.storage.StorageMappingStrategy;
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.resource.Resource;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 /**
@@ -53,7 +53,7 @@ import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
  * 
  * @since 4.1.0
  */
-public final class ScriptedStorageMappingStrategy extends AbstractScriptEvaluator
+public final class ScriptedStorageMappingStrategy extends AbstractPooledScriptEvaluator
         implements StorageMappingStrategy {
     
     /** The id of the object where the results go. */
@@ -27,12 +27,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.opensaml.messaging.context.BaseContext;
 import org.opensaml.messaging.context.navigate.ParentContextLookup;
@@ -40,6 +51,9 @@ import org.opensaml.profile.context.MetricContext;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import net.shibboleth.ext.spring.service.AbstractServiceableComponent;
 import net.shibboleth.idp.attribute.EmptyAttributeValue;
@@ -67,6 +81,7 @@ import net.shibboleth.utilities.java.support.collection.LazyMap;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
 
 /**
  * A component that resolves the attributes for a particular subject.
@@ -105,9 +120,22 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
     /** Strategy to get the {@link ProfileRequestContext}. */
     @Nonnull private Function<AttributeResolutionContext,ProfileRequestContext> profileContextStrategy;
 
+    /** Whether to resolve independent plugins concurrently. */
+    private boolean parallelResolution;
+
+    /** Upper bound on the number of threads used by an internally created executor. */
+    private int maxParallelism;
+
+    /** Executor used to run plugins when resolving in parallel. */
+    @Nullable private Executor executor;
+
+    /** Executor we created ourselves and therefore have to shut down. */
+    @Nullable private ExecutorService ownedExecutor;
+
     /** Constructor. */
     public AttributeResolverImpl() {
         profileContextStrategy = new ParentContextLookup<>(ProfileRequestContext.class);
+        maxParallelism = Runtime.getRuntime().availableProcessors() * 4;
     }
     
     /** Sets the attribute definitions for this resolver.
@@ -219,6 +247,62 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         profileContextStrategy = Constraint.isNotNull(strategy, "ProfileRequestContext lookup strategy cannot be null");
     }
     
+    /**
+     * Do we resolve independent data connectors and attribute definitions concurrently?
+     * 
+     * @return whether to resolve in parallel
+     */
+    public boolean isParallelResolution() {
+        return parallelResolution;
+    }
+
+    /**
+     * Set whether to resolve independent data connectors and attribute definitions concurrently.
+     * 
+     * <p>Defaults to false. When enabled, the dependency graph is walked per request and every data connector
+     * whose dependencies are satisfied is run on the {@link #setExecutor(Executor)} in parallel with its
+     * siblings. Attribute definitions still run on the calling thread, as their dependencies complete.</p>
+     * 
+     * <p>Data connectors run in this way see the calling thread's servlet request and response, Spring request
+     * attributes and logging MDC, but no other thread-local state. As attribute definitions may be running at
+     * the same time, they must not modify the context tree, other than by returning their results. Connectors
+     * that do (for example, scripts that create subcontexts) should not be used in this mode.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setParallelResolution(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        parallelResolution = flag;
+    }
+
+    /**
+     * Set the maximum number of threads to use if no explicit {@link Executor} is supplied.
+     * 
+     * <p>Defaults to four times the number of available processors.</p>
+     * 
+     * @param max maximum thread count
+     */
+    public void setMaxParallelism(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxParallelism = (int) Constraint.isGreaterThan(0, max, "Maximum parallelism must be greater than 0");
+    }
+
+    /**
+     * Set the {@link Executor} on which to run plugins when resolving in parallel.
+     * 
+     * <p>If not set, a bounded pool of daemon threads is created at initialization and shut down when
+     * this component is destroyed.</p>
+     * 
+     * @param exec executor to use
+     */
+    public void setExecutor(@Nullable final Executor exec) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        executor = exec;
+    }
+
     /**
      * Resolves the attribute for the given request. Note, if attributes are requested,
      * {@link AttributeResolutionContext#getRequestedIdPAttributeNames()}, the resolver will <strong>not</strong> fail
@@ -249,24 +333,29 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
 
             if (!preRequestedAttributes.isEmpty()) {
                 log.debug("Resolving pre-requested Attributes");
-                for (final String attributeId : preRequestedAttributes) {
-                    resolveAttributeDefinition(attributeId, resolutionContext);
+                if (parallelResolution) {
+                    resolveInParallel(Collections.emptyList(), preRequestedAttributes, resolutionContext);
+                } else {
+                    for (final String attributeId : preRequestedAttributes) {
+                        resolveAttributeDefinition(attributeId, resolutionContext);
+                    }
                 }
                 finalizePreResolvedAttributes(resolutionContext);
             }
             attributeContext = resolutionContext.getSubcontext(AttributeContext.class, true);
 
-            boolean hasExportingDataConnector = false;
+            final List<String> exportingConnectorIds = new ArrayList<>();
 
             for (final Entry<String, DataConnector> dataConnectorEntry : dataConnectors.entrySet()) {
-                if (dataConnectorEntry.getValue().isExportAllAttributes() ||
-                        !dataConnectorEntry.getValue().getExportAttributes().isEmpty()) {
-                    hasExportingDataConnector = true;
-                    resolveDataConnector(dataConnectorEntry.getKey(), resolutionContext);
+                if (isExportNeeded(dataConnectorEntry.getValue(), resolutionContext)) {
+                    exportingConnectorIds.add(dataConnectorEntry.getKey());
+                    if (!parallelResolution) {
+                        resolveDataConnector(dataConnectorEntry.getKey(), resolutionContext);
+                    }
                 }
             }
 
-            if (attributeDefinitions.size() == 0 && !hasExportingDataConnector) {
+            if (attributeDefinitions.size() == 0 && exportingConnectorIds.isEmpty()) {
                 log.debug("{} No attribute definition available or exporting data connectors" +
                           ", no attributes were resolved", logPrefix);
                 return;
@@ -275,8 +364,12 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
             final Collection<String> attributeIds = getToBeResolvedAttributeIds(resolutionContext);
             log.debug("{} Attempting to resolve the following attribute definitions {}", logPrefix, attributeIds);
     
-            for (final String attributeId : attributeIds) {
-                resolveAttributeDefinition(attributeId, resolutionContext);
+            if (parallelResolution) {
+                resolveInParallel(exportingConnectorIds, attributeIds, resolutionContext);
+            } else {
+                for (final String attributeId : attributeIds) {
+                    resolveAttributeDefinition(attributeId, resolutionContext);
+                }
             }
     
             log.debug("{} Finalizing resolved attributes", logPrefix);
@@ -298,8 +391,9 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
 
     /**
      * Gets the list of attributes, identified by IDs, that should be resolved. If the
-     * {@link AttributeResolutionContext#getRequestedIdPAttributeNames()} is not empty then those attributes are the
-     * ones to be resolved, otherwise all registered attribute definitions are to be resolved.
+     * {@link AttributeResolutionContext#getRequestedIdPAttributeNames()} is not empty, or the request is
+     * {@link AttributeResolutionContext#isExhaustiveRequest()}, then those attributes are the ones to be resolved,
+     * otherwise all registered attribute definitions are to be resolved.
      * 
      * @param resolutionContext current resolution context
      * 
@@ -310,7 +404,7 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         Constraint.isNotNull(resolutionContext, "Attribute resolution context cannot be null");
 
         // if no attributes requested, then resolve everything
-        if (resolutionContext.getRequestedIdPAttributeNames().isEmpty()) {
+        if (resolutionContext.getRequestedIdPAttributeNames().isEmpty() && !resolutionContext.isExhaustiveRequest()) {
             final Collection<String> attributeIds = new LazyList<>();
             attributeIds.addAll(attributeDefinitions.keySet());
             return attributeIds;
@@ -319,6 +413,39 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
 
     }
 
+    /**
+     * Gets whether a data connector's exported attributes may be needed, in which case it is resolved
+     * whether or not anything depends on it.
+     * 
+     * <p>If the request is exhaustive, a connector with an explicit list of exported attributes is only needed if
+     * the list includes a requested attribute.</p>
+     * 
+     * @param dataConnector the data connector
+     * @param resolutionContext current resolution context
+     * 
+     * @return whether the connector's exported attributes may be needed
+     */
+    private boolean isExportNeeded(@Nonnull final DataConnector dataConnector,
+            @Nonnull final AttributeResolutionContext resolutionContext) {
+        if (dataConnector.isExportAllAttributes()) {
+            return true;
+        } else if (dataConnector.getExportAttributes().isEmpty()) {
+            return false;
+        } else if (!resolutionContext.isExhaustiveRequest()) {
+            return true;
+        }
+        
+        final Collection<String> requested = resolutionContext.getRequestedIdPAttributeNames();
+        for (final String exported : dataConnector.getExportAttributes()) {
+            if (requested.contains(exported)) {
+                return true;
+            }
+        }
+        log.debug("{} Skipping data connector '{}', none of its exported attributes were requested", logPrefix,
+                dataConnector.getId());
+        return false;
+    }
+
     /**
      * Resolve the {@link AttributeDefinition} which has the specified ID.
      * 
@@ -474,6 +601,37 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         log.debug("{} Finished resolving dependencies for '{}'", logPrefix, plugin.getId());
     }
 
+    /**
+     * Resolve the given data connectors and attribute definitions, and everything they depend upon, by walking the
+     * dependency graph and running each plugin as soon as its own dependencies have completed.
+     * 
+     * <p>Data connectors run on the {@link Executor}, with the calling thread's request state installed.
+     * Attribute definitions run on the calling thread, which also waits for every scheduled plugin to finish
+     * before returning, so the work context is never touched after this method returns. If any plugin fails
+     * the first failure (in scheduling order) is rethrown.</p>
+     * 
+     * @param connectorIds IDs of the data connectors to resolve
+     * @param attributeIds IDs of the attribute definitions to resolve
+     * @param resolutionContext resolution context that we are working in
+     * 
+     * @throws ResolutionException if unable to resolve any of the plugins
+     */
+    protected void resolveInParallel(@Nonnull @NonnullElements final Collection<String> connectorIds,
+            @Nonnull @NonnullElements final Collection<String> attributeIds,
+            @Nonnull final AttributeResolutionContext resolutionContext) throws ResolutionException {
+
+        final ParallelResolution resolution = new ParallelResolution(resolutionContext);
+        
+        for (final String connectorId : connectorIds) {
+            resolution.scheduleDataConnector(connectorId);
+        }
+        for (final String attributeId : attributeIds) {
+            resolution.scheduleAttributeDefinition(attributeId);
+        }
+        
+        resolution.await();
+    }
+
     /** Helper method for exporting attributes.
      * @param attributeId the if (for logging)
      * @param input the inout list
@@ -678,6 +836,19 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
             throw new ComponentInitializationException("No Data Connectors provided");
         }
 
+        if (parallelResolution && executor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(maxParallelism, maxParallelism, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        final Thread thread = new Thread(r, getId() + "-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            ownedExecutor = pool;
+            executor = pool;
+        }
+
         preRequestedAttributes = attributeDefinitions.entrySet().stream().
                 filter(e -> e.getValue().isPreRequested()).
                 map(Entry::getKey).
@@ -701,6 +872,15 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         }
     }
 
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            ownedExecutor = null;
+        }
+        super.doDestroy();
+    }
+
     /**
      * Checks to ensure that there are no circular dependencies or dependencies on non-existent plugins.
      * 
@@ -802,4 +982,449 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         }
     }
 
+    /**
+     * Per-request state for a parallel walk of the dependency graph.
+     * 
+     * <p>Each plugin is represented by a single future, reserved the first time the plugin is reached, so
+     * every plugin runs at most once however many other plugins depend upon it.</p>
+     */
+    private final class ParallelResolution {
+
+        /** Resolution context that we are working in. */
+        @Nonnull private final AttributeResolutionContext resolutionContext;
+
+        /** Work context to record results into. */
+        @Nonnull private final AttributeResolverWorkContext workContext;
+
+        /** Futures for the data connectors reached so far, keyed by ID. */
+        @Nonnull private final Map<String, CompletableFuture<Void>> connectorFutures;
+
+        /** Futures for the attribute definitions reached so far, keyed by ID. */
+        @Nonnull private final Map<String, CompletableFuture<Void>> definitionFutures;
+
+        /** Every future created, in scheduling order. */
+        @Nonnull private final List<CompletableFuture<Void>> allFutures;
+
+        /** Runs data connectors on the executor with the calling thread's request state. */
+        @Nonnull private final Executor connectorExecutor;
+
+        /** Work to be run on the calling thread. */
+        @Nonnull private final BlockingQueue<Runnable> callerTasks;
+
+        /**
+         * Constructor.
+         *
+         * @param context resolution context that we are working in
+         */
+        ParallelResolution(@Nonnull final AttributeResolutionContext context) {
+            resolutionContext = context;
+            workContext = context.getSubcontext(AttributeResolverWorkContext.class, false);
+            connectorFutures = new HashMap<>();
+            definitionFutures = new HashMap<>();
+            allFutures = new ArrayList<>();
+            final RequestState state = new RequestState();
+            connectorExecutor = task -> executor.execute(state.wrap(task));
+            callerTasks = new LinkedBlockingQueue<>();
+        }
+
+        /**
+         * Run attribute definitions as they become ready, until every scheduled plugin has completed.
+         * 
+         * <p>Waiting is not interruptible, since connectors may still be recording results; the interrupt
+         * status is restored afterwards.</p>
+         * 
+         * @throws ResolutionException the first failure encountered, if any
+         */
+        void await() throws ResolutionException {
+            boolean interrupted = false;
+            CompletableFuture<Void> watched = null;
+            
+            // Note that failover may schedule more work, which is picked up as we go.
+            int waited = 0;
+            for (;;) {
+                final Runnable task = callerTasks.poll();
+                if (task != null) {
+                    task.run();
+                    continue;
+                }
+                
+                while (waited < currentSize() && futureAt(waited).isDone()) {
+                    waited++;
+                }
+                if (waited == currentSize()) {
+                    break;
+                }
+                
+                // Sleep until there's work for this thread, or the oldest outstanding plugin completes.
+                final CompletableFuture<Void> next = futureAt(waited);
+                if (next != watched) {
+                    watched = next;
+                    next.whenComplete((v, t) -> callerTasks.add(() -> {}));
+                }
+                try {
+                    callerTasks.take().run();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            
+            for (int i = 0; i < currentSize(); i++) {
+                try {
+                    futureAt(i).join();
+                } catch (final CompletionException e) {
+                    throw unwrap(e);
+                }
+            }
+        }
+
+        /**
+         * Schedule the data connector with the given ID, and its dependencies.
+         * 
+         * @param connectorId ID of the data connector
+         * 
+         * @return a future that completes once the connector (or its failover) has been resolved
+         */
+        @Nonnull CompletableFuture<Void> scheduleDataConnector(@Nonnull final String connectorId) {
+            final CompletableFuture<Void> placeholder = reserve(connectorFutures, connectorId);
+            if (placeholder == null) {
+                return lookup(connectorFutures, connectorId);
+            }
+            
+            final CompletableFuture<Void> future;
+            final DataConnector connector = dataConnectors.get(connectorId);
+            if (connector == null) {
+                log.debug("{} No data connector was registered with ID '{}', nothing to do", logPrefix, connectorId);
+                future = CompletableFuture.completedFuture(null);
+            } else if (workContext.getResolvedDataConnectors().containsKey(connectorId)) {
+                log.trace("{} Data connector '{}' was already resolved, nothing to do", logPrefix, connectorId);
+                future = CompletableFuture.completedFuture(null);
+            } else if (connector.getLastFail() != null
+                    && Instant.now().isBefore(connector.getLastFail().plus(connector.getNoRetryDelay()))) {
+                log.debug("{} Data connector '{}' failed to resolve previously, still waiting", logPrefix, 
+                        connectorId);
+                future = scheduleNoRetry(connector);
+            } else {
+                future = scheduleDependencies(connector).thenComposeAsync(
+                        v -> resolveConnector(connector), connectorExecutor);
+            }
+            
+            return complete(placeholder, future);
+        }
+
+        /**
+         * Schedule the attribute definition with the given ID, and its dependencies.
+         * 
+         * @param attributeId ID of the attribute definition
+         * 
+         * @return a future that completes once the definition has been resolved
+         */
+        @Nonnull CompletableFuture<Void> scheduleAttributeDefinition(@Nonnull final String attributeId) {
+            final CompletableFuture<Void> placeholder = reserve(definitionFutures, attributeId);
+            if (placeholder == null) {
+                return lookup(definitionFutures, attributeId);
+            }
+
+            final CompletableFuture<Void> future;
+            final AttributeDefinition definition = attributeDefinitions.get(attributeId);
+            if (definition == null) {
+                log.debug("{} No attribute definition was registered with ID '{}', nothing to do", logPrefix,
+                        attributeId);
+                future = CompletableFuture.completedFuture(null);
+            } else if (workContext.getResolvedIdPAttributeDefinitions().containsKey(attributeId)) {
+                log.trace("{} Attribute definition '{}' was already resolved, nothing to do", logPrefix,
+                        attributeId);
+                future = CompletableFuture.completedFuture(null);
+            } else {
+                future = scheduleDependencies(definition).thenRunAsync(() -> resolveDefinition(definition),
+                        callerTasks::add);
+            }
+
+            return complete(placeholder, future);
+        }
+
+        /**
+         * Schedule all the dependencies of a plugin.
+         * 
+         * @param plugin plugin whose dependencies should be resolved
+         * 
+         * @return a future that completes once all the dependencies have been resolved
+         */
+        @Nonnull private CompletableFuture<Void> scheduleDependencies(@Nonnull final ResolverPlugin<?> plugin) {
+            final List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+            for (final ResolverAttributeDefinitionDependency attrDependency : plugin.getAttributeDependencies()) {
+                dependencies.add(scheduleAttributeDefinition(attrDependency.getDependencyPluginId()));
+            }
+            for (final ResolverDataConnectorDependency dependency : plugin.getDataConnectorDependencies()) { 
+                dependencies.add(scheduleDataConnector(dependency.getDependencyPluginId()));
+            }
+            return CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[dependencies.size()]));
+        }
+
+        /**
+         * Handle a data connector which is still in its no-retry period.
+         * 
+         * @param connector the data connector
+         * 
+         * @return a future that completes once the failover (if any) has been resolved
+         */
+        @Nonnull private CompletableFuture<Void> scheduleNoRetry(@Nonnull final DataConnector connector) {
+            final String failoverDataConnectorId = connector.getFailoverDataConnectorId();
+            if (null != failoverDataConnectorId) {
+                log.debug("{} Data connector '{}' invoking failover data connector '{}'", logPrefix,
+                        connector.getId(), failoverDataConnectorId);
+                return scheduleFailover(connector, failoverDataConnectorId);
+            }
+            if (connector.isPropagateResolutionExceptions()) {
+                return CompletableFuture.failedFuture(
+                        new ResolutionException("Connector in no-retry state from previous failure"));
+            }
+            log.debug("Data connector '{}' in no-retry state, not configured to propagate failure",
+                    connector.getId());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        /**
+         * Resolve a data connector whose dependencies are complete, failing over if need be.
+         * 
+         * @param connector the data connector
+         * 
+         * @return a future that completes once the connector (or its failover) has been resolved
+         */
+        @Nonnull private CompletableFuture<Void> resolveConnector(@Nonnull final DataConnector connector) {
+            final Map<String, IdPAttribute> resolvedAttributes;
+            try {
+                log.debug("{} Resolving data connector {}", logPrefix, connector.getId());
+                resolvedAttributes = connector.resolve(resolutionContext);
+            } catch (final ResolutionException e) {
+                final String failoverDataConnectorId = connector.getFailoverDataConnectorId();
+                if (null != failoverDataConnectorId) {
+                    if (e instanceof NoResultAnErrorResolutionException) {
+                        log.debug("{} Data connector '{}' returned no result, invoking failover connector '{}'",
+                                logPrefix, connector.getId(), failoverDataConnectorId, e);
+                    } else {
+                        log.warn("{} Data connector '{}' failed, invoking failover connector '{}'", logPrefix,
+                                connector.getId(), failoverDataConnectorId, e);
+                    }
+                    return scheduleFailover(connector, failoverDataConnectorId);
+                }
+                log.warn("{} Data connector '{}' failed", logPrefix, connector.getId(), e);
+                throw new CompletionException(e);
+            }
+
+            if (null != resolvedAttributes) {
+                log.debug("{} Data connector '{}' resolved the following attributes: {}", logPrefix,
+                        connector.getId(), resolvedAttributes.keySet());
+            } else {
+                log.debug("{} Data connector '{}' produced no attributes", logPrefix, connector.getId());
+            }
+            try {
+                workContext.recordDataConnectorResolution(connector, resolvedAttributes);
+            } catch (final ResolutionException e) {
+                throw new CompletionException(e);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        /**
+         * Schedule the failover for a data connector and record its results against the failed connector.
+         * 
+         * @param connector the failed data connector
+         * @param failoverDataConnectorId ID of the failover connector
+         * 
+         * @return a future that completes once the failover has been resolved and recorded
+         */
+        @Nonnull private CompletableFuture<Void> scheduleFailover(@Nonnull final DataConnector connector,
+                @Nonnull final String failoverDataConnectorId) {
+            return scheduleDataConnector(failoverDataConnectorId).thenRun(() -> {
+                try {
+                    workContext.recordFailoverResolution(connector, dataConnectors.get(failoverDataConnectorId));
+                } catch (final ResolutionException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        /**
+         * Resolve an attribute definition whose dependencies are complete.
+         * 
+         * @param definition the attribute definition
+         */
+        private void resolveDefinition(@Nonnull final AttributeDefinition definition) {
+            try {
+                log.trace("{} Resolving attribute definition {}", logPrefix, definition.getId());
+                final IdPAttribute resolvedAttribute = definition.resolve(resolutionContext);
+
+                if (null == resolvedAttribute) {
+                    log.debug("{} Attribute definition '{}' produced no attribute", logPrefix, definition.getId());
+                } else {
+                    log.debug("{} Attribute definition '{}' produced an attribute with {} values", logPrefix,
+                            definition.getId(), resolvedAttribute.getValues().size());
+                }
+
+                workContext.recordAttributeDefinitionResolution(definition, resolvedAttribute);
+            } catch (final ResolutionException e) {
+                throw new CompletionException(e);
+            }
+        }
+
+        /**
+         * Reserve the future for a plugin, so that it is only ever scheduled once.
+         * 
+         * @param futures the map of futures to record into
+         * @param id plugin ID
+         * 
+         * @return a new, incomplete, future or null if the plugin has already been reached
+         */
+        @Nullable private synchronized CompletableFuture<Void> reserve(
+                @Nonnull final Map<String, CompletableFuture<Void>> futures, @Nonnull final String id) {
+            if (futures.containsKey(id)) {
+                return null;
+            }
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.put(id, future);
+            allFutures.add(future);
+            return future;
+        }
+
+        /**
+         * Arrange for a reserved future to complete when the work it stands for does.
+         * 
+         * @param placeholder the future returned by {@link #reserve(Map, String)}
+         * @param work the future representing the actual work
+         * 
+         * @return the placeholder
+         */
+        @Nonnull private CompletableFuture<Void> complete(@Nonnull final CompletableFuture<Void> placeholder,
+                @Nonnull final CompletableFuture<Void> work) {
+            work.whenComplete((v, t) -> {
+                if (t != null) {
+                    placeholder.completeExceptionally(t);
+                } else {
+                    placeholder.complete(null);
+                }
+            });
+            return placeholder;
+        }
+
+        /**
+         * Get the future already reserved for a plugin.
+         * 
+         * @param futures the map of futures to look in
+         * @param id plugin ID
+         * 
+         * @return the future
+         */
+        @Nonnull private synchronized CompletableFuture<Void> lookup(
+                @Nonnull final Map<String, CompletableFuture<Void>> futures, @Nonnull final String id) {
+            return futures.get(id);
+        }
+
+        /**
+         * Get the number of futures created so far.
+         * 
+         * @return the number of futures
+         */
+        private synchronized int currentSize() {
+            return allFutures.size();
+        }
+
+        /**
+         * Get a future by its position in scheduling order.
+         * 
+         * @param index the position
+         * 
+         * @return the future
+         */
+        @Nonnull private synchronized CompletableFuture<Void> futureAt(final int index) {
+            return allFutures.get(index);
+        }
+
+        /**
+         * Extract the {@link ResolutionException} from an asynchronous failure.
+         * 
+         * @param e the failure
+         * 
+         * @return the underlying resolution exception
+         */
+        @Nonnull private ResolutionException unwrap(@Nonnull final CompletionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof ResolutionException) {
+                return (ResolutionException) cause;
+            }
+            return new ResolutionException(logPrefix + " Unexpected failure during parallel resolution", cause);
+        }
+    }
+
+    /**
+     * Snapshot of the request-scoped thread-local state of the thread that created it, for installing on the
+     * threads that run data connectors.
+     */
+    private static final class RequestState {
+
+        /** Servlet request. */
+        @Nullable private final HttpServletRequest request;
+
+        /** Servlet response. */
+        @Nullable private final HttpServletResponse response;
+
+        /** Spring request attributes. */
+        @Nullable private final RequestAttributes requestAttributes;
+
+        /** Logging MDC. */
+        @Nullable private final Map<String,String> mdc;
+
+        /** Constructor. */
+        RequestState() {
+            request = HttpServletRequestResponseContext.getRequest();
+            response = HttpServletRequestResponseContext.getResponse();
+            requestAttributes = RequestContextHolder.getRequestAttributes();
+            mdc = MDC.getCopyOfContextMap();
+        }
+
+        /**
+         * Wrap a task so that it runs with this state installed, restoring the running thread's own state after.
+         * 
+         * @param task the task to wrap
+         * 
+         * @return the wrapped task
+         */
+        @Nonnull Runnable wrap(@Nonnull final Runnable task) {
+            return () -> {
+                final RequestState previous = new RequestState();
+                install();
+                try {
+                    task.run();
+                } finally {
+                    previous.install();
+                }
+            };
+        }
+
+        /** Install this state on the current thread. */
+        private void install() {
+            if (request != null) {
+                HttpServletRequestResponseContext.loadCurrent(request, response);
+            } else {
+                HttpServletRequestResponseContext.clearCurrent();
+            }
+            if (requestAttributes != null) {
+                RequestContextHolder.setRequestAttributes(requestAttributes);
+            } else {
+                RequestContextHolder.resetRequestAttributes();
+            }
+            if (mdc != null) {
+                MDC.setContextMap(mdc);
+            } else {
+                MDC.clear();
+            }
+        }
+    }
+
 }
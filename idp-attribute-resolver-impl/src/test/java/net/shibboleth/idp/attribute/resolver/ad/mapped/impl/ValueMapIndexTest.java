@@ -0,0 +1,102 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.attribute.resolver.ad.mapped.impl;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Tests for {@link ValueMapIndex}.
+ */
+@SuppressWarnings("javadoc")
+public class ValueMapIndexTest {
+
+    private ValueMap valueMap(final String returnValue, final SourceValue... sources) {
+        final ValueMap map = new ValueMap();
+        map.setSourceValues(List.of(sources));
+        map.setReturnValue(returnValue);
+        return map;
+    }
+
+    @Test public void sameAsLinear() throws ComponentInitializationException {
+        final List<ValueMap> maps = List.of(
+                valueMap("staff",
+                        SourceValueTest.newSourceValue("cn=staff,ou=groups", false, false),
+                        SourceValueTest.newSourceValue("cn=Employees,ou=groups", true, false)),
+                valueMap("member$1",
+                        SourceValueTest.newSourceValue("cn=(.+),ou=groups", false, false),
+                        SourceValueTest.newSourceValue("CN=a+(.*)", true, false)),
+                valueMap("any",
+                        SourceValueTest.newSourceValue("(.*)staff", false, false),
+                        SourceValueTest.newSourceValue("staff|faculty", false, false),
+                        SourceValueTest.newSourceValue("ou=", false, true)),
+                valueMap("optional",
+                        SourceValueTest.newSourceValue("cx?n=staff,ou=groups", false, false),
+                        SourceValueTest.newSourceValue("cn=st[a]ff.ou=groups", false, false)),
+                valueMap("escaped",
+                        SourceValueTest.newSourceValue("^cn=a\\+b,ou=groups", false, false),
+                        SourceValueTest.newSourceValue("cn=a\\.\\+b", true, false),
+                        SourceValueTest.newSourceValue("^CN=A\\+(.*)", true, false)));
+
+        final ValueMapIndex index = new ValueMapIndex(maps);
+
+        for (final String input : List.of("cn=staff,ou=groups", "CN=STAFF,OU=GROUPS", "cn=employees,ou=groups",
+                "cn=Employees,ou=groups", "cn=aaab", "CN=aab", "Cn=b", "n=staff,ou=groups", "staff", "faculty",
+                "c", "cn=", "elephant", "cn=k,ou=groups", "cn=K,ou=groups", "CN=K",
+                "cn=a+b,ou=groups", "CN=A+B,OU=GROUPS", "cn=a.+b", "CN=A.+B", "cn=a+x", "cn=ab")) {
+            final List<StringAttributeValue> expected = new ArrayList<>();
+            for (final ValueMap map : maps) {
+                expected.addAll(map.apply(input));
+            }
+            assertEquals(index.apply(input), expected, input);
+        }
+    }
+
+    @Test public void literals() throws ComponentInitializationException {
+        final ValueMapIndex index = new ValueMapIndex(List.of(
+                valueMap("one", SourceValueTest.newSourceValue("One", false, false)),
+                valueMap("two", SourceValueTest.newSourceValue("Two", true, false))));
+
+        assertEquals(index.apply("One"), List.of(new StringAttributeValue("one")));
+        assertEquals(index.apply("one"), List.of());
+        assertEquals(index.apply("tWO"), List.of(new StringAttributeValue("two")));
+        assertEquals(Set.copyOf(index.apply("Two")), Set.of(new StringAttributeValue("two")));
+        assertEquals(index.apply("Three"), List.of());
+    }
+
+    @Test public void anchoredAndEscapedLiterals() throws ComponentInitializationException {
+        final ValueMapIndex index = new ValueMapIndex(List.of(
+                valueMap("anchored", SourceValueTest.newSourceValue("^cn=a\\+b", false, false)),
+                valueMap("escaped", SourceValueTest.newSourceValue("a\\.b\\(c\\)", true, false))));
+
+        assertEquals(index.apply("cn=a+b"), List.of(new StringAttributeValue("anchored")));
+        assertEquals(index.apply("cn=aab"), List.of());
+        assertEquals(index.apply("^cn=a\\+b"), List.of());
+        assertEquals(index.apply("A.B(C)"), List.of(new StringAttributeValue("escaped")));
+        assertEquals(index.apply("axb(c)"), List.of());
+    }
+}
@@ -19,21 +19,30 @@ package net.shibboleth.idp.attribute.resolver.dc.rdbms.impl;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.sql.DataSource;
 
 import org.hsqldb.jdbc.JDBCDataSource;
+import org.opensaml.core.config.ConfigurationService;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -57,6 +66,10 @@ import net.shibboleth.utilities.java.support.component.UninitializedComponentExc
 import net.shibboleth.utilities.java.support.component.UnmodifiableComponentException;
 import net.shibboleth.utilities.java.support.velocity.VelocityEngine;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Tests for {@link RDBMSDataConnector}
  */
@@ -350,6 +363,131 @@ public class RDBMSDataConnectorTest {
         assertEquals(cache.iterator().next(), optional);
     }
 
+    @Test public void resolveWithRefreshAheadCache() throws Exception {
+        final RDBMSDataConnector connector = createUserRdbmsDataConnector(null, null);
+        final TestCache cache = new TestCache();
+        final AtomicLong nanos = new AtomicLong();
+        connector.setResultsCache(cache);
+        connector.setResultsCacheRefreshInterval(Duration.ofMinutes(1));
+        connector.setResultsCacheRefreshTicker(new Ticker() {
+            public long read() {
+                return nanos.get();
+            }
+        });
+        connector.setRefreshExecutor(Runnable::run);
+        connector.initialize();
+
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final Map<String, IdPAttribute> first = connector.resolve(context);
+        assertTrue(cache.size() == 1);
+
+        // Fresh entry is served as-is.
+        assertSame(connector.resolve(context), first);
+        assertSame(cache.iterator().next(), first);
+
+        nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+
+        // Stale entry is served, and replaced by the refresh.
+        final Map<String, IdPAttribute> second = connector.resolve(context);
+        assertSame(second, first);
+        assertTrue(cache.size() == 1);
+        assertNotSame(cache.iterator().next(), first);
+        assertEquals(cache.iterator().next(), first);
+    }
+
+    @Test public void resolveWithCoalescedMisses() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger searches = new AtomicInteger();
+        final FormatExecutableStatementBuilder delegate = newFormatExecutableStatementBuilder(USER_QUERY);
+        final ExecutableSearchBuilder<ExecutableStatement> builder = (context, dependencyAttributes) -> {
+            final ExecutableStatement statement = delegate.build(context, dependencyAttributes);
+            return new ExecutableStatement() {
+                public String getResultCacheKey() {
+                    return statement.getResultCacheKey();
+                }
+
+                public ResultSet execute(final Connection connection) throws SQLException {
+                    searches.incrementAndGet();
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        throw new SQLException(e);
+                    }
+                    return statement.execute(connection);
+                }
+            };
+        };
+        final RDBMSDataConnector connector = createUserRdbmsDataConnector(builder, null);
+        connector.setResultsCache(CacheBuilder.newBuilder().<String,Map<String,IdPAttribute>>build());
+        connector.initialize();
+
+        final List<Map<String, IdPAttribute>> results = new CopyOnWriteArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    results.add(connector.resolve(TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+                            TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID)));
+                } catch (final ResolutionException e) {
+                    fail("Resolution failed", e);
+                }
+            }));
+        }
+
+        // One search starts, and the other callers wait on it rather than starting their own.
+        threads.get(0).start();
+        started.await();
+        for (final Thread thread : threads.subList(1, threads.size())) {
+            thread.start();
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+        }
+        release.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(searches.get(), 1);
+        assertEquals(results.size(), 4);
+        for (final Map<String, IdPAttribute> result : results) {
+            assertEquals(result, results.get(0));
+        }
+    }
+
+    @Test public void resolveWithCacheCounters() throws Exception {
+        final MetricRegistry previous = ConfigurationService.get(MetricRegistry.class);
+        final MetricRegistry registry = new MetricRegistry();
+        ConfigurationService.register(MetricRegistry.class, registry);
+        try {
+            final RDBMSDataConnector connector = createUserRdbmsDataConnector(null, null);
+            connector.setResultsCache(new TestCache());
+            connector.initialize();
+
+            final AttributeResolutionContext context =
+                    TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                            TestSources.SP_ENTITY_ID);
+            connector.resolve(context);
+            connector.resolve(context);
+            connector.resolve(context);
+
+            final String prefix = "net.shibboleth.idp.attribute.resolver.dc." + TEST_CONNECTOR_NAME + ".cache.";
+            assertEquals(registry.counter(prefix + "misses").getCount(), 1);
+            assertEquals(registry.counter(prefix + "hits").getCount(), 2);
+            assertEquals(registry.timer(prefix + "loads").getCount(), 1);
+        } finally {
+            if (previous != null) {
+                ConfigurationService.register(MetricRegistry.class, previous);
+            } else {
+                ConfigurationService.deregister(MetricRegistry.class);
+            }
+        }
+    }
+
     @Test public void resolveMultiple() throws ComponentInitializationException, ResolutionException {
         final RDBMSDataConnector connector = createGroupRdbmsDataConnector(null, null);
         connector.initialize();
@@ -33,12 +33,15 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.testng.annotations.Test;
 
 import net.shibboleth.ext.spring.testing.MockApplicationContext;
@@ -246,6 +249,118 @@ public class AttributeResolverImplTest {
         assertEquals(context.getResolvedIdPAttributes().get(attribute3.getId()), attribute3);
     }
 
+    /**
+     * Test that an exhaustive request skips exporting connectors whose exports were not requested, but still
+     * resolves dependencies and connectors exporting requested or unknown attributes.
+     * 
+     * @throws Exception if something goes wrong
+     */
+    @Test public void resolveExhaustiveRequest() throws Exception {
+        for (final boolean parallel : new boolean[] {false, true}) {
+            final Map<String, AtomicInteger> counts = new HashMap<>();
+            final AttributeResolverImpl resolver = newExportingResolver(counts, parallel);
+
+            final AttributeResolutionContext context = new AttributeResolutionContext();
+            context.setRequestedIdPAttributeNames(Set.of("ad1", "exported"));
+            context.setExhaustiveRequest(true);
+            resolver.resolveAttributes(context);
+
+            // The dependency's own exports come along since it was resolved anyway.
+            assertEquals(context.getResolvedIdPAttributes().keySet(), Set.of("ad1", "hidden", "exported", "all"));
+            assertEquals(counts.get("dcDependency").get(), 1);
+            assertEquals(counts.get("dcExported").get(), 1);
+            assertEquals(counts.get("dcExportAll").get(), 1);
+            assertEquals(counts.get("dcUnrequested").get(), 0);
+        }
+    }
+
+    /**
+     * Test that an exhaustive request for nothing resolves no attribute definitions, and that a request that isn't
+     * exhaustive still resolves everything.
+     * 
+     * @throws Exception if something goes wrong
+     */
+    @Test public void resolveExhaustiveEmptyRequest() throws Exception {
+        Map<String, AtomicInteger> counts = new HashMap<>();
+        AttributeResolverImpl resolver = newExportingResolver(counts, false);
+
+        AttributeResolutionContext context = new AttributeResolutionContext();
+        context.setExhaustiveRequest(true);
+        resolver.resolveAttributes(context);
+
+        assertEquals(context.getResolvedIdPAttributes().keySet(), Set.of("all"));
+        assertEquals(counts.get("dcDependency").get(), 0);
+        assertEquals(counts.get("dcExported").get(), 0);
+        assertEquals(counts.get("dcUnrequested").get(), 0);
+        
+        counts = new HashMap<>();
+        resolver = newExportingResolver(counts, false);
+
+        context = new AttributeResolutionContext();
+        resolver.resolveAttributes(context);
+
+        assertEquals(context.getResolvedIdPAttributes().keySet(),
+                Set.of("ad1", "ad2", "hidden", "exported", "unrequested", "all"));
+        for (final AtomicInteger count : counts.values()) {
+            assertEquals(count.get(), 1);
+        }
+    }
+
+    private AttributeResolverImpl newExportingResolver(@Nonnull final Map<String, AtomicInteger> counts,
+            final boolean parallel) throws ComponentInitializationException {
+        final StaticDataConnector dcDependency = newCountingConnector("dcDependency", counts, "hidden");
+        dcDependency.setExportAttributes(List.of("hidden"));
+        final StaticDataConnector dcExported = newCountingConnector("dcExported", counts, "exported");
+        dcExported.setExportAttributes(List.of("exported"));
+        final StaticDataConnector dcUnrequested = newCountingConnector("dcUnrequested", counts, "unrequested");
+        dcUnrequested.setExportAttributes(List.of("unrequested"));
+        final StaticDataConnector dcExportAll = newCountingConnector("dcExportAll", counts, "all");
+        dcExportAll.setExportAllAttributes(true);
+        final List<DataConnector> connectors = List.of(dcDependency, dcExported, dcUnrequested, dcExportAll);
+        for (final DataConnector connector : connectors) {
+            connector.initialize();
+        }
+
+        final IdPAttribute attribute1 = new IdPAttribute("ad1");
+        attribute1.setValues(Collections.singletonList(new StringAttributeValue("value1")));
+        final MockAttributeDefinition ad1 = new MockAttributeDefinition("ad1", attribute1);
+        final ResolverDataConnectorDependency dependency = new ResolverDataConnectorDependency("dcDependency");
+        dependency.setAllAttributes(true);
+        ad1.setDataConnectorDependencies(Collections.singleton(dependency));
+        ad1.initialize();
+
+        final IdPAttribute attribute2 = new IdPAttribute("ad2");
+        attribute2.setValues(Collections.singletonList(new StringAttributeValue("value2")));
+        final MockAttributeDefinition ad2 = new MockAttributeDefinition("ad2", attribute2);
+        ad2.initialize();
+
+        final AttributeResolverImpl resolver =
+                newAttributeResolverImpl("foo", List.<AttributeDefinition>of(ad1, ad2), connectors);
+        resolver.setParallelResolution(parallel);
+        resolver.initialize();
+        return resolver;
+    }
+
+    private StaticDataConnector newCountingConnector(@Nonnull final String id,
+            @Nonnull final Map<String, AtomicInteger> counts, @Nonnull final String attributeId) {
+        final AtomicInteger count = new AtomicInteger();
+        counts.put(id, count);
+        
+        final StaticDataConnector connector = new StaticDataConnector() {
+            public Map<String,IdPAttribute> doDataConnectorResolve(
+                    @Nonnull final AttributeResolutionContext resolutionContext,
+                    @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+                count.incrementAndGet();
+                return super.doDataConnectorResolve(resolutionContext, workContext);
+            }
+        };
+        connector.setId(id);
+        final IdPAttribute attribute = new IdPAttribute(attributeId);
+        attribute.setValues(Collections.singletonList(new StringAttributeValue(attributeId)));
+        connector.setValues(List.of(attribute));
+        return connector;
+    }
+
     /**
      * Test that a simple resolve returns the expected results.
      * 
@@ -413,6 +528,142 @@ public class AttributeResolverImplTest {
         assertEquals(context.getResolvedIdPAttributes().get("test").getValues().size(), 2);
     }
 
+    /**
+     * Test that parallel resolve w/ dependencies and failover returns the expected results.
+     * 
+     * @throws Exception if something goes wrong
+     */
+    @Test public void resolveInParallel() throws Exception {
+        final IdPAttribute attr = new IdPAttribute("test");
+        attr.setValues(Arrays.asList(new StringAttributeValue("a"), new StringAttributeValue("b")));
+
+        final MockDataConnector dc1 = new MockDataConnector("dc1", Collections.singletonMap("test", attr));
+        dc1.initialize();
+        final MockDataConnector dc2 = new MockDataConnector("dc2", (Map<String, IdPAttribute>) null);
+        dc2.setFailure(true);
+        dc2.setFailoverDataConnectorId("dc1");
+        dc2.initialize();
+
+        final ResolverDataConnectorDependency dep1 = new ResolverDataConnectorDependency("dc1");
+        dep1.setAllAttributes(true);
+        final MockAttributeDefinition ad1 = new MockAttributeDefinition("ad1", attr);
+        ad1.setDataConnectorDependencies(Collections.singleton(dep1));
+        ad1.initialize();
+
+        final ResolverDataConnectorDependency dep2 = new ResolverDataConnectorDependency("dc2");
+        dep2.setAllAttributes(true);
+        final MockAttributeDefinition ad2 = new MockAttributeDefinition("ad2", new IdPAttribute("other"));
+        ad2.setDataConnectorDependencies(Collections.singleton(dep2));
+        ad2.setDependencyOnly(true);
+        ad2.initialize();
+
+        final MockAttributeDefinition ad0 = new MockAttributeDefinition("ad0", attr);
+        ad0.setAttributeDependencies(new HashSet<>(Arrays.asList(new ResolverAttributeDefinitionDependency("ad1"),
+                new ResolverAttributeDefinitionDependency("ad2"))));
+        ad0.initialize();
+
+        final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                List.<AttributeDefinition>of(ad0, ad1, ad2), List.<DataConnector>of(dc1, dc2));
+        resolver.setParallelResolution(true);
+        resolver.setMaxParallelism(2);
+        resolver.initialize();
+
+        for (int i = 0; i < 10; i++) {
+            final AttributeResolutionContext context = new AttributeResolutionContext();
+            resolver.resolveAttributes(context);
+
+            assertEquals(context.getResolvedIdPAttributes().size(), 1);
+            assertEquals(context.getResolvedIdPAttributes().get("test").getValues().size(), 2);
+            assertNull(context.getSubcontext(AttributeResolverWorkContext.class));
+        }
+        resolver.destroy();
+    }
+
+    /**
+     * Test that parallel resolve propagates a connector failure.
+     * 
+     * @throws Exception if something goes wrong
+     */
+    @Test public void resolveInParallelFails() throws Exception {
+        final MockDataConnector dc1 = new MockDataConnector("dc1", (Map<String, IdPAttribute>) null);
+        dc1.setFailure(true);
+        dc1.initialize();
+
+        final MockAttributeDefinition ad1 = new MockAttributeDefinition("ad1", new IdPAttribute("test"));
+        ad1.setDataConnectorDependencies(Collections.singleton(TestSources.makeDataConnectorDependency("dc1", null)));
+        ad1.initialize();
+
+        final AttributeResolverImpl resolver = newAttributeResolverImpl("foo", List.<AttributeDefinition>of(ad1),
+                List.<DataConnector>of(dc1));
+        resolver.setParallelResolution(true);
+        resolver.initialize();
+
+        try {
+            resolver.resolveAttributes(new AttributeResolutionContext());
+            fail("Expected failure");
+        } catch (final ResolutionException e) {
+            // OK
+        }
+        resolver.destroy();
+    }
+
+    /**
+     * Test that parallel resolve runs connectors with the caller's MDC, and definitions on the calling thread.
+     * 
+     * @throws Exception if something goes wrong
+     */
+    @Test public void resolveInParallelThreads() throws Exception {
+        final IdPAttribute attr = new IdPAttribute("test");
+        attr.setValues(Collections.singletonList(new StringAttributeValue("a")));
+
+        final List<Thread> connectorThreads = Collections.synchronizedList(new ArrayList<>());
+        final List<String> connectorMDC = Collections.synchronizedList(new ArrayList<>());
+        final MockDataConnector dc1 = new MockDataConnector("dc1", Collections.singletonMap("test", attr)) {
+            @Override
+            @Nullable protected Map<String, IdPAttribute> doDataConnectorResolve(
+                    @Nonnull final AttributeResolutionContext resolutionContext,
+                    @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+                connectorThreads.add(Thread.currentThread());
+                connectorMDC.add(MDC.get("test"));
+                return super.doDataConnectorResolve(resolutionContext, workContext);
+            }
+        };
+        dc1.initialize();
+
+        final List<Thread> definitionThreads = Collections.synchronizedList(new ArrayList<>());
+        final MockAttributeDefinition ad1 = new MockAttributeDefinition("ad1", attr) {
+            @Override
+            @Nullable protected IdPAttribute doAttributeDefinitionResolve(
+                    @Nonnull final AttributeResolutionContext resolutionContext,
+                    @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+                definitionThreads.add(Thread.currentThread());
+                return super.doAttributeDefinitionResolve(resolutionContext, workContext);
+            }
+        };
+        ad1.setDataConnectorDependencies(Collections.singleton(TestSources.makeDataConnectorDependency("dc1", null)));
+        ad1.initialize();
+
+        final AttributeResolverImpl resolver = newAttributeResolverImpl("foo", List.<AttributeDefinition>of(ad1),
+                List.<DataConnector>of(dc1));
+        resolver.setParallelResolution(true);
+        resolver.initialize();
+
+        MDC.put("test", "value");
+        try {
+            final AttributeResolutionContext context = new AttributeResolutionContext();
+            resolver.resolveAttributes(context);
+            assertEquals(context.getResolvedIdPAttributes().get("test").getValues().size(), 1);
+        } finally {
+            MDC.remove("test");
+            resolver.destroy();
+        }
+
+        assertEquals(connectorThreads.size(), 1);
+        assertFalse(connectorThreads.get(0) == Thread.currentThread());
+        assertEquals(connectorMDC.get(0), "value");
+        assertEquals(definitionThreads, Collections.singletonList(Thread.currentThread()));
+    }
+
     /**
      * Test that resolve w/ dependencies returns the expected results.
      * 
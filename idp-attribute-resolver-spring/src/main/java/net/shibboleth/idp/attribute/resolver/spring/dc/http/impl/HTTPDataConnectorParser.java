@@ -128,6 +128,7 @@ public class HTTPDataConnectorParser extends AbstractDataConnectorParser {
         } else {
             builder.addPropertyValue("resultsCache", v2Parser.createCache(parserContext));
         }
+        CacheConfigParser.addRefreshAheadProperties(config, builder);
 
         builder.setInitMethodName("initialize");
         builder.setDestroyMethodName("destroy");
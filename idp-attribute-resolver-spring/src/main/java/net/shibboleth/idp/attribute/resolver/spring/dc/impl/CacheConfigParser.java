@@ -185,6 +185,38 @@ public class CacheConfigParser {
                     .build();
     }
     
+    /**
+     * Add the refresh-ahead settings of the result cache, if any, to a data connector bean definition.
+     * 
+     * <p>Results due for refresh are tracked separately from the cache, so <code>maximumCachedElements</code>
+     * is passed on alongside <code>refreshAfterWrite</code> to size that tracking to match.</p>
+     * 
+     * @param config the config element
+     * @param builder the data connector bean definition builder
+     * 
+     * @since 4.2.0
+     */
+    public static void addRefreshAheadProperties(@Nonnull final Element config,
+            @Nonnull final BeanDefinitionBuilder builder) {
+        
+        final List<Element> cacheElements = ElementSupport.getChildElements(config, RESULT_CACHE_RESOLVER);
+        if (cacheElements.isEmpty()) {
+            return;
+        }
+        
+        final Element cacheElement = cacheElements.get(0);
+        final String refreshAfterWrite =
+                AttributeSupport.getAttributeValue(cacheElement, new QName("refreshAfterWrite"));
+        if (refreshAfterWrite != null) {
+            builder.addPropertyValue("resultsCacheRefreshInterval", refreshAfterWrite);
+            final String maximumSize =
+                    AttributeSupport.getAttributeValue(cacheElement, new QName("maximumCachedElements"));
+            if (maximumSize != null) {
+                builder.addPropertyValue("resultsCacheRefreshMaxSize", maximumSize);
+            }
+        }
+    }
+
     /**
      * Get the bean ID of an externally defined result cache.
      * 
@@ -201,6 +201,7 @@ public class LDAPDataConnectorParser extends AbstractDataConnectorParser {
         } else {
             builder.addPropertyValue("resultsCache", v2Parser.createCache(parserContext));
         }
+        CacheConfigParser.addRefreshAheadProperties(config, builder);
 
         builder.setInitMethodName("initialize");
         builder.setDestroyMethodName("destroy");
@@ -126,6 +126,7 @@ public class RDBMSDataConnectorParser extends AbstractDataConnectorParser {
         } else {
             builder.addPropertyValue("resultsCache", v2Parser.createCache(parserContext));
         }
+        CacheConfigParser.addRefreshAheadProperties(config, builder);
 
         builder.setInitMethodName("initialize");
         builder.setDestroyMethodName("destroy");
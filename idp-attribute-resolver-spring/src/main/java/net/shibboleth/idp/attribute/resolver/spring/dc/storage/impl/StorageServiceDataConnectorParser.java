@@ -98,6 +98,7 @@ public class StorageServiceDataConnectorParser extends AbstractDataConnectorPars
         } else {
             builder.addPropertyValue("resultsCache", v2Parser.createCache(parserContext));
         }
+        CacheConfigParser.addRefreshAheadProperties(config, builder);
         
         builder.addPropertyReference("storageService", config.getAttributeNS(null, "storageServiceRef"));
 
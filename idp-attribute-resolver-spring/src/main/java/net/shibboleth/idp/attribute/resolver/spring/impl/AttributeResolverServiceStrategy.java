@@ -52,6 +52,12 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
 
     /** Whether to attach DisplayInfo to attributes. */
     private boolean suppressDisplayInformation;
+
+    /** Whether to resolve independent plugins concurrently. */
+    private boolean parallelResolution;
+
+    /** Maximum number of threads to use when resolving in parallel. */
+    private int maxParallelism;
     
     /** Do we strip nulls from attribute values.
     * @return Returns whether to strip nulls from attribute values
@@ -86,6 +92,33 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
         suppressDisplayInformation = what;
     }
 
+    /** Do we resolve independent plugins concurrently?
+     * @return whether to resolve in parallel
+     */
+    public boolean isParallelResolution() {
+        return parallelResolution;
+    }
+
+    /**
+     * Set whether to resolve independent plugins concurrently.
+     * 
+     * @param flag flag to set
+     */
+    public void setParallelResolution(final boolean flag) {
+        parallelResolution = flag;
+    }
+
+    /**
+     * Set the maximum number of threads to use when resolving in parallel.
+     * 
+     * <p>A value of 0 (the default) leaves the choice to the resolver.</p>
+     * 
+     * @param max maximum thread count
+     */
+    public void setMaxParallelism(final int max) {
+        maxParallelism = max;
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("removal")
     @Nullable public ServiceableComponent<AttributeResolver> apply(@Nullable final ApplicationContext appContext) {
@@ -104,6 +137,10 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
         resolver.setId(getId());
         resolver.setStripNulls(isStripNulls());
         resolver.setSuppressDisplayInformation(isSuppressDisplayInformation());
+        resolver.setParallelResolution(isParallelResolution());
+        if (maxParallelism > 0) {
+            resolver.setMaxParallelism(maxParallelism);
+        }
         resolver.setApplicationContext(appContext);
 
         try {
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import net.shibboleth.idp.attribute.template.SimpleTemplate;
 import net.shibboleth.utilities.java.support.velocity.Template;
 
 import org.apache.velocity.VelocityContext;
@@ -41,6 +42,9 @@ public abstract class AbstractTemplateSearchDnResolver extends AbstractSearchDnR
     /** Template. */
     private final Template template;
 
+    /** Precompiled form of the template, if it is simple enough. */
+    private final SimpleTemplate simpleTemplate;
+
     /** Event handler used for escaping. */
     private ReferenceInsertionEventHandler eventHandler = new EscapingReferenceInsertionEventHandler();
 
@@ -54,6 +58,7 @@ public abstract class AbstractTemplateSearchDnResolver extends AbstractSearchDnR
      */
     public AbstractTemplateSearchDnResolver(final VelocityEngine engine, final String filter) throws VelocityException {
         template = Template.fromTemplate(engine, filter);
+        simpleTemplate = SimpleTemplate.compile(filter, engine::getProperty);
         setUserFilter(filter);
     }
 
@@ -73,7 +78,11 @@ public abstract class AbstractTemplateSearchDnResolver extends AbstractSearchDnR
             final EventCartridge cartridge = new EventCartridge();
             cartridge.addEventHandler(eventHandler);
             cartridge.attachToContext(context);
-            final String result = template.merge(context);
+            String result = simpleTemplate != null ? simpleTemplate.render(context::get,
+                    (ref, value) -> eventHandler.referenceInsert(context, ref, value)) : null;
+            if (result == null) {
+                result = template.merge(context);
+            }
             if (result != null && !"".equals(result)) {
                 filter.setFilter(result.trim());
             } else {
@@ -20,14 +20,16 @@ package net.shibboleth.idp.authn.principal;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.security.Principal;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -47,6 +49,9 @@ import com.google.common.base.Strings;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -57,6 +62,10 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 /**
  * Principal serializer for arbitrary principal types.
  * 
+ * <p>The constructor of each principal type is resolved once and cached. Principals of types known
+ * to be immutable may also be interned, so that equal instances are shared by all the results
+ * deserialized by this object.</p>
+ * 
  * @since 4.1.0
  */
 @ThreadSafeAfterInit
@@ -68,8 +77,14 @@ public class GenericPrincipalSerializer extends AbstractPrincipalSerializer<Stri
     /** Field name of principal name. */
     @Nonnull @NotEmpty private static final String PRINCIPAL_NAME_FIELD = "nam";
 
-    /** Pattern used to determine if input is supported. */
-    @Nonnull private static final Pattern JSON_PATTERN = Pattern.compile("^\\{\"typ\":.*,\"nam\":.*\\}$");
+    /** Prefix of supported input. */
+    @Nonnull @NotEmpty private static final String JSON_PREFIX = "{\"" + PRINCIPAL_TYPE_FIELD + "\":";
+
+    /** Separator between fields of supported input. */
+    @Nonnull @NotEmpty private static final String JSON_NAME_SEPARATOR = ",\"" + PRINCIPAL_NAME_FIELD + "\":";
+
+    /** Type of the principal constructors invoked. */
+    @Nonnull private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Principal.class, String.class);
 
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(GenericPrincipalSerializer.class);
@@ -80,12 +95,24 @@ public class GenericPrincipalSerializer extends AbstractPrincipalSerializer<Stri
     /** A cache of Principal types that support string-based construction. */
     @Nonnull @NonnullElements private final Set<Class<? extends Principal>> compatiblePrincipalTypes;
 
+    /** A cache of string-based constructors, by Principal type name. */
+    @Nonnull @NonnullElements private final Map<String,MethodHandle> principalConstructors;
+
+    /** Names of immutable Principal types whose instances may be shared. */
+    @Nonnull @NonnullElements private Set<String> internedPrincipalTypes;
+
+    /** Pool of shared Principal instances. */
+    @Nonnull private final Interner<Principal> principalInterner;
+
     /**
      * Constructor.
      */
     public GenericPrincipalSerializer() {
         symbolics = ImmutableBiMap.of();
         compatiblePrincipalTypes = Collections.synchronizedSet(new HashSet<Class<? extends Principal>>());
+        principalConstructors = new ConcurrentHashMap<>();
+        internedPrincipalTypes = Collections.emptySet();
+        principalInterner = Interners.newWeakInterner();
     }
 
     /**
@@ -98,6 +125,21 @@ public class GenericPrincipalSerializer extends AbstractPrincipalSerializer<Stri
         
         symbolics = HashBiMap.create(Constraint.isNotNull(mappings, "Mappings cannot be null"));
     }
+
+    /**
+     * Sets the names of Principal types whose deserialized instances may be shared.
+     * 
+     * <p>Only types that are immutable and define equality by name should be included.</p>
+     * 
+     * @param types  names of Principal types
+     * 
+     * @since 4.2.0
+     */
+    public void setInternedPrincipalTypes(@Nullable @NonnullElements final Collection<String> types) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        internedPrincipalTypes = types != null ? ImmutableSet.copyOf(types) : Collections.emptySet();
+    }
         
     /** {@inheritDoc} */
     public boolean supports(@Nonnull final Principal principal) {
@@ -147,7 +189,8 @@ public class GenericPrincipalSerializer extends AbstractPrincipalSerializer<Stri
 
     /** {@inheritDoc} */
     public boolean supports(@Nonnull @NotEmpty final String value) {
-        return JSON_PATTERN.matcher(value).matches();
+        return value.startsWith(JSON_PREFIX) && value.endsWith("}")
+                && value.indexOf(JSON_NAME_SEPARATOR, JSON_PREFIX.length()) >= 0;
     }
 
     /** {@inheritDoc} */
@@ -166,15 +209,7 @@ public class GenericPrincipalSerializer extends AbstractPrincipalSerializer<Stri
                 final String type = desymbolize(typefield);
                 final String name = desymbolize(namefield);
                 if (!Strings.isNullOrEmpty(type) && !Strings.isNullOrEmpty(name)) {
-                    try {
-                        final Class<? extends Principal> pclass = Class.forName(type).asSubclass(Principal.class);
-                        final Constructor<? extends Principal> ctor = pclass.getConstructor(String.class);
-                        return ctor.newInstance(name);
-                    } catch (final ClassNotFoundException | NoSuchMethodException | SecurityException
-                                | InstantiationException | IllegalAccessException | IllegalArgumentException
-                                | InvocationTargetException e) {
-                        log.warn("Exception instantiating custom Principal type {} with name {}", type, name, e);
-                    }
+                    return instantiate(type, name);
                 } else {
                     log.warn("Unparseable Principal type or name in structure");
                 }
@@ -187,6 +222,35 @@ public class GenericPrincipalSerializer extends AbstractPrincipalSerializer<Stri
         }
     }
 
+    /**
+     * Construct a Principal of the given type, or return a shared equivalent.
+     * 
+     * @param type  name of Principal type
+     * @param name  name of Principal
+     * 
+     * @return the Principal, or null if it cannot be constructed
+     */
+    @Nullable private Principal instantiate(@Nonnull @NotEmpty final String type,
+            @Nonnull @NotEmpty final String name) {
+        try {
+            MethodHandle ctor = principalConstructors.get(type);
+            if (ctor == null) {
+                final Class<? extends Principal> pclass = Class.forName(type).asSubclass(Principal.class);
+                ctor = MethodHandles.publicLookup().findConstructor(pclass,
+                        MethodType.methodType(void.class, String.class)).asType(CONSTRUCTOR_TYPE);
+                principalConstructors.put(type, ctor);
+            }
+            
+            final Principal principal = (Principal) ctor.invokeExact(name);
+            return internedPrincipalTypes.contains(type) ? principalInterner.intern(principal) : principal;
+        } catch (final Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            // Constructors may throw anything, including undeclared checked exceptions.
+            log.warn("Exception instantiating custom Principal type {} with name {}", type, name, e);
+        }
+        return null;
+    }
     
     /**
      * Map a field value to a string, either directly or via the symbolic map.
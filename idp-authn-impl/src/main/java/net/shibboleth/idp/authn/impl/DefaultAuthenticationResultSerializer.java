@@ -55,6 +55,7 @@ import net.shibboleth.idp.authn.principal.PrincipalSerializer;
 import net.shibboleth.idp.authn.principal.PrincipalService;
 import net.shibboleth.idp.authn.principal.PrincipalServiceManager;
 import net.shibboleth.idp.authn.principal.impl.AuthenticationResultPrincipalSerializer;
+import net.shibboleth.idp.session.CompactRecordSupport;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.codec.Base64Support;
@@ -72,6 +73,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Handles serialization of results, delegating handling of {@link Principal} objects to one or more
  * {@link PrincipalSerializer} plugins.
+ * 
+ * <p>Results are written as JSON by default, or optionally in the format supported by
+ * {@link CompactRecordSupport}, in which the serialized form of each principal is carried as an opaque
+ * string. Either format is accepted when reading.</p>
  */
 public class DefaultAuthenticationResultSerializer extends AbstractInitializableComponent
         implements StorageSerializer<AuthenticationResult> {
@@ -120,6 +125,9 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
     
     /** Generic principal serializer for any unsupported principals. */
     @Nonnull private final GenericPrincipalSerializer genericSerializer;
+    
+    /** Whether to write results in the compact format. */
+    private boolean compactSerialization;
 
     /**
      * Constructor.
@@ -169,6 +177,21 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
         return genericSerializer;
     }
     
+    /**
+     * Set whether to write results in the compact format.
+     * 
+     * <p>Results in either format can be read regardless of this setting.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 4.2.0
+     */
+    public void setCompactSerialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        compactSerialization = flag;
+    }
+    
     /** {@inheritDoc} */
     @Override
     public void doInitialize() throws ComponentInitializationException {
@@ -195,6 +218,10 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
     @Nonnull @NotEmpty public String serialize(@Nonnull final AuthenticationResult instance) throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        if (compactSerialization) {
+            return serializeCompact(instance);
+        }
+        
         try {
             final StringWriter sink = new StringWriter(128);
             final JsonGenerator gen = generatorFactory.createGenerator(sink);
@@ -262,6 +289,10 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
                     @Nullable final Long expiration) throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        if (CompactRecordSupport.isCompact(value)) {
+            return deserializeCompact(value, expiration);
+        }
+        
         try (final JsonReader reader = readerFactory.createReader(new StringReader(value))) {
             
             final JsonStructure st = reader.read();
@@ -353,28 +384,38 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
     private void serializePrincipal(@Nonnull final JsonGenerator generator, @Nonnull final Principal principal)
             throws IOException {
 
-        final String serializedForm;
+        final String serializedForm = serializePrincipal(principal);
+        if (serializedForm != null) {
+            try (final JsonReader reader = readerFactory.createReader(new StringReader(serializedForm))) {
+                generator.write(reader.readObject());
+            }
+        }
+    }
+
+    /**
+     * Attempt to serialize a principal with the registered and default serializers.
+     *
+     * @param principal object to serialize
+     * 
+     * @return the serialized form, or null if no serializer supports the principal
+     * @throws IOException if serialization fails
+     */
+    @Nullable private String serializePrincipal(@Nonnull final Principal principal) throws IOException {
         
         // This is a special case because the serializer here is a dedicated one.
         if (authnResultPrincipalSerializer.supports(principal)) {
-            serializedForm = authnResultPrincipalSerializer.serialize(principal);
-        } else {
-            // Otherwise we just obtain the instance by class, or try the generic one.
-            final PrincipalService<?> principalService = principalServiceManager.byClass(principal.getClass());
-            if (principalService != null) {
-                serializedForm = principalService.getSerializer().serialize(principal);
-            } else if (genericSerializer.supports(principal)) {
-                serializedForm = genericSerializer.serialize(principal);
-            } else {
-                serializedForm = null;
-            }
+            return authnResultPrincipalSerializer.serialize(principal);
         }
 
-        if (serializedForm != null) {
-            try (final JsonReader reader = readerFactory.createReader(new StringReader(serializedForm))) {
-                generator.write(reader.readObject());
-            }
+        // Otherwise we just obtain the instance by class, or try the generic one.
+        final PrincipalService<?> principalService = principalServiceManager.byClass(principal.getClass());
+        if (principalService != null) {
+            return principalService.getSerializer().serialize(principal);
+        } else if (genericSerializer.supports(principal)) {
+            return genericSerializer.serialize(principal);
         }
+        
+        return null;
     }
 
     /**
@@ -387,18 +428,155 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
      */
     @Nullable private Principal deserializePrincipal(@Nonnull final JsonValue jsonValue) throws IOException {
         if (jsonValue instanceof JsonObject) {
-            final String json = ((JsonObject) jsonValue).toString();
-            for (final PrincipalSerializer<? super String> serializer : principalSerializers) {
-                if (serializer.supports(json)) {
-                    return serializer.deserialize(json);
-                }
-            }
-            if (genericSerializer.supports(json)) {
-                return genericSerializer.deserialize(json);
+            return deserializePrincipal(((JsonObject) jsonValue).toString());
+        }
+        
+        return null;
+    }
+
+    /**
+     * Attempt to deserialize a principal with the registered and default serializers.
+     * 
+     * @param json the serialized form of the principal
+     * 
+     * @return the {@link Principal} recovered, or null
+     * @throws IOException if an error occurs
+     */
+    @Nullable private Principal deserializePrincipal(@Nonnull final String json) throws IOException {
+        for (final PrincipalSerializer<? super String> serializer : principalSerializers) {
+            if (serializer.supports(json)) {
+                return serializer.deserialize(json);
             }
         }
+        if (genericSerializer.supports(json)) {
+            return genericSerializer.deserialize(json);
+        }
         
         return null;
     }
+
+    /**
+     * Serialize a result in the compact format.
+     * 
+     * @param instance result to serialize
+     * 
+     * @return the serialized form
+     * @throws IOException if serialization fails
+     */
+    @Nonnull @NotEmpty private String serializeCompact(@Nonnull final AuthenticationResult instance)
+            throws IOException {
+        final CompactRecordSupport.RecordWriter writer = CompactRecordSupport.newRecord()
+                .writeString(instance.getAuthenticationFlowId())
+                .writeLong(instance.getAuthenticationInstant().toEpochMilli());
+        
+        final Map<String,String> addtlData = instance.getAdditionalData();
+        writer.writeLong(addtlData.size());
+        for (final Map.Entry<String,String> entry : addtlData.entrySet()) {
+            writer.writeString(entry.getKey()).writeString(entry.getValue());
+        }
+        
+        final Subject subject = instance.getSubject();
+        serializePrincipals(writer, subject.getPrincipals());
+        serializePrincipals(writer, subject.getPublicCredentials(Principal.class));
+        serializePrincipals(writer, subject.getPrivateCredentials(Principal.class));
+        
+        final List<byte[]> x509Creds = new ArrayList<>();
+        for (final X509Certificate x : subject.getPublicCredentials(X509Certificate.class)) {
+            try {
+                x509Creds.add(x.getEncoded());
+            } catch (final CertificateEncodingException e) {
+                log.warn("Unable to serialize X.509 certificate with subject: {}", x.getSubjectDN().toString());
+            }
+        }
+        writer.writeLong(x509Creds.size());
+        x509Creds.forEach(writer::writeBytes);
+        
+        return writer.toRecord();
+    }
     
+    /**
+     * Serialize a set of principals into a compact record.
+     * 
+     * @param writer record to write into
+     * @param principals principals to serialize
+     * 
+     * @throws IOException if serialization fails
+     */
+    private void serializePrincipals(@Nonnull final CompactRecordSupport.RecordWriter writer,
+            @Nonnull @NonnullElements final Set<Principal> principals) throws IOException {
+        final List<String> serialized = new ArrayList<>(principals.size());
+        for (final Principal p : principals) {
+            final String serializedForm = serializePrincipal(p);
+            if (serializedForm != null) {
+                serialized.add(serializedForm);
+            }
+        }
+        writer.writeLong(serialized.size());
+        serialized.forEach(writer::writeString);
+    }
+    
+    /**
+     * Deserialize a result in the compact format.
+     * 
+     * @param value serialized form
+     * @param expiration record expiration
+     * 
+     * @return the result
+     * @throws IOException if the record is malformed
+     */
+    @Nonnull private AuthenticationResult deserializeCompact(@Nonnull @NotEmpty final String value,
+            @Nullable final Long expiration) throws IOException {
+        
+        try {
+            final CompactRecordSupport.RecordReader reader = CompactRecordSupport.openRecord(value);
+            final String flowId = reader.readString();
+            final long authnInstant = reader.readLong();
+
+            final AuthenticationResult result = new AuthenticationResult(flowId, new Subject());
+            result.setAuthenticationInstant(Instant.ofEpochMilli(authnInstant));
+            result.setLastActivityInstant(Instant.ofEpochMilli(expiration != null ? expiration : authnInstant));
+            result.setPreviousResult(true);
+            
+            final Map<String,String> dataMap = result.getAdditionalData();
+            for (int count = reader.readInt(); count > 0; --count) {
+                dataMap.put(reader.readString(), reader.readString());
+            }
+            
+            deserializePrincipals(reader, result.getSubject().getPrincipals());
+            deserializePrincipals(reader, result.getSubject().getPublicCredentials());
+            deserializePrincipals(reader, result.getSubject().getPrivateCredentials());
+            
+            for (int count = reader.readInt(); count > 0; --count) {
+                try {
+                    result.getSubject().getPublicCredentials().add(X509Support.decodeCertificate(reader.readBytes()));
+                } catch (final CertificateException e) {
+                    log.warn("Unable to parse certificate", e);
+                }
+            }
+            
+            return result;
+            
+        } catch (final IOException e) {
+            throw new IOException("Found invalid data structure while parsing AuthenticationResult", e);
+        }
+    }
+    
+    /**
+     * Deserialize a set of principals from a compact record.
+     * 
+     * @param reader record to read from
+     * @param principals set to add principals to
+     * 
+     * @throws IOException if the record is malformed or a principal cannot be deserialized
+     */
+    private void deserializePrincipals(@Nonnull final CompactRecordSupport.RecordReader reader,
+            @Nonnull final Set<? super Principal> principals) throws IOException {
+        for (int count = reader.readInt(); count > 0; --count) {
+            final Principal principal = deserializePrincipal(reader.readString());
+            if (principal != null) {
+                principals.add(principal);
+            }
+        }
+    }
+
 }
\ No newline at end of file
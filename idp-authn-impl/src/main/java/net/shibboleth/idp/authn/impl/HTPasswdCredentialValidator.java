@@ -17,16 +17,19 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -58,6 +61,11 @@ import com.google.common.base.Strings;
 /**
  * A password validator that authenticates against Apache htpasswd files.
  * 
+ * <p>The entries are held in an immutable snapshot that is replaced as a whole when a file-based
+ * resource is modified, so logins during a reload see either the old or the new entries. The file's
+ * modification time is checked at most once per check interval, and only one reload happens at a time,
+ * optionally on a separate {@link Executor}; other logins continue to use the current snapshot.</p>
+ * 
  * @since 4.0.0
  */
 @ThreadSafeAfterInit
@@ -72,16 +80,29 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
     /** Source of information. */
     @Nullable private Resource htPasswdResource;
 
+    /** Minimum time between checks of the resource for changes. */
+    @Nonnull private Duration checkInterval;
+    
+    /** Optional executor to reload the resource on. */
+    @Nullable private Executor reloadExecutor;
+    
     /** File timestamp. */
-    @Nullable private long lastModified;
+    private volatile long lastModified;
+    
+    /** Time at which the resource is next due to be checked. */
+    private volatile long nextCheck;
+    
+    /** Whether a check or reload is in progress. */
+    @Nonnull private final AtomicBoolean reloading;
     
     /** In-memory copy of entries. */
-    @Nonnull @NonnullElements private final Map<String,String> credentialMap;
+    @Nonnull @NonnullElements private volatile Map<String,String> credentialMap;
     
     /** Constructor. */
     public HTPasswdCredentialValidator() {
-        lastModified = 0;
-        credentialMap = new ConcurrentHashMap<>();
+        checkInterval = Duration.ofSeconds(5);
+        reloading = new AtomicBoolean();
+        credentialMap = Collections.emptyMap();
     }
     
     /**
@@ -95,6 +116,39 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
         htPasswdResource = Constraint.isNotNull(resource, "Resource cannot be null");
     }
     
+    /**
+     * Set the minimum time between checks of a file-based resource for changes.
+     * 
+     * <p>Defaults to 5 seconds. Zero checks on every login.</p>
+     * 
+     * @param interval check interval
+     * 
+     * @since 4.2.0
+     */
+    public void setCheckInterval(@Nonnull final Duration interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        Constraint.isNotNull(interval, "Check interval cannot be null");
+        Constraint.isFalse(interval.isNegative(), "Check interval cannot be negative");
+        
+        checkInterval = interval;
+    }
+    
+    /**
+     * Set an {@link Executor} on which to reload a modified resource.
+     * 
+     * <p>If not set, the login that detects the change reloads the resource itself.</p>
+     * 
+     * @param executor executor to use
+     * 
+     * @since 4.2.0
+     */
+    public void setReloadExecutor(@Nullable final Executor executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        reloadExecutor = executor;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -107,13 +161,16 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
 
             digester = new StringDigester("SHA1", OutputFormat.BASE64);
             
+            if (htPasswdResource.isFile()) {
+                lastModified = htPasswdResource.lastModified();
+                nextCheck = System.currentTimeMillis() + checkInterval.toMillis();
+            }
+
             try (final InputStream is = htPasswdResource.getInputStream()) {
-                credentialMap.putAll(readCredentials(is));
+                credentialMap = readCredentials(is);
             }
 
-            if (htPasswdResource.isFile()) {
-                lastModified = htPasswdResource.lastModified();
-            } else {
+            if (!htPasswdResource.isFile()) {
                 htPasswdResource = null;
             }
             
@@ -132,6 +189,8 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
             @Nullable final WarningHandler warningHandler,
             @Nullable final ErrorHandler errorHandler) throws Exception {
         
+        refreshCredentials();
+        
         final String username = usernamePasswordContext.getTransformedUsername();
         
         final String passwd = credentialMap.get(username);
@@ -174,8 +233,6 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
     @Nonnull private boolean authenticate(@Nonnull final UsernamePasswordContext usernamePasswordContext,
             @Nonnull final String storedPassword) {
         
-        refreshCredentials();
-        
         // test Apache MD5 variant encrypted password
         if (storedPassword.startsWith("$apr1$")) {
             if (storedPassword.equals(Md5Crypt.apr1Crypt(usernamePasswordContext.getPassword(), storedPassword))) {
@@ -194,7 +251,7 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
     }
 
     /**
-     * Check for file refresh.
+     * Check for file refresh, if a check is due and no other check is in progress.
      */
     private void refreshCredentials() {
         if (htPasswdResource == null) {
@@ -202,16 +259,41 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
             return;
         }
         
+        final long now = System.currentTimeMillis();
+        if (now < nextCheck || !reloading.compareAndSet(false, true)) {
+            return;
+        }
+        nextCheck = now + checkInterval.toMillis();
+        
+        if (reloadExecutor != null) {
+            try {
+                reloadExecutor.execute(this::reloadIfModified);
+                return;
+            } catch (final RejectedExecutionException e) {
+                log.debug("{} Reload executor rejected task, reloading directly", getLogPrefix());
+            }
+        }
+        reloadIfModified();
+    }
+    
+    /**
+     * Reload the credentials if the file has been modified, and publish the result.
+     */
+    private void reloadIfModified() {
         try {
-            if (htPasswdResource.isFile() && htPasswdResource.exists()
-                    && (htPasswdResource.lastModified() > lastModified)) {
-                try (final InputStream is = htPasswdResource.getInputStream()) {
-                    credentialMap.clear();
-                    credentialMap.putAll(readCredentials(is));
+            if (htPasswdResource.isFile() && htPasswdResource.exists()) {
+                final long modified = htPasswdResource.lastModified();
+                if (modified > lastModified) {
+                    try (final InputStream is = htPasswdResource.getInputStream()) {
+                        credentialMap = readCredentials(is);
+                    }
+                    lastModified = modified;
                 }
             }
         } catch (final IOException e) {
             log.error("{} Error reloading credentials", getLogPrefix(), e);
+        } finally {
+            reloading.set(false);
         }
     }
     
@@ -220,39 +302,45 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
      * 
      * @param is input stream
      * 
-     * @return map of credentials
+     * @return unmodifiable map of credentials
+     * @throws IOException if an error occurs reading the stream
      */
-    @Nonnull @NonnullElements private Map<String,String> readCredentials(@Nonnull final InputStream is) {
+    @Nonnull @NonnullElements private Map<String,String> readCredentials(@Nonnull final InputStream is)
+            throws IOException {
         
         final Map<String,String> credentials = new HashMap<>();
         
-        final Pattern entry = Pattern.compile("^([^:]+):(.+)");
-        try (final Scanner scanner = new Scanner(is, StandardCharsets.UTF_8.name())) {
-            while (scanner.hasNextLine()) {
-                final String line = scanner.nextLine().trim();
-                if (!line.isEmpty() && !line.startsWith("#")) {
-                    final Matcher m = entry.matcher(line);
-                    if (m.matches()) {
-                        final String username = m.group(1);
-                        final String password = m.group(2);
-                        if (Strings.isNullOrEmpty(username)) {
-                            log.warn("{} Skipping line with empty username", getLogPrefix());
-                            continue;
-                        }
-                        if (Strings.isNullOrEmpty(password)) {
-                            log.warn("{} Skipping '{}' user with blank password", getLogPrefix(), username);
-                            continue;
-                        }
-
-                        credentials.put(username.trim(), password.trim());
-                    }
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                
+                final int separator = line.indexOf(':');
+                if (separator <= 0 || separator == line.length() - 1) {
+                    continue;
                 }
+                
+                final String username = line.substring(0, separator).trim();
+                final String password = line.substring(separator + 1).trim();
+                if (Strings.isNullOrEmpty(username)) {
+                    log.warn("{} Skipping line with empty username", getLogPrefix());
+                    continue;
+                }
+                if (Strings.isNullOrEmpty(password)) {
+                    log.warn("{} Skipping '{}' user with blank password", getLogPrefix(), username);
+                    continue;
+                }
+
+                credentials.put(username, password);
             }
         }
         
         log.debug("{} Loaded {} password entries", getLogPrefix(), credentials.size());
         
-        return credentials;
+        return Collections.unmodifiableMap(credentials);
     }
     
 }
\ No newline at end of file
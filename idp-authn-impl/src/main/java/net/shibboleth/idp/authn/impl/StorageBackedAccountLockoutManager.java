@@ -20,6 +20,13 @@ package net.shibboleth.idp.authn.impl;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -34,16 +41,28 @@ import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+
 import net.shibboleth.idp.authn.AccountLockoutManager;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.LockoutManagerContext;
 import net.shibboleth.idp.authn.context.UsernamePasswordContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.component.DestructableComponent;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 import net.shibboleth.utilities.java.support.net.HttpServletSupport;
@@ -51,9 +70,25 @@ import net.shibboleth.utilities.java.support.net.HttpServletSupport;
 /**
  * Implementation of {@link AccountLockoutManager} interface that relies on a {@link StorageService}
  * to track lockout state.
+ * 
+ * <p>Failed attempts may optionally be counted locally and written to the storage service in batches,
+ * once a number of attempts for a key have accumulated or a flush interval has passed, which reduces
+ * the storage traffic generated by a high volume of failures. Locally pending attempts are included in
+ * lockout checks made by this node, and are written out as soon as they cause a lockout, so other nodes
+ * see at most one batch fewer attempts per node than have actually occurred. The number of keys counted
+ * locally is bounded, and a key pushed out of the local cache has its pending attempts written out. Attempts
+ * held past the flush interval are written out by a background task.</p>
+ * 
+ * <p>The component is also a {@link MetricSet} exposing the volume of failed attempts seen.</p>
  */
 public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInitializableComponent
-        implements AccountLockoutManager {
+        implements AccountLockoutManager, MetricSet {
+    
+    /** Default prefix for metrics. */
+    @Nonnull @NotEmpty public static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.authn.lockout";
+    
+    /** Number of storage attempts to make for each write. */
+    private static final int STORAGE_RETRIES = 10;
     
     /** Class logger. */
     @Nonnull private Logger log = LoggerFactory.getLogger(StorageBackedAccountLockoutManager.class);
@@ -76,11 +111,74 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
     /** Controls whether attempts against locked accounts extend duration. */
     private boolean extendLockoutDuration;
     
+    /** Number of locally counted attempts for a key that triggers a write to storage. */
+    @Positive private int flushThreshold;
+    
+    /** Maximum time locally counted attempts are held before being written to storage. */
+    @Nonnull private Duration flushInterval;
+    
+    /** Maximum number of keys to count locally. */
+    @NonNegative private int maxLocalKeys;
+    
+    /** Timer used to schedule background writes of locally counted attempts. */
+    @Nullable private Timer flushTaskTimer;
+    
+    /** Timer created internally when none is supplied. */
+    @Nullable private Timer internalTaskTimer;
+    
+    /** Task that writes out held attempts and stops tracking idle keys. */
+    @Nullable private TimerTask flushTask;
+    
+    /** Locally counted attempts, by key, if batching is enabled. */
+    @Nullable private Cache<String,LocalCounter> localCounters;
+    
+    /** Count of failed attempts. */
+    @Nonnull private final Counter failures;
+    
+    /** Count of writes to storage. */
+    @Nonnull private final Counter flushes;
+    
+    /** Count of checks that found a lockout. */
+    @Nonnull private final Counter lockouts;
+    
+    /** The map of metrics. */
+    @Nonnull @NonnullElements private final Map<String,Metric> metrics;
+    
     /** Constructor. */
     public StorageBackedAccountLockoutManager() {
         setMaxAttempts(5);
         setCounterInterval(Duration.ofMinutes(5));
         setLockoutDuration(Duration.ofMinutes(5));
+        flushThreshold = 1;
+        flushInterval = Duration.ofSeconds(1);
+        maxLocalKeys = 10000;
+        
+        failures = new Counter();
+        flushes = new Counter();
+        lockouts = new Counter();
+        metrics = new HashMap<>();
+        metrics.put(MetricRegistry.name(DEFAULT_METRIC_NAME, "failures"), failures);
+        metrics.put(MetricRegistry.name(DEFAULT_METRIC_NAME, "flushes"), flushes);
+        metrics.put(MetricRegistry.name(DEFAULT_METRIC_NAME, "lockouts"), lockouts);
+        metrics.put(MetricRegistry.name(DEFAULT_METRIC_NAME, "keys"),
+                new Gauge<Integer>() {
+                    public Integer getValue() {
+                        return localCounters != null ? (int) localCounters.size() : 0;
+                    }
+                });
+        metrics.put(MetricRegistry.name(DEFAULT_METRIC_NAME, "maxKeyFailures"),
+                new Gauge<Long>() {
+                    public Long getValue() {
+                        long max = 0;
+                        if (localCounters == null) {
+                            return max;
+                        }
+                        for (final LocalCounter counter : localCounters.asMap().values()) {
+                            max = Math.max(max, counter.total.sum());
+                        }
+                        return max;
+                    }
+                });
     }
 
     /**
@@ -208,6 +306,99 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         extendLockoutDuration = flag;
     }
     
+    /**
+     * Set the number of failed attempts for a key to count locally before writing them to storage.
+     * 
+     * <p>Defaults to 1, which writes every attempt to storage immediately. Larger values reduce the
+     * storage traffic caused by repeated failures, at the cost of other nodes seeing up to this many
+     * fewer attempts per node until they are written.</p>
+     * 
+     * @param threshold flush threshold
+     * 
+     * @since 4.2.0
+     */
+    public void setFlushThreshold(@Positive final int threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        flushThreshold = Constraint.isGreaterThan(0, threshold, "Flush threshold must be greater than zero");
+    }
+    
+    /**
+     * Set the maximum time to hold locally counted attempts before writing them to storage.
+     * 
+     * <p>Defaults to 1 second. Only relevant if the flush threshold is greater than 1.</p>
+     * 
+     * @param interval flush interval
+     * 
+     * @since 4.2.0
+     */
+    public void setFlushInterval(@Nonnull final Duration interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        Constraint.isNotNull(interval, "Flush interval cannot be null");
+        Constraint.isFalse(interval.isNegative(), "Flush interval cannot be negative");
+        
+        flushInterval = interval;
+    }
+    
+    /**
+     * Set the maximum number of keys for which to count attempts locally.
+     * 
+     * <p>Defaults to 10000. When the limit is reached, the least recently used key is written out to
+     * storage and no longer tracked. A value of 0 disables local counting. Only relevant if the flush
+     * threshold is greater than 1.</p>
+     * 
+     * @param max maximum number of keys
+     * 
+     * @since 4.2.0
+     */
+    public void setMaxLocalKeys(@NonNegative final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxLocalKeys = (int) Constraint.isGreaterThanOrEqual(0, max, "Maximum local keys cannot be negative");
+    }
+    
+    /**
+     * Set the timer to use to schedule background writes of locally counted attempts.
+     * 
+     * <p>If not set, a daemon timer is created if needed and cancelled on destroy.</p>
+     * 
+     * @param timer timer to use
+     * 
+     * @since 4.2.0
+     */
+    public void setFlushTaskTimer(@Nullable final Timer timer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        flushTaskTimer = timer;
+    }
+    
+    /**
+     * Get the number of failed attempts seen by this node for each key it is tracking.
+     * 
+     * <p>Keys are tracked only if the flush threshold is greater than 1, and only while they have
+     * attempts pending, or recent attempts within the counter interval or lockout duration.</p>
+     * 
+     * @return failed attempts by key
+     * 
+     * @since 4.2.0
+     */
+    @Nonnull @NonnullElements public Map<String,Long> getLocalFailureCounts() {
+        if (localCounters == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String,Long> counts = new HashMap<>();
+        for (final Map.Entry<String,LocalCounter> entry : localCounters.asMap().entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().total.sum());
+        }
+        return counts;
+    }
+    
+    /** {@inheritDoc} */
+    public Map<String,Metric> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+    
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -217,6 +408,60 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         } else if (lockoutKeyStrategy == null) {
             throw new ComponentInitializationException("Lockout key strategy cannot be null");
         }
+        
+        // With a threshold of 1 every attempt is written through, so there's no local state to keep.
+        if (flushThreshold > 1 && maxLocalKeys > 0) {
+            localCounters = CacheBuilder.newBuilder()
+                    .maximumSize(maxLocalKeys)
+                    .removalListener(this::counterRemoved)
+                    .build();
+            
+            if (!flushInterval.isZero()) {
+                if (flushTaskTimer == null) {
+                    internalTaskTimer = new Timer(true);
+                    flushTaskTimer = internalTaskTimer;
+                }
+                flushTask = new TimerTask() {
+                    public void run() {
+                        flushHeld();
+                    }
+                };
+                flushTaskTimer.schedule(flushTask, flushInterval.toMillis(), flushInterval.toMillis());
+            }
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        if (internalTaskTimer != null) {
+            internalTaskTimer.cancel();
+            internalTaskTimer = null;
+        }
+        flushTaskTimer = null;
+        
+        if (localCounters != null) {
+            if (storageService instanceof DestructableComponent
+                    && ((DestructableComponent) storageService).isDestroyed()) {
+                log.warn("StorageService already destroyed, discarding pending account lockout attempts");
+            } else {
+                for (final Map.Entry<String,LocalCounter> entry : localCounters.asMap().entrySet()) {
+                    try {
+                        flush(entry.getKey(), entry.getValue());
+                    } catch (final RuntimeException e) {
+                        log.error("Error writing pending account lockout attempts for '{}'", entry.getKey(), e);
+                    }
+                }
+            }
+            // Invalidation is an explicit removal, so won't be written out again by the listener.
+            localCounters.invalidateAll();
+            localCounters = null;
+        }
+        
+        super.doDestroy();
     }
     
     /** {@inheritDoc} */
@@ -236,26 +481,34 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             sr = null;
             log.error("Error reading back account lockout state for '{}'", key, e);
         }
+        
+        // Attempts not yet written to storage count as happening now.
+        final LocalCounter local = localCounters != null ? localCounters.getIfPresent(key) : null;
+        final int pending = local != null ? local.pending.get() : 0;
+        
         if (sr == null) {
+            if (pending > 0 && pending >= maxAttemptsLookupStrategy.apply(profileRequestContext)) {
+                log.info("Lockout threshold reached for '{}', invalid count is {}", key, pending);
+                lockedOut(profileRequestContext, key, local);
+                return true;
+            }
             log.debug("No lockout record available for '{}'", key);
             return false;
         }
         
         try {
             // Read counter and check if we've exceeded the limit.
-            final int counter = Integer.parseInt(sr.getValue());
+            final int counter = Integer.parseInt(sr.getValue()) + pending;
             if (counter >= maxAttemptsLookupStrategy.apply(profileRequestContext)) {
                 // Recover time of last attempt from the record expiration and find the time elapsed since.
                 // If that's under the lockout duration, we're locked out.
                 final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis();
                 final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext).toMillis();
                 final long lastAttempt = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
-                final long timeDifference = System.currentTimeMillis() - lastAttempt;
+                final long timeDifference = pending > 0 ? 0 : System.currentTimeMillis() - lastAttempt;
                 if (timeDifference <= lockoutDuration) {
                     log.info("Lockout threshold reached for '{}', invalid count is {}", key, counter);
-                    if (extendLockoutDuration) {
-                        doIncrement(profileRequestContext, key, 10);
-                    }
+                    lockedOut(profileRequestContext, key, local);
                     return true;
                 }
                 log.debug("Lockout for '{}' has elapsed", key);
@@ -278,7 +531,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             return false;
         }
         
-        return doIncrement(profileRequestContext, key, 10);
+        return countAttempt(profileRequestContext, key);
     }
 
     /** {@inheritDoc} */
@@ -287,6 +540,9 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             final String key = lockoutKeyStrategy.apply(profileRequestContext);
             if (key != null) {
                 log.debug("Clearing lockout state for '{}'", key);
+                if (localCounters != null) {
+                    localCounters.invalidate(key);
+                }
                 storageService.delete(getId(), key);
                 return true;
             }
@@ -297,7 +553,132 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         return false;
     }
     
-// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Count a failed attempt, either locally or by writing it to storage.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * 
+     * @return true iff successful
+     */
+    private boolean countAttempt(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key) {
+        
+        failures.inc();
+        
+        final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis();
+        final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext).toMillis();
+        
+        if (localCounters == null) {
+            return doIncrement(key, 1, lockoutDuration, counterInterval, STORAGE_RETRIES);
+        }
+        
+        // The update is made under the map's lock on the key so that it can't race with removal.
+        final LocalCounter local = localCounters.asMap().compute(key, (k, v) -> {
+            final LocalCounter counter = v != null ? v : new LocalCounter();
+            counter.lockoutDuration = lockoutDuration;
+            counter.counterInterval = counterInterval;
+            counter.pending.incrementAndGet();
+            counter.total.increment();
+            return counter;
+        });
+        
+        boolean result = true;
+        if (local.pending.get() >= flushThreshold
+                || System.currentTimeMillis() - local.lastFlush >= flushInterval.toMillis()) {
+            result = flush(key, local);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Handle a positive lockout check.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * @param local locally counted attempts, if any
+     */
+    private void lockedOut(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key, @Nullable final LocalCounter local) {
+        lockouts.inc();
+        
+        // Make sure the rest of the cluster sees the lockout.
+        if (local != null) {
+            flush(key, local);
+        }
+        
+        if (extendLockoutDuration) {
+            countAttempt(profileRequestContext, key);
+        }
+    }
+    
+    /**
+     * Write any locally counted attempts for a key to storage.
+     * 
+     * @param key account lockout key
+     * @param local locally counted attempts
+     * 
+     * @return true iff successful
+     */
+    private boolean flush(@Nonnull @NotEmpty final String key, @Nonnull final LocalCounter local) {
+        // Serialize writes for a key, so the same attempts can't be written twice.
+        synchronized (local) {
+            final int amount = local.pending.get();
+            local.lastFlush = System.currentTimeMillis();
+            if (amount == 0) {
+                return true;
+            }
+            
+            flushes.inc();
+            if (doIncrement(key, amount, local.lockoutDuration, local.counterInterval, STORAGE_RETRIES)) {
+                // Anything counted during the write stays pending.
+                local.pending.addAndGet(-amount);
+                return true;
+            }
+            
+            return false;
+        }
+    }
+    
+    /**
+     * Write out attempts that have been held past the flush interval, and stop tracking idle keys.
+     * 
+     * <p>Run periodically by a background task.</p>
+     */
+    private void flushHeld() {
+        final Cache<String,LocalCounter> counters = localCounters;
+        if (counters == null) {
+            return;
+        }
+        
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String,LocalCounter> entry : counters.asMap().entrySet()) {
+            try {
+                final LocalCounter local = entry.getValue();
+                if (local.pending.get() > 0 && now - local.lastFlush >= flushInterval.toMillis()) {
+                    flush(entry.getKey(), local);
+                }
+                counters.asMap().computeIfPresent(entry.getKey(), (k, v) ->
+                    v.pending.get() == 0 && now - v.lastFlush > Math.max(v.lockoutDuration, v.counterInterval)
+                        ? null : v);
+            } catch (final RuntimeException e) {
+                log.error("Error writing pending account lockout attempts for '{}'", entry.getKey(), e);
+            }
+        }
+    }
+    
+    /**
+     * Write out any pending attempts for a key pushed out of the local cache.
+     * 
+     * @param notification removal notification
+     */
+    private void counterRemoved(@Nonnull final RemovalNotification<String,LocalCounter> notification) {
+        if (notification.wasEvicted() && notification.getKey() != null && notification.getValue() != null) {
+            flush(notification.getKey(), notification.getValue());
+        }
+    }
+    
     /**
      * Implement invalid login attempt counter via storage service, retrying as necessary.
      * 
@@ -309,6 +690,26 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
      */
     protected boolean doIncrement(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull @NotEmpty final String key, final int retries) {
+        return doIncrement(key, 1, lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis(),
+                counterIntervalLookupStrategy.apply(profileRequestContext).toMillis(), retries);
+    }
+    
+// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Add to invalid login attempt counter via storage service, retrying as necessary.
+     * 
+     * @param key account lockout key
+     * @param amount number of attempts to add
+     * @param lockoutDuration lockout duration in milliseconds
+     * @param counterInterval counter interval in milliseconds
+     * @param retries number of additional retries to allow
+     * 
+     * @return true iff successful
+     * 
+     * @since 4.2.0
+     */
+    protected boolean doIncrement(@Nonnull @NotEmpty final String key, @Positive final int amount,
+            final long lockoutDuration, final long counterInterval, final int retries) {
 
         if (retries <= 0) {
             log.error("Account lockout increment attempts for '{}' exceeded retry limit", key);
@@ -336,8 +737,6 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         }
         
         final long now = System.currentTimeMillis();
-        final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis();
-        final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext).toMillis();
         
         // Compute last access time by backing off from record expiration.
         long lastAccess = now;
@@ -351,7 +750,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         }
             
         // Increment, and set expiration to longer of the two settings to ensure it hangs around.
-        ++counter;
+        counter += amount;
         final long expiration = System.currentTimeMillis() + Math.max(lockoutDuration, counterInterval);
 
         log.debug("Invalid login count for '{}' will be {}, expiring at {}", key, counter,
@@ -376,10 +775,36 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             }
         }
         
-        return doIncrement(profileRequestContext, key, retries-1);
+        return doIncrement(key, amount, lockoutDuration, counterInterval, retries-1);
     }
 // Checkstyle: CyclomaticComplexity ON
     
+    /** Failed attempts counted locally for a key. */
+    private static final class LocalCounter {
+        
+        /** Attempts not yet written to storage. */
+        @Nonnull private final AtomicInteger pending;
+        
+        /** All attempts seen by this node. */
+        @Nonnull private final LongAdder total;
+        
+        /** Time of last write to storage. */
+        private volatile long lastFlush;
+        
+        /** Lockout duration in milliseconds. */
+        private volatile long lockoutDuration;
+        
+        /** Counter interval in milliseconds. */
+        private volatile long counterInterval;
+        
+        /** Constructor. */
+        LocalCounter() {
+            pending = new AtomicInteger();
+            total = new LongAdder();
+            lastFlush = System.currentTimeMillis();
+        }
+    }
+    
     /**
      * A function to generate a key for lockout storage. This effectively defines
      * the scope of the lockout; e.g. if the key depends on the supplied username and
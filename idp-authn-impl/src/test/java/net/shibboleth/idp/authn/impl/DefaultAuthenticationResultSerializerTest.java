@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.security.Principal;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
@@ -51,6 +52,7 @@ import net.shibboleth.idp.authn.principal.impl.IdPAttributePrincipalSerializer;
 import net.shibboleth.idp.authn.principal.impl.LDAPPrincipalSerializer;
 import net.shibboleth.idp.authn.principal.impl.ProxyAuthenticationPrincipalSerializer;
 import net.shibboleth.idp.authn.testing.TestPrincipal;
+import net.shibboleth.idp.session.CompactRecordSupport;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.security.DataSealer;
 import net.shibboleth.utilities.java.support.security.impl.BasicKeystoreKeyStrategy;
@@ -298,6 +300,58 @@ public class DefaultAuthenticationResultSerializerTest {
         assertTrue(result2.getReuseCondition().test(prc));
     }
 
+    @Test public void testCompact() throws Exception {
+        serializer.setCompactSerialization(true);
+        serializer.initialize();
+        flowDescriptor.initialize();
+        
+        final AuthenticationResult result = createResult(flowDescriptor, new Subject());
+        result.getSubject().getPrincipals().add(new UsernamePrincipal("bob"));
+        result.getSubject().getPrincipals().add(new TestPrincipal("foo"));
+        result.getSubject().getPublicCredentials().add(X509Support.decodeCertificate(entityCertBase64));
+        result.getSubject().getPrivateCredentials().add(new PasswordPrincipal("bar"));
+        result.getAdditionalData().put("foo", "bar");
+
+        final String s = flowDescriptor.serialize(result);
+        assertTrue(CompactRecordSupport.isCompact(s));
+        
+        final AuthenticationResult result2 = flowDescriptor.deserialize(1, CONTEXT, KEY, s,
+                Instant.ofEpochMilli(ACTIVITY)
+                    .plus(flowDescriptor.getInactivityTimeout())
+                    .plus(AuthenticationFlowDescriptor.STORAGE_EXPIRATION_OFFSET)
+                    .toEpochMilli());
+        
+        assertEquals(result.getAuthenticationFlowId(), result2.getAuthenticationFlowId());
+        assertEquals(result.getAuthenticationInstant(), result2.getAuthenticationInstant());
+        assertEquals(result.getLastActivityInstant(), result2.getLastActivityInstant());
+        assertEquals(result.getAdditionalData(), result2.getAdditionalData());
+        assertEquals(result.getSubject(), result2.getSubject());
+        
+        // JSON records are still readable.
+        final AuthenticationResult result3 = flowDescriptor.deserialize(1, CONTEXT, KEY,
+                fileToString(DATAPATH + "complexAuthenticationResult.json"), ACTIVITY);
+        assertEquals(result3.getSubject().getPrincipals().size(), 3);
+    }
+
+    @Test public void testCompactSize() throws Exception {
+        final DefaultAuthenticationResultSerializer jsonSerializer = new DefaultAuthenticationResultSerializer();
+        jsonSerializer.initialize();
+        final DefaultAuthenticationResultSerializer compactSerializer = new DefaultAuthenticationResultSerializer();
+        compactSerializer.setCompactSerialization(true);
+        compactSerializer.initialize();
+        
+        final AuthenticationResult result = new AuthenticationResult("authn/Password", new Subject());
+        result.setAuthenticationInstant(INSTANT);
+        result.getSubject().getPrincipals().add(new UsernamePrincipal("jdoe"));
+        result.getAdditionalData().put("acr", "https://refeds.org/profile/mfa");
+        
+        final String json = jsonSerializer.serialize(result);
+        final String compact = compactSerializer.serialize(result);
+        assertTrue(CompactRecordSupport.isCompact(compact));
+        assertTrue(compact.length() < json.length(), "Compact record of " + compact.length()
+                + " characters is not smaller than JSON record of " + json.length());
+    }
+
     @Test public void testSymbolic() throws Exception {
         final GenericPrincipalSerializer generic = new GenericPrincipalSerializer();
         generic.setSymbolics(Collections.singletonMap(TestPrincipal.class.getName(), 1));
@@ -334,6 +388,33 @@ public class DefaultAuthenticationResultSerializerTest {
     }
     
 
+    @Test public void testGenericPrincipals() throws Exception {
+        final GenericPrincipalSerializer generic = new GenericPrincipalSerializer();
+        generic.setInternedPrincipalTypes(List.of(TestPrincipal.class.getName()));
+        generic.initialize();
+        
+        final String s = generic.serialize(new TestPrincipal("foo"));
+        assertTrue(generic.supports(s));
+        assertFalse(generic.supports("{\"nam\":\"foo\"}"));
+        assertFalse(generic.supports("{\"typ\":\"foo\"}"));
+        assertFalse(generic.supports("[\"typ\",\"nam\"]"));
+        
+        // Instances of interned types are shared.
+        final Principal p1 = generic.deserialize(s);
+        final Principal p2 = generic.deserialize(s);
+        assertEquals(p1, new TestPrincipal("foo"));
+        assertSame(p1, p2);
+        
+        final String s2 = generic.serialize(new UsernamePrincipal("bob"));
+        final Principal p3 = generic.deserialize(s2);
+        final Principal p4 = generic.deserialize(s2);
+        assertEquals(p3, p4);
+        assertNotSame(p3, p4);
+        
+        assertNull(generic.deserialize("{\"typ\":\"net.shibboleth.idp.NoSuchPrincipal\",\"nam\":\"foo\"}"));
+        assertNull(generic.deserialize("{\"typ\":\"java.lang.String\",\"nam\":\"foo\"}"));
+    }
+
     @Test public void testLdap() throws Exception {
         serializer.initialize();
         flowDescriptor.initialize();
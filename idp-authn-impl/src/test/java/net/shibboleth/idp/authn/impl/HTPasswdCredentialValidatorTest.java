@@ -17,7 +17,13 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.Principal;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -230,6 +236,43 @@ public class HTPasswdCredentialValidatorTest extends BaseAuthenticationContextTe
                 .next().getName(), "PETER_THE_PRINCIPAL");
     }
 
+    @Test public void testReload() throws Exception {
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "PETER_THE_PRINCIPAL4");
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "changeit");
+
+        final AuthenticationContext ac = prc.getSubcontext(AuthenticationContext.class);
+        ac.setAttemptedFlow(authenticationFlows.get(0));
+
+        final File file = File.createTempFile("htpasswd", ".txt");
+        try {
+            Files.copy(new File(DATA_PATH + "htpasswd.txt").toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            file.setLastModified(System.currentTimeMillis() - 60000);
+
+            validator.setResource(new FileSystemResource(file));
+            validator.setCheckInterval(Duration.ZERO);
+            validator.initialize();
+            
+            action.initialize();
+
+            doExtract();
+
+            Event event = action.execute(src);
+            ActionTestingSupport.assertEvent(event, AuthnEventIds.UNKNOWN_USERNAME);
+
+            Files.write(file.toPath(), "\nPETER_THE_PRINCIPAL4:fhGkPZphLLGwE\n".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+            file.setLastModified(System.currentTimeMillis());
+
+            event = action.execute(src);
+            ActionTestingSupport.assertProceedEvent(event);
+            Assert.assertEquals(ac.getAuthenticationResult().getSubject().getPrincipals(UsernamePrincipal.class)
+                    .iterator().next().getName(), "PETER_THE_PRINCIPAL4");
+        } finally {
+            file.delete();
+        }
+    }
+
     @Test public void testAuthorizedSHA() throws Exception {
         ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "PETER_THE_PRINCIPAL2");
         ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "changeit");
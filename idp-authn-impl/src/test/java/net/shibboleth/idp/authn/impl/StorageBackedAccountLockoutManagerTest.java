@@ -19,6 +19,7 @@ package net.shibboleth.idp.authn.impl;
 
 
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -33,19 +34,25 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.codahale.metrics.Gauge;
+
 /** {@link StorageBackedAccountLockoutManager} unit test. */
 public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationContextTest {
 
+    private MemoryStorageService ss;
+
+    private UsernameIPLockoutKeyStrategy keyStrategy;
+
     private StorageBackedAccountLockoutManager manager;    
 
     @BeforeMethod public void setUp() throws Exception {
         super.setUp();
         
-        final MemoryStorageService ss = new MemoryStorageService();
+        ss = new MemoryStorageService();
         ss.setId("test");
         ss.initialize();
         
-        final UsernameIPLockoutKeyStrategy keyStrategy = new UsernameIPLockoutKeyStrategy();
+        keyStrategy = new UsernameIPLockoutKeyStrategy();
         keyStrategy.setHttpServletRequest((HttpServletRequest) src.getExternalContext().getNativeRequest());
         manager = new StorageBackedAccountLockoutManager();
         manager.setId("test");
@@ -110,4 +117,154 @@ public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationCo
         Assert.assertFalse(manager.check(prc));
     }
 
-}
\ No newline at end of file
+    @Test public void batched() throws Exception {
+        final StorageBackedAccountLockoutManager batched = new StorageBackedAccountLockoutManager();
+        batched.setId("test");
+        batched.setStorageService(ss);
+        batched.setLockoutKeyStrategy(keyStrategy);
+        batched.setMaxAttempts(3);
+        batched.setCounterInterval(Duration.ofSeconds(3));
+        batched.setLockoutDuration(Duration.ofSeconds(5));
+        batched.setFlushThreshold(3);
+        batched.setFlushInterval(Duration.ofMinutes(1));
+        batched.initialize();
+        
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        Assert.assertFalse(batched.check(prc));
+        Assert.assertFalse(manager.check(prc));
+        
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "3");
+        Assert.assertTrue(batched.check(prc));
+        Assert.assertTrue(manager.check(prc));
+        Assert.assertEquals(batched.getLocalFailureCounts().get("jdoe!192.168.1.1"), Long.valueOf(3));
+        
+        Assert.assertTrue(batched.clear(prc));
+        Assert.assertFalse(manager.check(prc));
+        Assert.assertTrue(batched.getLocalFailureCounts().isEmpty());
+    }
+
+    @Test public void batchedLocalLockout() throws Exception {
+        final StorageBackedAccountLockoutManager batched = new StorageBackedAccountLockoutManager();
+        batched.setId("test");
+        batched.setStorageService(ss);
+        batched.setLockoutKeyStrategy(keyStrategy);
+        batched.setMaxAttempts(2);
+        batched.setFlushThreshold(5);
+        batched.setFlushInterval(Duration.ofMinutes(1));
+        batched.initialize();
+        
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        
+        // A lockout based on pending attempts is written out for the rest of the cluster.
+        Assert.assertTrue(batched.check(prc));
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "2");
+        Assert.assertTrue(batched.clear(prc));
+    }
+
+    @Test public void writeThroughKeepsNoLocalState() {
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.getLocalFailureCounts().isEmpty());
+        Assert.assertEquals(((Gauge<?>) manager.getMetrics().get("net.shibboleth.idp.authn.lockout.keys")).getValue(),
+                0);
+        Assert.assertTrue(manager.clear(prc));
+    }
+
+    @Test public void batchedEviction() throws Exception {
+        final StorageBackedAccountLockoutManager batched = new StorageBackedAccountLockoutManager();
+        batched.setId("test");
+        batched.setStorageService(ss);
+        batched.setLockoutKeyStrategy(keyStrategy);
+        batched.setFlushThreshold(5);
+        batched.setFlushInterval(Duration.ofMinutes(1));
+        batched.setMaxLocalKeys(1);
+        batched.initialize();
+        
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        
+        // A second key pushes the first out of the local cache, which writes it out.
+        prc.getSubcontext(AuthenticationContext.class).getSubcontext(UsernamePasswordContext.class).setUsername("bob");
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "2");
+        Assert.assertNull(ss.read("test", "bob!192.168.1.1"));
+        Assert.assertEquals(batched.getLocalFailureCounts().size(), 1);
+        
+        batched.destroy();
+        Assert.assertEquals(ss.read("test", "bob!192.168.1.1").getValue(), "1");
+    }
+
+    @Test public void batchedBackgroundFlush() throws Exception {
+        final StorageBackedAccountLockoutManager batched = new StorageBackedAccountLockoutManager();
+        batched.setId("test");
+        batched.setStorageService(ss);
+        batched.setLockoutKeyStrategy(keyStrategy);
+        batched.setFlushThreshold(10);
+        batched.setFlushInterval(Duration.ofMillis(100));
+        batched.initialize();
+        
+        try {
+            Assert.assertTrue(batched.increment(prc));
+            Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+            
+            // Written out without any further requests.
+            Thread.sleep(1000);
+            Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "1");
+        } finally {
+            batched.destroy();
+        }
+    }
+
+    @Test public void batchedFailedWriteKeepsPending() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger lastAmount = new AtomicInteger();
+        final StorageBackedAccountLockoutManager batched = new StorageBackedAccountLockoutManager() {
+            protected boolean doIncrement(final String key, final int amount, final long lockoutDuration,
+                    final long counterInterval, final int retries) {
+                lastAmount.set(amount);
+                if (calls.incrementAndGet() == 1) {
+                    return false;
+                }
+                return super.doIncrement(key, amount, lockoutDuration, counterInterval, retries);
+            }
+        };
+        batched.setId("test");
+        batched.setStorageService(ss);
+        batched.setLockoutKeyStrategy(keyStrategy);
+        batched.setFlushThreshold(2);
+        batched.setFlushInterval(Duration.ofMinutes(1));
+        batched.initialize();
+        
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertFalse(batched.increment(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        
+        // The failed batch is written along with the next attempt.
+        Assert.assertTrue(batched.increment(prc));
+        Assert.assertEquals(lastAmount.get(), 3);
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "3");
+        batched.destroy();
+    }
+
+    @Test public void destroyAfterStorage() throws Exception {
+        final StorageBackedAccountLockoutManager batched = new StorageBackedAccountLockoutManager();
+        batched.setId("test");
+        batched.setStorageService(ss);
+        batched.setLockoutKeyStrategy(keyStrategy);
+        batched.setFlushThreshold(5);
+        batched.setFlushInterval(Duration.ofMinutes(1));
+        batched.initialize();
+        
+        Assert.assertTrue(batched.increment(prc));
+        ss.destroy();
+        batched.destroy();
+        Assert.assertTrue(batched.getLocalFailureCounts().isEmpty());
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.filter.AttributeFilterException;
+import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
+import net.shibboleth.idp.attribute.filter.AttributeRule;
+import net.shibboleth.idp.attribute.filter.Matcher;
+import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
+import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.impl.AttributeFilterImpl;
+import net.shibboleth.idp.attribute.filter.matcher.impl.AttributeValueStringMatcher;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterRegexpPolicyRule;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link AttributeFilterImpl} with a large number of per-relying-party policies, as is typical
+ * of federated deployments, applied to multi-valued attributes.
+ * 
+ * <p>Every tenth policy uses a regular expression requester rule, and a handful of policies apply to
+ * all requesters.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AttributeFilterBenchmark {
+
+    /** Number of attributes input to the filter. */
+    private static final int ATTRIBUTE_COUNT = 40;
+
+    /** Number of policies that apply to every requester. */
+    private static final int GLOBAL_POLICY_COUNT = 5;
+
+    /** Number of relying-party-specific policies. */
+    @Param({"100", "1000", "5000"})
+    private int policyCount;
+
+    /** Number of values per attribute. */
+    @Param({"1", "10"})
+    private int valueCount;
+
+    /** Filter under test. */
+    private AttributeFilterImpl filter;
+
+    /** Unfiltered input attributes. */
+    private List<IdPAttribute> attributes;
+
+    /** Relying party entityIDs. */
+    private String[] relyingParties;
+
+    /** Requester cycled through across invocations. */
+    private int nextRequester;
+
+    /**
+     * Build the filter.
+     * 
+     * @throws ComponentInitializationException if the fixture fails to initialize
+     */
+    @Setup(Level.Trial) public void setUp() throws ComponentInitializationException {
+        attributes = BenchmarkSupport.buildAttributes(ATTRIBUTE_COUNT, valueCount);
+        relyingParties = new String[policyCount];
+        for (int i = 0; i < policyCount; i++) {
+            relyingParties[i] = BenchmarkSupport.relyingPartyId(i);
+        }
+
+        final List<AttributeFilterPolicy> policies = new ArrayList<>(policyCount + GLOBAL_POLICY_COUNT);
+        for (int i = 0; i < GLOBAL_POLICY_COUNT; i++) {
+            policies.add(buildPolicy("global" + i, PolicyRequirementRule.MATCHES_ALL, i));
+        }
+        for (int i = 0; i < policyCount; i++) {
+            final PolicyRequirementRule rule;
+            if (i % 10 == 0) {
+                final AttributeRequesterRegexpPolicyRule regexp = new AttributeRequesterRegexpPolicyRule();
+                regexp.setId("requester" + i);
+                regexp.setPattern(Pattern.compile(Pattern.quote(relyingParties[i])));
+                regexp.initialize();
+                rule = regexp;
+            } else {
+                final AttributeRequesterPolicyRule exact = new AttributeRequesterPolicyRule();
+                exact.setId("requester" + i);
+                exact.setMatchString(relyingParties[i]);
+                exact.initialize();
+                rule = exact;
+            }
+            policies.add(buildPolicy("policy" + i, rule, i));
+        }
+
+        filter = new AttributeFilterImpl("filter", policies);
+        filter.setApplicationContext(BenchmarkSupport.buildApplicationContext());
+        filter.initialize();
+    }
+
+    /** Destroy the filter. */
+    @TearDown(Level.Trial) public void tearDown() {
+        filter.destroy();
+    }
+
+    /**
+     * Filter the attributes for the next relying party in turn.
+     * 
+     * @return the filtered attributes
+     * 
+     * @throws AttributeFilterException if filtering fails
+     */
+    @Benchmark public Map<String,IdPAttribute> filter() throws AttributeFilterException {
+        final int requester = nextRequester;
+        nextRequester = (requester + 1) % policyCount;
+        
+        final AttributeFilterContext context = new AttributeFilterContext();
+        context.setPrincipal("jdoe");
+        context.setAttributeIssuerID("https://idp.example.org/idp/shibboleth");
+        context.setAttributeRecipientID(relyingParties[requester]);
+        context.setPrefilteredIdPAttributes(attributes);
+        filter.filterAttributes(context);
+        return context.getFilteredIdPAttributes();
+    }
+
+    /**
+     * Build a policy releasing two attributes, one in full and one restricted to a single value.
+     * 
+     * @param id policy ID
+     * @param rule policy requirement rule
+     * @param index index used to select the attributes
+     * 
+     * @return the policy
+     * 
+     * @throws ComponentInitializationException if the policy fails to initialize
+     */
+    private AttributeFilterPolicy buildPolicy(final String id, final PolicyRequirementRule rule, final int index)
+            throws ComponentInitializationException {
+        final AttributeRule releaseAll = new AttributeRule();
+        releaseAll.setId(id + "-all");
+        releaseAll.setAttributeId(BenchmarkSupport.attributeId(index % ATTRIBUTE_COUNT));
+        releaseAll.setMatcher(Matcher.MATCHES_ALL);
+        releaseAll.setIsDenyRule(false);
+        releaseAll.initialize();
+
+        final String valueAttributeId = BenchmarkSupport.attributeId((index + 1) % ATTRIBUTE_COUNT);
+        final AttributeValueStringMatcher matcher = new AttributeValueStringMatcher();
+        matcher.setId(id + "-matcher");
+        matcher.setMatchString(valueAttributeId + "-value0@example.org");
+        matcher.initialize();
+
+        final AttributeRule releaseValue = new AttributeRule();
+        releaseValue.setId(id + "-value");
+        releaseValue.setAttributeId(valueAttributeId);
+        releaseValue.setMatcher(matcher);
+        releaseValue.setIsDenyRule(false);
+        releaseValue.initialize();
+
+        final AttributeFilterPolicy policy = new AttributeFilterPolicy(id, rule, List.of(releaseAll, releaseValue));
+        policy.initialize();
+        return policy;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.resolver.AttributeDefinition;
+import net.shibboleth.idp.attribute.resolver.DataConnector;
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.ResolverDataConnectorDependency;
+import net.shibboleth.idp.attribute.resolver.ad.impl.SimpleAttributeDefinition;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.dc.impl.StaticDataConnector;
+import net.shibboleth.idp.attribute.resolver.impl.AttributeResolverImpl;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link AttributeResolverImpl} resolving a set of simple attribute definitions sourced
+ * from a single static data connector.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AttributeResolverBenchmark {
+
+    /** Number of attribute definitions. */
+    @Param({"10", "100"})
+    private int attributeCount;
+
+    /** Number of values per attribute. */
+    @Param({"1", "25"})
+    private int valueCount;
+
+    /** Whether to use the parallel resolution mode. */
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    /** Resolver under test. */
+    private AttributeResolverImpl resolver;
+
+    /**
+     * Build the resolver.
+     * 
+     * @throws ComponentInitializationException if the fixture fails to initialize
+     */
+    @Setup(Level.Trial) public void setUp() throws ComponentInitializationException {
+        final StaticDataConnector connector = new StaticDataConnector();
+        connector.setId("staticConnector");
+        connector.setValues(BenchmarkSupport.buildAttributes(attributeCount, valueCount));
+        connector.initialize();
+
+        final List<AttributeDefinition> definitions = new ArrayList<>(attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            final ResolverDataConnectorDependency dependency = new ResolverDataConnectorDependency("staticConnector");
+            dependency.setAttributeNames(List.of(BenchmarkSupport.attributeId(i)));
+            
+            final SimpleAttributeDefinition definition = new SimpleAttributeDefinition();
+            definition.setId(BenchmarkSupport.attributeId(i));
+            definition.setDataConnectorDependencies(Set.of(dependency));
+            definition.initialize();
+            definitions.add(definition);
+        }
+
+        resolver = new AttributeResolverImpl();
+        resolver.setId("resolver");
+        resolver.setAttributeDefinitions(definitions);
+        resolver.setDataConnectors(List.<DataConnector>of(connector));
+        resolver.setParallelResolution(parallel);
+        resolver.setApplicationContext(BenchmarkSupport.buildApplicationContext());
+        resolver.initialize();
+    }
+
+    /** Destroy the resolver. */
+    @TearDown(Level.Trial) public void tearDown() {
+        resolver.destroy();
+    }
+
+    /**
+     * Resolve every attribute.
+     * 
+     * @return the resolved attributes
+     * 
+     * @throws ResolutionException if resolution fails
+     */
+    @Benchmark public Map<String,IdPAttribute> resolveAll() throws ResolutionException {
+        final AttributeResolutionContext context = new AttributeResolutionContext();
+        context.setPrincipal("jdoe");
+        context.setAttributeIssuerID("https://idp.example.org/idp/shibboleth");
+        context.setAttributeRecipientID(BenchmarkSupport.relyingPartyId(0));
+        resolver.resolveAttributes(context);
+        return context.getResolvedIdPAttributes();
+    }
+
+}
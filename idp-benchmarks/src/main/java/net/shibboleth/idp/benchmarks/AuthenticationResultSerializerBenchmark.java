@@ -0,0 +1,125 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.impl.DefaultAuthenticationResultSerializer;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link DefaultAuthenticationResultSerializer} round-tripping results in both the JSON and
+ * compact formats.
+ * 
+ * <p>The relative size of the two formats is checked by the serializer's unit tests.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AuthenticationResultSerializerBenchmark {
+
+    /** Whether to use the compact format. */
+    @Param({"false", "true"})
+    private boolean compact;
+
+    /** Serializer under test. */
+    private DefaultAuthenticationResultSerializer serializer;
+
+    /** Result to serialize. */
+    private AuthenticationResult result;
+
+    /** Serialized form of the result. */
+    private String serialized;
+
+    /** Expiration to supply when deserializing. */
+    private long expiration;
+
+    /**
+     * Build the serializer and result.
+     * 
+     * @throws ComponentInitializationException if the fixture fails to initialize
+     * @throws IOException if the result cannot be serialized
+     */
+    @Setup(Level.Trial) public void setUp() throws ComponentInitializationException, IOException {
+        serializer = new DefaultAuthenticationResultSerializer();
+        serializer.setCompactSerialization(compact);
+        serializer.initialize();
+
+        final Instant now = Instant.now();
+        expiration = now.plusSeconds(3600).toEpochMilli();
+
+        result = new AuthenticationResult("authn/Password", new Subject());
+        result.setAuthenticationInstant(now);
+        result.getSubject().getPrincipals().add(new UsernamePrincipal("jdoe"));
+        result.getAdditionalData().put("acr", "https://refeds.org/profile/mfa");
+
+        serialized = serializer.serialize(result);
+    }
+
+    /** Destroy the fixture. */
+    @TearDown(Level.Trial) public void tearDown() {
+        serializer.destroy();
+    }
+
+    /**
+     * Serialize the result.
+     * 
+     * @return the serialized form
+     * 
+     * @throws IOException if serialization fails
+     */
+    @Benchmark public String serialize() throws IOException {
+        return serializer.serialize(result);
+    }
+
+    /**
+     * Deserialize the result.
+     * 
+     * @return the result
+     * 
+     * @throws IOException if deserialization fails
+     */
+    @Benchmark public AuthenticationResult deserialize() throws IOException {
+        return serializer.deserialize(1, "context", "key", serialized, expiration);
+    }
+
+}
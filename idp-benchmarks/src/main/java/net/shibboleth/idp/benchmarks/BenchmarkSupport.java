@@ -0,0 +1,109 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * Helpers for building benchmark fixtures.
+ */
+final class BenchmarkSupport {
+
+    /** Constructor. */
+    private BenchmarkSupport() {
+        
+    }
+
+    /**
+     * Build an attribute with a number of generated string values.
+     * 
+     * @param id attribute ID
+     * @param valueCount number of values
+     * 
+     * @return the attribute
+     */
+    @Nonnull static IdPAttribute buildAttribute(@Nonnull final String id, final int valueCount) {
+        final List<IdPAttributeValue> values = new ArrayList<>(valueCount);
+        for (int i = 0; i < valueCount; i++) {
+            values.add(new StringAttributeValue(id + "-value" + i + "@example.org"));
+        }
+        final IdPAttribute attribute = new IdPAttribute(id);
+        attribute.setValues(values);
+        return attribute;
+    }
+
+    /**
+     * Build a list of attributes with generated IDs and values.
+     * 
+     * @param attributeCount number of attributes
+     * @param valueCount number of values per attribute
+     * 
+     * @return the attributes
+     */
+    @Nonnull static List<IdPAttribute> buildAttributes(final int attributeCount, final int valueCount) {
+        final List<IdPAttribute> attributes = new ArrayList<>(attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.add(buildAttribute(attributeId(i), valueCount));
+        }
+        return attributes;
+    }
+
+    /**
+     * Get the generated ID of an attribute.
+     * 
+     * @param index attribute index
+     * 
+     * @return the attribute ID
+     */
+    @Nonnull static String attributeId(final int index) {
+        return "attribute" + index;
+    }
+    
+    /**
+     * Get the generated entityID of a relying party.
+     * 
+     * @param index relying party index
+     * 
+     * @return the entityID
+     */
+    @Nonnull static String relyingPartyId(final int index) {
+        return "https://sp" + index + ".example.org/shibboleth";
+    }
+
+    /**
+     * Build an empty, refreshed application context for components that require one.
+     * 
+     * @return the context
+     */
+    @Nonnull static ApplicationContext buildApplicationContext() {
+        final GenericApplicationContext context = new GenericApplicationContext();
+        context.refresh();
+        return context;
+    }
+
+}
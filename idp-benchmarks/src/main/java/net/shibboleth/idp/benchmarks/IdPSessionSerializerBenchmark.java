@@ -0,0 +1,169 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.SPSessionSerializerRegistry;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSession;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSessionSerializer;
+import net.shibboleth.idp.session.impl.StorageBackedSessionManager;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.net.CookieManager;
+import net.shibboleth.utilities.java.support.net.ThreadLocalHttpServletRequestProxy;
+import net.shibboleth.utilities.java.support.net.ThreadLocalHttpServletResponseProxy;
+import net.shibboleth.utilities.java.support.security.impl.SecureRandomIdentifierGenerationStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.storage.impl.MemoryStorageService;
+
+/**
+ * Benchmarks {@link StorageBackedIdPSessionSerializer} round-tripping sessions with a varying number of
+ * SP sessions, backed by an in-memory storage service, in both the JSON and compact formats.
+ * 
+ * <p>The relative size of the two formats is checked by the serializer's unit tests.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IdPSessionSerializerBenchmark {
+
+    /** Number of SP sessions attached to the session. */
+    @Param({"1", "10", "100"})
+    private int spSessionCount;
+
+    /** Whether to use the compact format. */
+    @Param({"false", "true"})
+    private boolean compact;
+
+    /** Storage service backing the session manager. */
+    private MemoryStorageService storageService;
+
+    /** Session manager that owns the session. */
+    private StorageBackedSessionManager manager;
+
+    /** Serializer under test. */
+    private StorageBackedIdPSessionSerializer serializer;
+
+    /** Session to serialize. */
+    private StorageBackedIdPSession session;
+
+    /** Serialized form of the session. */
+    private String serialized;
+
+    /** Expiration to supply when deserializing. */
+    private long expiration;
+
+    /**
+     * Build the session manager, serializer, and session.
+     * 
+     * @throws ComponentInitializationException if the fixture fails to initialize
+     * @throws IOException if the session cannot be serialized
+     */
+    @Setup(Level.Trial) public void setUp() throws ComponentInitializationException, IOException {
+        storageService = new MemoryStorageService();
+        storageService.setId("storageService");
+        storageService.initialize();
+
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
+        cookieManager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
+        cookieManager.initialize();
+
+        manager = new StorageBackedSessionManager();
+        manager.setId("sessionManager");
+        manager.setStorageService(storageService);
+        manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        manager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
+        manager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
+        manager.setCookieManager(cookieManager);
+        manager.setTrackSPSessions(true);
+        manager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        manager.setCompactSerialization(compact);
+        manager.initialize();
+
+        serializer = new StorageBackedIdPSessionSerializer(manager, null);
+        serializer.initialize();
+
+        final Instant now = Instant.now();
+        final Instant exp = now.plus(Duration.ofHours(8));
+        expiration = exp.toEpochMilli();
+
+        session = new StorageBackedIdPSession(manager, "session", "jdoe", now);
+        session.doBindToAddress("192.168.1.1");
+        session.doBindToAddress("2001:db8::1");
+        session.doAddAuthenticationResult(new AuthenticationResult("authn/Password", new UsernamePrincipal("jdoe")));
+        session.doAddAuthenticationResult(new AuthenticationResult("authn/MFA", new UsernamePrincipal("jdoe")));
+        for (int i = 0; i < spSessionCount; i++) {
+            session.doAddSPSession(new BasicSPSession(BenchmarkSupport.relyingPartyId(i), now, exp));
+        }
+
+        serialized = serializer.serialize(session);
+    }
+
+    /** Destroy the fixture. */
+    @TearDown(Level.Trial) public void tearDown() {
+        serializer.destroy();
+        manager.destroy();
+        storageService.destroy();
+    }
+
+    /**
+     * Serialize the session.
+     * 
+     * @return the serialized form
+     * 
+     * @throws IOException if serialization fails
+     */
+    @Benchmark public String serialize() throws IOException {
+        return serializer.serialize(session);
+    }
+
+    /**
+     * Deserialize the session.
+     * 
+     * @return the session
+     * 
+     * @throws IOException if deserialization fails
+     */
+    @Benchmark public StorageBackedIdPSession deserialize() throws IOException {
+        return serializer.deserialize(1, "session", "key", serialized, expiration);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.security.KeyException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.shibboleth.idp.attribute.PairwiseId;
+import net.shibboleth.idp.attribute.impl.ComputedPairwiseIdStore;
+import net.shibboleth.idp.saml.nameid.impl.CryptoTransientIdGenerationStrategy;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.security.DataSealer;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.saml.common.SAMLException;
+
+/**
+ * Benchmarks generation of computed pairwise identifiers via {@link ComputedPairwiseIdStore} and of
+ * encrypted transient identifiers via {@link CryptoTransientIdGenerationStrategy}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NameIdentifierBenchmark {
+
+    /** Issuer entityID. */
+    private static final String ISSUER = "https://idp.example.org/idp/shibboleth";
+
+    /** Number of distinct relying parties cycled through. */
+    @Param({"1000"})
+    private int relyingPartyCount;
+
+    /** Digest algorithm for computed IDs. */
+    @Param({"SHA", "SHA-256"})
+    private String algorithm;
+
+    /** Computed ID generator under test. */
+    private ComputedPairwiseIdStore computedStore;
+
+    /** Transient ID generator under test. */
+    private CryptoTransientIdGenerationStrategy transientStrategy;
+
+    /** Data sealer for the transient ID generator. */
+    private DataSealer sealer;
+
+    /** Relying party entityIDs. */
+    private String[] relyingParties;
+
+    /** Relying party cycled through across invocations. */
+    private int nextRelyingParty;
+
+    /**
+     * Build the generators.
+     * 
+     * @throws ComponentInitializationException if the fixture fails to initialize
+     */
+    @Setup(Level.Trial) public void setUp() throws ComponentInitializationException {
+        relyingParties = new String[relyingPartyCount];
+        for (int i = 0; i < relyingPartyCount; i++) {
+            relyingParties[i] = BenchmarkSupport.relyingPartyId(i);
+        }
+
+        computedStore = new ComputedPairwiseIdStore();
+        computedStore.setSalt("thisIsASaltValueForBenchmarkingOnly");
+        computedStore.setAlgorithm(algorithm);
+        computedStore.initialize();
+
+        sealer = new DataSealer();
+        sealer.setKeyStrategy(new StaticKeyStrategy());
+        sealer.initialize();
+
+        transientStrategy = new CryptoTransientIdGenerationStrategy();
+        transientStrategy.setId("transient");
+        transientStrategy.setDataSealer(sealer);
+        transientStrategy.setIdLifetime(Duration.ofHours(4));
+        transientStrategy.initialize();
+    }
+
+    /** Destroy the generators. */
+    @TearDown(Level.Trial) public void tearDown() {
+        transientStrategy.destroy();
+        sealer.destroy();
+        computedStore.destroy();
+    }
+
+    /**
+     * Compute a pairwise ID for the next relying party in turn.
+     * 
+     * @return the computed ID
+     * 
+     * @throws IOException if generation fails
+     */
+    @Benchmark public String computedId() throws IOException {
+        final PairwiseId pid = new PairwiseId();
+        pid.setIssuerEntityID(ISSUER);
+        pid.setRecipientEntityID(nextRelyingParty());
+        pid.setPrincipalName("jdoe");
+        pid.setSourceSystemId("jdoe@example.org");
+        return computedStore.getBySourceValue(pid, true).getPairwiseId();
+    }
+
+    /**
+     * Generate a transient ID for the next relying party in turn.
+     * 
+     * @return the transient ID
+     * 
+     * @throws SAMLException if generation fails
+     */
+    @Benchmark public String transientId() throws SAMLException {
+        return transientStrategy.generate(nextRelyingParty(), "jdoe");
+    }
+
+    /**
+     * Get the next relying party in turn.
+     * 
+     * @return relying party entityID
+     */
+    @Nonnull private String nextRelyingParty() {
+        final int index = nextRelyingParty;
+        nextRelyingParty = (index + 1) % relyingPartyCount;
+        return relyingParties[index];
+    }
+
+    /** Key strategy that supplies a single random AES key, avoiding the need for a keystore. */
+    private static final class StaticKeyStrategy implements DataSealerKeyStrategy {
+
+        /** The key. */
+        @Nonnull private final SecretKey key;
+
+        /** Constructor. */
+        StaticKeyStrategy() {
+            final byte[] bytes = new byte[16];
+            new SecureRandom().nextBytes(bytes);
+            key = new SecretKeySpec(bytes, "AES");
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nonnull public Pair<String,SecretKey> getDefaultKey() throws KeyException {
+            return new Pair<>("default", key);
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nonnull public SecretKey getKey(@Nonnull final String name) throws KeyException {
+            return key;
+        }
+    }
+
+}
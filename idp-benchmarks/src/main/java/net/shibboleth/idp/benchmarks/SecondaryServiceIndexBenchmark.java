@@ -0,0 +1,239 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.json.JsonObject;
+
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.SPSessionSerializerRegistry;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SPSessionCriterion;
+import net.shibboleth.idp.session.impl.BasicSPSessionSerializer;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSession;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSessionSerializer;
+import net.shibboleth.idp.session.impl.StorageBackedSessionManager;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.net.CookieManager;
+import net.shibboleth.utilities.java.support.net.ThreadLocalHttpServletRequestProxy;
+import net.shibboleth.utilities.java.support.net.ThreadLocalHttpServletResponseProxy;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.security.impl.SecureRandomIdentifierGenerationStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.storage.StorageSerializer;
+import org.opensaml.storage.impl.MemoryStorageService;
+
+/**
+ * Benchmarks maintenance and lookup of the secondary SP-session index in {@link StorageBackedSessionManager}
+ * when many sessions share a secondary key, with and without dividing the index into buckets.
+ * 
+ * <p>Each index update reads and rewrites the whole record it touches, and with buckets every update also
+ * checks the record in the original single-record format, while each lookup reads every bucket plus that
+ * record. This measures how those costs scale with the number of indexed sessions.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SecondaryServiceIndexBenchmark {
+
+    /** Secondary key shared by every SP session. */
+    @Nonnull @NotEmpty private static final String SHARED_KEY = "shared-key";
+
+    /** Number of sessions indexed under the shared key. */
+    @Param({"10", "100", "1000"})
+    private int indexedSessions;
+
+    /** Number of buckets to divide the index into. */
+    @Param({"0", "16"})
+    private int buckets;
+
+    /** Storage service backing the session manager. */
+    private MemoryStorageService storageService;
+
+    /** Session manager under test. */
+    private StorageBackedSessionManager manager;
+
+    /** Serializer for the primary session records. */
+    private StorageBackedIdPSessionSerializer serializer;
+
+    /** Session whose SP session is repeatedly replaced. */
+    private IdPSession session;
+
+    /** Criteria selecting every indexed session. */
+    private CriteriaSet criteria;
+
+    /** Expiration of the SP sessions. */
+    private Instant expiration;
+
+    /**
+     * Build the session manager and index the sessions.
+     * 
+     * @throws ComponentInitializationException if the fixture fails to initialize
+     * @throws IOException if a session cannot be stored
+     * @throws SessionException if a session cannot be indexed
+     */
+    @Setup(Level.Trial) public void setUp() throws ComponentInitializationException, IOException,
+            SessionException {
+        storageService = new MemoryStorageService();
+        storageService.setId("storageService");
+        storageService.initialize();
+
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
+        cookieManager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
+        cookieManager.initialize();
+
+        final Map<Class<? extends SPSession>,StorageSerializer<? extends SPSession>> mappings = new HashMap<>();
+        mappings.put(SharedKeySPSession.class, new SharedKeySPSessionSerializer());
+        final SPSessionSerializerRegistry registry = new SPSessionSerializerRegistry();
+        registry.setMappings(mappings);
+        registry.initialize();
+
+        manager = new StorageBackedSessionManager();
+        manager.setId("sessionManager");
+        manager.setStorageService(storageService);
+        manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        manager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
+        manager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
+        manager.setCookieManager(cookieManager);
+        manager.setTrackSPSessions(true);
+        manager.setSecondaryServiceIndex(true);
+        manager.setSecondaryServiceIndexBuckets(buckets);
+        manager.setSPSessionSerializerRegistry(registry);
+        manager.initialize();
+
+        serializer = new StorageBackedIdPSessionSerializer(manager, null);
+        serializer.initialize();
+
+        final Instant now = Instant.now();
+        expiration = now.plus(Duration.ofHours(8));
+
+        for (int i = 0; i < indexedSessions; i++) {
+            final StorageBackedIdPSession indexed = new StorageBackedIdPSession(manager, "session" + i, "jdoe" + i,
+                    now);
+            indexed.doBindToAddress("192.168.1.1");
+            storageService.create(indexed.getId(), StorageBackedSessionManager.SESSION_PRIMARY_KEY, indexed,
+                    serializer, expiration.toEpochMilli());
+            indexed.addSPSession(new SharedKeySPSession(BenchmarkSupport.relyingPartyId(0), now, expiration));
+            if (session == null) {
+                session = indexed;
+            }
+        }
+
+        criteria = new CriteriaSet(new SPSessionCriterion(BenchmarkSupport.relyingPartyId(0), SHARED_KEY));
+    }
+
+    /** Destroy the fixture. */
+    @TearDown(Level.Trial) public void tearDown() {
+        serializer.destroy();
+        manager.destroy();
+        storageService.destroy();
+    }
+
+    /**
+     * Replace one session's SP session, removing it from and re-adding it to the index.
+     * 
+     * @return the replaced SP session
+     * 
+     * @throws SessionException if the index cannot be updated
+     */
+    @Benchmark public SPSession reindex() throws SessionException {
+        return session.addSPSession(new SharedKeySPSession(BenchmarkSupport.relyingPartyId(0), Instant.now(),
+                expiration));
+    }
+
+    /**
+     * Look up every session indexed under the shared key.
+     * 
+     * @return the number of sessions found
+     * 
+     * @throws ResolverException if the lookup fails
+     */
+    @Benchmark public int lookup() throws ResolverException {
+        int count = 0;
+        for (final IdPSession found : manager.resolve(criteria)) {
+            count++;
+        }
+        return count;
+    }
+
+    /** SP session exposing the shared secondary key. */
+    private static class SharedKeySPSession extends BasicSPSession {
+
+        /**
+         * Constructor.
+         * 
+         * @param id the identifier of the service associated with this session
+         * @param creation creation time of session
+         * @param expiration expiration time of session
+         */
+        SharedKeySPSession(@Nonnull @NotEmpty final String id, @Nonnull final Instant creation,
+                @Nonnull final Instant expiration) {
+            super(id, creation, expiration);
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nonnull @NotEmpty public String getSPSessionKey() {
+            return SHARED_KEY;
+        }
+    }
+
+    /** Serializer for {@link SharedKeySPSession}. */
+    private static class SharedKeySPSessionSerializer extends BasicSPSessionSerializer {
+
+        /** Constructor. */
+        SharedKeySPSessionSerializer() {
+            super(Duration.ZERO);
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nonnull protected SPSession doDeserialize(@Nonnull final JsonObject obj,
+                @Nonnull @NotEmpty final String id, @Nonnull final Instant creation,
+                @Nonnull final Instant expiration) throws IOException {
+            return new SharedKeySPSession(id, creation, expiration);
+        }
+    }
+
+}
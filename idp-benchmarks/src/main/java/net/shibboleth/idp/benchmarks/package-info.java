@@ -0,0 +1,33 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * JMH microbenchmarks covering the attribute resolver, attribute filter, session serialization, and
+ * identifier generation code paths.
+ * 
+ * <p>The module is built only when the <code>benchmarks</code> profile is active. To produce comparable
+ * JSON results:</p>
+ * 
+ * <pre>
+ * mvn -Pbenchmarks -pl ../idp-benchmarks -am package -DskipTests
+ * mvn -f ../idp-benchmarks exec:exec [-Djmh.include=regex] [-Djmh.resultFile=path]
+ * </pre>
+ * 
+ * <p>or directly via <code>java -jar target/benchmarks.jar -rf json -rff result.json</code>. All fixtures
+ * are built in memory, so no network access or external services are required.</p>
+ */
+package net.shibboleth.idp.benchmarks;
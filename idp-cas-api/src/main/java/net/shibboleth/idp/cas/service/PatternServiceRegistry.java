@@ -17,6 +17,7 @@
 
 package net.shibboleth.idp.cas.service;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -28,6 +29,7 @@ import javax.annotation.Nullable;
 
 import net.shibboleth.ext.spring.service.AbstractServiceableComponent;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +38,11 @@ import org.slf4j.LoggerFactory;
  * Service registry that evaluates a candidate service URL against one or more defined services, where each
  * definition contains a service URL regular expression pattern.
  *
+ * <p>Definitions are evaluated in order and the first match wins. Patterns are indexed by their literal prefix so
+ * that only definitions that could match a given URL are evaluated, and recent results are memoized in a bounded
+ * cache. Both are rebuilt whenever the definitions change, including when a reloadable service that wraps
+ * this registry reloads it.</p>
+ *
  * <p>NOTE: This class will become an implementation component in the next major software version.</p>
  *
  * @author Marvin S. Addison
@@ -51,6 +58,29 @@ public class PatternServiceRegistry extends AbstractServiceableComponent<Service
     @NonnullElements
     private Map<ServiceDefinition, Pattern> definitions = Collections.emptyMap();
 
+    /** Index of the definitions. */
+    @Nonnull private volatile ServiceDefinitionIndex index =
+            new ServiceDefinitionIndex(Collections.emptyList(), Collections.emptyList(), 0);
+
+    /** Maximum number of service URL lookups to memoize. */
+    private long lookupCacheSize = 1000;
+
+    /**
+     * Sets the maximum number of service URL lookups to memoize.
+     *
+     * <p>Defaults to 1000. Set to 0 to disable.</p>
+     *
+     * @param size cache size
+     *
+     * @since 4.2.0
+     */
+    public void setLookupCacheSize(final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        lookupCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Lookup cache size cannot be negative");
+        rebuildIndex();
+    }
+
     /**
      * Sets the list of service definitions that back the registry.
      * 
@@ -64,6 +94,15 @@ public class PatternServiceRegistry extends AbstractServiceableComponent<Service
         for (final ServiceDefinition definition : serviceDefinitions) {
             definitions.put(definition, Pattern.compile(definition.getId()));
         }
+        rebuildIndex();
+    }
+    
+    /** Rebuild the index of the definitions. */
+    private void rebuildIndex() {
+        index = new ServiceDefinitionIndex(new ArrayList<>(definitions.keySet()),
+                new ArrayList<>(definitions.values()), lookupCacheSize);
+        log.debug("Indexed {} service definitions, {} of which are evaluated for every service URL",
+                definitions.size(), index.getResidualCount());
     }
 
     @Nonnull
@@ -76,13 +115,12 @@ public class PatternServiceRegistry extends AbstractServiceableComponent<Service
     @Nullable
     public Service lookup(@Nonnull final String serviceURL) {
         Constraint.isNotNull(serviceURL, "Service URL cannot be null");
-        for (final ServiceDefinition def : definitions.keySet()) {
-            log.debug("Evaluating whether {} matches {}", serviceURL, def);
-            if (definitions.get(def).matcher(serviceURL).matches()) {
-                log.debug("Found match");
-                return new Service(serviceURL, def.getGroup(), def.isAuthorizedToProxy(),
-                        def.isSingleLogoutParticipant());
-            }
+        
+        final ServiceDefinition def = index.lookup(serviceURL);
+        if (def != null) {
+            log.debug("Found match for {} in {}", serviceURL, def);
+            return new Service(serviceURL, def.getGroup(), def.isAuthorizedToProxy(),
+                    def.isSingleLogoutParticipant());
         }
         return null;
     }
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.cas.service;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.idp.profile.RegexSupport;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Ordered collection of service definitions that avoids evaluating patterns that cannot match a service URL.
+ *
+ * <p>The literal prefix of each pattern (e.g. <code>https://app\.example\.org/</code> for
+ * <code>https://app\.example\.org/.*</code>) is stored in a character trie, so walking a service URL through the
+ * trie yields every definition whose prefix it starts with. Patterns with no literal prefix, or containing
+ * alternation, are evaluated for every URL. Candidates are then evaluated in definition order, so the first
+ * matching definition is the same one a linear scan would find.</p>
+ *
+ * <p>Recent results are memoized in a bounded cache.</p>
+ */
+@ThreadSafe
+final class ServiceDefinitionIndex {
+
+    /** Definitions in order. */
+    @Nonnull @NonnullElements private final List<ServiceDefinition> definitions;
+
+    /** Compiled patterns, in definition order. */
+    @Nonnull @NonnullElements private final List<Pattern> patterns;
+
+    /** Positions of definitions that are always candidates. */
+    @Nonnull private final BitSet residual;
+
+    /** Root of the literal prefix trie. */
+    @Nonnull private final Node root;
+
+    /** Memoized lookups, mapping a service URL to the position of the definition it matched, or -1. */
+    @Nullable private final Cache<String,Integer> lookupCache;
+
+    /**
+     * Constructor.
+     *
+     * @param serviceDefinitions definitions in order
+     * @param compiledPatterns compiled pattern for each definition
+     * @param cacheSize maximum number of lookups to memoize, or 0
+     */
+    ServiceDefinitionIndex(@Nonnull @NonnullElements final List<ServiceDefinition> serviceDefinitions,
+            @Nonnull @NonnullElements final List<Pattern> compiledPatterns, final long cacheSize) {
+        definitions = serviceDefinitions;
+        patterns = compiledPatterns;
+        lookupCache = cacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(cacheSize).build() : null;
+        residual = new BitSet(definitions.size());
+        root = new Node();
+
+        for (int i = 0; i < definitions.size(); i++) {
+            final String prefix = getLiteralPrefix(patterns.get(i));
+            if (prefix.isEmpty()) {
+                residual.set(i);
+            } else {
+                Node node = root;
+                for (int c = 0; c < prefix.length(); c++) {
+                    node = node.children.computeIfAbsent(prefix.charAt(c), k -> new Node());
+                }
+                node.definitions.set(i);
+            }
+        }
+    }
+
+    /**
+     * Get the number of definitions evaluated for every service URL.
+     *
+     * @return number of residual definitions
+     */
+    int getResidualCount() {
+        return residual.cardinality();
+    }
+
+    /**
+     * Find the first definition whose pattern matches a service URL.
+     *
+     * @param serviceURL the service URL
+     *
+     * @return the first matching definition, or null
+     */
+    @Nullable ServiceDefinition lookup(@Nonnull final String serviceURL) {
+        Integer position = lookupCache != null ? lookupCache.getIfPresent(serviceURL) : null;
+        if (position == null) {
+            position = evaluate(serviceURL);
+            if (lookupCache != null) {
+                lookupCache.put(serviceURL, position);
+            }
+        }
+        return position >= 0 ? definitions.get(position) : null;
+    }
+
+    /**
+     * Evaluate the candidate definitions for a service URL.
+     *
+     * @param serviceURL the service URL
+     *
+     * @return position of the first matching definition, or -1
+     */
+    private int evaluate(@Nonnull final String serviceURL) {
+        final BitSet candidates = (BitSet) residual.clone();
+        Node node = root;
+        for (int c = 0; c < serviceURL.length() && node != null; c++) {
+            node = node.children.get(serviceURL.charAt(c));
+            if (node != null) {
+                candidates.or(node.definitions);
+            }
+        }
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (patterns.get(i).matcher(serviceURL).matches()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the literal string that every string matching a pattern must start with.
+     *
+     * @param pattern the pattern
+     *
+     * @return the literal prefix, possibly empty
+     */
+    @Nonnull static String getLiteralPrefix(@Nonnull final Pattern pattern) {
+        // The trie compares characters exactly, and flags may change the meaning of the expression.
+        if (pattern.flags() != 0) {
+            return "";
+        }
+        return RegexSupport.getLiteralPrefix(pattern.pattern());
+    }
+
+    /** Node in the literal prefix trie. */
+    private static final class Node {
+
+        /** Child nodes by next character. */
+        @Nonnull private final Map<Character,Node> children = new HashMap<>();
+
+        /** Positions of definitions whose prefix ends at this node. */
+        @Nonnull private final BitSet definitions = new BitSet();
+    }
+
+}
@@ -19,6 +19,7 @@ package net.shibboleth.idp.cas.service;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import net.shibboleth.idp.cas.service.Service;
 import org.testng.annotations.DataProvider;
@@ -36,6 +37,10 @@ public class PatternServiceRegistryTest {
         final ServiceDefinition d2 = new ServiceDefinition("https://trusted\\.example\\.org/.*");
         d2.setGroup("trusted-service");
         d2.setAuthorizedToProxy(true);
+        final ServiceDefinition d3 = new ServiceDefinition(".*");
+        d3.setGroup("anything");
+        final ServiceDefinition d4 = new ServiceDefinition("^https://app\\.example\\.org/?");
+        d4.setGroup("anchored");
         return new Object[][] {
                 {
                         Arrays.asList(d1, d2),
@@ -52,6 +57,26 @@ public class PatternServiceRegistryTest {
                         "https://service.untrusted.org/landing",
                         null,
                 },
+                {
+                        Arrays.asList(d3, d2, d1),
+                        "https://trusted.example.org/landing",
+                        new Service("https://trusted.example.org/landing", "anything", false),
+                },
+                {
+                        Arrays.asList(d2, d3),
+                        "https://trusted.example.org/landing",
+                        new Service("https://trusted.example.org/landing", "trusted-service", true),
+                },
+                {
+                        Arrays.asList(d4, d3),
+                        "https://app.example.org/",
+                        new Service("https://app.example.org/", "anchored", false),
+                },
+                {
+                        Arrays.asList(d4, d3),
+                        "https://apq.example.org/",
+                        new Service("https://apq.example.org/", "anything", false),
+                },
         };
     };
 
@@ -61,13 +86,31 @@ public class PatternServiceRegistryTest {
             throws Exception {
         final PatternServiceRegistry registry = new PatternServiceRegistry();
         registry.setDefinitions(services);
-        final Service actual = registry.lookup(serviceURL);
-        if (expected == null) {
-            assertNull(actual);
-        } else {
-            assertEquals(actual.getName(), expected.getName());
-            assertEquals(actual.getGroup(), expected.getGroup());
-            assertEquals(actual.isAuthorizedToProxy(), expected.isAuthorizedToProxy());
+        // Second lookup is answered from the cache.
+        for (int i = 0; i < 2; i++) {
+            final Service actual = registry.lookup(serviceURL);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(actual.getName(), expected.getName());
+                assertEquals(actual.getGroup(), expected.getGroup());
+                assertEquals(actual.isAuthorizedToProxy(), expected.isAuthorizedToProxy());
+            }
         }
     }
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals(ServiceDefinitionIndex.getLiteralPrefix(
+                Pattern.compile("https://([A-Za-z0-9_-]+\\.)*example\\.org(:\\d+)?/.*")), "https://");
+        assertEquals(ServiceDefinitionIndex.getLiteralPrefix(
+                Pattern.compile("^https://app\\.example\\.org/.*")), "https://app.example.org/");
+        assertEquals(ServiceDefinitionIndex.getLiteralPrefix(
+                Pattern.compile("https://app\\.example\\.org/?")), "https://app.example.org");
+        assertEquals(ServiceDefinitionIndex.getLiteralPrefix(
+                Pattern.compile("https://a\\.org/\\d+")), "https://a.org/");
+        assertEquals(ServiceDefinitionIndex.getLiteralPrefix(Pattern.compile("https://a|https://b")), "");
+        assertEquals(ServiceDefinitionIndex.getLiteralPrefix(Pattern.compile("(?i)https://a")), "");
+        assertEquals(ServiceDefinitionIndex.getLiteralPrefix(Pattern.compile("https://a", Pattern.COMMENTS)), "");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.flow.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventException;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.execution.RequestContext;
+
+import com.google.common.escape.Escaper;
+import com.google.common.xml.XmlEscapers;
+
+import net.shibboleth.idp.cas.attribute.Attribute;
+import net.shibboleth.idp.cas.protocol.TicketValidationRequest;
+import net.shibboleth.idp.cas.protocol.TicketValidationResponse;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * CAS 2.0/3.0 protocol ticket validation success response handler.
+ *
+ * <p>Streams the response directly to the servlet response instead of rendering the
+ * <code>cas/validateSuccess</code> view, and records the response as complete so that the view is not
+ * rendered. The output is identical to the view as shipped, rendered with the default (backward-compatible)
+ * Velocity space gobbling, including its indentation. Under any other space gobbling mode the action does
+ * nothing and the view is rendered as usual.</p>
+ *
+ * @since 4.2.0
+ */
+public class WriteServiceValidateResponseAction extends
+        AbstractCASProtocolAction<TicketValidationRequest, TicketValidationResponse> {
+
+    /** Default content type, matching that of the view. */
+    @Nonnull @NotEmpty public static final String DEFAULT_CONTENT_TYPE = "text/html;charset=utf-8";
+
+    /** Response prologue. */
+    @Nonnull @NotEmpty private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">\n"
+            + "  <cas:authenticationSuccess>\n"
+            + "    <cas:user>";
+
+    /** Response epilogue. */
+    @Nonnull @NotEmpty private static final String FOOTER = "  </cas:authenticationSuccess>\n"
+            + "</cas:serviceResponse>\n";
+
+    /** The only Velocity space gobbling mode whose output this action reproduces. */
+    @Nonnull @NotEmpty private static final String SPACE_GOBBLING_BC = "bc";
+
+    /** Escaper for element content. */
+    @Nonnull private static final Escaper ESCAPER = XmlEscapers.xmlContentEscaper();
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(WriteServiceValidateResponseAction.class);
+
+    /** Content type of response. */
+    @Nonnull @NotEmpty private String contentType;
+
+    /** Velocity space gobbling mode in effect for the view. */
+    @Nullable private String spaceGobbling;
+
+    /** CAS response. */
+    @Nullable private TicketValidationResponse response;
+
+    /** Web flow external context, used to record the response as complete. */
+    @Nullable private ExternalContext externalContext;
+
+    /** Constructor. */
+    public WriteServiceValidateResponseAction() {
+        contentType = DEFAULT_CONTENT_TYPE;
+        spaceGobbling = SPACE_GOBBLING_BC;
+    }
+
+    /**
+     * Set the content type of the response.
+     *
+     * @param type content type
+     */
+    public void setContentType(@Nonnull @NotEmpty final String type) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        contentType = Constraint.isNotEmpty(type, "Content type cannot be null or empty");
+    }
+
+    /**
+     * Set the Velocity space gobbling mode in effect for the view this action replaces.
+     *
+     * <p>Defaults to "bc". Any other mode causes the action to do nothing, leaving the view to be rendered.</p>
+     *
+     * @param mode space gobbling mode
+     */
+    public void setSpaceGobbling(@Nullable final String mode) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        spaceGobbling = StringSupport.trimOrNull(mode);
+    }
+
+    @Override
+    protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        if (!super.doPreExecute(profileRequestContext)) {
+            return false;
+        }
+
+        if (!SPACE_GOBBLING_BC.equals(spaceGobbling)) {
+            log.debug("{} Velocity space gobbling mode is '{}', leaving response to the view", getLogPrefix(),
+                    spaceGobbling);
+            return false;
+        }
+
+        final RequestContext requestContext = getRequestContext(profileRequestContext);
+        if (requestContext == null) {
+            log.error("{} Spring RequestContext not available", getLogPrefix());
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        externalContext = requestContext.getExternalContext();
+
+        try {
+            response = getCASResponse(profileRequestContext);
+        } catch (final EventException e) {
+            ActionSupport.buildEvent(profileRequestContext, e.getEventID());
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+
+        try {
+            getHttpServletResponse().setContentType(contentType);
+            final Writer output = getHttpServletResponse().getWriter();
+            write(response, output);
+            output.flush();
+        } catch (final IOException e) {
+            throw new RuntimeException("IO error writing CAS protocol response", e);
+        }
+
+        if (!externalContext.isResponseComplete()) {
+            externalContext.recordResponseComplete();
+        }
+    }
+
+    /**
+     * Write a success response.
+     *
+     * <p>The whitespace reproduces that of the view, in which each directive's indentation is output
+     * and the line break following it is not.</p>
+     *
+     * @param validationResponse the response to write
+     * @param output destination of the output
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    protected void write(@Nonnull final TicketValidationResponse validationResponse, @Nonnull final Writer output)
+            throws IOException {
+
+        output.write(HEADER);
+        output.write(ESCAPER.escape(validationResponse.getUserName()));
+        output.write("</cas:user>\n");
+
+        output.write("    ");
+        final String pgtIou = validationResponse.getPgtIou();
+        if (pgtIou != null && !pgtIou.isEmpty()) {
+            output.write("      <cas:proxyGrantingTicket>");
+            output.write(ESCAPER.escape(pgtIou));
+            output.write("</cas:proxyGrantingTicket>\n    ");
+        }
+
+        output.write("    ");
+        if (!validationResponse.getAttributes().isEmpty()) {
+            output.write("      <cas:attributes>\n        ");
+            for (final Attribute attribute : validationResponse.getAttributes()) {
+                final String name = ESCAPER.escape(attribute.getName());
+                output.write("          ");
+                for (final String value : attribute.getValues()) {
+                    output.write("            <cas:");
+                    output.write(name);
+                    output.write('>');
+                    output.write(ESCAPER.escape(value));
+                    output.write("</cas:");
+                    output.write(name);
+                    output.write(">\n          ");
+                }
+                output.write("        ");
+            }
+            output.write("      </cas:attributes>\n    ");
+        }
+
+        output.write("    ");
+        if (!validationResponse.getProxies().isEmpty()) {
+            output.write("      <cas:proxies>\n        ");
+            for (final String proxy : validationResponse.getProxies()) {
+                output.write("          <cas:proxy>");
+                output.write(ESCAPER.escape(proxy));
+                output.write("</cas:proxy>\n        ");
+            }
+            output.write("      </cas:proxies>\n    ");
+        }
+
+        output.write(FOOTER);
+    }
+
+}
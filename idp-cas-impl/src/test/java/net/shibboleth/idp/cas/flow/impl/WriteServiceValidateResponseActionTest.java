@@ -0,0 +1,189 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.flow.impl;
+
+import java.io.StringWriter;
+
+import net.shibboleth.idp.cas.attribute.Attribute;
+import net.shibboleth.idp.cas.config.ValidateConfiguration;
+import net.shibboleth.idp.cas.protocol.TicketValidationRequest;
+import net.shibboleth.idp.cas.protocol.TicketValidationResponse;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.xml.XmlEscapers;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Unit test for {@link WriteServiceValidateResponseAction}.
+ *
+ * <p>Besides the expected output, each response is also rendered through the shipped
+ * <code>cas/validateSuccess</code> view and the two outputs are compared.</p>
+ */
+public class WriteServiceValidateResponseActionTest extends AbstractFlowActionTest {
+
+    /** Location of the shipped views, relative to this module. */
+    private static final String VIEWS_PATH = "../idp-conf-impl/src/main/resources/net/shibboleth/idp/views";
+
+    private VelocityEngine engine;
+
+    @BeforeClass
+    public void setUpEngine() {
+        engine = new VelocityEngine();
+        engine.addProperty("parser.space_gobbling", "bc");
+        engine.addProperty("resource.loaders", "file");
+        engine.addProperty("resource.loader.file.class",
+                "org.apache.velocity.runtime.resource.loader.FileResourceLoader");
+        engine.addProperty("resource.loader.file.path", VIEWS_PATH);
+        engine.init();
+    }
+
+    @Test
+    public void testMinimal() throws Exception {
+        final TicketValidationResponse response = new TicketValidationResponse();
+        response.setUserName("john<doe>");
+        assertEquals(write(response),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">\n"
+                + "  <cas:authenticationSuccess>\n"
+                + "    <cas:user>john&lt;doe&gt;</cas:user>\n"
+                + "              </cas:authenticationSuccess>\n"
+                + "</cas:serviceResponse>\n");
+        assertMatchesView(response);
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        final TicketValidationResponse response = new TicketValidationResponse();
+        response.setUserName("john");
+        response.setPgtIou("PGTIOU-1");
+        final Attribute mail = new Attribute("mail");
+        mail.getValues().add("john@example.org");
+        mail.getValues().add("j&d@example.org");
+        response.addAttribute(mail);
+        final Attribute empty = new Attribute("empty");
+        response.addAttribute(empty);
+        response.addProxy("https://proxy1.example.org");
+        response.addProxy("https://proxy2.example.org");
+        assertEquals(write(response),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<cas:serviceResponse xmlns:cas=\"http://www.yale.edu/tp/cas\">\n"
+                + "  <cas:authenticationSuccess>\n"
+                + "    <cas:user>john</cas:user>\n"
+                + "          <cas:proxyGrantingTicket>PGTIOU-1</cas:proxyGrantingTicket>\n"
+                + "              <cas:attributes>\n"
+                + "                              <cas:mail>john@example.org</cas:mail>\n"
+                + "                      <cas:mail>j&amp;d@example.org</cas:mail>\n"
+                + "                                          </cas:attributes>\n"
+                + "              <cas:proxies>\n"
+                + "                  <cas:proxy>https://proxy1.example.org</cas:proxy>\n"
+                + "                  <cas:proxy>https://proxy2.example.org</cas:proxy>\n"
+                + "              </cas:proxies>\n"
+                + "      </cas:authenticationSuccess>\n"
+                + "</cas:serviceResponse>\n");
+        assertMatchesView(response);
+    }
+
+    @Test
+    public void testEmptyPgtIou() throws Exception {
+        final TicketValidationResponse response = new TicketValidationResponse();
+        response.setUserName("john");
+        response.setPgtIou("");
+        assertFalse(write(response).contains("proxyGrantingTicket"));
+        assertMatchesView(response);
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        final TicketValidationResponse response = new TicketValidationResponse();
+        response.setUserName("\"j'o&h<n>\"");
+        response.setPgtIou("PGT<&>");
+        final Attribute attribute = new Attribute("a&b");
+        attribute.getValues().add("<v1>");
+        attribute.getValues().add("\u00e9t\u00e9 & \"quotes\"");
+        response.addAttribute(attribute);
+        response.addProxy("https://proxy.example.org/?a=1&b=<2>");
+        assertMatchesView(response);
+    }
+
+    @Test
+    public void testSingleEmptyAttribute() throws Exception {
+        final TicketValidationResponse response = new TicketValidationResponse();
+        response.setUserName("john");
+        response.addAttribute(new Attribute("empty"));
+        response.addProxy("https://proxy1.example.org");
+        assertMatchesView(response);
+    }
+
+    @Test
+    public void testOtherSpaceGobbling() throws Exception {
+        final TicketValidationResponse response = new TicketValidationResponse();
+        response.setUserName("john");
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        final WriteServiceValidateResponseAction action = new WriteServiceValidateResponseAction();
+        action.setHttpServletResponse(httpResponse);
+        action.setSpaceGobbling("lines");
+        action.initialize();
+        final RequestContext context = buildContext(response);
+        assertNull(action.execute(context));
+        assertEquals(httpResponse.getContentAsString(), "");
+        assertFalse(context.getExternalContext().isResponseComplete());
+    }
+
+    private void assertMatchesView(final TicketValidationResponse response) throws Exception {
+        assertEquals(write(response).getBytes("UTF-8"), render(response).getBytes("UTF-8"));
+    }
+
+    private String render(final TicketValidationResponse response) {
+        final VelocityContext velocityContext = new VelocityContext();
+        velocityContext.put("ticketValidationResponse", response);
+        velocityContext.put("xmlContentEscaper", XmlEscapers.xmlContentEscaper());
+        final Template template = engine.getTemplate("cas/validateSuccess.vm", "UTF-8");
+        final StringWriter output = new StringWriter();
+        template.merge(velocityContext, output);
+        return output.toString();
+    }
+
+    private String write(final TicketValidationResponse response) throws Exception {
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        final WriteServiceValidateResponseAction action = new WriteServiceValidateResponseAction();
+        action.setHttpServletResponse(httpResponse);
+        action.initialize();
+        final RequestContext context = buildContext(response);
+        assertNull(action.execute(context));
+        assertEquals(httpResponse.getContentType(), WriteServiceValidateResponseAction.DEFAULT_CONTENT_TYPE);
+        assertTrue(context.getExternalContext().isResponseComplete());
+        return httpResponse.getContentAsString();
+    }
+
+    private RequestContext buildContext(final TicketValidationResponse response) {
+        return new TestContextBuilder(ValidateConfiguration.PROFILE_ID)
+                .addProtocolContext(new TicketValidationRequest("https://example.org", "ST-1"), response)
+                .build();
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.test.flows.cas;
+
+import static org.testng.Assert.*;
+
+import java.time.Instant;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.cas.ticket.ServiceTicket;
+import net.shibboleth.idp.cas.ticket.TicketService;
+import net.shibboleth.idp.cas.ticket.TicketState;
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SessionManager;
+import net.shibboleth.idp.test.flows.AbstractFlowTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.webflow.executor.FlowExecutionResult;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the ticket validation flows with <code>idp.cas.streamValidateResponse</code> enabled.
+ *
+ * <p>Only the CAS 2.0 endpoints stream their response; the others must produce exactly the same
+ * output they do when streaming is disabled.</p>
+ */
+@ContextConfiguration(locations = {
+        "/test/test-cas-beans.xml",
+})
+@TestPropertySource(properties = {"idp.cas.streamValidateResponse=true"})
+public class StreamedValidateFlowTest extends AbstractFlowTest {
+
+    private static final String SAML_REQUEST_TEMPLATE =
+            "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+            "<SOAP-ENV:Header/><SOAP-ENV:Body>" +
+            "<samlp:Request xmlns:samlp=\"urn:oasis:names:tc:SAML:1.0:protocol\" MajorVersion=\"1\" " +
+                    "MinorVersion=\"1\" RequestID=\"_192.168.16.51.1024506224022\" " +
+                    "IssueInstant=\"2002-06-19T17:03:44.022Z\">" +
+            "<samlp:AssertionArtifact>@@TICKET@@</samlp:AssertionArtifact>" +
+            "</samlp:Request></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    @Autowired
+    @Qualifier("shibboleth.CASTicketService")
+    private TicketService ticketService;
+
+    @Autowired
+    private SessionManager sessionManager;
+
+    @Test
+    public void testValidate() throws Exception {
+        final ServiceTicket ticket = createTicket("ST-1415133132-streamedValidate");
+        externalContext.getMockRequestParameterMap().put("service", ticket.getService());
+        externalContext.getMockRequestParameterMap().put("ticket", ticket.getId());
+        overrideEndStateOutput("cas/validate", "ValidateSuccess");
+
+        final FlowExecutionResult result = flowExecutor.launchExecution("cas/validate", null, externalContext);
+
+        assertEquals(result.getOutcome().getId(), "ValidateSuccess");
+        assertEquals(response.getContentAsString(), "yes\njohn\n");
+        assertEquals("text/plain;charset=utf-8", response.getContentType());
+    }
+
+    @Test
+    public void testSamlValidate() throws Exception {
+        final ServiceTicket ticket = createTicket("ST-1415133132-streamedSamlValidate");
+        request.setMethod("POST");
+        request.setContentType("text/xml");
+        request.setContent(SAML_REQUEST_TEMPLATE.replace("@@TICKET@@", ticket.getId()).getBytes("UTF-8"));
+        externalContext.getMockRequestParameterMap().put("TARGET", ticket.getService());
+        overrideEndStateOutput("cas/samlValidate", "ValidateSuccess");
+
+        final FlowExecutionResult result = flowExecutor.launchExecution("cas/samlValidate", null, externalContext);
+
+        assertEquals(result.getOutcome().getId(), "ValidateSuccess");
+        final String responseBody = response.getContentAsString();
+        assertFalse(responseBody.contains("cas:serviceResponse"));
+        assertTrue(responseBody.contains("<saml1p:StatusCode Value=\"saml1p:Success\"/>"));
+        assertTrue(responseBody.contains("<saml1:NameIdentifier>john</saml1:NameIdentifier>"));
+    }
+
+    @Test
+    public void testServiceValidate() throws Exception {
+        final ServiceTicket ticket = createTicket("ST-1415133132-streamedServiceValidate");
+        externalContext.getMockRequestParameterMap().put("service", ticket.getService());
+        externalContext.getMockRequestParameterMap().put("ticket", ticket.getId());
+        overrideEndStateOutput("cas/serviceValidate", "ValidateSuccess");
+
+        final FlowExecutionResult result = flowExecutor.launchExecution("cas/serviceValidate", null, externalContext);
+
+        assertEquals(result.getOutcome().getId(), "ValidateSuccess");
+        final String responseBody = response.getContentAsString();
+        assertEquals(responseBody.indexOf("<cas:serviceResponse"), responseBody.lastIndexOf("<cas:serviceResponse"));
+        assertTrue(responseBody.contains("<cas:authenticationSuccess>"));
+        assertTrue(responseBody.contains("<cas:user>john</cas:user>"));
+        assertTrue(responseBody.contains("<cas:mail>john@example.org</cas:mail>"));
+    }
+
+    @Nonnull private ServiceTicket createTicket(@Nonnull final String id) throws Exception {
+        final IdPSession session = sessionManager.createSession("john");
+        return ticketService.createServiceTicket(
+                id,
+                Instant.now().plusSeconds(5),
+                "https://test.example.org/",
+                new TicketState(session.getId(), "john", Instant.now(), "Password"),
+                false);
+    }
+}
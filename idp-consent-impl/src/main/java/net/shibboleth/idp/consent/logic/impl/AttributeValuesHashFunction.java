@@ -17,12 +17,14 @@
 
 package net.shibboleth.idp.consent.logic.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.function.Function;
 
@@ -36,6 +38,9 @@ import org.opensaml.saml.saml2.core.NameIDType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import net.shibboleth.idp.attribute.ByteAttributeValue;
 import net.shibboleth.idp.attribute.EmptyAttributeValue;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
@@ -45,6 +50,7 @@ import net.shibboleth.idp.attribute.XMLObjectAttributeValue;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.codec.Base64Support;
 import net.shibboleth.utilities.java.support.codec.EncodingException;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 /**
@@ -54,30 +60,83 @@ import net.shibboleth.utilities.java.support.xml.SerializeSupport;
  * <code>Null</code> IdP attribute values are ignored.
  * 
  * The hash returned is the Base64 encoded representation of the SHA-256 digest.
+ * 
+ * <p>The values are serialized straight into the digest rather than into an intermediate buffer, and
+ * the result is identical to that of earlier versions. Optionally, results can be cached by the
+ * (ordered) values hashed, so that unchanged attributes need not be hashed again.</p>
  */
 public class AttributeValuesHashFunction implements Function<Collection<IdPAttributeValue>, String> {
 
+    /** Digest algorithm. */
+    @Nonnull private static final String DIGEST_ALGORITHM = "SHA-256";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AttributeValuesHashFunction.class);
 
-    // CheckStyle: CyclomaticComplexity OFF
+    /** Cache of results, if enabled. */
+    @Nullable private Cache<List<IdPAttributeValue>,String> resultCache;
+
+    /**
+     * Set the maximum number of results to cache.
+     * 
+     * <p>Defaults to 0, which disables caching.</p>
+     * 
+     * @param size maximum number of cached results
+     * 
+     * @since 4.2.0
+     */
+    public void setCacheSize(final long size) {
+        Constraint.isGreaterThanOrEqual(0, size, "Cache size must be greater than or equal to 0");
+        
+        resultCache = size > 0 ? CacheBuilder.newBuilder().maximumSize(size).build() : null;
+    }
+
     /** {@inheritDoc} */
     @Nullable public String apply(@Nullable @NonnullElements final Collection<IdPAttributeValue> input) {
 
-        if (input == null) {
+        if (input == null || input.isEmpty()) {
             return null;
         }
 
-        final Collection<IdPAttributeValue> filteredInput = List.copyOf(input);
+        if (resultCache == null) {
+            return computeHash(input);
+        }
+        
+        final List<IdPAttributeValue> key = List.copyOf(input);
+        String hash = resultCache.getIfPresent(key);
+        if (hash == null) {
+            hash = computeHash(key);
+            // The serialized form of repeated values depends on object identity, so only cache
+            // results that are a function of the values alone.
+            if (hash != null && new HashSet<>(key).size() == key.size()) {
+                resultCache.put(key, hash);
+            }
+        }
+        return hash;
+    }
 
-        if (filteredInput.isEmpty()) {
+    // CheckStyle: CyclomaticComplexity OFF
+    /**
+     * Compute the hash of the values.
+     * 
+     * @param input the values to hash
+     * 
+     * @return the hash, or null if an error occurs
+     */
+    @Nullable private String computeHash(@Nonnull @NonnullElements final Collection<IdPAttributeValue> input) {
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            log.error("Error while converting attribute values into a byte array", e);
             return null;
         }
         
-        try (final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            final ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+        try (final ObjectOutputStream objectOutputStream =
+                new ObjectOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
 
-            for (final IdPAttributeValue value : filteredInput) {
+            for (final IdPAttributeValue value : input) {
                 if (log.isTraceEnabled()) {
                     log.trace("Considering value of '{}' with native value {}",
                             value.getClass(), value.getNativeValue());
@@ -118,17 +177,15 @@ public class AttributeValuesHashFunction implements Function<Collection<IdPAttri
                 }
             }
 
+            // Flushing pushes any buffered block data through to the digest.
             objectOutputStream.flush();
+            return Base64Support.encode(digest.digest(), false);
 
-            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            final byte[] digestedBytes = digest.digest(byteArrayOutputStream.toByteArray());
-            return Base64Support.encode(digestedBytes, false);
-
-        } catch (final IOException | NoSuchAlgorithmException | EncodingException e) {
+        } catch (final IOException | EncodingException e) {
             log.error("Error while converting attribute values into a byte array", e);
             return null;
         }
     }
     // CheckStyle: CyclomaticComplexity ON
     
-}
\ No newline at end of file
+}
@@ -19,8 +19,10 @@ package net.shibboleth.idp.consent.logic.impl;
 
 import static org.testng.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opensaml.core.testing.XMLObjectBaseTestCase;
 import org.opensaml.core.xml.XMLObjectBuilder;
@@ -75,6 +77,54 @@ public class AttributeValuesHashFunctionTest extends XMLObjectBaseTestCase {
         assertEquals(hash, "w4A7kgpy8PAiMfNkM8yR68zLF9ngILQDWDy+n2l59zk=");
     }
 
+    @Test public void testCached() {
+        function.setCacheSize(10);
+        final List<IdPAttributeValue> values = ConsentTestingSupport.newAttributeMap().get("attribute2").getValues();
+        assertEquals(function.apply(values), "w4A7kgpy8PAiMfNkM8yR68zLF9ngILQDWDy+n2l59zk=");
+        assertEquals(function.apply(List.copyOf(values)), "w4A7kgpy8PAiMfNkM8yR68zLF9ngILQDWDy+n2l59zk=");
+    }
+
+    @Test public void testCacheHit() {
+        function.setCacheSize(10);
+        final AtomicInteger reads = new AtomicInteger();
+        final IdPAttributeValue first = countingAV("1", reads);
+        final IdPAttributeValue second = countingAV("2", reads);
+
+        final String hash = function.apply(List.of(first, second));
+        Assert.assertNotNull(hash);
+        final int readsAfterMiss = reads.get();
+        Assert.assertTrue(readsAfterMiss > 0);
+
+        // An equal list of the same values is answered from the cache without touching them.
+        assertEquals(function.apply(new ArrayList<>(List.of(first, second))), hash);
+        assertEquals(reads.get(), readsAfterMiss);
+
+        // Order is significant, so this is a miss.
+        Assert.assertNotEquals(function.apply(List.of(second, first)), hash);
+        Assert.assertTrue(reads.get() > readsAfterMiss);
+    }
+
+    @Test public void testRepeatedValuesNotCached() {
+        function.setCacheSize(10);
+        final AtomicInteger reads = new AtomicInteger();
+        final IdPAttributeValue value = countingAV("1", reads);
+
+        final String hash = function.apply(List.of(value, value));
+        final int readsAfterFirst = reads.get();
+        assertEquals(function.apply(List.of(value, value)), hash);
+        Assert.assertTrue(reads.get() > readsAfterFirst);
+    }
+
+    @Test public void testUncached() {
+        final AtomicInteger reads = new AtomicInteger();
+        final List<IdPAttributeValue> values = List.of(countingAV("1", reads));
+
+        final String hash = function.apply(values);
+        final int readsAfterFirst = reads.get();
+        assertEquals(function.apply(values), hash);
+        Assert.assertTrue(reads.get() > readsAfterFirst);
+    }
+
     @Test public void testScoped() {
         // NOTE Any change is an ODS drift
         final IdPAttributeValue val = new ScopedStringAttributeValue("Value", "Scope");
@@ -111,6 +161,19 @@ public class AttributeValuesHashFunctionTest extends XMLObjectBaseTestCase {
             }};
     }
 
+    private IdPAttributeValue countingAV(final Object type, final AtomicInteger reads) {
+        return new IdPAttributeValue() {
+
+            public Object getNativeValue() {
+                reads.incrementAndGet();
+                return type;
+            }
+
+            public String getDisplayValue() {
+                return "Display";
+            }};
+    }
+
     @Test public void unknownTypeValue() {
         assertEquals(function.apply(Collections.singletonList(testAV("42"))), "Lt6BAjtq4qQJ6ADEZKf/s5XZxzBh6mShY/UCphriugY=");
     }
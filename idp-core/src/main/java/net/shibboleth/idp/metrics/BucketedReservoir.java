@@ -0,0 +1,306 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A {@link Reservoir} that counts values into fixed buckets rather than sampling them.
+ *
+ * <p>Because every instance with the same bucket boundaries counts in the same way, the bucket counts
+ * from many nodes can simply be summed and percentiles derived from the result, which is not possible
+ * with the percentiles computed by sampling reservoirs. Counts accumulate for the life of the reservoir,
+ * and percentiles are interpolated within a bucket, so their accuracy depends on the boundaries.</p>
+ *
+ * @since 4.2.0
+ */
+public class BucketedReservoir implements Reservoir {
+
+    /** Default bucket upper bounds, suited to request latencies in nanoseconds. */
+    @Nonnull private static final long[] DEFAULT_BOUNDS = {
+        TimeUnit.MICROSECONDS.toNanos(1000),
+        TimeUnit.MICROSECONDS.toNanos(2500),
+        TimeUnit.MILLISECONDS.toNanos(5),
+        TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(25),
+        TimeUnit.MILLISECONDS.toNanos(50),
+        TimeUnit.MILLISECONDS.toNanos(100),
+        TimeUnit.MILLISECONDS.toNanos(250),
+        TimeUnit.MILLISECONDS.toNanos(500),
+        TimeUnit.SECONDS.toNanos(1),
+        TimeUnit.MILLISECONDS.toNanos(2500),
+        TimeUnit.SECONDS.toNanos(5),
+        TimeUnit.SECONDS.toNanos(10),
+    };
+
+    /** Inclusive upper bound of each bucket but the last, which is unbounded. */
+    @Nonnull private final long[] bounds;
+
+    /** Count of values in each bucket. */
+    @Nonnull private final LongAdder[] counts;
+
+    /** Sum of all values. */
+    @Nonnull private final LongAdder sum;
+
+    /** Smallest value. */
+    @Nonnull private final LongAccumulator min;
+
+    /** Largest value. */
+    @Nonnull private final LongAccumulator max;
+
+    /** Constructor using default bucket boundaries suited to request latencies in nanoseconds. */
+    public BucketedReservoir() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param upperBounds inclusive upper bound of each bucket, in increasing order
+     */
+    public BucketedReservoir(@Nonnull final long[] upperBounds) {
+        Constraint.isNotNull(upperBounds, "Bucket bounds cannot be null");
+        Constraint.isTrue(upperBounds.length > 0, "Bucket bounds cannot be empty");
+        for (int i = 1; i < upperBounds.length; ++i) {
+            Constraint.isTrue(upperBounds[i] > upperBounds[i - 1], "Bucket bounds must be strictly increasing");
+        }
+
+        bounds = upperBounds.clone();
+        counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = new LongAdder();
+        }
+        sum = new LongAdder();
+        min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    }
+
+    /**
+     * Get the inclusive upper bound of each bucket but the last, which is unbounded.
+     *
+     * @return bucket bounds
+     */
+    @Nonnull public long[] getBucketBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Get the number of values counted in each bucket, including the unbounded last bucket.
+     *
+     * @return bucket counts, one more than the number of bounds
+     */
+    @Nonnull public long[] getBucketCounts() {
+        final long[] result = new long[counts.length];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    /**
+     * Get the sum of all values.
+     *
+     * @return sum of values
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /** {@inheritDoc} */
+    public int size() {
+        long total = 0;
+        for (final LongAdder count : counts) {
+            total += count.sum();
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    /** {@inheritDoc} */
+    public void update(final long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        counts[index].increment();
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /** {@inheritDoc} */
+    public Snapshot getSnapshot() {
+        return new BucketedSnapshot(bounds, getBucketCounts(), sum.sum(), min.get(), max.get());
+    }
+
+    /**
+     * A {@link Snapshot} whose values are estimated from bucket counts.
+     */
+    private static final class BucketedSnapshot extends Snapshot {
+
+        /** Bucket bounds. */
+        @Nonnull private final long[] bounds;
+
+        /** Bucket counts. */
+        @Nonnull private final long[] counts;
+
+        /** Total count. */
+        private final long total;
+
+        /** Sum of values. */
+        private final long sum;
+
+        /** Smallest value. */
+        private final long min;
+
+        /** Largest value. */
+        private final long max;
+
+        /**
+         * Constructor.
+         *
+         * @param bucketBounds bucket bounds
+         * @param bucketCounts bucket counts
+         * @param valueSum sum of values
+         * @param minValue smallest value
+         * @param maxValue largest value
+         */
+        BucketedSnapshot(@Nonnull final long[] bucketBounds, @Nonnull final long[] bucketCounts,
+                final long valueSum, final long minValue, final long maxValue) {
+            bounds = bucketBounds;
+            counts = bucketCounts;
+            long t = 0;
+            for (final long count : counts) {
+                t += count;
+            }
+            total = t;
+            sum = valueSum;
+            min = t > 0 ? minValue : 0;
+            max = t > 0 ? maxValue : 0;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public double getValue(final double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            } else if (total == 0) {
+                return 0.0;
+            }
+
+            final double rank = quantile * total;
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] > 0 && seen + counts[i] >= rank) {
+                    final double lower = Math.max(min, i == 0 ? min : bounds[i - 1]);
+                    final double upper = Math.min(max, i < bounds.length ? bounds[i] : max);
+                    return lower + (upper - lower) * ((rank - seen) / counts[i]);
+                }
+                seen += counts[i];
+            }
+            return max;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>Individual values are not retained, so this returns the upper bound of each
+         * non-empty bucket, limited by the largest value.</p>
+         */
+        @Override
+        public long[] getValues() {
+            final long[] values = new long[counts.length];
+            int n = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] > 0) {
+                    values[n++] = i < bounds.length ? Math.min(bounds[i], max) : max;
+                }
+            }
+            return Arrays.copyOf(values, n);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int size() {
+            return (int) Math.min(total, Integer.MAX_VALUE);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public double getMean() {
+            return total > 0 ? (double) sum / total : 0.0;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public double getStdDev() {
+            if (total <= 1) {
+                return 0.0;
+            }
+
+            // Approximate using the midpoint of each bucket.
+            final double mean = getMean();
+            double variance = 0.0;
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] > 0) {
+                    final double lower = Math.max(min, i == 0 ? min : bounds[i - 1]);
+                    final double upper = Math.min(max, i < bounds.length ? bounds[i] : max);
+                    final double diff = (lower + upper) / 2 - mean;
+                    variance += counts[i] * diff * diff;
+                }
+            }
+            return Math.sqrt(variance / (total - 1));
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void dump(final OutputStream output) {
+            try (final PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (final long value : getValues()) {
+                    out.printf("%d%n", value);
+                }
+            }
+        }
+    }
+
+}
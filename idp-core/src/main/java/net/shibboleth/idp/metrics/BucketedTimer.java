@@ -0,0 +1,59 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import javax.annotation.Nonnull;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * A {@link Timer} backed by a {@link BucketedReservoir}, which exposes the reservoir so that
+ * the bucket counts can be reported.
+ *
+ * @since 4.2.0
+ */
+public class BucketedTimer extends Timer {
+
+    /** The underlying reservoir. */
+    @Nonnull private final BucketedReservoir reservoir;
+
+    /** Constructor using default bucket boundaries. */
+    public BucketedTimer() {
+        this(new BucketedReservoir());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bucketedReservoir the reservoir to record durations in, in nanoseconds
+     */
+    public BucketedTimer(@Nonnull final BucketedReservoir bucketedReservoir) {
+        super(bucketedReservoir);
+        reservoir = bucketedReservoir;
+    }
+
+    /**
+     * Get the underlying reservoir.
+     *
+     * @return the reservoir
+     */
+    @Nonnull public BucketedReservoir getReservoir() {
+        return reservoir;
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+/**
+ * Writes the contents of a {@link MetricRegistry} in the OpenMetrics text exposition format.
+ *
+ * <p>Output is streamed one metric at a time, and only metrics matching the supplied filter are
+ * visited. Timers are reported in seconds; {@link BucketedTimer}s are reported as histograms with their
+ * bucket counts, and other timers and histograms as summaries with a fixed set of quantiles. Gauges
+ * are included only if their value is numeric, boolean, or an {@link Instant}.</p>
+ *
+ * <p>Instances are stateless and thread-safe.</p>
+ *
+ * @since 4.2.0
+ */
+public class OpenMetricsWriter {
+
+    /** Content type of the output. */
+    @Nonnull @NotEmpty public static final String CONTENT_TYPE =
+            "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /** Quantiles reported for summaries. */
+    @Nonnull private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+    /** Label values for {@link #QUANTILES}. */
+    @Nonnull private static final String[] QUANTILE_LABELS = {"0.5", "0.75", "0.95", "0.98", "0.99", "0.999"};
+
+    /** Upper limit on the number of names cached. */
+    private static final int NAME_CACHE_SIZE = 10000;
+
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** Cache of metric names converted to OpenMetrics names. */
+    @Nonnull private static final Map<String,String> NAME_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Write the metrics in a registry that match a filter.
+     *
+     * @param registry the registry of metrics
+     * @param filter filter to apply
+     * @param out destination of the output
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    public void write(@Nonnull final MetricRegistry registry, @Nonnull final MetricFilter filter,
+            @Nonnull final Writer out) throws IOException {
+
+        final Set<String> written = new HashSet<>();
+
+        for (final Map.Entry<String,Gauge> entry : registry.getGauges(filter).entrySet()) {
+            final Double value = toDouble(entry.getValue().getValue());
+            final String name = toName(entry.getKey());
+            if (value != null && written.add(name)) {
+                writeType(out, name, "gauge");
+                writeSample(out, name, "", null, value);
+            }
+        }
+
+        // Counters can go down, so they are gauges in OpenMetrics terms.
+        for (final Map.Entry<String,Counter> entry : registry.getCounters(filter).entrySet()) {
+            final String name = toName(entry.getKey());
+            if (written.add(name)) {
+                writeType(out, name, "gauge");
+                writeSample(out, name, "", null, entry.getValue().getCount());
+            }
+        }
+
+        for (final Map.Entry<String,Meter> entry : registry.getMeters(filter).entrySet()) {
+            final String name = toName(entry.getKey());
+            if (written.add(name)) {
+                writeType(out, name, "counter");
+                writeSample(out, name, "_total", null, entry.getValue().getCount());
+            }
+        }
+
+        for (final Map.Entry<String,Histogram> entry : registry.getHistograms(filter).entrySet()) {
+            final String name = toName(entry.getKey());
+            if (written.add(name)) {
+                writeSummary(out, name, entry.getValue().getSnapshot(), entry.getValue().getCount(), 1.0);
+            }
+        }
+
+        for (final Map.Entry<String,Timer> entry : registry.getTimers(filter).entrySet()) {
+            final String name = toName(entry.getKey()) + "_seconds";
+            if (written.add(name)) {
+                if (entry.getValue() instanceof BucketedTimer) {
+                    writeHistogram(out, name, ((BucketedTimer) entry.getValue()).getReservoir());
+                } else {
+                    writeSummary(out, name, entry.getValue().getSnapshot(), entry.getValue().getCount(),
+                            NANOS_PER_SECOND);
+                }
+            }
+        }
+
+        out.write("# EOF\n");
+        out.flush();
+    }
+
+    /**
+     * Write a summary.
+     *
+     * @param out destination of the output
+     * @param name metric family name
+     * @param snapshot snapshot of values
+     * @param count total number of values
+     * @param divisor amount to divide values by
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeSummary(@Nonnull final Writer out, @Nonnull final String name,
+            @Nonnull final Snapshot snapshot, final long count, final double divisor) throws IOException {
+        writeType(out, name, "summary");
+        for (int i = 0; i < QUANTILES.length; ++i) {
+            writeSample(out, name, "", "quantile=\"" + QUANTILE_LABELS[i] + '"',
+                    snapshot.getValue(QUANTILES[i]) / divisor);
+        }
+        writeSample(out, name, "_count", null, count);
+    }
+
+    /**
+     * Write a histogram of durations.
+     *
+     * @param out destination of the output
+     * @param name metric family name
+     * @param reservoir bucketed durations in nanoseconds
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeHistogram(@Nonnull final Writer out, @Nonnull final String name,
+            @Nonnull final BucketedReservoir reservoir) throws IOException {
+        final long[] bounds = reservoir.getBucketBounds();
+        final long[] counts = reservoir.getBucketCounts();
+
+        writeType(out, name, "histogram");
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; ++i) {
+            cumulative += counts[i];
+            writeSample(out, name, "_bucket", "le=\"" + format(bounds[i] / NANOS_PER_SECOND) + '"', cumulative);
+        }
+        cumulative += counts[bounds.length];
+        writeSample(out, name, "_bucket", "le=\"+Inf\"", cumulative);
+        writeSample(out, name, "_count", null, cumulative);
+        writeSample(out, name, "_sum", null, reservoir.getSum() / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Write the type of a metric family.
+     *
+     * @param out destination of the output
+     * @param name metric family name
+     * @param type metric type
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeType(@Nonnull final Writer out, @Nonnull final String name, @Nonnull final String type)
+            throws IOException {
+        out.write("# TYPE ");
+        out.write(name);
+        out.write(' ');
+        out.write(type);
+        out.write('\n');
+    }
+
+    /**
+     * Write an integer sample.
+     *
+     * @param out destination of the output
+     * @param name metric family name
+     * @param suffix suffix to add to the family name
+     * @param labels label set, if any
+     * @param value the value
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeSample(@Nonnull final Writer out, @Nonnull final String name, @Nonnull final String suffix,
+            @Nullable final String labels, final long value) throws IOException {
+        writeSampleName(out, name, suffix, labels);
+        out.write(Long.toString(value));
+        out.write('\n');
+    }
+
+    /**
+     * Write a floating point sample.
+     *
+     * @param out destination of the output
+     * @param name metric family name
+     * @param suffix suffix to add to the family name
+     * @param labels label set, if any
+     * @param value the value
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeSample(@Nonnull final Writer out, @Nonnull final String name, @Nonnull final String suffix,
+            @Nullable final String labels, final double value) throws IOException {
+        writeSampleName(out, name, suffix, labels);
+        out.write(format(value));
+        out.write('\n');
+    }
+
+    /**
+     * Write the name and labels of a sample.
+     *
+     * @param out destination of the output
+     * @param name metric family name
+     * @param suffix suffix to add to the family name
+     * @param labels label set, if any
+     *
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeSampleName(@Nonnull final Writer out, @Nonnull final String name, @Nonnull final String suffix,
+            @Nullable final String labels) throws IOException {
+        out.write(name);
+        out.write(suffix);
+        if (labels != null) {
+            out.write('{');
+            out.write(labels);
+            out.write('}');
+        }
+        out.write(' ');
+    }
+
+    /**
+     * Format a floating point value.
+     *
+     * @param value the value
+     *
+     * @return the formatted value
+     */
+    @Nonnull private static String format(final double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Convert a gauge value into a number, if possible.
+     *
+     * @param value the gauge value
+     *
+     * @return the numeric value, or null
+     */
+    @Nullable private static Double toDouble(@Nullable final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
+        } else if (value instanceof Instant) {
+            return ((Instant) value).toEpochMilli() / 1000.0;
+        }
+        return null;
+    }
+
+    /**
+     * Convert a metric name into a legal OpenMetrics name.
+     *
+     * @param metricName the metric name
+     *
+     * @return the OpenMetrics name
+     */
+    @Nonnull @NotEmpty private static String toName(@Nonnull final String metricName) {
+        final String cached = NAME_CACHE.get(metricName);
+        if (cached != null) {
+            return cached;
+        }
+
+        final StringBuilder name = new StringBuilder(metricName.length() + 1);
+        for (int i = 0; i < metricName.length(); ++i) {
+            final char ch = metricName.charAt(i);
+            if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_' || ch == ':'
+                    || (ch >= '0' && ch <= '9' && i > 0)) {
+                name.append(ch);
+            } else if (ch >= '0' && ch <= '9') {
+                name.append('_').append(ch);
+            } else {
+                name.append('_');
+            }
+        }
+        if (name.length() == 0) {
+            name.append('_');
+        }
+
+        final String result = name.toString();
+        if (NAME_CACHE.size() < NAME_CACHE_SIZE) {
+            NAME_CACHE.put(metricName, result);
+        }
+        return result;
+    }
+
+}
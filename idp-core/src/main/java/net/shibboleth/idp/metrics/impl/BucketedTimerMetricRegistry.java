@@ -0,0 +1,58 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics.impl;
+
+import org.opensaml.core.metrics.FilteredMetricRegistry;
+
+import com.codahale.metrics.Timer;
+
+import net.shibboleth.idp.metrics.BucketedTimer;
+
+/**
+ * A {@link FilteredMetricRegistry} that can create timers backed by fixed buckets, whose counts can be
+ * aggregated across nodes, in place of the default sampling timers.
+ *
+ * <p>This affects timers created by name, which includes those driven by
+ * {@link org.opensaml.profile.context.MetricContext}.</p>
+ *
+ * @since 4.2.0
+ */
+public class BucketedTimerMetricRegistry extends FilteredMetricRegistry {
+
+    /** Whether to create bucketed timers. */
+    private boolean bucketedTimers;
+
+    /**
+     * Set whether timers created by name should be {@link BucketedTimer}s.
+     *
+     * @param flag flag to set
+     */
+    public void setBucketedTimers(final boolean flag) {
+        bucketedTimers = flag;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Timer timer(final String name) {
+        if (bucketedTimers) {
+            return timer(name, BucketedTimer::new);
+        }
+        return super.timer(name);
+    }
+
+}
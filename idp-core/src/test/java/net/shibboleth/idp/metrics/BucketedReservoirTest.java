@@ -0,0 +1,186 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Snapshot;
+
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+/** Unit test for {@link BucketedReservoir}. */
+public class BucketedReservoirTest {
+
+    @Test public void testBoundaries() {
+        final BucketedReservoir reservoir = new BucketedReservoir(new long[] {10, 20});
+        Assert.assertEquals(reservoir.getBucketBounds(), new long[] {10, 20});
+
+        reservoir.update(-5);
+        reservoir.update(0);
+        reservoir.update(10);
+        reservoir.update(11);
+        reservoir.update(20);
+        reservoir.update(21);
+        reservoir.update(Long.MAX_VALUE / 2);
+
+        Assert.assertEquals(reservoir.getBucketCounts(), new long[] {3, 2, 2});
+        Assert.assertEquals(reservoir.size(), 7);
+        Assert.assertEquals(reservoir.getSum(), -5 + 0 + 10 + 11 + 20 + 21 + Long.MAX_VALUE / 2);
+    }
+
+    @Test public void testInvalidBounds() {
+        try {
+            new BucketedReservoir(new long[0]);
+            Assert.fail("Empty bounds should be rejected");
+        } catch (final ConstraintViolationException e) {
+            // expected
+        }
+
+        try {
+            new BucketedReservoir(new long[] {10, 10});
+            Assert.fail("Repeated bounds should be rejected");
+        } catch (final ConstraintViolationException e) {
+            // expected
+        }
+
+        try {
+            new BucketedReservoir(new long[] {20, 10});
+            Assert.fail("Decreasing bounds should be rejected");
+        } catch (final ConstraintViolationException e) {
+            // expected
+        }
+    }
+
+    @Test public void testBoundsCopied() {
+        final long[] bounds = {10, 20};
+        final BucketedReservoir reservoir = new BucketedReservoir(bounds);
+        bounds[0] = 15;
+        reservoir.update(12);
+        Assert.assertEquals(reservoir.getBucketCounts(), new long[] {0, 1, 0});
+
+        reservoir.getBucketBounds()[0] = 15;
+        Assert.assertEquals(reservoir.getBucketBounds(), new long[] {10, 20});
+    }
+
+    @Test public void testEmptySnapshot() {
+        final Snapshot snapshot = new BucketedReservoir(new long[] {10}).getSnapshot();
+        Assert.assertEquals(snapshot.size(), 0);
+        Assert.assertEquals(snapshot.getMin(), 0);
+        Assert.assertEquals(snapshot.getMax(), 0);
+        Assert.assertEquals(snapshot.getMean(), 0.0);
+        Assert.assertEquals(snapshot.getStdDev(), 0.0);
+        Assert.assertEquals(snapshot.getMedian(), 0.0);
+        Assert.assertEquals(snapshot.getValues(), new long[0]);
+    }
+
+    @Test public void testSnapshot() {
+        final BucketedReservoir reservoir = new BucketedReservoir(new long[] {10, 20, 30});
+        for (long i = 1; i <= 30; ++i) {
+            reservoir.update(i);
+        }
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(snapshot.size(), 30);
+        Assert.assertEquals(snapshot.getMin(), 1);
+        Assert.assertEquals(snapshot.getMax(), 30);
+        Assert.assertEquals(snapshot.getMean(), 15.5);
+        Assert.assertEquals(snapshot.getValues(), new long[] {10, 20, 30});
+        Assert.assertEquals(reservoir.getBucketCounts(), new long[] {10, 10, 10, 0});
+
+        // Interpolated within the bucket holding each rank, with the first bucket starting at the minimum.
+        Assert.assertEquals(snapshot.getValue(0.1), 3.7, 1e-9);
+        Assert.assertEquals(snapshot.getMedian(), 15.0, 1e-9);
+        Assert.assertEquals(snapshot.get75thPercentile(), 22.5, 1e-9);
+        Assert.assertEquals(snapshot.get95thPercentile(), 28.5, 1e-9);
+        Assert.assertEquals(snapshot.getValue(1.0), 30.0, 1e-9);
+
+        // Later updates don't affect an existing snapshot.
+        reservoir.update(100);
+        Assert.assertEquals(snapshot.size(), 30);
+        Assert.assertEquals(reservoir.getSnapshot().size(), 31);
+    }
+
+    @Test public void testOverflowBucket() {
+        final BucketedReservoir reservoir = new BucketedReservoir(new long[] {10});
+        reservoir.update(5);
+        reservoir.update(100);
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(reservoir.getBucketCounts(), new long[] {1, 1});
+        Assert.assertEquals(snapshot.getValues(), new long[] {10, 100});
+        Assert.assertEquals(snapshot.getValue(0.5), 10.0, 1e-9);
+        Assert.assertEquals(snapshot.getValue(0.75), 55.0, 1e-9);
+        Assert.assertEquals(snapshot.getValue(1.0), 100.0, 1e-9);
+    }
+
+    @Test public void testInvalidQuantile() {
+        final Snapshot snapshot = new BucketedReservoir(new long[] {10}).getSnapshot();
+        try {
+            snapshot.getValue(1.5);
+            Assert.fail("Quantile above 1 should be rejected");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test public void testConcurrentUpdates() throws InterruptedException {
+        final BucketedReservoir reservoir = new BucketedReservoir(new long[] {10, 20, 30});
+        final int threadCount = 8;
+        final int updates = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Thread> threads = new ArrayList<>(threadCount);
+        for (int t = 0; t < threadCount; ++t) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < updates; ++i) {
+                    reservoir.update(i % 40);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        // Each thread records 0..39 250 times: 11 values in the first bucket, 10 in the next two, 9 above.
+        final long perValue = updates / 40 * threadCount;
+        Assert.assertEquals(reservoir.getBucketCounts(),
+                new long[] {11 * perValue, 10 * perValue, 10 * perValue, 9 * perValue});
+        Assert.assertEquals(reservoir.size(), threadCount * updates);
+        Assert.assertEquals(reservoir.getSum(), 780 * perValue);
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(snapshot.getMin(), 0);
+        Assert.assertEquals(snapshot.getMax(), 39);
+        Assert.assertEquals(snapshot.getMean(), 19.5, 1e-9);
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+/** Unit test for {@link OpenMetricsWriter}. */
+public class OpenMetricsWriterTest {
+
+    @Test public void testOutput() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.register("test.gauge", (Gauge<Integer>) () -> 42);
+        registry.register("test.string", (Gauge<String>) () -> "ignored");
+        registry.counter("test.counter").inc(3);
+        registry.meter("test.meter").mark(5);
+        registry.timer("test.timer").update(10, TimeUnit.MILLISECONDS);
+
+        final BucketedTimer timer = registry.register("test.bucketed",
+                new BucketedTimer(new BucketedReservoir(new long[] {
+                        TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(100)})));
+        timer.update(5, TimeUnit.MILLISECONDS);
+        timer.update(50, TimeUnit.MILLISECONDS);
+        timer.update(500, TimeUnit.MILLISECONDS);
+
+        final StringWriter out = new StringWriter();
+        new OpenMetricsWriter().write(registry, MetricFilter.ALL, out);
+        final String result = out.toString();
+
+        Assert.assertTrue(result.contains("# TYPE test_gauge gauge\ntest_gauge 42.0\n"));
+        Assert.assertFalse(result.contains("test_string"));
+        Assert.assertTrue(result.contains("# TYPE test_counter gauge\ntest_counter 3\n"));
+        Assert.assertTrue(result.contains("# TYPE test_meter counter\ntest_meter_total 5\n"));
+        Assert.assertTrue(result.contains("# TYPE test_timer_seconds summary\n"));
+        Assert.assertTrue(result.contains("test_timer_seconds_count 1\n"));
+        Assert.assertTrue(result.contains("# TYPE test_bucketed_seconds histogram\n"
+                + "test_bucketed_seconds_bucket{le=\"0.01\"} 1\n"
+                + "test_bucketed_seconds_bucket{le=\"0.1\"} 2\n"
+                + "test_bucketed_seconds_bucket{le=\"+Inf\"} 3\n"
+                + "test_bucketed_seconds_count 3\n"
+                + "test_bucketed_seconds_sum 0.555\n"));
+        Assert.assertTrue(result.endsWith("# EOF\n"));
+
+        final StringWriter filtered = new StringWriter();
+        new OpenMetricsWriter().write(registry, (name, metric) -> name.equals("test.meter"), filtered);
+        Assert.assertEquals(filtered.toString(), "# TYPE test_meter counter\ntest_meter_total 5\n# EOF\n");
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Helper methods for inspecting regular expressions, used to index patterns by the literal text they match.
+ * 
+ * <p>These methods examine only the expression, so the caller must check that the pattern's flags (other than
+ * those it accounts for itself) do not change the meaning of the text, and that the pattern is applied with
+ * {@link java.util.regex.Matcher#matches()} rather than {@link java.util.regex.Matcher#find()}.</p>
+ * 
+ * @since 4.2.0
+ */
+public final class RegexSupport {
+
+    /** Characters with special meaning in a regular expression. */
+    @Nonnull private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    /** Characters that make the preceding character optional or repeated. */
+    @Nonnull private static final String QUANTIFIERS = "?*+{";
+
+    /** Constructor. */
+    private RegexSupport() {
+        
+    }
+
+    /**
+     * Get the literal string that every string matching a regular expression in full must start with.
+     * 
+     * <p>A leading <code>^</code> is ignored, and escaped punctuation is unescaped. Expressions containing
+     * alternation have no prefix.</p>
+     * 
+     * @param regex the regular expression
+     * 
+     * @return the literal prefix, possibly empty
+     */
+    @Nonnull public static String getLiteralPrefix(@Nonnull final String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return "";
+        }
+        
+        final StringBuilder prefix = new StringBuilder();
+        final int end = scanLiteral(regex, prefix);
+        if (end < regex.length() && QUANTIFIERS.indexOf(regex.charAt(end)) >= 0 && prefix.length() > 0) {
+            // The preceding character is optional or repeated.
+            prefix.setLength(prefix.length() - 1);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Get the only string that a regular expression matches in full, if it contains no metacharacters other
+     * than a leading <code>^</code> and escaped punctuation.
+     * 
+     * @param regex the regular expression
+     * 
+     * @return the string it matches, or null if it may match more than one
+     */
+    @Nullable public static String getLiteral(@Nonnull final String regex) {
+        final StringBuilder literal = new StringBuilder();
+        return scanLiteral(regex, literal) == regex.length() ? literal.toString() : null;
+    }
+
+    /**
+     * Collect the literal text at the start of a regular expression.
+     * 
+     * @param regex the regular expression
+     * @param literal receives the unescaped literal text
+     * 
+     * @return the position in the expression at which the literal text ends
+     */
+    private static int scanLiteral(@Nonnull final String regex, @Nonnull final StringBuilder literal) {
+        // A leading anchor is redundant since the whole string has to match.
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                // Only an escaped punctuation character is a literal; escaped letters and digits are classes,
+                // back references or quoting.
+                if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))
+                        && regex.charAt(i + 1) < 128) {
+                    literal.append(regex.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+                break;
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                break;
+            }
+            literal.append(c);
+            i++;
+        }
+        return i;
+    }
+
+}
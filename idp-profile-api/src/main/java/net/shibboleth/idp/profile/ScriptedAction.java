@@ -25,10 +25,10 @@ import javax.annotation.Nullable;
 import javax.script.ScriptContext;
 import javax.script.ScriptException;
 
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 import org.opensaml.profile.action.ActionSupport;
@@ -199,7 +199,7 @@ public class ScriptedAction extends AbstractProfileAction {
     /**
      * Evaluator bound to the Action semantic.
      */
-    private class ActionScriptEvaluator extends AbstractScriptEvaluator {
+    private class ActionScriptEvaluator extends AbstractPooledScriptEvaluator {
 
         /**
          * Constructor.
@@ -0,0 +1,394 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.audit;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Component that hands formatted audit records off to a dedicated thread for output, so that the
+ * underlying logging I/O happens outside of the request.
+ *
+ * <p>Records are placed on a bounded queue. When the queue is full, the caller either waits for space
+ * or the record is discarded and counted, depending on the {@link OverflowPolicy}.</p>
+ * 
+ * <p>Queuing a record and closing the queue at shutdown are atomic with respect to each other, and the
+ * writer thread itself writes every record queued before it was closed, so no record is lost at
+ * shutdown and queued records are always written in order by a single thread. Records are written synchronously if the component is not initialized, has
+ * been destroyed, or its writer thread has died, in which case any records it left queued are written
+ * first.</p>
+ *
+ * <p>The component is also a {@link MetricSet} exposing the current queue depth and the number of
+ * discarded records.</p>
+ *
+ * @since 4.2.0
+ */
+public class AuditLogWriter extends AbstractInitializableComponent implements MetricSet {
+
+    /** Behavior when the queue is full. */
+    public enum OverflowPolicy {
+        /** Wait for space in the queue. */
+        BLOCK,
+
+        /** Discard the record and count it. */
+        DROP,
+    }
+
+    /** Default prefix for metrics. */
+    @Nonnull @NotEmpty public static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.audit";
+
+    /** Default queue size. */
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+
+    /** Interval at which a blocked caller checks that the writer thread is still alive. */
+    @Nonnull private static final Duration POLL_INTERVAL = Duration.ofMillis(500);
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AuditLogWriter.class);
+
+    /** Guards the queue and the closed state. */
+    @Nonnull private final ReentrantLock lock;
+    
+    /** Signals the writer thread that records are available or the queue is closed. */
+    @Nonnull private final Condition notEmpty;
+
+    /** Signals blocked callers that space is available or the queue is closed. */
+    @Nonnull private final Condition notFull;
+
+    /** Pending records. */
+    @Nonnull private final ArrayDeque<AuditRecord> queue;
+
+    /** Number of records queued but not yet written. */
+    @Nonnull private final AtomicInteger depth;
+
+    /** Count of discarded records. */
+    @Nonnull private final Counter dropped;
+
+    /** The map of metrics. */
+    @Nonnull @NonnullElements private final Map<String,Metric> metrics;
+
+    /** Maximum number of queued records. */
+    @Positive private int queueSize;
+
+    /** Behavior when the queue is full. */
+    @Nonnull private OverflowPolicy overflowPolicy;
+
+    /** Name of the writer thread. */
+    @Nonnull @NotEmpty private String threadName;
+
+    /** Writer thread. */
+    @Nullable private volatile Thread writerThread;
+
+    /** Whether the queue accepts records. */
+    private boolean open;
+
+    /** Constructor. */
+    public AuditLogWriter() {
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        queue = new ArrayDeque<>();
+        depth = new AtomicInteger();
+        dropped = new Counter();
+        queueSize = DEFAULT_QUEUE_SIZE;
+        overflowPolicy = OverflowPolicy.BLOCK;
+        threadName = "audit-log-writer";
+
+        metrics = new HashMap<>();
+        metrics.put(MetricRegistry.name(DEFAULT_METRIC_NAME, "queue", "depth"),
+                new Gauge<Integer>() {
+                    public Integer getValue() {
+                        return depth.get();
+                    }
+                });
+        metrics.put(MetricRegistry.name(DEFAULT_METRIC_NAME, "queue", "dropped"), dropped);
+    }
+
+    /**
+     * Set the maximum number of records that may be queued for output.
+     *
+     * @param size queue size
+     */
+    public void setQueueSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        queueSize = (int) Constraint.isGreaterThan(0, size, "Queue size must be greater than 0");
+    }
+
+    /**
+     * Set the behavior when the queue is full.
+     *
+     * @param policy overflow policy
+     */
+    public void setOverflowPolicy(@Nonnull final OverflowPolicy policy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        overflowPolicy = Constraint.isNotNull(policy, "Overflow policy cannot be null");
+    }
+
+    /**
+     * Set the name of the writer thread.
+     *
+     * @param name thread name
+     */
+    public void setThreadName(@Nonnull @NotEmpty final String name) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        threadName = Constraint.isNotEmpty(name, "Thread name cannot be null or empty");
+    }
+
+    /**
+     * Get the number of records queued but not yet written.
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Get the number of records discarded because the queue was full.
+     *
+     * @return discarded record count
+     */
+    public long getDroppedCount() {
+        return dropped.getCount();
+    }
+
+    /** {@inheritDoc} */
+    public Map<String,Metric> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        lock.lock();
+        try {
+            open = true;
+        } finally {
+            lock.unlock();
+        }
+        
+        final Thread thread = new Thread(this::drain, threadName);
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        lock.lock();
+        try {
+            open = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        // The writer thread drains the queue before exiting, so wait for it rather than racing it.
+        final Thread thread = writerThread;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for audit log writer thread '{}' to finish", threadName);
+            }
+        }
+        
+        // Only does anything if the writer thread died with records still queued.
+        writeOrphanedRecords();
+
+        super.doDestroy();
+    }
+
+    /**
+     * Output a record to the logger of the given name at INFO level.
+     *
+     * @param loggerName name of logger
+     * @param message the record to output
+     */
+    public void write(@Nonnull @NotEmpty final String loggerName, @Nonnull final String message) {
+        lock.lock();
+        try {
+            while (open && isWriterAlive()) {
+                if (queue.size() < queueSize) {
+                    queue.add(new AuditRecord(loggerName, message));
+                    depth.incrementAndGet();
+                    notEmpty.signal();
+                    return;
+                } else if (overflowPolicy == OverflowPolicy.DROP) {
+                    dropped.inc();
+                    return;
+                }
+                
+                // Wait a bounded time so a writer thread that has died can't strand the caller.
+                notFull.await(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        
+        writeOrphanedRecords();
+        output(loggerName, message);
+    }
+
+    /**
+     * Write a record to the underlying logger.
+     * 
+     * <p>This is called on the writer thread for queued records, and on the calling thread otherwise.</p>
+     *
+     * @param loggerName name of logger
+     * @param message the record to output
+     */
+    protected void output(@Nonnull @NotEmpty final String loggerName, @Nonnull final String message) {
+        try {
+            LoggerFactory.getLogger(loggerName).info(message);
+        } catch (final RuntimeException e) {
+            log.error("Error writing audit record to '{}'", loggerName, e);
+        }
+    }
+
+    /**
+     * Get whether the writer thread is running.
+     * 
+     * @return true iff the writer thread is alive
+     */
+    private boolean isWriterAlive() {
+        final Thread thread = writerThread;
+        return thread != null && thread.isAlive();
+    }
+    
+    /** Writer thread loop. */
+    private void drain() {
+        log.debug("Audit log writer thread '{}' started", threadName);
+        try {
+            while (true) {
+                final AuditRecord record;
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && open) {
+                        notEmpty.await();
+                    }
+                    record = queue.poll();
+                    if (record == null) {
+                        // Closed and fully drained.
+                        break;
+                    }
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+                
+                depth.decrementAndGet();
+                output(record.loggerName, record.message);
+            }
+        } catch (final InterruptedException e) {
+            log.warn("Audit log writer thread '{}' interrupted, writing synchronously", threadName);
+        } catch (final Error e) {
+            log.error("Audit log writer thread '{}' failed, writing synchronously", threadName, e);
+            throw e;
+        } finally {
+            // Wake any blocked callers so they notice the thread is gone.
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            log.debug("Audit log writer thread '{}' stopped", threadName);
+        }
+    }
+    
+    /**
+     * Write any records left in the queue by a writer thread that is no longer running.
+     * 
+     * <p>The lock is held while writing, so that these records precede any written by the caller.</p>
+     */
+    private void writeOrphanedRecords() {
+        lock.lock();
+        try {
+            if (isWriterAlive()) {
+                return;
+            }
+            AuditRecord record;
+            while ((record = queue.poll()) != null) {
+                depth.decrementAndGet();
+                output(record.loggerName, record.message);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** A queued record. */
+    private static final class AuditRecord {
+
+        /** Name of logger. */
+        @Nonnull @NotEmpty private final String loggerName;
+
+        /** Formatted record. */
+        @Nonnull private final String message;
+
+        /**
+         * Constructor.
+         *
+         * @param name name of logger
+         * @param msg formatted record
+         */
+        AuditRecord(@Nonnull @NotEmpty final String name, @Nonnull final String msg) {
+            loggerName = name;
+            message = msg;
+        }
+    }
+
+}
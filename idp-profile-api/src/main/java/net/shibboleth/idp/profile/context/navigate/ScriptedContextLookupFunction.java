@@ -25,9 +25,9 @@ import javax.annotation.Nullable;
 import javax.script.ScriptContext;
 import javax.script.ScriptException;
 
+import net.shibboleth.idp.profile.scripting.AbstractPooledScriptEvaluator;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
 import org.opensaml.messaging.context.BaseContext;
@@ -43,7 +43,7 @@ import org.springframework.core.io.Resource;
  * @param <T> the specific type of context
  */
 @SuppressWarnings("removal")
-public class ScriptedContextLookupFunction<T extends BaseContext> extends AbstractScriptEvaluator
+public class ScriptedContextLookupFunction<T extends BaseContext> extends AbstractPooledScriptEvaluator
         implements ContextDataLookupFunction<T,Object> {
 
     /** What class we want the input to test against. */
@@ -17,6 +17,10 @@
 
 package net.shibboleth.idp.profile.logic;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.function.Function;
@@ -24,50 +28,85 @@ import java.util.function.Function;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.codahale.metrics.Meter;
-import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.MetricRegistry.MetricSupplier;
-import com.codahale.metrics.SlidingTimeWindowMovingAverages;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 
 /**
- * A condition that relies on a {@link Meter} to detect looping SPs. 
+ * A condition that counts requests by a user to particular relying parties to detect looping SPs.
+ * 
+ * <p>The condition is true when the number of requests in the trailing minute exceeds a threshold.
+ * By default, counts are kept in memory for a bounded number of user/relying party combinations,
+ * each of which holds the times of at most the threshold number of recent requests and expires when idle.
+ * Alternatively, counts can be shared across nodes via a {@link StorageService}, in which case
+ * the trailing minute is estimated from counts in fixed one-minute windows.</p>
  *
  * @since 4.1.0
  */
 public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
 
+    /** Storage context for shared counts. */
+    @Nonnull @NotEmpty public static final String STORAGE_CONTEXT = "net.shibboleth.idp.loopDetection";
+    
+    /** Default maximum number of combinations tracked in memory. */
+    public static final int DEFAULT_MAX_ENTRIES = 50000;
+    
+    /** Length of the window over which requests are counted. */
+    @Nonnull private static final Duration WINDOW = Duration.ofMinutes(1);
+    
+    /** Number of attempts to update a shared count. */
+    private static final int STORAGE_RETRIES = 3;
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(LoopDetectionPredicate.class);
 
     /** Count to trigger warning. */
     private long threshold;
     
-    /** Map of RP names to meter names. */
+    /** Map of RP names to tracking names. */
     @Nonnull @NonnullElements private Map<String,String> relyingPartyMap;
     
     /** Lookup strategy to obtain subject name. */
     @Nonnull private Function<ProfileRequestContext,String> usernameLookupStrategy;
     
+    /** Maximum number of combinations tracked in memory. */
+    @Positive private int maxEntries;
+    
+    /** Optional storage for sharing counts. */
+    @Nullable private StorageService storageService;
+    
+    /** Base time for in-memory request times, in seconds. */
+    private final long baseTime;
+    
+    /** Recent request times, by tracking key. */
+    @Nonnull private Cache<String,RequestTimes> requestTimes;
+    
     /** Constructor. */
     public LoopDetectionPredicate() {
         threshold = 20;
         relyingPartyMap = Collections.emptyMap();
         usernameLookupStrategy = FunctionSupport.constant(null);
+        maxEntries = DEFAULT_MAX_ENTRIES;
+        baseTime = System.currentTimeMillis() / 1000;
+        requestTimes = buildCache();
     }
     
     /**
-     * Set the warning threshold for the 1 minute moving average to exceed.
+     * Set the warning threshold for the number of requests in the trailing minute to exceed.
      * 
      * <p>Defaults to 20.</p>
      * 
@@ -75,12 +114,14 @@ public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
      */
     public void setThreshold(@Positive final long value) {
         threshold = Constraint.isGreaterThan(0, value, "Threshold must be positive");
+        Constraint.isTrue(threshold < Integer.MAX_VALUE, "Threshold is too large");
+        requestTimes = buildCache();
     }
     
     /**
-     * Set the map of relying party names to meter names to track counts.
+     * Set the map of relying party names to names under which to track counts.
      * 
-     * @param map map of RP/meter mappings
+     * @param map map of RP/name mappings
      */
     public void setRelyingPartyMap(@Nullable @NonnullElements final Map<String,String> map) {
         if (map != null) {
@@ -99,6 +140,33 @@ public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
         usernameLookupStrategy = Constraint.isNotNull(strategy, "Username lookup strategy cannot be null");
     }
     
+    /**
+     * Set the maximum number of user/relying party combinations to track in memory.
+     * 
+     * <p>Defaults to {@link #DEFAULT_MAX_ENTRIES}. The least recently used are discarded first.</p>
+     * 
+     * @param max maximum entries
+     * 
+     * @since 4.2.0
+     */
+    public void setMaxEntries(@Positive final int max) {
+        maxEntries = Constraint.isGreaterThan(0, max, "Maximum entries must be positive");
+        requestTimes = buildCache();
+    }
+    
+    /**
+     * Set a {@link StorageService} through which to share counts across nodes.
+     * 
+     * <p>If not set, or if the service fails, counts are kept in memory.</p>
+     * 
+     * @param storage storage service
+     * 
+     * @since 4.2.0
+     */
+    public void setStorageService(@Nullable final StorageService storage) {
+        storageService = storage;
+    }
+    
     /** {@inheritDoc} */
     public boolean test(@Nullable final ProfileRequestContext input) {
         
@@ -106,20 +174,20 @@ public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
         final RelyingPartyContext rpCtx = getRelyingPartyContextLookupStrategy().apply(input);
         
         if (username != null && rpCtx != null && rpCtx.getRelyingPartyId() != null) {
-            String meterName = relyingPartyMap.get(rpCtx.getRelyingPartyId());
-            if (meterName != null) {
-                meterName = MetricRegistry.name("net.shibboleth.idp.loopDetection", meterName,
-                        username.replace(".",""));
-                final Meter meter = MetricsSupport.getMetricRegistry().meter(meterName,
-                        new MetricSupplier<Meter>() {
-                            public Meter newMetric() {
-                                return new Meter(new SlidingTimeWindowMovingAverages());
-                            }
-                        });
-                meter.mark();
-                final double rate = meter.getOneMinuteRate();
-                if (rate > threshold) {
-                    log.warn("Meter {} rate of {} exceeded threshold of {}", meterName, rate, threshold);
+            final String name = relyingPartyMap.get(rpCtx.getRelyingPartyId());
+            if (name != null) {
+                final String key = name + '!' + username;
+                
+                Double count = null;
+                if (storageService != null) {
+                    count = recordInStorage(key);
+                }
+                if (count == null) {
+                    count = (double) recordInMemory(key);
+                }
+                
+                if (count > threshold) {
+                    log.warn("Request count for {} of {} exceeded threshold of {}", key, count, threshold);
                     return true;
                 }
             }
@@ -127,5 +195,157 @@ public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
         
         return false;
     }
+    
+    /**
+     * Build the in-memory cache.
+     * 
+     * @return the cache
+     */
+    @Nonnull private Cache<String,RequestTimes> buildCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(WINDOW)
+                .build();
+    }
+    
+    /**
+     * Record a request in memory.
+     * 
+     * @param key tracking key
+     * 
+     * @return number of requests in the window, up to one more than the threshold
+     */
+    private int recordInMemory(@Nonnull @NotEmpty final String key) {
+        final int now = (int) (System.currentTimeMillis() / 1000 - baseTime);
+        final int size = (int) threshold + 1;
+        try {
+            return requestTimes.get(key, () -> new RequestTimes(size)).record(now, (int) WINDOW.toSeconds());
+        } catch (final Exception e) {
+            log.error("Error tracking requests for {}", key, e);
+            return 0;
+        }
+    }
+    
+    /**
+     * Record a request in the storage service.
+     * 
+     * <p>The count in the trailing window is estimated from the counts in the current and previous fixed
+     * windows, weighting the previous one by the proportion of it that overlaps the trailing window.</p>
+     * 
+     * @param key tracking key
+     * 
+     * @return estimated number of requests in the window, or null on error
+     */
+    @Nullable private Double recordInStorage(@Nonnull @NotEmpty final String key) {
+        final long now = System.currentTimeMillis();
+        final long windowLength = WINDOW.toMillis();
+        final long window = now / windowLength;
+        final double overlap = 1.0 - (double) (now % windowLength) / windowLength;
+        
+        try {
+            final long current = increment(toStorageKey(key + '!' + window), (window + 2) * windowLength);
+            if (current < 0) {
+                return null;
+            }
+            
+            final StorageRecord<?> previous = storageService.read(STORAGE_CONTEXT,
+                    toStorageKey(key + '!' + (window - 1)));
+            final long previousCount = previous != null ? Long.parseLong(previous.getValue()) : 0;
+            
+            return current + previousCount * overlap;
+        } catch (final IOException | NumberFormatException e) {
+            log.error("Error tracking requests for {} in storage, tracking in memory", key, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Increment a count in the storage service, retrying on conflicting updates.
+     * 
+     * @param key storage key
+     * @param expiration expiration of record
+     * 
+     * @return the updated count, or -1 if the retries are exhausted
+     * 
+     * @throws IOException if an error occurs accessing storage
+     */
+    private long increment(@Nonnull @NotEmpty final String key, final long expiration) throws IOException {
+        for (int i = 0; i < STORAGE_RETRIES; ++i) {
+            final StorageRecord<?> record = storageService.read(STORAGE_CONTEXT, key);
+            if (record == null) {
+                if (storageService.create(STORAGE_CONTEXT, key, "1", expiration)) {
+                    return 1;
+                }
+            } else {
+                final long count = Long.parseLong(record.getValue()) + 1;
+                try {
+                    if (storageService.updateWithVersion(record.getVersion(), STORAGE_CONTEXT, key,
+                            Long.toString(count), expiration) != null) {
+                        return count;
+                    }
+                } catch (final VersionMismatchException e) {
+                    log.debug("Concurrent update to request count {}, retrying", key);
+                }
+            }
+        }
+        
+        log.error("Unable to update request count {} in storage, tracking in memory", key);
+        return -1;
+    }
+    
+    /**
+     * Shorten a key if necessary to fit the storage service.
+     * 
+     * @param key input key
+     * 
+     * @return the key to use
+     */
+    @Nonnull @NotEmpty private String toStorageKey(@Nonnull @NotEmpty final String key) {
+        if (key.length() <= storageService.getCapabilities().getKeySize()) {
+            return key;
+        }
+        return Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+    }
+    
+    /** The times of the most recent requests for a combination. */
+    private static final class RequestTimes {
+        
+        /** Request times in seconds, in a circular buffer. */
+        @Nonnull private final int[] times;
+        
+        /** Position of the oldest time. */
+        private int next;
+        
+        /**
+         * Constructor.
+         * 
+         * @param size number of times to hold
+         */
+        RequestTimes(@Positive final int size) {
+            times = new int[size];
+            Arrays.fill(times, Integer.MIN_VALUE);
+        }
+        
+        /**
+         * Record a request, and count the recent requests.
+         * 
+         * @param now current time in seconds
+         * @param window length of window in seconds
+         * 
+         * @return the number of held times within the window, including this one
+         */
+        synchronized int record(final int now, final int window) {
+            times[next] = now;
+            next = (next + 1) % times.length;
+            
+            int count = 0;
+            for (final int time : times) {
+                if (time != Integer.MIN_VALUE && now - time < window) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -26,7 +26,9 @@ import javax.annotation.Nullable;
 import javax.script.ScriptContext;
 import javax.script.ScriptException;
 
+import net.shibboleth.idp.profile.scripting.ScriptContextPool;
 import net.shibboleth.utilities.java.support.annotation.ParameterName;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
 
@@ -37,6 +39,8 @@ import org.springframework.core.io.Resource;
 
 /**
  * A {@link java.util.function.Predicate} which calls out to a supplied script.
+ * 
+ * <p>The script is evaluated through a {@link ScriptContextPool}.</p>
  */
 @SuppressWarnings("removal")
 public class ScriptedPredicate
@@ -45,6 +49,9 @@ public class ScriptedPredicate
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(ScriptedPredicate.class);
     
+    /** Pool of contexts for evaluating the script. */
+    @Nonnull private final ScriptContextPool contextPool;
+    
     /**
      * Constructor.
      * 
@@ -55,6 +62,7 @@ public class ScriptedPredicate
             @Nullable @NotEmpty @ParameterName(name="extraInfo") final String extraInfo) {
         super(theScript, extraInfo);
         setInputType(ProfileRequestContext.class);
+        contextPool = new ScriptContextPool(theScript);
     }
 
     /**
@@ -65,6 +73,43 @@ public class ScriptedPredicate
     public ScriptedPredicate(@Nonnull @NotEmpty @ParameterName(name="theScript") final EvaluableScript theScript) {
         super(theScript);
         setInputType(ProfileRequestContext.class);
+        contextPool = new ScriptContextPool(theScript);
+    }
+    
+    /**
+     * Get the pool of contexts used to evaluate the script, for configuration.
+     * 
+     * @return the context pool
+     * 
+     * @since 4.2.0
+     */
+    @Nonnull public ScriptContextPool getContextPool() {
+        return contextPool;
+    }
+    
+    /**
+     * Set the maximum number of idle script contexts to retain for reuse.
+     * 
+     * <p>Defaults to {@link ScriptContextPool#DEFAULT_MAX_IDLE}, which disables reuse. Only enable this for
+     * scripts that keep no state in global variables, see {@link ScriptContextPool}.</p>
+     * 
+     * @param max maximum idle contexts
+     * 
+     * @since 4.2.0
+     */
+    public void setMaxIdleContexts(@NonNegative final int max) {
+        contextPool.setMaxIdle(max);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected Object evaluate(@Nullable final Object... input) {
+        return contextPool.evaluate(getLogPrefix(), getOutputType(), getReturnOnError(), getHideExceptions(),
+                scriptContext -> {
+                    scriptContext.setAttribute("custom", getCustomObject(), ScriptContext.ENGINE_SCOPE);
+                    prepareContext(scriptContext, input);
+                },
+                this::finalizeContext);
     }
     
     /** {@inheritDoc} */
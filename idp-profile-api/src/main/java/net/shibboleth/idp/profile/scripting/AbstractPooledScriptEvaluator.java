@@ -0,0 +1,81 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.scripting;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.script.ScriptContext;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
+import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
+
+/**
+ * An {@link AbstractScriptEvaluator} that evaluates its script through a {@link ScriptContextPool}
+ * rather than a new context each time.
+ * 
+ * @since 4.2.0
+ */
+public abstract class AbstractPooledScriptEvaluator extends AbstractScriptEvaluator {
+
+    /** Pool of contexts for evaluating the script. */
+    @Nonnull private final ScriptContextPool contextPool;
+    
+    /**
+     * Constructor.
+     * 
+     * @param theScript the script we will evaluate
+     */
+    public AbstractPooledScriptEvaluator(@Nonnull final EvaluableScript theScript) {
+        super(theScript);
+        contextPool = new ScriptContextPool(theScript);
+    }
+    
+    /**
+     * Get the pool of contexts used to evaluate the script, for configuration.
+     * 
+     * @return the context pool
+     */
+    @Nonnull public ScriptContextPool getContextPool() {
+        return contextPool;
+    }
+    
+    /**
+     * Set the maximum number of idle script contexts to retain for reuse.
+     * 
+     * <p>Defaults to {@link ScriptContextPool#DEFAULT_MAX_IDLE}, which disables reuse. Only enable this for
+     * scripts that keep no state in global variables, see {@link ScriptContextPool}.</p>
+     * 
+     * @param max maximum idle contexts
+     */
+    public void setMaxIdleContexts(@NonNegative final int max) {
+        contextPool.setMaxIdle(max);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected Object evaluate(@Nullable final Object... input) {
+        return contextPool.evaluate(getLogPrefix(), getOutputType(), getReturnOnError(), getHideExceptions(),
+                scriptContext -> {
+                    scriptContext.setAttribute("custom", getCustomObject(), ScriptContext.ENGINE_SCOPE);
+                    prepareContext(scriptContext, input);
+                },
+                this::finalizeContext);
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.scripting;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.scripting.AbstractScriptEvaluator;
+import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
+
+/**
+ * Evaluates an {@link EvaluableScript} using a pool of reusable {@link ScriptContext}s.
+ * 
+ * <p>The script itself is compiled once by {@link EvaluableScript} if the engine supports it. Most of the
+ * remaining cost of an evaluation lies in the engine setting up the global scope for a new context, which
+ * engines such as Nashorn and GraalJS cache in the context's bindings. Reusing a context therefore avoids
+ * that cost after its first use.</p>
+ * 
+ * <p>Reuse is off by default, so every evaluation gets a new context and a fresh global scope. When
+ * enabled with {@link #setMaxIdle(int)}, each context is used by one evaluation at a time, and any
+ * attributes added to it to prepare an evaluation are removed afterwards. Anything the script itself
+ * defines in its global scope (e.g., a <code>var</code> at the top level) persists into later evaluations,
+ * which may be on behalf of a different subject, so reuse must only be enabled for scripts that keep no
+ * state in global variables.</p>
+ * 
+ * <p>Evaluations are optionally timed under a metric name, and those exceeding a threshold are logged.
+ * The JSR-223 API offers no way to interrupt a running script, so the threshold does not abort it.</p>
+ * 
+ * @since 4.2.0
+ */
+@ThreadSafe
+public class ScriptContextPool {
+
+    /** Default prefix for metrics. */
+    @Nonnull @NotEmpty public static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.scripting";
+    
+    /** Default number of idle contexts to retain. */
+    public static final int DEFAULT_MAX_IDLE = 0;
+    
+    /** Default duration above which to log an evaluation. */
+    @Nonnull public static final Duration DEFAULT_WARNING_THRESHOLD = Duration.ofSeconds(5);
+    
+    /** Stands in for output of the wrong type. */
+    @Nonnull private static final Object WRONG_TYPE = new Object();
+    
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ScriptContextPool.class);
+    
+    /** The script to evaluate. */
+    @Nonnull private final EvaluableScript script;
+    
+    /** Idle contexts. */
+    @Nullable private volatile BlockingQueue<ScriptContext> idleContexts;
+    
+    /** Name of timer for evaluations. */
+    @Nullable private String metricName;
+    
+    /** Duration above which to log an evaluation. */
+    @Nullable private Duration warningThreshold;
+    
+    /**
+     * Constructor.
+     * 
+     * @param theScript the script to evaluate
+     */
+    public ScriptContextPool(@Nonnull final EvaluableScript theScript) {
+        script = Constraint.isNotNull(theScript, "Script cannot be null");
+        warningThreshold = DEFAULT_WARNING_THRESHOLD;
+    }
+    
+    /**
+     * Set the maximum number of idle contexts to retain for reuse.
+     * 
+     * <p>Defaults to {@link #DEFAULT_MAX_IDLE}, which disables reuse so that every evaluation gets
+     * a new context. See the class documentation before enabling reuse.</p>
+     * 
+     * @param max maximum idle contexts
+     */
+    public void setMaxIdle(@NonNegative final int max) {
+        Constraint.isGreaterThanOrEqual(0, max, "Maximum idle contexts cannot be negative");
+        idleContexts = max > 0 ? new ArrayBlockingQueue<>(max) : null;
+    }
+    
+    /**
+     * Set the name of a timer under which to record evaluations.
+     * 
+     * @param name metric name
+     */
+    public void setMetricName(@Nullable final String name) {
+        metricName = name;
+    }
+    
+    /**
+     * Set the duration above which to log an evaluation as slow.
+     * 
+     * <p>Defaults to {@link #DEFAULT_WARNING_THRESHOLD}. Null disables the check.</p>
+     * 
+     * @param threshold warning threshold
+     */
+    public void setWarningThreshold(@Nullable final Duration threshold) {
+        if (threshold != null) {
+            Constraint.isFalse(threshold.isNegative(), "Warning threshold cannot be negative");
+        }
+        warningThreshold = threshold;
+    }
+    
+    /**
+     * Evaluate the script on behalf of an {@link AbstractScriptEvaluator}, applying its output type and error handling settings.
+     * 
+     * @param logPrefix prefix for log messages
+     * @param outputType type the script output must be an instance of, if any
+     * @param returnOnError value to return if the output is of the wrong type or, if exceptions are hidden,
+     *  the evaluation fails
+     * @param hideExceptions whether to log a failure and return <code>returnOnError</code> rather than raising
+     *  a {@link RuntimeException}
+     * @param preparer populates the context prior to evaluation
+     * @param finisher processes the result of the evaluation while the context is still populated
+     * 
+     * @return the processed result
+     */
+    @Nullable public Object evaluate(@Nonnull final String logPrefix, @Nullable final Class<?> outputType,
+            @Nullable final Object returnOnError, final boolean hideExceptions,
+            @Nonnull final Consumer<ScriptContext> preparer, @Nonnull final ResultHandler finisher) {
+        try {
+            final Object result = eval(logPrefix, preparer,
+                    (scriptContext, scriptResult) -> {
+                        if (null != scriptResult && null != outputType && !outputType.isInstance(scriptResult)) {
+                            log.error("{} Output of type {} was not of type {}", logPrefix, scriptResult.getClass(),
+                                    outputType);
+                            return WRONG_TYPE;
+                        }
+                        return finisher.apply(scriptContext, scriptResult);
+                    });
+            return result != WRONG_TYPE ? result : returnOnError;
+        } catch (final ScriptException e) {
+            if (hideExceptions) {
+                log.error("{} Error while executing script, returning default", logPrefix, e);
+                return returnOnError;
+            }
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Evaluate the script.
+     * 
+     * @param logPrefix prefix for log messages
+     * @param preparer populates the context prior to evaluation
+     * @param finisher processes the result of the evaluation while the context is still populated
+     * 
+     * @return the processed result
+     * 
+     * @throws ScriptException if the evaluation or the processing fails
+     */
+    @Nullable public Object eval(@Nonnull final String logPrefix, @Nonnull final Consumer<ScriptContext> preparer,
+            @Nonnull final ResultHandler finisher) throws ScriptException {
+        
+        final BlockingQueue<ScriptContext> pool = idleContexts;
+        ScriptContext scriptContext = pool != null ? pool.poll() : null;
+        if (scriptContext == null) {
+            scriptContext = new SimpleScriptContext();
+        }
+        
+        final Bindings bindings = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
+        final Set<String> existing = new HashSet<>(bindings.keySet());
+        final Set<String> added = new HashSet<>();
+        boolean reusable = false;
+        final long start = System.nanoTime();
+        try {
+            preparer.accept(scriptContext);
+            for (final String key : bindings.keySet()) {
+                if (!existing.contains(key)) {
+                    added.add(key);
+                }
+            }
+            reusable = true;
+            return finisher.apply(scriptContext, script.eval(scriptContext));
+        } finally {
+            record(logPrefix, System.nanoTime() - start);
+            if (pool != null && reusable) {
+                bindings.keySet().removeAll(added);
+                pool.offer(scriptContext);
+            }
+        }
+    }
+    
+    /**
+     * Record the duration of an evaluation.
+     * 
+     * @param logPrefix prefix for log messages
+     * @param elapsed duration in nanoseconds
+     */
+    private void record(@Nonnull final String logPrefix, final long elapsed) {
+        if (metricName != null) {
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            if (registry != null) {
+                registry.timer(metricName).update(elapsed, TimeUnit.NANOSECONDS);
+            }
+        }
+        
+        final Duration threshold = warningThreshold;
+        if (threshold != null && elapsed > threshold.toNanos()) {
+            log.warn("{} Script evaluation took {} ms", logPrefix, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+    
+    /** Processes the result of an evaluation. */
+    @FunctionalInterface
+    public interface ResultHandler {
+        
+        /**
+         * Process the result.
+         * 
+         * @param scriptContext the context used for the evaluation
+         * @param scriptResult the result of the evaluation
+         * 
+         * @return the processed result
+         * 
+         * @throws ScriptException if the result is unacceptable
+         */
+        @Nullable Object apply(@Nonnull ScriptContext scriptContext, @Nullable Object scriptResult)
+                throws ScriptException;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link RegexSupport}. */
+public class RegexSupportTest {
+
+    @Test
+    public void testLiteralPrefix() {
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("https://([A-Za-z0-9_-]+\\.)*example\\.org(:\\d+)?/.*"),
+                "https://");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("^https://app\\.example\\.org/.*"),
+                "https://app.example.org/");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("https://app\\.example\\.org/?"),
+                "https://app.example.org");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("https://a\\.org/\\d+"), "https://a.org/");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("ab{2}"), "a");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("a*"), "");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("https://a|https://b"), "");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("(?i)https://a"), "");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("\\Qa.b\\E"), "");
+        Assert.assertEquals(RegexSupport.getLiteralPrefix("abc"), "abc");
+    }
+
+    @Test
+    public void testLiteral() {
+        Assert.assertEquals(RegexSupport.getLiteral("abc"), "abc");
+        Assert.assertEquals(RegexSupport.getLiteral("^a\\.b"), "a.b");
+        Assert.assertEquals(RegexSupport.getLiteral(""), "");
+        Assert.assertNull(RegexSupport.getLiteral("a.b"));
+        Assert.assertNull(RegexSupport.getLiteral("ab$"));
+        Assert.assertNull(RegexSupport.getLiteral("a|b"));
+        Assert.assertNull(RegexSupport.getLiteral("a\\d"));
+    }
+
+}
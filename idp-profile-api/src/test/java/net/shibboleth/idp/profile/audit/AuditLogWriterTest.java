@@ -0,0 +1,123 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import net.shibboleth.idp.profile.audit.AuditLogWriter.OverflowPolicy;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** {@link AuditLogWriter} unit test. */
+public class AuditLogWriterTest {
+
+    @Test public void testOrder() throws ComponentInitializationException {
+        final CapturingWriter writer = new CapturingWriter();
+        writer.setQueueSize(4);
+        writer.initialize();
+        
+        for (int i = 0; i < 100; ++i) {
+            writer.write("audit", Integer.toString(i));
+        }
+        writer.destroy();
+        
+        Assert.assertEquals(writer.getQueueDepth(), 0);
+        Assert.assertEquals(writer.records.size(), 100);
+        int i = 0;
+        for (final String record : writer.records) {
+            Assert.assertEquals(record, Integer.toString(i++));
+        }
+    }
+
+    @Test(timeOut = 30000) public void testWriteDuringShutdown() throws Exception {
+        final CapturingWriter writer = new CapturingWriter();
+        writer.setQueueSize(8);
+        writer.initialize();
+        
+        final int threads = 8;
+        final int records = 500;
+        final CountDownLatch started = new CountDownLatch(threads);
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            final Thread thread = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; i < records; ++i) {
+                    writer.write("audit", "record");
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        
+        started.await();
+        writer.destroy();
+        for (final Thread thread : writers) {
+            thread.join();
+        }
+        
+        Assert.assertEquals(writer.records.size(), threads * records);
+        Assert.assertEquals(writer.getQueueDepth(), 0);
+        Assert.assertEquals(writer.getDroppedCount(), 0);
+    }
+
+    @Test(timeOut = 30000) public void testDeadWriterThread() throws Exception {
+        final CapturingWriter writer = new CapturingWriter();
+        writer.setQueueSize(1);
+        writer.setOverflowPolicy(OverflowPolicy.BLOCK);
+        writer.setThreadName("audit-log-writer-test");
+        writer.initialize();
+        
+        Thread writerThread = null;
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("audit-log-writer-test".equals(thread.getName())) {
+                writerThread = thread;
+            }
+        }
+        Assert.assertNotNull(writerThread);
+        writerThread.interrupt();
+        writerThread.join();
+        
+        // With the thread gone, these would block forever on a full queue if it were relied upon.
+        for (int i = 0; i < 5; ++i) {
+            writer.write("audit", Integer.toString(i));
+        }
+        Assert.assertEquals(writer.records.size(), 5);
+        Assert.assertEquals(writer.getQueueDepth(), 0);
+        
+        writer.destroy();
+    }
+
+    /** Captures output rather than logging it. */
+    private static class CapturingWriter extends AuditLogWriter {
+        
+        private final Queue<String> records = new ConcurrentLinkedQueue<>();
+        
+        /** {@inheritDoc} */
+        @Override
+        protected void output(final String loggerName, final String message) {
+            records.add(message);
+        }
+    }
+
+}
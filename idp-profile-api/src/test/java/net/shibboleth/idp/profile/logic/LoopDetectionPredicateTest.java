@@ -20,10 +20,12 @@ package net.shibboleth.idp.profile.logic;
 import java.util.Map;
 
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 
 import org.opensaml.core.testing.OpenSAMLInitBaseTestCase;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.storage.impl.MemoryStorageService;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -78,4 +80,64 @@ public class LoopDetectionPredicateTest extends OpenSAMLInitBaseTestCase {
         Assert.assertTrue(pred.test(prc));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSeparateUsers() {
+        pred.setRelyingPartyMap(Map.of("bar", "bar"));
+        pred.setThreshold(2);
+        
+        rpCtx.setRelyingPartyId("bar");
+        Assert.assertFalse(pred.test(prc));
+        Assert.assertFalse(pred.test(prc));
+        Assert.assertTrue(pred.test(prc));
+        Assert.assertTrue(pred.test(prc));
+        
+        pred.setUsernameLookupStrategy(FunctionSupport.constant("jsmith"));
+        Assert.assertFalse(pred.test(prc));
+    }
+
+    @Test
+    public void testMaxEntries() {
+        pred.setRelyingPartyMap(Map.of("bar", "bar"));
+        pred.setThreshold(1);
+        pred.setMaxEntries(1);
+        
+        rpCtx.setRelyingPartyId("bar");
+        Assert.assertFalse(pred.test(prc));
+        
+        pred.setUsernameLookupStrategy(FunctionSupport.constant("jsmith"));
+        Assert.assertFalse(pred.test(prc));
+        
+        // Original entry was evicted.
+        pred.setUsernameLookupStrategy(FunctionSupport.constant("jdoe.1"));
+        Assert.assertFalse(pred.test(prc));
+        Assert.assertTrue(pred.test(prc));
+    }
+
+    @Test
+    public void testStorage() throws ComponentInitializationException {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("test");
+        storage.initialize();
+        
+        try {
+            pred.setRelyingPartyMap(Map.of("bar", "bar"));
+            pred.setStorageService(storage);
+            
+            rpCtx.setRelyingPartyId("bar");
+            for (int i=0; i<20; ++i) {
+                Assert.assertFalse(pred.test(prc));
+            }
+            Assert.assertTrue(pred.test(prc));
+            
+            // A second node sharing the storage sees the same count.
+            final LoopDetectionPredicate pred2 = new LoopDetectionPredicate();
+            pred2.setUsernameLookupStrategy(FunctionSupport.constant("jdoe.1"));
+            pred2.setRelyingPartyMap(Map.of("bar", "bar"));
+            pred2.setStorageService(storage);
+            Assert.assertTrue(pred2.test(prc));
+        } finally {
+            storage.destroy();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.scripting;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+
+import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link ScriptContextPool}.
+ */
+public class ScriptContextPoolTest {
+
+    private EvaluableScript script(final String source) throws ScriptException {
+        final EvaluableScript script = new EvaluableScript();
+        script.setEngineName("javascript");
+        script.setScript(source);
+        script.initializeWithScriptException();
+        return script;
+    }
+
+    @Test public void reuse() throws ScriptException {
+        final ScriptContextPool pool = new ScriptContextPool(script("typeof foo"));
+        pool.setMaxIdle(1);
+        final ScriptContext[] used = new ScriptContext[2];
+        
+        Assert.assertEquals(pool.eval("test:",
+                scriptContext -> {
+                    used[0] = scriptContext;
+                    scriptContext.setAttribute("foo", "bar", ScriptContext.ENGINE_SCOPE);
+                },
+                (scriptContext, result) -> result), "string");
+        
+        // Same context, with the attribute removed.
+        Assert.assertEquals(pool.eval("test:", scriptContext -> used[1] = scriptContext,
+                (scriptContext, result) -> result), "undefined");
+        Assert.assertSame(used[1], used[0]);
+        Assert.assertNull(used[0].getAttribute("foo"));
+    }
+
+    @Test public void finisherSeesAttributes() throws ScriptException {
+        final ScriptContextPool pool = new ScriptContextPool(script("foo.length"));
+        
+        Assert.assertEquals(pool.eval("test:",
+                scriptContext -> scriptContext.setAttribute("foo", "bar", ScriptContext.ENGINE_SCOPE),
+                (scriptContext, result) -> scriptContext.getAttribute("foo")), "bar");
+    }
+
+    @Test public void noReuse() throws ScriptException {
+        final ScriptContextPool pool = new ScriptContextPool(script("true"));
+        final ScriptContext[] used = new ScriptContext[2];
+        
+        pool.eval("test:", scriptContext -> used[0] = scriptContext, (scriptContext, result) -> result);
+        pool.eval("test:", scriptContext -> used[1] = scriptContext, (scriptContext, result) -> result);
+        Assert.assertNotSame(used[1], used[0]);
+    }
+
+    @Test public void globalsNotShared() throws ScriptException {
+        final ScriptContextPool pool =
+                new ScriptContextPool(script("var seen = typeof secret; var secret = 'x'; seen"));
+        
+        Assert.assertEquals(pool.eval("test:", scriptContext -> {}, (scriptContext, result) -> result),
+                "undefined");
+        Assert.assertEquals(pool.eval("test:", scriptContext -> {}, (scriptContext, result) -> result),
+                "undefined");
+    }
+
+    @Test public void evaluate() throws ScriptException {
+        final ScriptContextPool pool = new ScriptContextPool(script("foo"));
+        
+        Assert.assertEquals(pool.evaluate("test:", String.class, "error", false,
+                scriptContext -> scriptContext.setAttribute("foo", "bar", ScriptContext.ENGINE_SCOPE),
+                (scriptContext, result) -> result), "bar");
+        Assert.assertEquals(pool.evaluate("test:", String.class, "error", false,
+                scriptContext -> scriptContext.setAttribute("foo", 1, ScriptContext.ENGINE_SCOPE),
+                (scriptContext, result) -> result), "error");
+        Assert.assertEquals(pool.evaluate("test:", String.class, "error", true, scriptContext -> {},
+                (scriptContext, result) -> result), "error");
+    }
+
+    @Test(expectedExceptions = RuntimeException.class) public void evaluateFailure() throws ScriptException {
+        final ScriptContextPool pool = new ScriptContextPool(script("throw 'oops'"));
+        pool.evaluate("test:", null, null, false, scriptContext -> {}, (scriptContext, result) -> result);
+    }
+
+    @Test(expectedExceptions = ScriptException.class) public void failure() throws ScriptException {
+        final ScriptContextPool pool = new ScriptContextPool(script("throw 'oops'"));
+        pool.setWarningThreshold(null);
+        pool.setMetricName("test.script");
+        pool.eval("test:", scriptContext -> {}, (scriptContext, result) -> result);
+    }
+
+}
@@ -35,6 +35,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import net.shibboleth.idp.profile.AbstractProfileAction;
 import net.shibboleth.idp.profile.IdPAuditFields;
+import net.shibboleth.idp.profile.audit.AuditLogWriter;
 import net.shibboleth.idp.profile.context.AuditContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -54,7 +55,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
-//import com.google.common.collect.ImmutableMap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Action that produces audit log entries based on an {@link AuditContext} and one or more formatting strings. 
@@ -69,8 +71,12 @@ public class WriteAuditLog extends AbstractProfileAction {
     /** Strategy used to locate the {@link AuditContext} associated with a given {@link ProfileRequestContext}. */
     @Nonnull private Function<ProfileRequestContext,AuditContext> auditContextLookupStrategy;
     
-    /** Map of log category to formatting tokens and literals to output. */
-    @Nonnull @NotEmpty private Map<String,List<String>> formattingMap;
+    /** Formatting strings already compiled, shared across instances. */
+    @Nonnull private static final Cache<String,CompiledFormat> COMPILED_FORMATS =
+            CacheBuilder.newBuilder().maximumSize(1000).build();
+
+    /** Map of log category to compiled formatting string. */
+    @Nonnull @NotEmpty private Map<String,CompiledFormat> formattingMap;
 
     /** Formatter for date/time fields. */
     @Nonnull private DateTimeFormatter dateTimeFormatter;
@@ -86,6 +92,9 @@ public class WriteAuditLog extends AbstractProfileAction {
 
     /** HttpServletRequest object. */
     @Nullable private HttpServletRequest httpRequest;
+
+    /** Optional component to hand records off to. */
+    @Nullable private AuditLogWriter auditLogWriter;
     
     /** Constructor. */
     public WriteAuditLog() {
@@ -112,10 +121,11 @@ public class WriteAuditLog extends AbstractProfileAction {
      * @return map of formatting tokens
      */
     @Nonnull @NonnullElements @NotLive @Unmodifiable public Map<String,List<String>> getFormattingMap() {
-        return Map.copyOf(formattingMap);
+        final Map<String,List<String>> copy = new HashMap<>(formattingMap.size());
+        formattingMap.forEach((k,v) -> copy.put(k, v.tokens));
+        return Map.copyOf(copy);
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /**
      * Set the map of logging category to formatting strings for log entries.
      * 
@@ -123,6 +133,9 @@ public class WriteAuditLog extends AbstractProfileAction {
      * Tokens can contain any letter or number or a hyphen. Anything other than a token, including whitespace, is
      * a literal.</p>
      * 
+     * <p>Each string is compiled once into a sequence of field extractors, and the result is shared by every
+     * instance configured with the same string.</p>
+     * 
      * @param map map of categories to formatting strings
      */
     public void setFormattingMap(@Nonnull @NonnullElements final Map<String,String> map) {
@@ -138,37 +151,24 @@ public class WriteAuditLog extends AbstractProfileAction {
                 continue;
             }
             
-            final int len = s.length();
-            boolean inToken = false;
-            final List<String> format = new ArrayList<>();
-            final StringBuilder field = new StringBuilder();
-            for (int pos = 0; pos < len; ++pos) {
-                final char ch = s.charAt(pos);
-                if (inToken) {
-                    if (!Character.isLetterOrDigit(ch) && ch != '-' && ch != '%') {
-                        format.add(field.toString());
-                        field.setLength(0);
-                        inToken = false;
-                    }
-                } else if (ch == '%') {
-                    if (field.length() > 0) {
-                        format.add(field.toString());
-                        field.setLength(0);
-                    }
-                    inToken = true;
-                }
-                
-                field.append(ch);
-            }
-            
-            if (field.length() > 0) {
-                format.add(field.toString());
-            }
-            
-            formattingMap.put(category, format);
+            formattingMap.put(category, COMPILED_FORMATS.asMap().computeIfAbsent(s, CompiledFormat::new));
         }
     }
-// Checkstyle: CyclomaticComplexity ON
+
+    /**
+     * Set the component to hand records off to for output.
+     * 
+     * <p>If not set, records are written synchronously.</p>
+     * 
+     * @param writer audit log writer
+     * 
+     * @since 4.2.0
+     */
+    public void setAuditLogWriter(@Nullable final AuditLogWriter writer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        auditLogWriter = writer;
+    }
 
     /**
      * Set the formatting string to apply when extracting date/time fields.
@@ -229,61 +229,28 @@ public class WriteAuditLog extends AbstractProfileAction {
         return true;
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
 
-        for (final Map.Entry<String,List<String>> entry : formattingMap.entrySet()) {
+        for (final Map.Entry<String,CompiledFormat> entry : formattingMap.entrySet()) {
         
             final StringBuilder record = new StringBuilder();
     
-            for (final String token : entry.getValue()) {
-                if (token.startsWith("%")) {
-                    if (token.length() == 1 || token.charAt(1) == '%') {
-                        record.append('%');
-                    } else {
-                        final String field = token.substring(1);
-                        
-                        if (IdPAuditFields.EVENT_TIME.equals(field)) {
-                            record.append(dateTimeFormatter.format(Instant.now()));
-                        } else if (IdPAuditFields.EVENT_TYPE.equals(field)) {
-                            final Event event = requestContext.getCurrentEvent();
-                            if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
-                                record.append(event.getId());
-                            }
-                        } else if (IdPAuditFields.PROFILE.equals(field)) {
-                            record.append(profileRequestContext.getProfileId());
-                        } else if (IdPAuditFields.REMOTE_ADDR.equals(field) && httpRequest != null) {
-                            record.append(HttpServletSupport.getRemoteAddr(httpRequest));
-                        } else if (IdPAuditFields.URI.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getRequestURI());
-                        } else if (IdPAuditFields.URL.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getRequestURL());
-                        } else if (IdPAuditFields.USER_AGENT.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getHeader("User-Agent"));
-                        } else if (auditCtx != null) {
-                            final Iterator<String> iter = auditCtx.getFieldValues(field).iterator();
-                            while (iter.hasNext()) {
-                                record.append(iter.next());
-                                if (iter.hasNext()) {
-                                    record.append(',');
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    record.append(token);
-                }
+            for (final FieldExtractor extractor : entry.getValue().extractors) {
+                extractor.extract(this, profileRequestContext, record);
             }
             
             filter(record);
             
-            LoggerFactory.getLogger(entry.getKey() + '.'
-                    + profileRequestContext.getLoggingId()).info(record.toString());
+            final String loggerName = entry.getKey() + '.' + profileRequestContext.getLoggingId();
+            if (auditLogWriter != null) {
+                auditLogWriter.write(loggerName, record.toString());
+            } else {
+                LoggerFactory.getLogger(loggerName).info(record.toString());
+            }
         }
     }
-// Checkstyle: CyclomaticComplexity ON
     
     /**
      * Optional override to filter the outgoing log message, does nothing by default.
@@ -293,5 +260,151 @@ public class WriteAuditLog extends AbstractProfileAction {
     protected void filter(@Nonnull final StringBuilder entry) {
         
     }
+
+    /**
+     * Appends one piece of a record.
+     */
+    @FunctionalInterface
+    private interface FieldExtractor {
+        
+        /**
+         * Append the field to a record.
+         * 
+         * @param action the action producing the record
+         * @param profileRequestContext current profile request context
+         * @param record record to append to
+         */
+        void extract(@Nonnull final WriteAuditLog action, @Nonnull final ProfileRequestContext profileRequestContext,
+                @Nonnull final StringBuilder record);
+    }
+
+    /**
+     * A formatting string split into tokens and literals, and the extractors that produce them.
+     */
+    private static final class CompiledFormat {
+        
+        /** Formatting tokens and literals. */
+        @Nonnull @NonnullElements @Unmodifiable private final List<String> tokens;
+        
+        /** Extractors corresponding to each token. */
+        @Nonnull @NonnullElements private final FieldExtractor[] extractors;
+
+        /**
+         * Constructor.
+         * 
+         * @param format formatting string
+         */
+        CompiledFormat(@Nonnull @NotEmpty final String format) {
+            tokens = List.copyOf(tokenize(format));
+            extractors = new FieldExtractor[tokens.size()];
+            for (int i = 0; i < extractors.length; ++i) {
+                extractors[i] = compile(tokens.get(i));
+            }
+        }
+        
+        /**
+         * Split a formatting string into tokens and literals.
+         * 
+         * @param s formatting string
+         * 
+         * @return tokens and literals
+         */
+        @Nonnull @NonnullElements private static List<String> tokenize(@Nonnull @NotEmpty final String s) {
+            final int len = s.length();
+            boolean inToken = false;
+            final List<String> format = new ArrayList<>();
+            final StringBuilder field = new StringBuilder();
+            for (int pos = 0; pos < len; ++pos) {
+                final char ch = s.charAt(pos);
+                if (inToken) {
+                    if (!Character.isLetterOrDigit(ch) && ch != '-' && ch != '%') {
+                        format.add(field.toString());
+                        field.setLength(0);
+                        inToken = false;
+                    }
+                } else if (ch == '%') {
+                    if (field.length() > 0) {
+                        format.add(field.toString());
+                        field.setLength(0);
+                    }
+                    inToken = true;
+                }
+                
+                field.append(ch);
+            }
+            
+            if (field.length() > 0) {
+                format.add(field.toString());
+            }
+            
+            return format;
+        }
+        
+// Checkstyle: CyclomaticComplexity OFF
+        /**
+         * Produce the extractor for a token or literal.
+         * 
+         * @param token token or literal
+         * 
+         * @return the extractor
+         */
+        @Nonnull private static FieldExtractor compile(@Nonnull final String token) {
+            if (!token.startsWith("%")) {
+                return (action, prc, record) -> record.append(token);
+            } else if (token.length() == 1 || token.charAt(1) == '%') {
+                return (action, prc, record) -> record.append('%');
+            }
+            
+            final String field = token.substring(1);
+            
+            if (IdPAuditFields.EVENT_TIME.equals(field)) {
+                return (action, prc, record) -> record.append(action.dateTimeFormatter.format(Instant.now()));
+            } else if (IdPAuditFields.EVENT_TYPE.equals(field)) {
+                return (action, prc, record) -> {
+                    final Event event = action.requestContext.getCurrentEvent();
+                    if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
+                        record.append(event.getId());
+                    }
+                };
+            } else if (IdPAuditFields.PROFILE.equals(field)) {
+                return (action, prc, record) -> record.append(prc.getProfileId());
+            }
+            
+            // The remaining fields fall back to the AuditContext if there's no servlet request.
+            final FieldExtractor fromContext = (action, prc, record) -> {
+                if (action.auditCtx != null) {
+                    final Iterator<String> iter = action.auditCtx.getFieldValues(field).iterator();
+                    while (iter.hasNext()) {
+                        record.append(iter.next());
+                        if (iter.hasNext()) {
+                            record.append(',');
+                        }
+                    }
+                }
+            };
+            
+            final Function<HttpServletRequest,Object> fromRequest;
+            if (IdPAuditFields.REMOTE_ADDR.equals(field)) {
+                fromRequest = HttpServletSupport::getRemoteAddr;
+            } else if (IdPAuditFields.URI.equals(field)) {
+                fromRequest = HttpServletRequest::getRequestURI;
+            } else if (IdPAuditFields.URL.equals(field)) {
+                fromRequest = HttpServletRequest::getRequestURL;
+            } else if (IdPAuditFields.USER_AGENT.equals(field)) {
+                fromRequest = request -> request.getHeader("User-Agent");
+            } else {
+                return fromContext;
+            }
+            
+            return (action, prc, record) -> {
+                if (action.httpRequest != null) {
+                    record.append(fromRequest.apply(action.httpRequest));
+                } else {
+                    fromContext.extract(action, prc, record);
+                }
+            };
+        }
+// Checkstyle: CyclomaticComplexity ON
+    }
     
-}
\ No newline at end of file
+}
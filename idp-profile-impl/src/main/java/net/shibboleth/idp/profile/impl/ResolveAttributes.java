@@ -19,6 +19,8 @@ package net.shibboleth.idp.profile.impl;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -31,6 +33,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.shibboleth.idp.attribute.context.AttributeContext;
+import net.shibboleth.idp.attribute.filter.AttributeFilter;
 import net.shibboleth.idp.attribute.resolver.AttributeResolver;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
@@ -95,6 +98,12 @@ public final class ResolveAttributes extends AbstractProfileAction {
     /** Whether to create and populate {@link AttributeResolutionContext}. */
     private boolean createResolutionContext;
 
+    /** Optional filter service consulted to limit resolution to the attributes it could release. */
+    @Nullable private ReloadableService<AttributeFilter> attributeFilterService;
+
+    /** Attributes to resolve in addition to those the filter could release. */
+    @Nonnull @NonnullElements private Collection<String> additionalAttributes;
+
     /**
      * Constructor.
      * 
@@ -118,6 +127,7 @@ public final class ResolveAttributes extends AbstractProfileAction {
         
         maskFailures = true;
         createResolutionContext = true;
+        additionalAttributes = Collections.emptyList();
     }
 
     /**
@@ -239,6 +249,37 @@ public final class ResolveAttributes extends AbstractProfileAction {
         createResolutionContext = flag;
     }
 
+    /**
+     * Set an attribute filter service to consult so that, when no specific attributes are to be resolved,
+     * resolution is limited to the attributes that the filter could release to the recipient.
+     * 
+     * <p>Attributes needed for other purposes, such as the source of a persistent identifier, must then be
+     * supplied via {@link #setAdditionalAttributes(Collection)}.</p>
+     * 
+     * @param filterService filter service
+     * 
+     * @since 4.2.0
+     */
+    public void setAttributeFilterService(@Nullable final ReloadableService<AttributeFilter> filterService) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        attributeFilterService = filterService;
+    }
+
+    /**
+     * Set the IDs of attributes to resolve in addition to those the filter could release, when an
+     * attribute filter service is supplied.
+     * 
+     * @param attributeIds attribute IDs
+     * 
+     * @since 4.2.0
+     */
+    public void setAdditionalAttributes(@Nullable @NonnullElements final Collection<String> attributeIds) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        additionalAttributes = StringSupport.normalizeStringCollection(attributeIds);
+    }
+
     /** {@inheritDoc} */
     @Override
     protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
@@ -344,6 +385,44 @@ public final class ResolveAttributes extends AbstractProfileAction {
         } else {
             resolutionContext.setAttributeIssuerID(null);
         }
+        
+        if (attributeFilterService != null && resolutionContext.getRequestedIdPAttributeNames().isEmpty()) {
+            final Set<String> releasable = getReleasableAttributeIds(resolutionContext);
+            if (releasable != null) {
+                final Set<String> requested = new HashSet<>(releasable);
+                requested.addAll(additionalAttributes);
+                log.debug("{} Limiting resolution to attributes that may be released: {}", getLogPrefix(),
+                        requested);
+                resolutionContext.setRequestedIdPAttributeNames(requested);
+                resolutionContext.setExhaustiveRequest(true);
+            }
+        }
+    }
+    
+    /**
+     * Ask the attribute filter which attributes it could release to the recipient.
+     * 
+     * @param resolutionContext context identifying the issuer and recipient
+     * 
+     * @return attribute IDs, or null if they can't be determined
+     */
+    @Nullable private Set<String> getReleasableAttributeIds(
+            @Nonnull final AttributeResolutionContext resolutionContext) {
+        
+        ServiceableComponent<AttributeFilter> component = null;
+        try {
+            component = attributeFilterService.getServiceableComponent();
+            if (null == component) {
+                log.warn("{} Unable to limit resolution: Invalid Attribute Filter configuration", getLogPrefix());
+                return null;
+            }
+            return component.getComponent().getReleasableAttributeIds(resolutionContext.getAttributeIssuerID(),
+                    resolutionContext.getAttributeRecipientID());
+        } finally {
+            if (null != component) {
+                component.unpinComponent();
+            }
+        }
     }
     
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import javax.annotation.Nonnull;
 
 import org.opensaml.profile.context.ProfileRequestContext;
 
+import net.shibboleth.idp.profile.audit.AuditLogWriter;
 import net.shibboleth.idp.profile.context.AuditContext;
 import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
 import net.shibboleth.idp.profile.testing.ActionTestingSupport;
@@ -139,6 +140,28 @@ public class WriteAuditLogTest {
         Assert.assertEquals(action.getResult(), "192.168.1.1 https://idp.example.org/path/to/foo - Mock");
     }
 
+    @Test public void testAsyncWriter() throws ComponentInitializationException {
+        final AuditLogWriter writer = new AuditLogWriter();
+        writer.setQueueSize(16);
+        writer.initialize();
+        
+        try {
+            action.setFormattingMap(Collections.singletonMap("category", "%a %%"));
+            action.setAuditLogWriter(writer);
+            action.initialize();
+            
+            for (int i = 0; i < 100; ++i) {
+                ActionTestingSupport.assertProceedEvent(action.execute(src));
+            }
+            Assert.assertEquals(action.getResult(), "192.168.1.1 %");
+        } finally {
+            writer.destroy();
+        }
+        
+        Assert.assertEquals(writer.getQueueDepth(), 0);
+        Assert.assertEquals(writer.getDroppedCount(), 0);
+    }
+
 
     /**
      * Subclass for testing purposes that grants access to the built log entry.
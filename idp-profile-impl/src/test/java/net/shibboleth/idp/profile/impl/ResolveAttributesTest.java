@@ -19,7 +19,9 @@ package net.shibboleth.idp.profile.impl;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,6 +30,9 @@ import net.shibboleth.ext.spring.testing.MockApplicationContext;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.attribute.context.AttributeContext;
+import net.shibboleth.idp.attribute.filter.AttributeFilter;
+import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
+import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.attribute.resolver.AttributeDefinition;
 import net.shibboleth.idp.attribute.resolver.DataConnector;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
@@ -212,6 +217,94 @@ public class ResolveAttributesTest {
         ActionTestingSupport.assertEvent(event, IdPEventIds.UNABLE_RESOLVE_ATTRIBS);
     }
     
+    @Test public void testReleaseAwareResolution() throws Exception {
+        prc.getSubcontext(SubjectContext.class, true);
+
+        final ResolveAttributes action =
+                new ResolveAttributes(new MockReloadableService<>(newThreeAttributeResolver()));
+        action.setAttributeFilterService(new MockReloadableService<>(newReleasingFilter(Set.of("ad1"))));
+        action.setAdditionalAttributes(List.of("ad2"));
+        action.initialize();
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final Map<String, IdPAttribute> resolvedAttributes = prc.getSubcontext(RelyingPartyContext.class)
+                .getSubcontext(AttributeContext.class).getIdPAttributes();
+        Assert.assertEquals(resolvedAttributes.keySet(), Set.of("ad1", "ad2"));
+    }
+
+    @Test public void testReleaseAwareFallback() throws Exception {
+        prc.getSubcontext(SubjectContext.class, true);
+
+        // A filter that can't decide results in everything being resolved.
+        final ResolveAttributes action =
+                new ResolveAttributes(new MockReloadableService<>(newThreeAttributeResolver()));
+        action.setAttributeFilterService(new MockReloadableService<>(newReleasingFilter(null)));
+        action.setAdditionalAttributes(List.of("ad2"));
+        action.initialize();
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final Map<String, IdPAttribute> resolvedAttributes = prc.getSubcontext(RelyingPartyContext.class)
+                .getSubcontext(AttributeContext.class).getIdPAttributes();
+        Assert.assertEquals(resolvedAttributes.keySet(), Set.of("ad1", "ad2", "ad3"));
+    }
+
+    @Test public void testReleaseAwareWithRequestedAttributes() throws Exception {
+        prc.getSubcontext(SubjectContext.class, true);
+
+        final AttributeResolutionContext attributeResolutionCtx = new AttributeResolutionContext();
+        attributeResolutionCtx.setRequestedIdPAttributeNames(Collections.singleton("ad3"));
+        prc.addSubcontext(attributeResolutionCtx);
+
+        // An explicit request is left alone.
+        final ResolveAttributes action =
+                new ResolveAttributes(new MockReloadableService<>(newThreeAttributeResolver()));
+        action.setAttributeFilterService(new MockReloadableService<>(newReleasingFilter(Set.of("ad1"))));
+        action.setAdditionalAttributes(List.of("ad2"));
+        action.initialize();
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final Map<String, IdPAttribute> resolvedAttributes = prc.getSubcontext(RelyingPartyContext.class)
+                .getSubcontext(AttributeContext.class).getIdPAttributes();
+        Assert.assertEquals(resolvedAttributes.keySet(), Set.of("ad3"));
+    }
+
+    private AttributeResolverImpl newThreeAttributeResolver() throws ComponentInitializationException {
+        final LazySet<AttributeDefinition> definitions = new LazySet<>();
+        for (final String id : List.of("ad1", "ad2", "ad3")) {
+            final IdPAttribute attribute = new IdPAttribute(id);
+            attribute.setValues(Collections.singletonList(new StringAttributeValue(id)));
+            final AttributeDefinition definition = new MockAttributeDefinition(id, attribute);
+            definition.initialize();
+            definitions.add(definition);
+        }
+
+        final AttributeResolverImpl resolver = newAttributeResolverImpl("resolver", definitions, null);
+        resolver.initialize();
+        return resolver;
+    }
+
+    private AttributeFilter newReleasingFilter(@Nullable final Set<String> releasable) {
+        return new AttributeFilter() {
+            public String getId() {
+                return "filter";
+            }
+
+            public List<AttributeFilterPolicy> getFilterPolicies() {
+                return Collections.emptyList();
+            }
+
+            public void filterAttributes(final AttributeFilterContext filterContext) {
+            }
+
+            public Set<String> getReleasableAttributeIds(final String issuer, final String requester) {
+                return releasable;
+            }
+        };
+    }
+
     public static AttributeResolverImpl newAttributeResolverImpl(@Nonnull @NotEmpty final String resolverId,
             @Nullable final Collection<AttributeDefinition> definitions,
             @Nullable final Collection<DataConnector> connectors) {
@@ -17,12 +17,18 @@
 
 package net.shibboleth.idp.saml.profile.config;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -44,6 +50,9 @@ import org.opensaml.soap.client.security.SOAPClientSecurityProfileIdLookupFuncti
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import net.shibboleth.idp.attribute.AttributesMapContainer;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
@@ -87,6 +96,9 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
     /** Default profile ID lookup for MC-based usage. */
     @Nonnull private static final Function<MessageContext,String> DEFAULT_MC_PROFILE_ID_LOOKUP;
 
+    /** Marker for the absence of a matching tag. */
+    @Nonnull private static final Object NO_TAG = new Object();
+
     /** Class logger. */
     @Nonnull
     private final Logger log = LoggerFactory.getLogger(AbstractMetadataDrivenConfigurationLookupStrategy.class);
@@ -137,6 +149,11 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
     /**
      * Sets whether property lookup should be cached in the profile context tree.
      * 
+     * <p>This also caches the result of examining a given {@link EntityDescriptor} in the descriptor's object
+     * metadata, for use by later requests until the descriptor is replaced by a metadata refresh. Results derived
+     * from the default value strategy are not cached across requests. Collection results are shared between
+     * requests, and are therefore returned unmodifiable.</p>
+     * 
      * <p>Default is true.</p>
      * 
      * @param flag flag to set
@@ -294,15 +311,56 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             profileId = "";
         }
         
+        final Object tagResult;
+        if (enableCaching) {
+            final Map<String,Object> entityCache = getEntityCache(entity);
+            final Object cached = entityCache.get(String.valueOf(profileId));
+            if (cached != null) {
+                log.debug("Using result for property '{}' cached in metadata for '{}'", propertyName,
+                        entity.getEntityID());
+                tagResult = cached;
+            } else {
+                tagResult = toCacheable(findAndTranslate(entity, profileId));
+                entityCache.put(String.valueOf(profileId), tagResult);
+            }
+        } else {
+            tagResult = findAndTranslate(entity, profileId);
+        }
+
+        final T result;
+        if (tagResult == NO_TAG) {
+            log.debug("No applicable tag, applying default strategy for '{}'", propertyName);
+            result = defaultValueStrategy.apply(input);
+        } else {
+            result = ((Optional<T>) tagResult).orElse(null);
+        }
+        
+        if (enableCaching) {
+            cacheContext.getPropertyMap().put(propertyName, result);
+        }
+        return result;
+    }
+    // Checkstyle: CyclomaticComplexity|MethodLength ON
+
+    // Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Find the applicable tag in the metadata, if any, and translate it.
+     * 
+     * <p>The result depends only on the metadata and profile, so it can be cached against the metadata.</p>
+     * 
+     * @param entity the metadata to examine
+     * @param profileId the profile ID to base the property name on
+     * 
+     * @return an {@link Optional} holding the setting derived from the matching tag, or {@link #NO_TAG}
+     */
+    @Nonnull private Object findAndTranslate(@Nonnull final EntityDescriptor entity,
+            @Nullable final String profileId) {
+        
         // Look for "primary" tag name based on profile/property using mapped tags.
         IdPAttribute idpAttribute = findMatchingMappedTag(entity, profileId + '/' + propertyName);
         if (idpAttribute != null) {
             log.debug("Found matching tag '{}' for property '{}'", idpAttribute.getId(), propertyName);
-            final T result = translate(idpAttribute);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, result);
-            }
-            return result;
+            return Optional.ofNullable(translate(idpAttribute));
         }
         
         // Check aliases.
@@ -310,32 +368,20 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             idpAttribute = findMatchingMappedTag(entity, alias);
             if (idpAttribute != null) {
                 log.debug("Found matching tag '{}' for property '{}'", idpAttribute.getId(), propertyName);
-                final T result = translate(idpAttribute);
-                if (enableCaching) {
-                    cacheContext.getPropertyMap().put(propertyName, result);
-                }
-                return result;
+                return Optional.ofNullable(translate(idpAttribute));
             }
         }
         
         if (ignoreUnmappedEntityAttributes) {
-            log.debug("No applicable mapped tag, applying default strategy for '{}'", propertyName);
-            final T ret = defaultValueStrategy.apply(input);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, ret);
-            }
-            return ret;
+            log.debug("No applicable mapped tag for '{}'", propertyName);
+            return NO_TAG;
         }
         
         // Look for "primary" tag name based on profile/property.
         Attribute attribute = findMatchingTag(entity, profileId + '/' + propertyName);
         if (attribute != null) {
             log.debug("Found matching tag '{}' for property '{}'", attribute.getName(), propertyName);
-            final T result = translate(attribute);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, result);
-            }
-            return result;
+            return Optional.ofNullable(translate(attribute));
         }
         
         // Check aliases.
@@ -343,22 +389,80 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             attribute = findMatchingTag(entity, alias);
             if (attribute != null) {
                 log.debug("Found matching tag '{}' for property '{}'", attribute.getName(), propertyName);
-                final T result = translate(attribute);
-                if (enableCaching) {
-                    cacheContext.getPropertyMap().put(propertyName, result);
-                }
-                return result;
+                return Optional.ofNullable(translate(attribute));
             }
         }
         
-        log.debug("No applicable tag, applying default strategy for '{}'", propertyName);
-        final T ret = defaultValueStrategy.apply(input);
-        if (enableCaching) {
-            cacheContext.getPropertyMap().put(propertyName, ret);
+        return NO_TAG;
+    }
+    // Checkstyle: CyclomaticComplexity ON
+    
+    /**
+     * Convert a result into a form safe to share between requests, by replacing a collection with an
+     * unmodifiable copy.
+     * 
+     * @param tagResult result of {@link #findAndTranslate(EntityDescriptor, String)}
+     * 
+     * @return the result to cache
+     */
+    @Nonnull private Object toCacheable(@Nonnull final Object tagResult) {
+        if (tagResult == NO_TAG) {
+            return tagResult;
+        }
+        
+        final Object value = ((Optional<?>) tagResult).orElse(null);
+        if (value instanceof List) {
+            return Optional.of(Collections.unmodifiableList(new ArrayList<>((List<?>) value)));
+        } else if (value instanceof Set) {
+            return Optional.of(Collections.unmodifiableSet(new LinkedHashSet<>((Set<?>) value)));
+        } else if (value instanceof Collection) {
+            return Optional.of(Collections.unmodifiableCollection(new ArrayList<>((Collection<?>) value)));
+        }
+        return tagResult;
+    }
+    
+    /**
+     * Get the cache of this strategy's results, keyed by profile ID, attached to the metadata.
+     * 
+     * <p>The cache lives in the object metadata of the {@link EntityDescriptor}, so it is discarded along with
+     * the descriptor when the owning metadata resolver refreshes.</p>
+     * 
+     * @param entity the metadata
+     * 
+     * @return the cache
+     */
+    @Nonnull @Live private Map<String,Object> getEntityCache(@Nonnull final EntityDescriptor entity) {
+        final LockableClassToInstanceMultiMap<Object> objectMetadata = entity.getObjectMetadata();
+        final ReadWriteLock rwlock = objectMetadata.getReadWriteLock();
+        
+        try {
+            rwlock.readLock().lock();
+            final List<MetadataDrivenConfigurationCache> caches =
+                    objectMetadata.get(MetadataDrivenConfigurationCache.class);
+            if (!caches.isEmpty()) {
+                return caches.get(0).getStrategyCache(this);
+            }
+        } finally {
+            rwlock.readLock().unlock();
+        }
+        
+        try {
+            rwlock.writeLock().lock();
+            
+            // Check again in case another thread attached a cache while this one waited.
+            final List<MetadataDrivenConfigurationCache> caches =
+                    objectMetadata.get(MetadataDrivenConfigurationCache.class);
+            if (!caches.isEmpty()) {
+                return caches.get(0).getStrategyCache(this);
+            }
+            
+            final MetadataDrivenConfigurationCache cache = new MetadataDrivenConfigurationCache();
+            objectMetadata.put(cache);
+            return cache.getStrategyCache(this);
+        } finally {
+            rwlock.writeLock().unlock();
         }
-        return ret;
     }
-// Checkstyle: CyclomaticComplexity|MethodLength ON
     
     /**
      * Translate the value(s) into a setting of the appropriate type.
@@ -530,6 +634,37 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
         return null;
     }
     
+    /**
+     * Cache of derived configuration properties attached to the object metadata of an {@link EntityDescriptor}.
+     * 
+     * <p>Results are partitioned by strategy, and then keyed by profile ID.</p>
+     */
+    private static final class MetadataDrivenConfigurationCache {
+        
+        /**
+         * Cached results, weakly keyed by strategy so that a strategy discarded by a configuration reload
+         * doesn't stay reachable from metadata that outlives it.
+         */
+        @Nonnull private final Cache<AbstractMetadataDrivenConfigurationLookupStrategy<?>,Map<String,Object>> cache;
+        
+        /** Constructor. */
+        MetadataDrivenConfigurationCache() {
+            cache = CacheBuilder.newBuilder().weakKeys().build();
+        }
+        
+        /**
+         * Get the results cached for a strategy.
+         * 
+         * @param strategy the strategy
+         * 
+         * @return cached results keyed by profile ID
+         */
+        @Nonnull @Live Map<String,Object> getStrategyCache(
+                @Nonnull final AbstractMetadataDrivenConfigurationLookupStrategy<?> strategy) {
+            return cache.asMap().computeIfAbsent(strategy, k -> new ConcurrentHashMap<>());
+        }
+    }
+    
     /** A child context that caches derived configuration properties. */
     public static final class CachedConfigurationContext extends BaseContext {
         
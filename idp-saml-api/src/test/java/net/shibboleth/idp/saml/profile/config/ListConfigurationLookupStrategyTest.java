@@ -0,0 +1,98 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.profile.config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.opensaml.core.testing.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/** Unit test for {@link ListConfigurationLookupStrategy}. */
+@SuppressWarnings("javadoc")
+public class ListConfigurationLookupStrategyTest extends OpenSAMLInitBaseTestCase {
+
+    private EntityDescriptor entity;
+    
+    private ListConfigurationLookupStrategy<String> newStrategy(final boolean caching)
+            throws ComponentInitializationException {
+        final ListConfigurationLookupStrategy<String> strategy = new ListConfigurationLookupStrategy<>();
+        strategy.setPropertyName("foo");
+        strategy.setPropertyType(String.class);
+        strategy.setEnableCaching(caching);
+        strategy.setMetadataLookupStrategy(ctx -> entity);
+        strategy.setProfileIdLookupStrategy(ctx -> "http://example.org/profile");
+        strategy.initialize();
+        return strategy;
+    }
+    
+    private EntityDescriptor newEntity(final String... values) {
+        final EntityDescriptor ed = (EntityDescriptor) XMLObjectSupport.buildXMLObject(
+                EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        ed.setEntityID("https://sp.example.org");
+        
+        final Extensions exts = (Extensions) XMLObjectSupport.buildXMLObject(Extensions.DEFAULT_ELEMENT_NAME);
+        ed.setExtensions(exts);
+        
+        final EntityAttributes entityAttributes =
+                (EntityAttributes) XMLObjectSupport.buildXMLObject(EntityAttributes.DEFAULT_ELEMENT_NAME);
+        exts.getUnknownXMLObjects().add(entityAttributes);
+        
+        final Attribute tag = (Attribute) XMLObjectSupport.buildXMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+        tag.setName("http://example.org/profile/foo");
+        final XMLObjectBuilder<XSString> builder =
+                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilderOrThrow(XSString.TYPE_NAME);
+        for (final String value : values) {
+            final XSString xsString = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+            xsString.setValue(value);
+            tag.getAttributeValues().add(xsString);
+        }
+        entityAttributes.getAttributes().add(tag);
+        
+        return ed;
+    }
+    
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testCachedUnmodifiable() throws ComponentInitializationException {
+        entity = newEntity("a", "b");
+        final List<String> result = newStrategy(true).apply(new ProfileRequestContext());
+        Assert.assertEquals(result, Arrays.asList("a", "b"));
+        result.add("c");
+    }
+
+    @Test public void testUncachedModifiable() throws ComponentInitializationException {
+        entity = newEntity("a", "b");
+        final List<String> result = newStrategy(false).apply(new ProfileRequestContext());
+        result.add("c");
+        Assert.assertEquals(result, Arrays.asList("a", "b", "c"));
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.saml.profile.config;
+
+import org.opensaml.core.testing.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/** Unit test for {@link StringConfigurationLookupStrategy}. */
+@SuppressWarnings("javadoc")
+public class StringConfigurationLookupStrategyTest extends OpenSAMLInitBaseTestCase {
+
+    private EntityDescriptor entity;
+    
+    private Attribute tag;
+    
+    private StringConfigurationLookupStrategy newStrategy(final boolean caching)
+            throws ComponentInitializationException {
+        final StringConfigurationLookupStrategy strategy = new StringConfigurationLookupStrategy();
+        strategy.setPropertyName("foo");
+        strategy.setEnableCaching(caching);
+        strategy.setDefaultValue("default");
+        strategy.setMetadataLookupStrategy(ctx -> entity);
+        strategy.setProfileIdLookupStrategy(ctx -> "http://example.org/profile");
+        strategy.initialize();
+        return strategy;
+    }
+    
+    private EntityDescriptor newEntity(final String tagName, final String value) {
+        final EntityDescriptor ed = (EntityDescriptor) XMLObjectSupport.buildXMLObject(
+                EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        ed.setEntityID("https://sp.example.org");
+        
+        final Extensions exts = (Extensions) XMLObjectSupport.buildXMLObject(Extensions.DEFAULT_ELEMENT_NAME);
+        ed.setExtensions(exts);
+        
+        final EntityAttributes entityAttributes =
+                (EntityAttributes) XMLObjectSupport.buildXMLObject(EntityAttributes.DEFAULT_ELEMENT_NAME);
+        exts.getUnknownXMLObjects().add(entityAttributes);
+        
+        tag = (Attribute) XMLObjectSupport.buildXMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+        tag.setName(tagName);
+        final XMLObjectBuilder<XSString> builder =
+                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilderOrThrow(XSString.TYPE_NAME);
+        final XSString xsString = builder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+        xsString.setValue(value);
+        tag.getAttributeValues().add(xsString);
+        entityAttributes.getAttributes().add(tag);
+        
+        return ed;
+    }
+    
+    @Test public void testNoMetadata() throws ComponentInitializationException {
+        entity = null;
+        Assert.assertEquals(newStrategy(true).apply(new ProfileRequestContext()), "default");
+    }
+
+    @Test public void testCachedAcrossRequests() throws ComponentInitializationException {
+        final StringConfigurationLookupStrategy strategy = newStrategy(true);
+        
+        entity = newEntity("http://example.org/profile/foo", "bar");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "bar");
+        
+        // The result is cached against the descriptor, so a change to it isn't seen.
+        ((XSString) tag.getAttributeValues().get(0)).setValue("baz");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "bar");
+        
+        // A different strategy for the same descriptor has its own results.
+        Assert.assertEquals(newStrategy(true).apply(new ProfileRequestContext()), "baz");
+        
+        // A refreshed descriptor is a new object.
+        entity = newEntity("http://example.org/profile/foo", "qux");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "qux");
+        
+        // Absence of a tag is cached, but the default is still applied per-request.
+        entity = newEntity("http://example.org/profile/other", "qux");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "default");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "default");
+    }
+
+    @Test public void testUncached() throws ComponentInitializationException {
+        final StringConfigurationLookupStrategy strategy = newStrategy(false);
+        
+        entity = newEntity("http://example.org/profile/foo", "bar");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "bar");
+        
+        ((XSString) tag.getAttributeValues().get(0)).setValue("baz");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "baz");
+    }
+}
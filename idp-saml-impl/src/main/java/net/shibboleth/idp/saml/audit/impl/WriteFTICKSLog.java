@@ -26,6 +26,7 @@ import javax.annotation.Nullable;
 import net.shibboleth.idp.authn.context.SubjectContext;
 import net.shibboleth.idp.authn.context.navigate.SubjectContextPrincipalLookupFunction;
 import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.profile.audit.AuditLogWriter;
 import net.shibboleth.idp.profile.context.AuditContext;
 import net.shibboleth.idp.profile.context.navigate.RelyingPartyIdLookupFunction;
 import net.shibboleth.idp.profile.context.navigate.ResponderIdLookupFunction;
@@ -42,6 +43,7 @@ import org.opensaml.messaging.context.navigate.MessageLookup;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.profile.context.navigate.OutboundMessageContextLookup;
 import org.opensaml.saml.common.SAMLObject;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -53,6 +55,9 @@ public class WriteFTICKSLog extends AbstractProfileAction {
 
     /** Logging category to use. */
     @Nonnull @NotEmpty public static final String FTICKS_LOG_CATEGORY = "Shibboleth-FTICKS";
+
+    /** Logger for output. */
+    @Nonnull private static final Logger FTICKS_LOG = LoggerFactory.getLogger(FTICKS_LOG_CATEGORY);
     
     /** Strategy used to locate the {@link AuditContext} associated with a given {@link ProfileRequestContext}. */
     @Nonnull private Function<ProfileRequestContext,AuditContext> auditContextLookupStrategy;
@@ -84,6 +89,9 @@ public class WriteFTICKSLog extends AbstractProfileAction {
     /** Username hasher. */
     @NonnullAfterInit private StringDigester digester;
 
+    /** Optional component to hand records off to. */
+    @Nullable private AuditLogWriter auditLogWriter;
+
     /** Constructor. */
     public WriteFTICKSLog() {
         relyingPartyLookupStrategy = new RelyingPartyIdLookupFunction();
@@ -184,6 +192,21 @@ public class WriteFTICKSLog extends AbstractProfileAction {
         statusCodeLookupStrategy = Constraint.isNotNull(strategy, "StatusCode lookup strategy cannot be null");
     }
 
+    /**
+     * Set the component to hand records off to for output.
+     * 
+     * <p>If not set, records are written synchronously.</p>
+     * 
+     * @param writer audit log writer
+     * 
+     * @since 4.2.0
+     */
+    public void setAuditLogWriter(@Nullable final AuditLogWriter writer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        auditLogWriter = writer;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -245,7 +268,11 @@ public class WriteFTICKSLog extends AbstractProfileAction {
         }
 
         record.append("#");
-        LoggerFactory.getLogger(FTICKS_LOG_CATEGORY).info(record.toString());
+        if (auditLogWriter != null) {
+            auditLogWriter.write(FTICKS_LOG_CATEGORY, record.toString());
+        } else {
+            FTICKS_LOG.info(record.toString());
+        }
     }
 // Checkstyle: CyclomaticComplexity ON
     
@@ -19,6 +19,11 @@ package net.shibboleth.idp.saml.saml2.profile.impl;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -36,11 +41,13 @@ import org.opensaml.saml.criterion.ProtocolCriterion;
 import org.opensaml.saml.criterion.RoleDescriptorCriterion;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
 import org.opensaml.saml.saml2.profile.context.EncryptionContext;
 import org.opensaml.xmlsec.EncryptionConfiguration;
 import org.opensaml.xmlsec.EncryptionParameters;
 import org.opensaml.xmlsec.EncryptionParametersResolver;
 import org.opensaml.xmlsec.SecurityConfigurationSupport;
+import org.opensaml.xmlsec.agreement.KeyAgreementCredential;
 import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
 import org.opensaml.xmlsec.criterion.EncryptionOptionalCriterion;
 
@@ -59,6 +66,7 @@ import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 
 import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.util.LockableClassToInstanceMultiMap;
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +83,11 @@ import org.slf4j.LoggerFactory;
  * objects are input to the resolution process, along with the relying party's SAML metadata, which in
  * most cases will be the source of the eventual encryption key.</p>
  * 
+ * <p>Optionally, the result of resolution against a peer's role metadata is cached in the object metadata
+ * of the {@link RoleDescriptor}, keyed by the active configurations, so it is discarded along with the
+ * metadata when the owning metadata resolver refreshes. Results carrying per-message key material,
+ * i.e., a {@link KeyAgreementCredential} or a data encryption credential, are never cached.</p>
+ * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
  * @event {@link EventIds#INVALID_PROFILE_CTX}
  * @event {@link EventIds#INVALID_SEC_CFG}
@@ -83,6 +96,9 @@ import org.slf4j.LoggerFactory;
  */
 public class PopulateEncryptionParameters extends AbstractProfileAction {
 
+    /** Maximum number of results cached per role, to limit growth across configuration reloads. */
+    private static final int MAX_CACHED_RESULTS = 32;
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(PopulateEncryptionParameters.class);
     
@@ -110,6 +126,9 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
     /** Active configurations to feed into resolver. */
     @Nullable @NonnullElements private List<EncryptionConfiguration> encryptionConfigurations;
     
+    /** Whether to cache resolved parameters in the peer's role metadata. */
+    private boolean cacheParameters;
+    
     /** Is encryption optional in the case no parameters can be resolved? */
     private boolean encryptionOptional;
     
@@ -217,6 +236,23 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
         encParamsresolver = Constraint.isNotNull(newResolver, "EncryptionParametersResolver cannot be null");
     }
     
+    /**
+     * Set whether to cache resolved parameters in the object metadata of the peer's {@link RoleDescriptor}.
+     * 
+     * <p>Defaults to false. Caching assumes that the installed resolver's results depend only on the
+     * configurations and the peer's metadata. Results that carry per-message key material, such as
+     * the ephemeral key of a key agreement, are not cached regardless.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 4.2.0
+     */
+    public void setCacheParameters(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheParameters = flag;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -313,8 +349,7 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
                 throw new ResolverException("No EncryptionConfigurations returned by lookup strategy");
             }
             
-            final EncryptionParameters params =
-                    encParamsresolver.resolveSingle(buildCriteriaSet(profileRequestContext));
+            final EncryptionParameters params = resolveParameters(profileRequestContext);
             log.debug("{} {} EncryptionParameters", getLogPrefix(),
                     params != null ? "Resolved" : "Failed to resolve");
             if (params != null) {
@@ -348,40 +383,197 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
 // Checkstyle: CyclomaticComplexity ON
     
     /**
-     * Build the criteria used as input to the {@link EncryptionParametersResolver}.
+     * Resolve the parameters, using the results cached in the peer's role metadata if possible.
      * 
      * @param profileRequestContext current profile request context
      * 
+     * @return the resolved parameters, or null
+     * 
+     * @throws ResolverException if an error occurs during resolution
+     */
+    @Nullable private EncryptionParameters resolveParameters(
+            @Nonnull final ProfileRequestContext profileRequestContext) throws ResolverException {
+        
+        final SAMLPeerEntityContext peerCtx =
+                peerContextLookupStrategy != null ? peerContextLookupStrategy.apply(profileRequestContext) : null;
+        
+        RoleDescriptor role = null;
+        if (cacheParameters && peerCtx != null) {
+            final SAMLMetadataContext metadataCtx = peerCtx.getSubcontext(SAMLMetadataContext.class);
+            if (metadataCtx != null) {
+                role = metadataCtx.getRoleDescriptor();
+            }
+        }
+        
+        if (role == null) {
+            return encParamsresolver.resolveSingle(buildCriteriaSet(peerCtx));
+        }
+        
+        final Map<CacheKey,Optional<EncryptionParameters>> cache = getRoleCache(role);
+        final CacheKey key = new CacheKey(this);
+        Optional<EncryptionParameters> params = cache.get(key);
+        if (params != null) {
+            log.debug("{} Using EncryptionParameters cached in role metadata", getLogPrefix());
+            return params.orElse(null);
+        }
+        
+        params = Optional.ofNullable(encParamsresolver.resolveSingle(buildCriteriaSet(peerCtx)));
+        if (params.isPresent() && !isCacheable(params.get())) {
+            log.debug("{} EncryptionParameters contain per-message credentials, not caching", getLogPrefix());
+            return params.get();
+        }
+        if (cache.size() >= MAX_CACHED_RESULTS) {
+            cache.clear();
+        }
+        cache.put(key, params);
+        return params.orElse(null);
+    }
+    
+    /**
+     * Get whether resolved parameters may be reused for other messages.
+     * 
+     * <p>A key agreement credential wraps an ephemeral key pair that must be unique to a message, and a
+     * data encryption credential is either derived from such an agreement or is a symmetric key that
+     * should likewise not be shared across messages.</p>
+     * 
+     * @param params the resolved parameters
+     * 
+     * @return true iff the parameters may be cached
+     */
+    private static boolean isCacheable(@Nonnull final EncryptionParameters params) {
+        return params.getDataEncryptionCredential() == null
+                && !(params.getKeyTransportEncryptionCredential() instanceof KeyAgreementCredential);
+    }
+    
+    /**
+     * Get the cache of results attached to a role's object metadata, attaching a new one if necessary.
+     * 
+     * @param role the role metadata
+     * 
+     * @return the cache
+     */
+    @Nonnull private Map<CacheKey,Optional<EncryptionParameters>> getRoleCache(@Nonnull final RoleDescriptor role) {
+        final LockableClassToInstanceMultiMap<Object> objectMetadata = role.getObjectMetadata();
+        final ReadWriteLock rwlock = objectMetadata.getReadWriteLock();
+        
+        try {
+            rwlock.readLock().lock();
+            final List<EncryptionParametersCache> caches = objectMetadata.get(EncryptionParametersCache.class);
+            if (!caches.isEmpty()) {
+                return caches.get(0).cache;
+            }
+        } finally {
+            rwlock.readLock().unlock();
+        }
+        
+        try {
+            rwlock.writeLock().lock();
+            
+            // Check again in case another thread attached a cache while this one waited.
+            final List<EncryptionParametersCache> caches = objectMetadata.get(EncryptionParametersCache.class);
+            if (!caches.isEmpty()) {
+                return caches.get(0).cache;
+            }
+            
+            final EncryptionParametersCache cache = new EncryptionParametersCache();
+            objectMetadata.put(cache);
+            return cache.cache;
+        } finally {
+            rwlock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Build the criteria used as input to the {@link EncryptionParametersResolver}.
+     * 
+     * @param peerCtx peer context, if any
+     * 
      * @return  the criteria set to use
      */
-    @Nonnull private CriteriaSet buildCriteriaSet(@Nonnull final ProfileRequestContext profileRequestContext) {
+    @Nonnull private CriteriaSet buildCriteriaSet(@Nullable final SAMLPeerEntityContext peerCtx) {
         
         final CriteriaSet criteria = new CriteriaSet(new EncryptionConfigurationCriterion(encryptionConfigurations));
         
         criteria.add(new EncryptionOptionalCriterion(encryptionOptional));
 
-        if (peerContextLookupStrategy != null) {
-            final SAMLPeerEntityContext peerCtx = peerContextLookupStrategy.apply(profileRequestContext);
-            if (peerCtx != null) {
-                if (peerCtx.getEntityId() != null) {
-                    log.debug("{} Adding entityID to resolution criteria", getLogPrefix());
-                    criteria.add(new EntityIdCriterion(peerCtx.getEntityId()));
-                    if (samlProtocol != null) {
-                        criteria.add(new ProtocolCriterion(samlProtocol));
-                    }
-                    if (peerRole != null) {
-                        criteria.add(new EntityRoleCriterion(peerRole));
-                    }
+        if (peerCtx != null) {
+            if (peerCtx.getEntityId() != null) {
+                log.debug("{} Adding entityID to resolution criteria", getLogPrefix());
+                criteria.add(new EntityIdCriterion(peerCtx.getEntityId()));
+                if (samlProtocol != null) {
+                    criteria.add(new ProtocolCriterion(samlProtocol));
                 }
-                final SAMLMetadataContext metadataCtx = peerCtx.getSubcontext(SAMLMetadataContext.class);
-                if (metadataCtx != null && metadataCtx.getRoleDescriptor() != null) {
-                    log.debug("{} Adding role metadata to resolution criteria", getLogPrefix());
-                    criteria.add(new RoleDescriptorCriterion(metadataCtx.getRoleDescriptor()));
+                if (peerRole != null) {
+                    criteria.add(new EntityRoleCriterion(peerRole));
                 }
             }
+            final SAMLMetadataContext metadataCtx = peerCtx.getSubcontext(SAMLMetadataContext.class);
+            if (metadataCtx != null && metadataCtx.getRoleDescriptor() != null) {
+                log.debug("{} Adding role metadata to resolution criteria", getLogPrefix());
+                criteria.add(new RoleDescriptorCriterion(metadataCtx.getRoleDescriptor()));
+            }
         }
         
         return criteria;
     }
     
+    /** Results attached to the object metadata of a {@link RoleDescriptor}. */
+    private static final class EncryptionParametersCache {
+        
+        /** Cached results. */
+        @Nonnull private final Map<CacheKey,Optional<EncryptionParameters>> cache;
+        
+        /** Constructor. */
+        EncryptionParametersCache() {
+            cache = new ConcurrentHashMap<>();
+        }
+    }
+    
+    /** The inputs to resolution, other than the role metadata itself, that identify a cached result. */
+    private static final class CacheKey {
+        
+        /** Active configurations. */
+        @Nonnull @NonnullElements private final List<EncryptionConfiguration> configurations;
+        
+        /** Whether encryption is optional. */
+        private final boolean optional;
+        
+        /** Protocol. */
+        @Nullable private final String protocol;
+        
+        /** Role type. */
+        @Nullable private final QName role;
+        
+        /**
+         * Constructor.
+         * 
+         * @param action the action supplying the inputs
+         */
+        CacheKey(@Nonnull final PopulateEncryptionParameters action) {
+            configurations = List.copyOf(action.encryptionConfigurations);
+            optional = action.encryptionOptional;
+            protocol = action.samlProtocol;
+            role = action.peerRole;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) obj;
+            return optional == other.optional && configurations.equals(other.configurations)
+                    && Objects.equals(protocol, other.protocol) && Objects.equals(role, other.role);
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return Objects.hash(configurations, optional, protocol, role);
+        }
+    }
+    
 }
\ No newline at end of file
@@ -17,12 +17,21 @@
 
 package net.shibboleth.idp.saml.saml2.profile.impl;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.session.context.LogoutContext;
 import net.shibboleth.idp.session.context.LogoutPropagationContext;
 import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
@@ -32,6 +41,7 @@ import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.messaging.MessageException;
 import org.opensaml.messaging.context.InOutOperationContext;
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
@@ -57,6 +67,9 @@ import org.opensaml.soap.common.SOAPException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * Profile action that propagates a prepared {@link LogoutRequest} message to an SP via the SOAP
  * binding, encapsulating SOAP pipeline construction and execution.
@@ -69,6 +82,17 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>The response message is also stored off in the inbound message context.</p>
  * 
+ * <p>If a timeout is set, or a {@link LogoutContext} carries a propagation deadline, the request is sent
+ * on a thread obtained from an {@link Executor} and abandoned if no response is received within the timeout
+ * or before the deadline, whichever comes first, so that a slow SP cannot hold up the caller beyond that
+ * limit. If the executor has no thread available, the request is not sent and the SP's logout fails.
+ * Abandoning a request does not interrupt its socket I/O, so the {@link SOAPClient} should use connection and
+ * socket timeouts no longer than the timeout or the propagation deadline, whichever is shorter, to release the
+ * thread promptly.</p>
+ * 
+ * <p>The latency and failures of all requests are recorded as aggregate metrics, if a metric registry is
+ * installed, and the reason for a failure is recorded in {@link LogoutPropagationContext#getDetail()}.</p>
+ * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
  * @event {@link EventIds#INVALID_PROFILE_CTX}
  * @event {@link EventIds#INVALID_MSG_CTX}
@@ -82,6 +106,9 @@ import org.slf4j.LoggerFactory;
  */
 public class SOAPLogoutRequest extends AbstractProfileAction {
     
+    /** Default prefix for metrics. */
+    @Nonnull @NotEmpty public static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.logout.soap";
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(SOAPLogoutRequest.class);
         
@@ -97,12 +124,21 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
     /** Strategy function for access to {@link SAMLEndpointContext} to retrieve address from. */
     @Nonnull private Function<ProfileRequestContext,SAMLEndpointContext> endpointContextLookupStrategy;
     
+    /** Lookup strategy for context carrying the propagation deadline. */
+    @Nonnull private Function<ProfileRequestContext,LogoutContext> logoutContextLookupStrategy;
+    
     /** SOAP client. */
     @NonnullAfterInit private SOAPClient soapClient;
     
     /** The SOAP client message pipeline name. */
     @Nullable @NotEmpty private String soapPipelineName;
     
+    /** Time to wait for a response, or zero for no limit. */
+    @Nonnull private Duration timeout;
+    
+    /** Source of threads for sending requests with a timeout. */
+    @Nullable private Executor executor;
+    
     /** LogoutRequest to process. */
     @Nullable private LogoutRequest logoutRequest;
     
@@ -115,9 +151,14 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
     /** Endpoint context to determine destination address. */
     @Nullable private SAMLEndpointContext epContext;
     
+    /** Time after which to abandon the request, if any. */
+    @Nullable private Instant deadline;
+    
     /** Constructor. */
     public SOAPLogoutRequest() {
         
+        timeout = Duration.ZERO;
+        
         logoutRequestLookupStrategy =
                 new MessageLookup<>(LogoutRequest.class).compose(new OutboundMessageContextLookup());
 
@@ -134,6 +175,8 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
                 new ChildContextLookup<>(SAMLEndpointContext.class, true).compose(
                         new ChildContextLookup<>(SAMLPeerEntityContext.class, true).compose(
                                 new OutboundMessageContextLookup()));
+        
+        logoutContextLookupStrategy = new ChildContextLookup<>(LogoutContext.class);
     }
     
     /**
@@ -187,6 +230,20 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
                 "SAMLEndpointContext lookup strategy cannot be null");
     }
     
+    /**
+     * Set lookup strategy for the {@link LogoutContext} carrying the overall propagation deadline.
+     * 
+     * @param strategy  lookup strategy
+     * 
+     * @since 4.2.0
+     */
+    public void setLogoutContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,LogoutContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        logoutContextLookupStrategy = Constraint.isNotNull(strategy, "LogoutContext lookup strategy cannot be null");
+    }
+    
     /**
      * Set the SOAP client instance.
      * 
@@ -210,6 +267,39 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
         soapPipelineName = StringSupport.trimOrNull(name);
     }
     
+    /**
+     * Set the time to wait for a response before treating the request as failed.
+     * 
+     * <p>Defaults to zero, which imposes no limit beyond those of the underlying HTTP client.</p>
+     * 
+     * @param duration time to wait, or zero
+     * 
+     * @since 4.2.0
+     */
+    public void setTimeout(@Nonnull final Duration duration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        Constraint.isNotNull(duration, "Timeout cannot be null");
+        Constraint.isFalse(duration.isNegative(), "Timeout cannot be negative");
+        
+        timeout = duration;
+    }
+    
+    /**
+     * Set the {@link Executor} used to send requests when a timeout or deadline applies.
+     * 
+     * <p>Without one, requests are sent on the calling thread and a deadline is not enforced.</p>
+     * 
+     * @param exec executor
+     * 
+     * @since 4.2.0
+     */
+    public void setExecutor(@Nullable final Executor exec) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        executor = exec;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -217,6 +307,8 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
         
         if (soapClient == null) {
             throw new ComponentInitializationException("SOAPClient cannot be null");
+        } else if (!timeout.isZero() && executor == null) {
+            throw new ComponentInitializationException("An Executor is required when a timeout is set");
         }
     }
     
@@ -250,12 +342,18 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
         
         mdContext = metadataContextLookupStrategy.apply(profileRequestContext);
         
+        final LogoutContext logoutContext = logoutContextLookupStrategy.apply(profileRequestContext);
+        deadline = logoutContext != null ? logoutContext.getPropagationDeadline() : null;
+        
         return true;
     }
     
     /** {@inheritDoc} */
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        final Timer.Context timerContext =
+                registry != null ? registry.timer(MetricRegistry.name(DEFAULT_METRIC_NAME, "latency")).time() : null;
         try {
             final InOutOperationContext opContext = new SAMLSOAPClientContextBuilder<>()
                     .setOutboundMessage(logoutRequest)
@@ -270,7 +368,7 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
             log.debug("{} Executing LogoutRequest over SOAP 1.1 binding to endpoint: {}", getLogPrefix(),
                     logoutRequest.getDestination());
             
-            soapClient.send(logoutRequest.getDestination(), opContext);
+            send(opContext);
             final Object response = opContext.getInboundMessageContext().getMessage();
             
             if (response == null) {
@@ -293,13 +391,87 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
             handleResponse(profileRequestContext, (LogoutResponse) response);
         } catch (final ClassCastException e) {
             log.warn("{} SOAP message payload was not an instance of LogoutResponse", getLogPrefix());
+            propagationContext.setDetail("Response was not a LogoutResponse");
             ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_MESSAGE);
+        } catch (final TimeoutException e) {
+            log.warn("{} SOAP logout request timed out: {}", getLogPrefix(), e.getMessage());
+            propagationContext.setDetail("Timed out");
+            ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
         } catch (final MessageException | SOAPException | SecurityException e) {
             log.warn("{} SOAP logout request failed", getLogPrefix(), e);
+            propagationContext.setDetail(e.getMessage());
             ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+        } finally {
+            if (timerContext != null) {
+                timerContext.stop();
+                if (propagationContext.getResult() != Result.Success) {
+                    registry.counter(MetricRegistry.name(DEFAULT_METRIC_NAME, "failures")).inc();
+                }
+            }
         }
     }
 
+    /**
+     * Send the request, subject to the timeout and deadline if set.
+     * 
+     * @param opContext operation context to send
+     * 
+     * @throws SOAPException if the SOAP client fails or the request cannot be sent
+     * @throws SecurityException if a security error occurs
+     * @throws TimeoutException if the timeout or deadline expires before a response is received
+     */
+    private void send(@Nonnull final InOutOperationContext opContext)
+            throws SOAPException, SecurityException, TimeoutException {
+        
+        Duration wait = timeout;
+        if (deadline != null) {
+            final Duration remaining = Duration.between(Instant.now(), deadline);
+            if (remaining.isNegative() || remaining.isZero()) {
+                throw new TimeoutException("Propagation deadline passed before request was sent");
+            } else if (wait.isZero() || remaining.compareTo(wait) < 0) {
+                wait = remaining;
+            }
+        }
+        
+        final String destination = logoutRequest.getDestination();
+        if (wait.isZero() || executor == null) {
+            soapClient.send(destination, opContext);
+            return;
+        }
+        
+        final FutureTask<Void> task = new FutureTask<>(() -> {
+            soapClient.send(destination, opContext);
+            return null;
+        });
+        
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            throw new SOAPException("No thread available to send request, too many logout requests in progress", e);
+        }
+        
+        try {
+            task.get(wait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            task.cancel(true);
+            throw new TimeoutException("No response within " + wait);
+        } catch (final InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SOAPException("Interrupted while awaiting LogoutResponse", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SOAPException) {
+                throw (SOAPException) cause;
+            } else if (cause instanceof SecurityException) {
+                throw (SecurityException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SOAPException("SOAP logout request failed", cause);
+        }
+    }
+    
     /**
      * Turn status from response into an appropriate result.
      * 
@@ -319,15 +491,19 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
                         propagationContext.setResult(Result.Success);
                     } else {
                         log.debug("{} Logout partially successful", getLogPrefix());
+                        propagationContext.setDetail("Partial logout");
                     }
                     return;
                 }
                 log.warn("{} LogoutResponse received with status code '{}'", getLogPrefix(), code.getValue());
+                propagationContext.setDetail("Status code: " + code.getValue());
             } else {
                 log.warn("{} LogoutResponse received with no status code", getLogPrefix());
+                propagationContext.setDetail("No status code");
             }
         } else {
             log.warn("{} LogoutResponse received with no status", getLogPrefix());
+            propagationContext.setDetail("No status");
         }
     }
     
@@ -17,6 +17,9 @@
 
 package net.shibboleth.idp.saml.saml2.profile.impl;
 
+import java.lang.reflect.Proxy;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
 import java.util.Collections;
 
 import net.shibboleth.idp.profile.IdPEventIds;
@@ -32,11 +35,18 @@ import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 
 import org.opensaml.core.testing.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
 import org.opensaml.saml.saml2.profile.context.EncryptionContext;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.security.crypto.KeySupport;
 import org.opensaml.xmlsec.EncryptionParameters;
 import org.opensaml.xmlsec.EncryptionParametersResolver;
+import org.opensaml.xmlsec.agreement.KeyAgreementCredential;
 import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
@@ -136,10 +146,97 @@ public class PopulateEncryptionParametersTest extends OpenSAMLInitBaseTestCase {
         Assert.assertNull(ctx.getAttributeEncryptionParameters());
     }
     
+    @Test public void testCached() throws Exception {
+        final MockResolver resolver = new MockResolver(false);
+        action.setEncryptionParametersResolver(resolver);
+        action.setCacheParameters(true);
+        action.initialize();
+        
+        final SAMLPeerEntityContext peerCtx =
+                prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true);
+        peerCtx.getSubcontext(SAMLMetadataContext.class, true).setRoleDescriptor(
+                (SPSSODescriptor) XMLObjectSupport.buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        final EncryptionContext ctx = prc.getSubcontext(RelyingPartyContext.class).getSubcontext(EncryptionContext.class); 
+        final EncryptionParameters params = ctx.getAssertionEncryptionParameters();
+        Assert.assertNotNull(params);
+        
+        ctx.setAssertionEncryptionParameters(null);
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        Assert.assertSame(ctx.getAssertionEncryptionParameters(), params);
+        Assert.assertEquals(resolver.count, 1);
+    }
+
+    @Test public void testNotCached() throws Exception {
+        final MockResolver resolver = new MockResolver(false);
+        action.setEncryptionParametersResolver(resolver);
+        action.setCacheParameters(false);
+        action.initialize();
+        
+        final SAMLPeerEntityContext peerCtx =
+                prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true);
+        peerCtx.getSubcontext(SAMLMetadataContext.class, true).setRoleDescriptor(
+                (SPSSODescriptor) XMLObjectSupport.buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        Assert.assertEquals(resolver.count, 2);
+    }
+
+    @Test public void testKeyAgreementNotCached() throws Exception {
+        final MockResolver resolver = new MockResolver(false);
+        resolver.keyAgreement = true;
+        action.setEncryptionParametersResolver(resolver);
+        action.setCacheParameters(true);
+        action.initialize();
+        
+        final SAMLPeerEntityContext peerCtx =
+                prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true);
+        peerCtx.getSubcontext(SAMLMetadataContext.class, true).setRoleDescriptor(
+                (SPSSODescriptor) XMLObjectSupport.buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        final EncryptionContext ctx = prc.getSubcontext(RelyingPartyContext.class).getSubcontext(EncryptionContext.class); 
+        final PublicKey first =
+                ctx.getAssertionEncryptionParameters().getKeyTransportEncryptionCredential().getPublicKey();
+        
+        ctx.setAssertionEncryptionParameters(null);
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        final PublicKey second =
+                ctx.getAssertionEncryptionParameters().getKeyTransportEncryptionCredential().getPublicKey();
+        
+        Assert.assertEquals(resolver.count, 2);
+        Assert.assertNotEquals(second, first);
+    }
+
+    @Test public void testDataEncryptionCredentialNotCached() throws Exception {
+        final MockResolver resolver = new MockResolver(false);
+        resolver.dataCredential = true;
+        action.setEncryptionParametersResolver(resolver);
+        action.setCacheParameters(true);
+        action.initialize();
+        
+        final SAMLPeerEntityContext peerCtx =
+                prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true);
+        peerCtx.getSubcontext(SAMLMetadataContext.class, true).setRoleDescriptor(
+                (SPSSODescriptor) XMLObjectSupport.buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        Assert.assertEquals(resolver.count, 2);
+    }
+    
     private class MockResolver implements EncryptionParametersResolver {
 
         private boolean throwException;
         
+        private int count;
+        
+        private boolean keyAgreement;
+        
+        private boolean dataCredential;
+        
         public MockResolver(final boolean shouldThrow) {
             throwException = shouldThrow;
         }
@@ -158,7 +255,40 @@ public class PopulateEncryptionParametersTest extends OpenSAMLInitBaseTestCase {
             }
             
             Constraint.isNotNull(criteria.get(EncryptionConfigurationCriterion.class), "Criterion was null");
-            return new EncryptionParameters();
+            ++count;
+            final EncryptionParameters params = new EncryptionParameters();
+            try {
+                if (keyAgreement) {
+                    params.setKeyTransportEncryptionCredential(
+                            keyAgreementCredential(KeySupport.generateKeyPair("EC", 256, null).getPublic()));
+                }
+                if (dataCredential) {
+                    params.setDataEncryptionCredential(
+                            CredentialSupport.getSimpleCredential(KeySupport.generateKey("AES", 128, null)));
+                }
+            } catch (final GeneralSecurityException e) {
+                throw new ResolverException(e);
+            }
+            return params;
+        }
+        
+        private KeyAgreementCredential keyAgreementCredential(final PublicKey ephemeralKey) {
+            return (KeyAgreementCredential) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {KeyAgreementCredential.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getPublicKey":
+                                return ephemeralKey;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return "KeyAgreementCredential";
+                            default:
+                                return null;
+                        }
+                    });
         }
         
     }
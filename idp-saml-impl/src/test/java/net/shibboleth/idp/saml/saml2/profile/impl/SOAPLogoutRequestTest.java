@@ -0,0 +1,208 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.saml.saml2.profile.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.idp.profile.testing.RequestContextBuilder;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.idp.session.context.LogoutPropagationContext;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.core.testing.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.messaging.context.SAMLBindingContext;
+import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.saml2.core.LogoutRequest;
+import org.opensaml.saml.saml2.core.LogoutResponse;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.metadata.SingleLogoutService;
+import org.opensaml.soap.client.SOAPClient;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link SOAPLogoutRequest} unit test. */
+public class SOAPLogoutRequestTest extends OpenSAMLInitBaseTestCase {
+
+    private RequestContext rc;
+    
+    private ProfileRequestContext prc;
+    
+    private LogoutPropagationContext propagationContext;
+    
+    private ExecutorService executor;
+    
+    @BeforeMethod public void setUp() {
+        final LogoutRequest request =
+                (LogoutRequest) XMLObjectSupport.buildXMLObject(LogoutRequest.DEFAULT_ELEMENT_NAME);
+        rc = new RequestContextBuilder().setOutboundMessage(request).buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(rc);
+        
+        final SingleLogoutService endpoint =
+                (SingleLogoutService) XMLObjectSupport.buildXMLObject(SingleLogoutService.DEFAULT_ELEMENT_NAME);
+        endpoint.setLocation("https://sp.example.org/SLO");
+        prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true)
+            .getSubcontext(SAMLEndpointContext.class, true).setEndpoint(endpoint);
+        prc.getOutboundMessageContext().getSubcontext(SAMLBindingContext.class, true);
+        
+        propagationContext = prc.getSubcontext(LogoutPropagationContext.class, true);
+        propagationContext.setSession(new BasicSPSession("https://sp.example.org", Instant.now(),
+                Instant.now().plusSeconds(60)));
+        
+        executor = Executors.newCachedThreadPool();
+    }
+    
+    @AfterMethod public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testTimeoutWithoutExecutor() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient((endpoint, opContext) -> {});
+        action.setTimeout(Duration.ofSeconds(1));
+        action.initialize();
+    }
+    
+    @Test public void testSuccess() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient((endpoint, opContext) -> {
+            opContext.setInboundMessageContext(new MessageContext());
+            opContext.getInboundMessageContext().setMessage(buildResponse(StatusCode.SUCCESS));
+        });
+        action.setTimeout(Duration.ofSeconds(5));
+        action.setExecutor(executor);
+        action.initialize();
+        
+        final Event event = action.execute(rc);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(propagationContext.getResult(), LogoutPropagationContext.Result.Success);
+        Assert.assertTrue(prc.getInboundMessageContext().getMessage() instanceof LogoutResponse);
+    }
+
+    @Test public void testFailureStatus() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient((endpoint, opContext) -> {
+            opContext.setInboundMessageContext(new MessageContext());
+            opContext.getInboundMessageContext().setMessage(buildResponse(StatusCode.RESPONDER));
+        });
+        action.initialize();
+        
+        final Event event = action.execute(rc);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(propagationContext.getResult(), LogoutPropagationContext.Result.Failure);
+        Assert.assertEquals(propagationContext.getDetail(), "Status code: " + StatusCode.RESPONDER);
+    }
+    
+    @Test public void testTimeout() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient((endpoint, opContext) -> {
+            try {
+                Thread.sleep(5000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        action.setTimeout(Duration.ofMillis(100));
+        action.setExecutor(executor);
+        action.initialize();
+        
+        final long start = System.currentTimeMillis();
+        final Event event = action.execute(rc);
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        ActionTestingSupport.assertEvent(event, EventIds.IO_ERROR);
+        Assert.assertEquals(propagationContext.getResult(), LogoutPropagationContext.Result.Failure);
+        Assert.assertEquals(propagationContext.getDetail(), "Timed out");
+    }
+
+    @Test public void testDeadline() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient((endpoint, opContext) -> {
+            try {
+                Thread.sleep(5000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        action.setExecutor(executor);
+        action.initialize();
+        
+        prc.getSubcontext(LogoutContext.class, true).setPropagationDeadline(Instant.now().plusMillis(100));
+        
+        final long start = System.currentTimeMillis();
+        final Event event = action.execute(rc);
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        ActionTestingSupport.assertEvent(event, EventIds.IO_ERROR);
+        Assert.assertEquals(propagationContext.getDetail(), "Timed out");
+    }
+
+    @Test public void testDeadlinePassed() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient((endpoint, opContext) -> Assert.fail("Request should not have been sent"));
+        action.setExecutor(executor);
+        action.initialize();
+        
+        prc.getSubcontext(LogoutContext.class, true).setPropagationDeadline(Instant.now().minusSeconds(1));
+        
+        ActionTestingSupport.assertEvent(action.execute(rc), EventIds.IO_ERROR);
+        Assert.assertEquals(propagationContext.getResult(), LogoutPropagationContext.Result.Failure);
+    }
+
+    @Test public void testRejected() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient((endpoint, opContext) -> Assert.fail("Request should not have been sent"));
+        action.setTimeout(Duration.ofSeconds(5));
+        action.setExecutor(task -> {
+            throw new RejectedExecutionException();
+        });
+        action.initialize();
+        
+        ActionTestingSupport.assertEvent(action.execute(rc), EventIds.IO_ERROR);
+        Assert.assertEquals(propagationContext.getResult(), LogoutPropagationContext.Result.Failure);
+        Assert.assertNotNull(propagationContext.getDetail());
+    }
+    
+    private LogoutResponse buildResponse(final String statusCode) {
+        final LogoutResponse response =
+                (LogoutResponse) XMLObjectSupport.buildXMLObject(LogoutResponse.DEFAULT_ELEMENT_NAME);
+        final Status status = (Status) XMLObjectSupport.buildXMLObject(Status.DEFAULT_ELEMENT_NAME);
+        final StatusCode code = (StatusCode) XMLObjectSupport.buildXMLObject(StatusCode.DEFAULT_ELEMENT_NAME);
+        code.setValue(statusCode);
+        status.setStatusCode(code);
+        response.setStatus(status);
+        return response;
+    }
+
+}
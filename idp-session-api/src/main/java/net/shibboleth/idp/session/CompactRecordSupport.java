@@ -0,0 +1,368 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shibboleth.idp.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+/**
+ * Support for a compact, versioned binary encoding of storage records, as an alternative to JSON.
+ *
+ * <p>A compact record is a {@link #MARKER} character followed by the base64 encoding of a format version
+ * byte and the record data. Since JSON records always start with an object, the marker allows serializers
+ * to detect the format on read, so that records in either format can coexist in storage.</p>
+ *
+ * <p>Integers are written as unsigned LEB128 varints, and strings as a varint tag followed by UTF-8 bytes.
+ * Strings in a fixed table of well-known values, such as the built-in authentication flow IDs, are written
+ * as a table index instead. The table is part of the format, so it may only be extended by introducing a
+ * new format version.</p>
+ *
+ * @since 4.2.0
+ */
+public final class CompactRecordSupport {
+
+    /** Leading character of a compact record. */
+    public static final char MARKER = '~';
+
+    /** Current format version. */
+    public static final int VERSION = 1;
+
+    /** Well-known strings for version 1 of the format, in index order. */
+    @Nonnull @NonnullElements private static final List<String> INTERNED_STRINGS = List.of(
+            "authn/Password",
+            "authn/MFA",
+            "authn/External",
+            "authn/RemoteUser",
+            "authn/RemoteUserInternal",
+            "authn/SPNEGO",
+            "authn/SAML",
+            "authn/Duo",
+            "authn/IPAddress",
+            "authn/Function",
+            "authn/X509",
+            "authn/X509Internal",
+            "authn/Kerberos",
+            "authn/Discovery");
+
+    /** Reverse lookup of {@link #INTERNED_STRINGS}. */
+    @Nonnull @NonnullElements private static final Map<String,Integer> INTERNED_INDEXES;
+
+    /** Constructor. */
+    private CompactRecordSupport() {
+    }
+
+    /**
+     * Get whether a serialized record is in the compact format.
+     *
+     * @param value serialized record
+     *
+     * @return true iff the record is in the compact format
+     */
+    public static boolean isCompact(@Nullable final String value) {
+        return value != null && !value.isEmpty() && value.charAt(0) == MARKER;
+    }
+
+    /**
+     * Start a new compact record.
+     *
+     * @return a writer for the record
+     */
+    @Nonnull public static RecordWriter newRecord() {
+        return new RecordWriter();
+    }
+
+    /**
+     * Open a compact record for reading.
+     *
+     * @param value serialized record
+     *
+     * @return a reader for the record
+     * @throws IOException if the value is not a compact record of a supported version
+     */
+    @Nonnull public static RecordReader openRecord(@Nonnull @NotEmpty final String value) throws IOException {
+        if (!isCompact(value)) {
+            throw new IOException("Value is not a compact record");
+        }
+
+        final byte[] data;
+        try {
+            data = Base64.getDecoder().decode(value.substring(1));
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Compact record was not properly encoded", e);
+        }
+
+        final RecordReader reader = new RecordReader(data);
+        final int version = reader.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compact record version: " + version);
+        }
+        return reader;
+    }
+
+    /** Builds a compact record. */
+    public static final class RecordWriter {
+
+        /** Record data. */
+        @Nonnull private final ByteArrayOutputStream data;
+
+        /** Constructor. */
+        private RecordWriter() {
+            data = new ByteArrayOutputStream(64);
+            writeLong(VERSION);
+        }
+
+        /**
+         * Write a non-negative integer.
+         *
+         * @param value value to write
+         *
+         * @return this writer
+         */
+        @Nonnull public RecordWriter writeLong(final long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Value cannot be negative");
+            }
+            long v = value;
+            while ((v & ~0x7FL) != 0) {
+                data.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            data.write((int) v);
+            return this;
+        }
+
+        /**
+         * Write a boolean.
+         *
+         * @param value value to write
+         *
+         * @return this writer
+         */
+        @Nonnull public RecordWriter writeBoolean(final boolean value) {
+            data.write(value ? 1 : 0);
+            return this;
+        }
+
+        /**
+         * Write a string, using the table of well-known strings if possible.
+         *
+         * @param value value to write
+         *
+         * @return this writer
+         */
+        @Nonnull public RecordWriter writeString(@Nonnull final String value) {
+            final Integer index = INTERNED_INDEXES.get(value);
+            if (index != null) {
+                return writeLong(((long) index << 1) | 1);
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeLong((long) bytes.length << 1);
+            data.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * Write an optional string.
+         *
+         * @param value value to write, or null
+         *
+         * @return this writer
+         */
+        @Nonnull public RecordWriter writeOptionalString(@Nullable final String value) {
+            writeBoolean(value != null);
+            return value != null ? writeString(value) : this;
+        }
+
+        /**
+         * Write a byte array.
+         *
+         * @param value value to write
+         *
+         * @return this writer
+         */
+        @Nonnull public RecordWriter writeBytes(@Nonnull final byte[] value) {
+            writeLong(value.length);
+            data.write(value, 0, value.length);
+            return this;
+        }
+
+        /**
+         * Complete the record.
+         *
+         * @return the serialized record
+         */
+        @Nonnull @NotEmpty public String toRecord() {
+            return MARKER + Base64.getEncoder().withoutPadding().encodeToString(data.toByteArray());
+        }
+    }
+
+    /** Reads a compact record. */
+    public static final class RecordReader {
+
+        /** Record data. */
+        @Nonnull private final byte[] data;
+
+        /** Current position. */
+        private int position;
+
+        /**
+         * Constructor.
+         *
+         * @param bytes record data
+         */
+        private RecordReader(@Nonnull final byte[] bytes) {
+            data = bytes;
+        }
+
+        /**
+         * Read a non-negative integer.
+         *
+         * @return the value
+         * @throws IOException if the record is truncated or malformed
+         */
+        public long readLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed integer in compact record");
+        }
+
+        /**
+         * Read a non-negative integer that fits in an int.
+         *
+         * @return the value
+         * @throws IOException if the record is truncated or malformed
+         */
+        public int readInt() throws IOException {
+            final long value = readLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Integer out of range in compact record");
+            }
+            return (int) value;
+        }
+
+        /**
+         * Read a boolean.
+         *
+         * @return the value
+         * @throws IOException if the record is truncated
+         */
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        /**
+         * Read a string.
+         *
+         * @return the value
+         * @throws IOException if the record is truncated or malformed
+         */
+        @Nonnull public String readString() throws IOException {
+            final long tag = readLong();
+            if ((tag & 1) != 0) {
+                final long index = tag >>> 1;
+                if (index >= INTERNED_STRINGS.size()) {
+                    throw new IOException("Unknown string table index in compact record");
+                }
+                return INTERNED_STRINGS.get((int) index);
+            }
+            final int length = checkLength(tag >>> 1);
+            final String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Read an optional string.
+         *
+         * @return the value, or null
+         * @throws IOException if the record is truncated or malformed
+         */
+        @Nullable public String readOptionalString() throws IOException {
+            return readBoolean() ? readString() : null;
+        }
+
+        /**
+         * Read a byte array.
+         *
+         * @return the value
+         * @throws IOException if the record is truncated or malformed
+         */
+        @Nonnull public byte[] readBytes() throws IOException {
+            final int length = checkLength(readLong());
+            final byte[] value = new byte[length];
+            System.arraycopy(data, position, value, 0, length);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Read a single byte.
+         *
+         * @return the byte, as an unsigned value
+         * @throws IOException if the record is truncated
+         */
+        private int readByte() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Compact record was truncated");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        /**
+         * Check that a length fits in the remaining data.
+         *
+         * @param length length to check
+         *
+         * @return the length
+         * @throws IOException if the record is truncated
+         */
+        private int checkLength(final long length) throws IOException {
+            if (length > data.length - position) {
+                throw new IOException("Compact record was truncated");
+            }
+            return (int) length;
+        }
+    }
+
+    static {
+        final Map<String,Integer> indexes = new HashMap<>(INTERNED_STRINGS.size());
+        for (int i = 0; i < INTERNED_STRINGS.size(); ++i) {
+            indexes.put(INTERNED_STRINGS.get(i), i);
+        }
+        INTERNED_INDEXES = Map.copyOf(indexes);
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+/**
+ * Optional extension to {@link StorageService} for back-ends that can retrieve several records from
+ * a single context in one operation.
+ * 
+ * <p>The session layer uses this, when available, to load all of a session's subsidiary records at once.</p>
+ * 
+ * <p>This is an extension point only: none of the storage services supplied with the IdP implement it,
+ * so it takes effect only with a custom server-side back-end that does.</p>
+ * 
+ * @since 4.2.0
+ */
+public interface MultiReadStorageService extends StorageService {
+
+    /**
+     * Retrieve the records for a set of keys in a single context.
+     * 
+     * @param <T> type of object
+     * @param context a storage context label
+     * @param keys the keys to retrieve
+     * 
+     * @return a map of key to record, omitting any keys for which no unexpired record exists
+     * @throws IOException if errors occur in the read process
+     */
+    @Nonnull @NonnullElements <T> Map<String,StorageRecord<T>> readAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException;
+}
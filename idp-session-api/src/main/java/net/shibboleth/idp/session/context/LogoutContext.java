@@ -17,12 +17,14 @@
 
 package net.shibboleth.idp.session.context;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import net.shibboleth.idp.session.IdPSession;
 import net.shibboleth.idp.session.SPSession;
@@ -50,6 +52,9 @@ public final class LogoutContext extends BaseContext {
 
     /** An index of the session objects by an externally assigned key. */
     @Nonnull @NonnullElements private final Map<String,SPSession> keyedSessionMap;
+    
+    /** Time after which to stop propagating logout. */
+    @Nullable private Instant propagationDeadline;
         
     /** Constructor. */
     public LogoutContext() {
@@ -100,4 +105,26 @@ public final class LogoutContext extends BaseContext {
         return sessionMap.get(id);
     }
     
+    /**
+     * Get the time after which to stop propagating logout, if any.
+     * 
+     * @return propagation deadline
+     * 
+     * @since 4.2.0
+     */
+    @Nullable public Instant getPropagationDeadline() {
+        return propagationDeadline;
+    }
+    
+    /**
+     * Set the time after which to stop propagating logout.
+     * 
+     * @param deadline propagation deadline
+     * 
+     * @since 4.2.0
+     */
+    public void setPropagationDeadline(@Nullable final Instant deadline) {
+        propagationDeadline = deadline;
+    }
+    
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.messaging.context.navigate.ChildContextLookup;
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Profile action that enforces an overall deadline on logout propagation.
+ * 
+ * <p>The first execution records the deadline in the {@link LogoutContext}, where propagation
+ * actions can also consult it to bound their own waits. Later executions signal
+ * {@link #DEADLINE_PASSED} once the deadline has passed, so that the caller stops propagating
+ * to the sessions that remain.</p>
+ * 
+ * @event {@link EventIds#PROCEED_EVENT_ID}
+ * @event {@link EventIds#INVALID_PROFILE_CTX}
+ * @event {@link #DEADLINE_PASSED}
+ * @post If a deadline is set, {@link LogoutContext#getPropagationDeadline()} is non-null.
+ * 
+ * @since 4.2.0
+ */
+public class CheckLogoutPropagationDeadline extends AbstractProfileAction {
+
+    /** Event signaling that the deadline has passed. */
+    @Nonnull @NotEmpty public static final String DEADLINE_PASSED = "LogoutDeadlinePassed";
+    
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CheckLogoutPropagationDeadline.class);
+    
+    /** Lookup function for LogoutContext. */
+    @Nonnull private Function<ProfileRequestContext,LogoutContext> logoutContextLookupStrategy;
+    
+    /** Time allowed for propagation, or zero for no limit. */
+    @Nonnull private Duration deadline;
+
+    /** LogoutContext to access. */
+    @Nullable private LogoutContext logoutContext;
+    
+    /** Constructor. */
+    public CheckLogoutPropagationDeadline() {
+        logoutContextLookupStrategy = new ChildContextLookup<>(LogoutContext.class);
+        deadline = Duration.ZERO;
+    }
+    
+    /**
+     * Set the lookup strategy for the LogoutContext to access.
+     * 
+     * @param strategy  lookup strategy
+     */
+    public void setLogoutContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,LogoutContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        logoutContextLookupStrategy = Constraint.isNotNull(strategy,
+                "LogoutContext lookup strategy cannot be null");
+    }
+    
+    /**
+     * Set the time allowed for propagation, measured from the first execution.
+     * 
+     * <p>Defaults to zero, which imposes no limit.</p>
+     * 
+     * @param duration time allowed
+     */
+    public void setDeadline(@Nonnull final Duration duration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        Constraint.isNotNull(duration, "Deadline cannot be null");
+        Constraint.isFalse(duration.isNegative(), "Deadline cannot be negative");
+        
+        deadline = duration;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        
+        if (!super.doPreExecute(profileRequestContext)) {
+            return false;
+        }
+        
+        logoutContext = logoutContextLookupStrategy.apply(profileRequestContext);
+        if (logoutContext == null) {
+            log.debug("{} No LogoutContext found", getLogPrefix());
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        
+        final Instant expiration = logoutContext.getPropagationDeadline();
+        if (expiration == null) {
+            if (!deadline.isZero()) {
+                logoutContext.setPropagationDeadline(Instant.now().plus(deadline));
+            }
+        } else if (Instant.now().isAfter(expiration)) {
+            log.warn("{} Logout propagation deadline passed, {} session(s) not propagated", getLogPrefix(),
+                    logoutContext.getSessionMap().size());
+            ActionSupport.buildEvent(profileRequestContext, DEADLINE_PASSED);
+        }
+    }
+    
+}
@@ -19,7 +19,11 @@ package net.shibboleth.idp.session.impl;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -163,22 +167,33 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Nonnull @NonnullElements @NotLive @Unmodifiable public Set<AuthenticationResult> getAuthenticationResults() {
         
         // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
-        final Iterator<Map.Entry<String,Optional<AuthenticationResult>>> entries =
-                getAuthenticationResultMap().entrySet().iterator();
-        while (entries.hasNext()) {
-            final Map.Entry<String,Optional<AuthenticationResult>> entry = entries.next();
+        final List<String> missing = new ArrayList<>();
+        for (final Map.Entry<String,Optional<AuthenticationResult>> entry : getAuthenticationResultMap().entrySet()) {
             if (entry.getValue().isEmpty()) {
-                try {
-                    final AuthenticationResult result = loadAuthenticationResultFromStorage(entry.getKey());
-                    if (result != null) {
-                        entry.setValue(Optional.of(result));
-                    } else {
-                        // A null here means the reference to the record should be removed.
-                        entries.remove();
+                missing.add(entry.getKey());
+            }
+        }
+        
+        if (!missing.isEmpty()) {
+            try {
+                final Map<String,Optional<AuthenticationResult>> loaded =
+                        loadAuthenticationResultsFromStorage(missing);
+                final Iterator<Map.Entry<String,Optional<AuthenticationResult>>> entries =
+                        getAuthenticationResultMap().entrySet().iterator();
+                while (entries.hasNext()) {
+                    final Map.Entry<String,Optional<AuthenticationResult>> entry = entries.next();
+                    final Optional<AuthenticationResult> result = loaded.get(entry.getKey());
+                    if (entry.getValue().isEmpty() && result != null) {
+                        if (result.isPresent()) {
+                            entry.setValue(result);
+                        } else {
+                            // An empty result here means the reference to the record should be removed.
+                            entries.remove();
+                        }
                     }
-                } catch (final IOException e) {
-                    // An exception implies the record *might* still be accessible later.
                 }
+            } catch (final IOException e) {
+                // An exception implies the records *might* still be accessible later.
             }
         }
         
@@ -331,22 +346,32 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         
         if (sessionManager.isTrackSPSessions() && sessionManager.storageServiceMeetsThreshold()) {
             // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
-            final Iterator<Map.Entry<String, Optional<SPSession>>> entries =
-                    getSPSessionMap().entrySet().iterator();
-            while (entries.hasNext()) {
-                final Map.Entry<String, Optional<SPSession>> entry = entries.next();
+            final List<String> missing = new ArrayList<>();
+            for (final Map.Entry<String,Optional<SPSession>> entry : getSPSessionMap().entrySet()) {
                 if (entry.getValue().isEmpty()) {
-                    try {
-                        final SPSession result = loadSPSessionFromStorage(entry.getKey());
-                        if (result != null) {
-                            entry.setValue(Optional.of(result));
-                        } else {
-                            // A null here means the reference to the record should be removed.
-                            entries.remove();
+                    missing.add(entry.getKey());
+                }
+            }
+            
+            if (!missing.isEmpty()) {
+                try {
+                    final Map<String,Optional<SPSession>> loaded = loadSPSessionsFromStorage(missing);
+                    final Iterator<Map.Entry<String,Optional<SPSession>>> entries =
+                            getSPSessionMap().entrySet().iterator();
+                    while (entries.hasNext()) {
+                        final Map.Entry<String,Optional<SPSession>> entry = entries.next();
+                        final Optional<SPSession> result = loaded.get(entry.getKey());
+                        if (entry.getValue().isEmpty() && result != null) {
+                            if (result.isPresent()) {
+                                entry.setValue(result);
+                            } else {
+                                // An empty result here means the reference to the record should be removed.
+                                entries.remove();
+                            }
                         }
-                    } catch (final IOException e) {
-                        // An exception implies the record *might* still be accessible later.
                     }
+                } catch (final IOException e) {
+                    // An exception implies the records *might* still be accessible later.
                 }
             }
         }
@@ -558,6 +583,60 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         }
     }
 
+    /**
+     * Loads a set of {@link AuthenticationResult} records from storage in a single batch and deserializes them
+     * using the objects attached to the corresponding {@link AuthenticationFlowDescriptor}s.
+     * 
+     * <p>The result contains an empty value for each flow whose record is missing or unusable, and omits any
+     * flow whose record could not be deserialized because of a possibly transitory error.</p>
+     * 
+     * @param flowIds IDs of results/flows to load
+     * 
+     * @return the stored results, keyed by flow ID
+     * @throws IOException if a possibly transitory storage-related error occurs
+     */
+    @Nonnull private Map<String,Optional<AuthenticationResult>> loadAuthenticationResultsFromStorage(
+            @Nonnull @NonnullElements final Collection<String> flowIds) throws IOException {
+        log.debug("Loading AuthenticationResults for flows {} in session {}", flowIds, getId());
+        
+        final Map<String,Optional<AuthenticationResult>> results = new HashMap<>(flowIds.size());
+        final List<String> keys = new ArrayList<>(flowIds.size());
+        for (final String flowId : flowIds) {
+            if (sessionManager.getAuthenticationFlowDescriptor(flowId) == null) {
+                log.warn("No flow descriptor installed for ID {}, unable to load result from storage", flowId);
+                results.put(flowId, Optional.empty());
+            } else {
+                keys.add(flowId);
+            }
+        }
+        
+        final Map<String,StorageRecord<AuthenticationResult>> records;
+        try {
+            records = sessionManager.readRecords(getId(), keys);
+        } catch (final IOException e) {
+            log.error("Exception loading AuthenticationResults for flows {} from storage: {}", keys, e.getMessage());
+            throw e;
+        }
+
+        for (final String flowId : keys) {
+            final StorageRecord<AuthenticationResult> record = records.get(flowId);
+            if (record == null) {
+                log.debug("No AuthenticationResult for flow {} in session {}", flowId, getId());
+                results.put(flowId, Optional.empty());
+                continue;
+            }
+            try {
+                results.put(flowId, Optional.ofNullable(
+                        record.getValue(sessionManager.getAuthenticationFlowDescriptor(flowId), getId(), flowId)));
+            } catch (final IOException e) {
+                log.error("Exception loading AuthenticationResult for flow {} from storage: {}", flowId,
+                        e.getMessage());
+            }
+        }
+        
+        return results;
+    }
+
     /**
      * Saves an {@link AuthenticationResult} record to storage, serializing it using the object
      * attached to the corresponding {@link AuthenticationFlowDescriptor}.
@@ -626,14 +705,86 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 return null;
             }
             
-            // Parse out the class type.
-            final int pos = record.getValue().indexOf(':');
-            if (pos <= 0) {
-                throw new IOException("No class type found prefixed to record");
-            }
-            
-            final String sessionClassName = record.getValue().substring(0,  pos);
+            return deserializeSPSession(serviceId, key, record);
             
+        } catch (final IOException e) {
+            log.error("IOException loading SPSession for service {} from storage: {}", serviceId, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a set of {@link SPSession} records from storage in a single batch and deserializes them using the
+     * objects registered in the attached {@link net.shibboleth.idp.session.SPSessionSerializerRegistry}.
+     * 
+     * <p>The result contains an empty value for each service whose record is missing, and omits any
+     * service whose record could not be deserialized because of a possibly transitory error.</p>
+     * 
+     * @param serviceIds IDs of services for sessions to load
+     * 
+     * @return the stored sessions, keyed by service ID
+     * @throws IOException if a possibly transitory storage-related error occurs
+     */
+    @Nonnull private Map<String,Optional<SPSession>> loadSPSessionsFromStorage(
+            @Nonnull @NonnullElements final Collection<String> serviceIds) throws IOException {
+        log.debug("Loading SPSessions for services {} in session {}", serviceIds, getId());
+        
+        final Map<String,String> keys = new HashMap<>(serviceIds.size());
+        for (final String serviceId : serviceIds) {
+            keys.put(serviceId, getSPSessionStorageKey(serviceId));
+        }
+        
+        final Map<String,StorageRecord<SPSession>> records;
+        try {
+            records = sessionManager.readRecords(getId(), keys.values());
+        } catch (final IOException e) {
+            log.error("IOException loading SPSessions for services {} from storage: {}", serviceIds, e.getMessage());
+            throw e;
+        }
+
+        final Map<String,Optional<SPSession>> results = new HashMap<>(serviceIds.size());
+        for (final Map.Entry<String,String> entry : keys.entrySet()) {
+            final StorageRecord<SPSession> record = records.get(entry.getValue());
+            if (record == null) {
+                log.debug("No SPSession found for service {} in session {}", entry.getKey(), getId());
+                results.put(entry.getKey(), Optional.empty());
+                continue;
+            }
+            try {
+                results.put(entry.getKey(),
+                        Optional.ofNullable(deserializeSPSession(entry.getKey(), entry.getValue(), record)));
+            } catch (final IOException e) {
+                log.error("IOException loading SPSession for service {} from storage: {}", entry.getKey(),
+                        e.getMessage());
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Deserializes a {@link SPSession} record using the object registered in the attached
+     * {@link net.shibboleth.idp.session.SPSessionSerializerRegistry}.
+     * 
+     * @param serviceId ID of service for session
+     * @param key storage key of the record
+     * @param record the record to deserialize
+     * 
+     * @return the stored session
+     * @throws IOException if the record cannot be deserialized
+     */
+    @Nullable private SPSession deserializeSPSession(@Nonnull @NotEmpty final String serviceId,
+            @Nonnull @NotEmpty final String key, @Nonnull final StorageRecord<SPSession> record) throws IOException {
+        
+        // Parse out the class type.
+        final int pos = record.getValue().indexOf(':');
+        if (pos <= 0) {
+            throw new IOException("No class type found prefixed to record");
+        }
+        
+        final String sessionClassName = record.getValue().substring(0,  pos);
+        
+        try {
             // Look up the serializer instance for that class type.
             final StorageSerializer<? extends SPSession> spSessionSerializer =
                     sessionManager.getSPSessionSerializerRegistry().lookup(
@@ -645,10 +796,6 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             // Deserializer starting past the colon delimiter.
             return spSessionSerializer.deserialize(
                     record.getVersion(), getId(), key, record.getValue().substring(pos + 1), record.getExpiration());
-            
-        } catch (final IOException e) {
-            log.error("IOException loading SPSession for service {} from storage: {}", serviceId, e.getMessage());
-            throw e;
         } catch (final ClassNotFoundException e) {
             log.error("ClassNotFoundException loading SPSession for service {} from storage: {}", serviceId,
                     e.getMessage());
@@ -740,6 +887,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 throw new IOException("Unable to update session, record disappeared");
             }
             version = ver;
+            sessionManager.cacheSession(this, true);
             return true;
         } catch (final VersionMismatchException e) {
             // The record has changed underneath. We need to deserialize the session back into the
@@ -752,6 +900,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             }
             record.getValue(new StorageBackedIdPSessionSerializer(sessionManager, this),
                     getId(), StorageBackedSessionManager.SESSION_PRIMARY_KEY);
+            sessionManager.cacheSession(this, false);
             return false;
         }
     }
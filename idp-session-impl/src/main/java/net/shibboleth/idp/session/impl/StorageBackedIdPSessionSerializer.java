@@ -38,6 +38,7 @@ import javax.json.stream.JsonGenerator;
 
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.session.AbstractIdPSession;
+import net.shibboleth.idp.session.CompactRecordSupport;
 import net.shibboleth.idp.session.SPSession;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
@@ -50,6 +51,9 @@ import org.slf4j.LoggerFactory;
 /**
  * A serializer for instances of {@link StorageBackedIdPSession} designed in conjunction with the
  * {@link org.opensaml.storage.StorageService}-backed {@link net.shibboleth.idp.session.SessionManager} implementation.
+ * 
+ * <p>Records are written as JSON, or in the format supported by {@link CompactRecordSupport} if the
+ * parent manager is configured for it. Either format is accepted when reading.</p>
  */
 @ThreadSafe
 public class StorageBackedIdPSessionSerializer extends AbstractInitializableComponent implements
@@ -105,6 +109,10 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     @Override @Nonnull @NotEmpty public String serialize(@Nonnull final StorageBackedIdPSession instance)
             throws IOException {
 
+        if (sessionManager.isCompactSerialization()) {
+            return serializeCompact(instance);
+        }
+        
         try {
             final StringWriter sink = new StringWriter(128);
             final JsonGenerator gen = jsonProvider.createGenerator(sink);
@@ -165,6 +173,8 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
 
         if (expiration == null) {
             throw new IOException("IdPSession objects must have an expiration");
+        } else if (CompactRecordSupport.isCompact(value)) {
+            return deserializeCompact(version, context, value, expiration);
         }
 
         try {
@@ -230,4 +240,99 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     }
     // Checkstyle: CyclomaticComplexity ON
 
+    /**
+     * Serialize a session in the compact format.
+     * 
+     * @param instance session to serialize
+     * 
+     * @return the serialized form
+     */
+    @Nonnull @NotEmpty private String serializeCompact(@Nonnull final StorageBackedIdPSession instance) {
+        final CompactRecordSupport.RecordWriter writer = CompactRecordSupport.newRecord()
+                .writeLong(instance.getCreationInstant().toEpochMilli())
+                .writeString(instance.getPrincipalName())
+                .writeOptionalString(instance.getAddress(AbstractIdPSession.AddressFamily.IPV4))
+                .writeOptionalString(instance.getAddress(AbstractIdPSession.AddressFamily.IPV6))
+                .writeOptionalString(instance.getAddress(AbstractIdPSession.AddressFamily.UNKNOWN));
+
+        final Set<AuthenticationResult> results = instance.getAuthenticationResults();
+        writer.writeLong(results.size());
+        for (final AuthenticationResult result : results) {
+            writer.writeString(result.getAuthenticationFlowId());
+        }
+
+        Set<SPSession> services = Set.of();
+        if (sessionManager.isTrackSPSessions()) {
+            if (sessionManager.storageServiceMeetsThreshold()) {
+                services = instance.getSPSessions();
+            } else {
+                log.debug("Unable to serialize SP session due to to storage service limitations");
+            }
+        }
+        writer.writeLong(services.size());
+        for (final SPSession service : services) {
+            writer.writeString(service.getId());
+        }
+
+        return writer.toRecord();
+    }
+
+    /**
+     * Deserialize a session in the compact format.
+     * 
+     * @param version record version
+     * @param context record context
+     * @param value serialized form
+     * @param expiration record expiration
+     * 
+     * @return the session
+     * @throws IOException if the record is malformed
+     */
+    @Nonnull private StorageBackedIdPSession deserializeCompact(final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String value,
+            @Nonnull final Long expiration) throws IOException {
+
+        try {
+            final CompactRecordSupport.RecordReader reader = CompactRecordSupport.openRecord(value);
+            final Instant creation = Instant.ofEpochMilli(reader.readLong());
+            final String principalName = reader.readString();
+
+            // Create new object if necessary.
+            StorageBackedIdPSession objectToPopulate = targetObject;
+            if (objectToPopulate == null) {
+                objectToPopulate = new StorageBackedIdPSession(sessionManager, context, principalName, creation);
+            }
+
+            // Populate fields in-place, bypassing any storage interactions.
+            objectToPopulate.setVersion(version);
+            objectToPopulate.doSetLastActivityInstant(
+                    Instant.ofEpochMilli(expiration).minus(sessionManager.getSessionTimeout()).minus(
+                            sessionManager.getSessionSlop()));
+            for (int i = 0; i < 3; ++i) {
+                final String address = reader.readOptionalString();
+                if (address != null) {
+                    objectToPopulate.doBindToAddress(address);
+                }
+            }
+
+            objectToPopulate.getAuthenticationResultMap().clear();
+            for (int count = reader.readInt(); count > 0; --count) {
+                // An absent mapping is used to signify the existence of a result not yet loaded.
+                objectToPopulate.getAuthenticationResultMap().put(reader.readString(), Optional.empty());
+            }
+
+            objectToPopulate.getSPSessionMap().clear();
+            for (int count = reader.readInt(); count > 0; --count) {
+                // An absent mapping is used to signify the existence of a session not yet loaded.
+                objectToPopulate.getSPSessionMap().put(reader.readString(), Optional.empty());
+            }
+
+            return objectToPopulate;
+
+        } catch (final IOException e) {
+            log.error("Exception while parsing IdPSession: {}", e.getMessage());
+            throw new IOException("Found invalid data structure while parsing IdPSession", e);
+        }
+    }
+
 }
\ No newline at end of file
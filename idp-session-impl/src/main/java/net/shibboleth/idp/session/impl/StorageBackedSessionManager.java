@@ -18,13 +18,23 @@
 package net.shibboleth.idp.session.impl;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.BiPredicate;
 
 import javax.annotation.Nonnull;
@@ -34,7 +44,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.session.AbstractIdPSession;
 import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.MultiReadStorageService;
 import net.shibboleth.idp.session.SPSession;
 import net.shibboleth.idp.session.SPSessionSerializerRegistry;
 import net.shibboleth.idp.session.SessionException;
@@ -43,6 +55,7 @@ import net.shibboleth.idp.session.SessionResolver;
 import net.shibboleth.idp.session.criterion.HttpServletRequestCriterion;
 import net.shibboleth.idp.session.criterion.SPSessionCriterion;
 import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -65,7 +78,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 
 /**
  * Implementation of {@link SessionManager} and {@link SessionResolver} interfaces that relies on a
@@ -88,6 +104,11 @@ import com.google.common.collect.ImmutableList;
  * </p>
  * 
  * <p>
+ * When a full set of either type of record is needed, they are read together, in one operation if the storage
+ * service implements {@link MultiReadStorageService}, or else concurrently if an {@link Executor} is supplied.
+ * </p>
+ * 
+ * <p>
  * For cross-referencing, lists of flow and service IDs are tracked within the "_session" record, so adding
  * either requires an update to that record plus the creation of a new one. Post-creation, there are no updates to
  * the AuthenticationResult or SPSession records, but the expiration of the result records can be updated to reflect
@@ -107,6 +128,14 @@ import com.google.common.collect.ImmutableList;
  * The primary purpose of the secondary list is SAML logout, and is an optional feature that can be disabled. In the
  * case of a SAML 2 session, the secondary key is some form of the NameID issued to the service.
  * </p>
+ * 
+ * <p>
+ * To bound the size of, and contention on, that list when many sessions share a key, it may be split into a fixed
+ * number of buckets, each stored under the bucket number and a SHA-256 digest of the secondary key, with a given
+ * IdPSession always indexed in the same bucket. The digest keeps bucket keys distinct from any unbucketed key that
+ * happens to end in something resembling a bucket suffix. Lookups consult every bucket as well as the original
+ * record, so entries written before buckets were enabled remain visible until they expire.
+ * </p>
  */
 public class StorageBackedSessionManager extends AbstractIdentifiableInitializableComponent implements SessionManager,
         SessionResolver {
@@ -135,12 +164,18 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Indicates that storage service failures should be masked as much as possible. */
     private boolean maskStorageFailure;
 
+    /** Indicates whether to write session records in the compact format. */
+    private boolean compactSerialization;
+
     /** Indicates whether to store and track SPSessions. */
     private boolean trackSPSessions;
 
     /** Indicates whether to secondary-index SPSessions. */
     private boolean secondaryServiceIndex;
 
+    /** Number of buckets to divide each secondary index record into, or 0 for a single record. */
+    private int secondaryServiceIndexBuckets;
+
     /** Indicates how bound session addresses and client addresses are compared. */
     @Nonnull private BiPredicate<String,String> consistentAddressCondition;
 
@@ -159,6 +194,9 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Generator for XML ID attribute values. */
     @NonnullAfterInit private IdentifierGenerationStrategy idGenerator;
 
+    /** Optional executor used to issue reads concurrently. */
+    @Nullable private Executor readExecutor;
+
     /** Serializer for sessions. */
     @Nonnull private final StorageBackedIdPSessionSerializer serializer;
 
@@ -168,6 +206,15 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Mappings between a SPSession type and a serializer implementation. */
     @Nullable private SPSessionSerializerRegistry spSessionSerializerRegistry;
 
+    /** Maximum number of sessions to cache in memory. */
+    @NonNegative private int sessionCacheSize;
+
+    /** Time after which an unused cached session is discarded. */
+    @Nonnull private Duration sessionCacheIdleTime;
+
+    /** Node-local cache of materialized sessions, by session ID. */
+    @Nullable private Cache<String,CachedSession> sessionCache;
+
     /**
      * Constructor.
      * 
@@ -181,6 +228,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 DefaultConsistentAddressConditionFactory.getDefaultConsistentAddressCondition(true);
         cookieName = DEFAULT_COOKIE_NAME;
         storageServiceThreshold = 1024 * 1024;
+        sessionCacheIdleTime = Duration.ofMinutes(10);
     }
 
     /**
@@ -265,6 +313,32 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         maskStorageFailure = flag;
     }
 
+    /**
+     * Get whether to write session records in the compact format.
+     * 
+     * @return true iff session records should be written in the compact format
+     * 
+     * @since 4.2.0
+     */
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+
+    /**
+     * Set whether to write session records in the compact format.
+     * 
+     * <p>Records in either format can be read regardless of this setting.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 4.2.0
+     */
+    public void setCompactSerialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        compactSerialization = flag;
+    }
+
     /**
      * Get whether to track SPSessions.
      * 
@@ -313,6 +387,43 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         secondaryServiceIndex = flag;
     }
 
+    /**
+     * Get the number of buckets each secondary index record is divided into.
+     * 
+     * @return number of buckets, or 0 for a single record
+     * 
+     * @since 4.2.0
+     */
+    public int getSecondaryServiceIndexBuckets() {
+        return secondaryServiceIndexBuckets;
+    }
+
+    /**
+     * Set the number of buckets each secondary index record is divided into.
+     * 
+     * <p>Each IdPSession is indexed in exactly one bucket, so adding or removing an entry rewrites only a
+     * small record and concurrent updates for different sessions rarely collide. Records written in the
+     * original single-record format continue to be read and cleaned up.</p>
+     * 
+     * <p>Buckets only divide the cost, they don't remove it: each bucket is still a single record that is read
+     * and rewritten in full, under optimistic locking, whenever an entry is added or removed, and a lookup reads
+     * every bucket as well as the original record before reading each indexed session. Storing one record per
+     * entry would need the storage service to enumerate keys, which it cannot.</p>
+     * 
+     * <p>Defaults to 0, the original single-record format, which must be retained until every node sharing
+     * the storage service supports buckets.</p>
+     * 
+     * @param buckets number of buckets
+     * 
+     * @since 4.2.0
+     */
+    public void setSecondaryServiceIndexBuckets(final int buckets) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        secondaryServiceIndexBuckets =
+                (int) Constraint.isGreaterThanOrEqual(0, buckets, "Bucket count cannot be negative");
+    }
+
     /**
      * Get condition to evaluate bound session and client addresses for consistency.
      * 
@@ -392,6 +503,126 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         storageService = Constraint.isNotNull(storage, "StorageService cannot be null");
     }
     
+    /**
+     * Set an {@link Executor} with which to issue concurrent reads of a session's subsidiary records
+     * when the {@link StorageService} cannot read them in a single operation.
+     * 
+     * <p>If not set, such reads are issued one at a time. This is only worthwhile with a server-side
+     * storage service whose reads involve a network round trip; it does nothing useful for in-memory
+     * or client-side storage.</p>
+     * 
+     * @param executor executor to use
+     * 
+     * @since 4.2.0
+     */
+    public void setReadExecutor(@Nullable final Executor executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        readExecutor = executor;
+    }
+    
+    /**
+     * Set the maximum number of sessions to keep in a node-local cache, so that a session whose
+     * primary record has not changed need not be deserialized again.
+     * 
+     * <p>The primary record is still read on every lookup, and the cached form is used only if its
+     * version matches. Defaults to 0, which disables the cache.</p>
+     * 
+     * @param size maximum number of cached sessions
+     * 
+     * @since 4.2.0
+     */
+    public void setSessionCacheSize(@NonNegative final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        sessionCacheSize = (int) Constraint.isGreaterThanOrEqual(0, size, "Session cache size cannot be negative");
+    }
+
+    /**
+     * Set the time after which an unused cached session is discarded.
+     * 
+     * <p>Defaults to 10 minutes.</p>
+     * 
+     * @param idleTime idle time
+     * 
+     * @since 4.2.0
+     */
+    public void setSessionCacheIdleTime(@Nonnull final Duration idleTime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        Constraint.isNotNull(idleTime, "Idle time cannot be null");
+        Constraint.isFalse(idleTime.isNegative() || idleTime.isZero(), "Idle time must be greater than 0");
+        sessionCacheIdleTime = idleTime;
+    }
+
+    /**
+     * Read a set of records from a single context, using the most efficient means available.
+     * 
+     * @param <T> type of object
+     * @param context storage context
+     * @param keys keys to read
+     * 
+     * @return a map of key to record, omitting any keys for which no record exists
+     * @throws IOException if an error occurs reading any of the records
+     * 
+     * @since 4.2.0
+     */
+    @Nonnull @NonnullElements protected <T> Map<String,StorageRecord<T>> readRecords(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        } else if (storageService instanceof MultiReadStorageService) {
+            log.trace("Reading {} records from context {} in a single operation", keys.size(), context);
+            return ((MultiReadStorageService) storageService).readAll(context, keys);
+        }
+        
+        final Map<String,StorageRecord<T>> records = new HashMap<>(keys.size());
+        if (readExecutor == null || keys.size() == 1) {
+            for (final String key : keys) {
+                final StorageRecord<T> record = storageService.read(context, key);
+                if (record != null) {
+                    records.put(key, record);
+                }
+            }
+            return records;
+        }
+
+        log.trace("Reading {} records from context {} concurrently", keys.size(), context);
+        final List<CompletableFuture<StorageRecord<T>>> futures = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return storageService.<T>read(context, key);
+                } catch (final IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, readExecutor));
+        }
+        
+        IOException failure = null;
+        final Iterator<String> keyIterator = keys.iterator();
+        for (final CompletableFuture<StorageRecord<T>> future : futures) {
+            final String key = keyIterator.next();
+            try {
+                final StorageRecord<T> record = future.join();
+                if (record != null) {
+                    records.put(key, record);
+                }
+            } catch (final CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return records;
+    }
+
     /**
      * Get whether the configured {@link StorageService}'s
      * {@link org.opensaml.storage.StorageCapabilities#getValueSize()} method meets the
@@ -511,6 +742,13 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
 
         // This is our private instance, so we initialize it.
         serializer.initialize();
+
+        if (sessionCacheSize > 0) {
+            sessionCache = CacheBuilder.newBuilder()
+                    .maximumSize(sessionCacheSize)
+                    .expireAfterAccess(sessionCacheIdleTime)
+                    .build();
+        }
     }
 
     /** {@inheritDoc} */
@@ -541,6 +779,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                     newSession.getCreationInstant().plus(sessionTimeout).plus(sessionSlop).toEpochMilli())) {
                 throw new SessionException("A duplicate session ID was generated, unable to create session");
             }
+            cacheSession(newSession, false);
         } catch (final IOException e) {
             log.error("Exception while storing new session for principal {}", principalName, e);
             if (!maskStorageFailure) {
@@ -565,6 +804,10 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             cookieManager.unsetCookie(cookieName);
         }
 
+        if (sessionCache != null) {
+            sessionCache.invalidate(sessionId);
+        }
+
         try {
             storageService.deleteContext(sessionId);
             log.debug("Destroyed session {}", sessionId);
@@ -654,30 +897,20 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 throw new SessionException("Exceeded retry attempts while adding to secondary index");
             }
         } else if (secondaryServiceIndex && storageServiceMeetsThreshold()) {
-            String serviceId = spSession.getId();
-            String serviceKey = spSession.getSPSessionKey();
+            final String serviceKey = spSession.getSPSessionKey();
             if (serviceKey == null) {
                 return;
             }
-            log.debug("Maintaining secondary index for service ID {} and key {}", serviceId, serviceKey);
-
-            final int contextSize = storageService.getCapabilities().getContextSize();
-            final int keySize = storageService.getCapabilities().getKeySize();
-
-            // Truncate context and key if needed.
-            if (serviceId.length() > contextSize) {
-                serviceId = serviceId.substring(0, contextSize);
-            }
-            if (serviceKey.length() > keySize) {
-                serviceKey = serviceKey.substring(0, keySize);
-            }
+            final String serviceId = getSecondaryIndexContext(spSession.getId());
+            final String indexKey = getSecondaryIndexKey(serviceKey, idpSession.getId());
+            log.debug("Maintaining secondary index for service ID {} and key {}", serviceId, indexKey);
 
             StorageRecord<?> sessionList = null;
 
             try {
-                sessionList = storageService.read(serviceId, serviceKey);
+                sessionList = storageService.read(serviceId, indexKey);
             } catch (final IOException e) {
-                log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
+                log.error("Exception while querying based service ID {} and key {}", serviceId, indexKey, e);
                 if (!maskStorageFailure) {
                     throw new SessionException("Exception while querying based on SPSession", e);
                 }
@@ -685,10 +918,10 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
 
             try {
                 if (sessionList != null) {
-                    if (!sessionList.getValue().contains(idpSession.getId() + ',')) {
+                    if (!isIndexed(sessionList.getValue(), idpSession.getId())) {
                         // Need to update record.
                         final String updated = sessionList.getValue() + idpSession.getId() + ',';
-                        if (storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey, updated,
+                        if (storageService.updateWithVersion(sessionList.getVersion(), serviceId, indexKey, updated,
                                 Math.max(sessionList.getExpiration(), 
                                          spSession.getExpirationInstant().plus(sessionSlop).toEpochMilli())) == null) {
                             log.debug("Secondary index record disappeared, retrying as insert");
@@ -696,16 +929,16 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                         }
                     } else {
                         log.debug("IdP session {} already indexed against service ID {} and key {}", idpSession.getId(),
-                                serviceId, serviceKey);
+                                serviceId, indexKey);
                     }
-                } else if (!storageService.create(serviceId, serviceKey, idpSession.getId() + ',',
+                } else if (!storageService.create(serviceId, indexKey, idpSession.getId() + ',',
                         spSession.getExpirationInstant().plus(sessionSlop).toEpochMilli())) {
                     log.debug("Secondary index record appeared, retrying as update");
                     indexBySPSession(idpSession, spSession, attempts - 1);
                 }
             } catch (final IOException e) {
                 log.error("Exception maintaining secondary index for service ID {} and key {}",
-                        serviceId, serviceKey, e);
+                        serviceId, indexKey, e);
                 if (!maskStorageFailure) {
                     throw new SessionException("Exception maintaining secondary index", e);
                 }
@@ -719,6 +952,8 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /**
      * Remove or update a secondary index record from an SPSession to a parent IdPSession.
      * 
+     * <p>If buckets are in use, the session is also removed from any record in the original format.</p>
+     * 
      * @param idpSession the parent session
      * @param spSession the SPSession to de-index
      * @param attempts number of times to retry operation in the event of a synchronization issue
@@ -727,73 +962,166 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
      */
     protected void unindexSPSession(@Nonnull final IdPSession idpSession, @Nonnull final SPSession spSession,
             final int attempts) throws SessionException {
-        if (attempts <= 0) {
-            log.error("Exceeded retry attempts while removing from secondary index");
-            if (!maskStorageFailure) {
-                throw new SessionException("Exceeded retry attempts while removing from secondary index");
-            }
-        } else if (secondaryServiceIndex && storageServiceMeetsThreshold()) {
-            String serviceId = spSession.getId();
-            String serviceKey = spSession.getSPSessionKey();
+        if (secondaryServiceIndex && storageServiceMeetsThreshold()) {
+            final String serviceKey = spSession.getSPSessionKey();
             if (serviceKey == null) {
                 return;
             }
-            log.debug("Removing secondary index for service ID {} and key {}", serviceId, serviceKey);
-
-            final int contextSize = storageService.getCapabilities().getContextSize();
-            final int keySize = storageService.getCapabilities().getKeySize();
-
-            // Truncate context and key if needed.
-            if (serviceId.length() > contextSize) {
-                serviceId = serviceId.substring(0, contextSize);
+            final String serviceId = getSecondaryIndexContext(spSession.getId());
+            
+            final String indexKey = getSecondaryIndexKey(serviceKey, idpSession.getId());
+            unindexSPSession(idpSession.getId(), serviceId, indexKey, attempts);
+            
+            final String legacyKey = truncateSecondaryIndexKey(serviceKey, 0);
+            if (!legacyKey.equals(indexKey)) {
+                unindexSPSession(idpSession.getId(), serviceId, legacyKey, attempts);
             }
-            if (serviceKey.length() > keySize) {
-                serviceKey = serviceKey.substring(0, keySize);
+        }
+    }
+
+    /**
+     * Remove an IdPSession from a single secondary index record.
+     * 
+     * @param sessionId the parent session ID
+     * @param serviceId the storage context of the record
+     * @param indexKey the storage key of the record
+     * @param attempts number of times to retry operation in the event of a synchronization issue
+     * 
+     * @throws SessionException if a fatal error occurs
+     */
+    private void unindexSPSession(@Nonnull @NotEmpty final String sessionId, @Nonnull @NotEmpty final String serviceId,
+            @Nonnull @NotEmpty final String indexKey, final int attempts) throws SessionException {
+        if (attempts <= 0) {
+            log.error("Exceeded retry attempts while removing from secondary index");
+            if (!maskStorageFailure) {
+                throw new SessionException("Exceeded retry attempts while removing from secondary index");
             }
+            return;
+        }
+        
+        log.debug("Removing secondary index for service ID {} and key {}", serviceId, indexKey);
 
-            StorageRecord<?> sessionList = null;
+        StorageRecord<?> sessionList = null;
 
-            try {
-                sessionList = storageService.read(serviceId, serviceKey);
-            } catch (final IOException e) {
-                log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
-                if (!maskStorageFailure) {
-                    throw new SessionException("Exception while querying based on SPSession", e);
-                }
+        try {
+            sessionList = storageService.read(serviceId, indexKey);
+        } catch (final IOException e) {
+            log.error("Exception while querying based service ID {} and key {}", serviceId, indexKey, e);
+            if (!maskStorageFailure) {
+                throw new SessionException("Exception while querying based on SPSession", e);
             }
+        }
 
-            try {
-                if (sessionList != null) {
-                    final String recordValue = sessionList.getValue();
-                    if (recordValue.contains(idpSession.getId() + ',')) {
-                        // Need to update or delete record.
-                        final String updated = recordValue.replace(idpSession.getId() + ',', "");
-                        if (updated.length() > 0) {
-                            if (storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey,
-                                    updated, sessionList.getExpiration()) == null) {
-                                log.debug("Secondary index record disappeared, nothing to do");
-                            }
-                        } else {
-                            storageService.deleteWithVersion(sessionList.getVersion(), serviceId, serviceKey);
+        try {
+            if (sessionList != null) {
+                final String recordValue = sessionList.getValue();
+                if (isIndexed(recordValue, sessionId)) {
+                    // Need to update or delete record.
+                    final String updated = (',' + recordValue).replace(',' + sessionId + ',', ",").substring(1);
+                    if (updated.length() > 0) {
+                        if (storageService.updateWithVersion(sessionList.getVersion(), serviceId, indexKey,
+                                updated, sessionList.getExpiration()) == null) {
+                            log.debug("Secondary index record disappeared, nothing to do");
                         }
                     } else {
-                        log.debug("IdP session {} not indexed against service ID {} and key {}", idpSession.getId(),
-                                serviceId, serviceKey);
+                        storageService.deleteWithVersion(sessionList.getVersion(), serviceId, indexKey);
                     }
                 } else {
-                    log.debug("Secondary index record not found, nothing to do");
+                    log.debug("IdP session {} not indexed against service ID {} and key {}", sessionId,
+                            serviceId, indexKey);
                 }
-            } catch (final IOException e) {
-                log.error("Exception removing secondary index for service ID {} and key {}",
-                        serviceId, serviceKey, e);
-                if (!maskStorageFailure) {
-                    throw new SessionException("Exception maintaining secondary index", e);
-                }
-            } catch (final VersionMismatchException e) {
-                log.debug("Secondary index record was updated between read/update/delete, retrying");
-                unindexSPSession(idpSession, spSession, attempts - 1);
+            } else {
+                log.debug("Secondary index record not found, nothing to do");
+            }
+        } catch (final IOException e) {
+            log.error("Exception removing secondary index for service ID {} and key {}",
+                    serviceId, indexKey, e);
+            if (!maskStorageFailure) {
+                throw new SessionException("Exception maintaining secondary index", e);
             }
+        } catch (final VersionMismatchException e) {
+            log.debug("Secondary index record was updated between read/update/delete, retrying");
+            unindexSPSession(sessionId, serviceId, indexKey, attempts - 1);
+        }
+    }
+    
+    /**
+     * Get the storage context for the secondary index records of a service.
+     * 
+     * @param serviceId the service ID
+     * 
+     * @return the service ID, truncated if necessary
+     */
+    @Nonnull @NotEmpty private String getSecondaryIndexContext(@Nonnull @NotEmpty final String serviceId) {
+        final int contextSize = storageService.getCapabilities().getContextSize();
+        if (serviceId.length() > contextSize) {
+            return serviceId.substring(0, contextSize);
+        }
+        return serviceId;
+    }
+
+    /**
+     * Get the storage key of the secondary index record in which to index a given IdPSession.
+     * 
+     * @param serviceKey the secondary key exposed by the SPSession
+     * @param sessionId the IdPSession ID
+     * 
+     * @return the storage key
+     */
+    @Nonnull @NotEmpty private String getSecondaryIndexKey(@Nonnull @NotEmpty final String serviceKey,
+            @Nonnull @NotEmpty final String sessionId) {
+        if (secondaryServiceIndexBuckets == 0) {
+            return truncateSecondaryIndexKey(serviceKey, 0);
+        }
+        return getSecondaryIndexBucketKey(serviceKey,
+                Math.floorMod(sessionId.hashCode(), secondaryServiceIndexBuckets));
+    }
+
+    /**
+     * Get the storage key of a particular secondary index bucket.
+     * 
+     * <p>The secondary key is always digested, since an original-format key is arbitrary and could otherwise
+     * equal the bucket key of some other secondary key.</p>
+     * 
+     * @param serviceKey the secondary key exposed by the SPSession
+     * @param bucket the bucket number
+     * 
+     * @return the storage key
+     */
+    @Nonnull @NotEmpty private String getSecondaryIndexBucketKey(@Nonnull @NotEmpty final String serviceKey,
+            final int bucket) {
+        return truncateSecondaryIndexKey(
+                bucket + ":" + Hashing.sha256().hashString(serviceKey, StandardCharsets.UTF_8).toString(), 0);
+    }
+
+    /**
+     * Truncate a secondary key to fit into the storage service, leaving room for a suffix.
+     * 
+     * @param serviceKey the secondary key exposed by the SPSession
+     * @param reserved number of characters to leave room for
+     * 
+     * @return the truncated key
+     */
+    @Nonnull @NotEmpty private String truncateSecondaryIndexKey(@Nonnull @NotEmpty final String serviceKey,
+            final int reserved) {
+        final int keySize = storageService.getCapabilities().getKeySize() - reserved;
+        if (serviceKey.length() > keySize) {
+            return serviceKey.substring(0, keySize);
         }
+        return serviceKey;
+    }
+    
+    /**
+     * Check whether a secondary index record value contains a session ID.
+     * 
+     * @param recordValue comma-terminated list of session IDs
+     * @param sessionId the session ID to check for
+     * 
+     * @return true iff the record contains the session ID
+     */
+    private boolean isIndexed(@Nonnull final String recordValue, @Nonnull @NotEmpty final String sessionId) {
+        // Anchoring on the delimiters avoids matching an ID that is a suffix of another.
+        return (',' + recordValue).contains(',' + sessionId + ',');
     }
     
     /**
@@ -816,7 +1144,21 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             final StorageRecord<StorageBackedIdPSession> sessionRecord =
                     storageService.read(sessionId, SESSION_PRIMARY_KEY);
             if (sessionRecord != null) {
-                return sessionRecord.getValue(serializer, sessionId, SESSION_PRIMARY_KEY);
+                if (sessionCache == null) {
+                    return sessionRecord.getValue(serializer, sessionId, SESSION_PRIMARY_KEY);
+                }
+                
+                final CachedSession cached = sessionCache.getIfPresent(sessionId);
+                if (cached != null && cached.version == sessionRecord.getVersion()
+                        && sessionRecord.getExpiration() != null) {
+                    log.trace("Using cached copy of session {} at version {}", sessionId, cached.version);
+                    return cached.materialize(this, sessionId, sessionRecord.getExpiration());
+                }
+                
+                final StorageBackedIdPSession session =
+                        sessionRecord.getValue(serializer, sessionId, SESSION_PRIMARY_KEY);
+                cacheSession(session, false);
+                return session;
             }
             log.debug("Primary lookup failed for session ID {}", sessionId);
         } catch (final IOException e) {
@@ -829,6 +1171,20 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         return null;
     }
 
+    /**
+     * Update the cached form of a session, if caching is enabled, to reflect the state of the object.
+     * 
+     * <p>This is called after the object has been written to, or refreshed from, its primary record.</p>
+     * 
+     * @param session the session
+     * @param written true iff the object has just been written to storage
+     */
+    void cacheSession(@Nonnull final StorageBackedIdPSession session, final boolean written) {
+        if (sessionCache != null) {
+            sessionCache.put(session.getId(), new CachedSession(session, written));
+        }
+    }
+
     /**
      * Performs a lookup and deserializes records potentially matching a SPSession.
      * 
@@ -840,25 +1196,21 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     @Nonnull @NonnullElements private Iterable<IdPSession>
             lookupBySPSession(@Nonnull final SPSessionCriterion criterion) throws ResolverException {
 
-        final int contextSize = storageService.getCapabilities().getContextSize();
-        final int keySize = storageService.getCapabilities().getKeySize();
-
-        String serviceId = criterion.getServiceId();
-        String serviceKey = criterion.getSPSessionKey();
+        final String serviceId = getSecondaryIndexContext(criterion.getServiceId());
+        final String serviceKey = criterion.getSPSessionKey();
         log.debug("Performing secondary lookup on service ID {} and key {}", serviceId, serviceKey);
 
-        // Truncate context and key if needed.
-        if (serviceId.length() > contextSize) {
-            serviceId = serviceId.substring(0, contextSize);
-        }
-        if (serviceKey.length() > keySize) {
-            serviceKey = serviceKey.substring(0, keySize);
+        // The original single record is always checked, followed by any buckets.
+        final List<String> indexKeys = new ArrayList<>(secondaryServiceIndexBuckets + 1);
+        indexKeys.add(truncateSecondaryIndexKey(serviceKey, 0));
+        for (int bucket = 0; bucket < secondaryServiceIndexBuckets; bucket++) {
+            indexKeys.add(getSecondaryIndexBucketKey(serviceKey, bucket));
         }
 
-        StorageRecord<?> sessionList = null;
+        Map<String,StorageRecord<Object>> sessionLists = Collections.emptyMap();
 
         try {
-            sessionList = storageService.read(serviceId, serviceKey);
+            sessionLists = readRecords(serviceId, indexKeys);
         } catch (final IOException e) {
             log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
             if (!maskStorageFailure) {
@@ -866,42 +1218,157 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             }
         }
 
-        if (sessionList == null) {
+        if (sessionLists.isEmpty()) {
             log.debug("Secondary lookup failed on service ID {} and key {}", serviceId, serviceKey);
             return Collections.emptyList();
         }
 
         final ImmutableList.Builder<IdPSession> builder = ImmutableList.builder();
+        final Set<String> seen = new HashSet<>();
 
-        final StringBuilder writeBackSessionList = new StringBuilder(sessionList.getValue().length());
+        for (final String indexKey : indexKeys) {
+            final StorageRecord<?> sessionList = sessionLists.get(indexKey);
+            if (sessionList == null) {
+                continue;
+            }
+            
+            final StringBuilder writeBackSessionList = new StringBuilder(sessionList.getValue().length());
+    
+            for (final String sessionId : sessionList.getValue().split(",")) {
+                if (seen.contains(sessionId)) {
+                    writeBackSessionList.append(sessionId);
+                    writeBackSessionList.append(',');
+                    continue;
+                }
+                final IdPSession session = lookupBySessionId(sessionId);
+                if (session != null) {
+                    // Session was found, so add it to the return set and to the updated index record.
+                    seen.add(sessionId);
+                    builder.add(session);
+                    writeBackSessionList.append(sessionId);
+                    writeBackSessionList.append(',');
+                }
+            }
+    
+            try {
+                final String writeBackValue = writeBackSessionList.toString();
+                if (writeBackValue.length() == 0) {
+                    storageService.deleteWithVersion(sessionList.getVersion(), serviceId, indexKey);
+                } else if (!writeBackValue.equals(sessionList.getValue())) {
+                    storageService.updateWithVersion(sessionList.getVersion(), serviceId, indexKey, writeBackValue,
+                            sessionList.getExpiration());
+                }
+            } catch (final IOException e) {
+                log.warn("Ignoring exception while updating secondary index", e);
+            } catch (final VersionMismatchException e) {
+                log.debug("Ignoring version mismatch while updating secondary index");
+            }
+        }
 
-        for (final String sessionId : sessionList.getValue().split(",")) {
-            final IdPSession session = lookupBySessionId(sessionId);
-            if (session != null) {
-                // Session was found, so add it to the return set and to the updated index record.
-                builder.add(session);
-                writeBackSessionList.append(sessionId);
-                writeBackSessionList.append(',');
+        return builder.build();
+    }
+    
+    /**
+     * The state of a session that is held in its primary record, apart from the last activity time,
+     * which is derived from the record expiration and can change without a new version.
+     */
+    private static final class CachedSession {
+
+        /** Record version. */
+        private final long version;
+
+        /** Principal name. */
+        @Nonnull @NotEmpty private final String principalName;
+
+        /** Creation time. */
+        @Nonnull private final Instant creationInstant;
+
+        /** Bound addresses. */
+        @Nonnull @NonnullElements private final List<String> addresses;
+
+        /** IDs of the flows with authentication results. */
+        @Nonnull @NonnullElements private final List<String> flowIds;
+
+        /** IDs of the services with SP sessions. */
+        @Nonnull @NonnullElements private final List<String> serviceIds;
+
+        /**
+         * Constructor.
+         * 
+         * <p>An object that has just been written includes only those results and SP sessions that were
+         * loaded, since only those are written to the record. An object that has just been read includes
+         * them all, since none of them are loaded yet.</p>
+         * 
+         * @param session the session
+         * @param written true iff the object has just been written to storage
+         */
+        CachedSession(@Nonnull final StorageBackedIdPSession session, final boolean written) {
+            version = session.getVersion();
+            principalName = session.getPrincipalName();
+            creationInstant = session.getCreationInstant();
+
+            final List<String> bound = new ArrayList<>(3);
+            for (final AbstractIdPSession.AddressFamily family : AbstractIdPSession.AddressFamily.values()) {
+                final String address = session.getAddress(family);
+                if (address != null) {
+                    bound.add(address);
+                }
             }
+            addresses = List.copyOf(bound);
+            flowIds = keys(session.getAuthenticationResultMap(), written);
+            serviceIds = keys(session.getSPSessionMap(), written);
         }
 
-        try {
-            final String writeBackValue = writeBackSessionList.toString();
-            if (writeBackValue.length() == 0) {
-                storageService.deleteWithVersion(sessionList.getVersion(), serviceId, serviceKey);
-            } else if (!writeBackValue.equals(sessionList.getValue())) {
-                storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey, writeBackValue,
-                        sessionList.getExpiration());
+        /**
+         * Create a new session object from the cached state.
+         * 
+         * @param manager the session manager
+         * @param sessionId the session ID
+         * @param expiration expiration of the primary record
+         * 
+         * @return a new session object, equivalent to one deserialized from the record
+         */
+        @Nonnull StorageBackedIdPSession materialize(@Nonnull final StorageBackedSessionManager manager,
+                @Nonnull @NotEmpty final String sessionId, final long expiration) {
+            final StorageBackedIdPSession session =
+                    new StorageBackedIdPSession(manager, sessionId, principalName, creationInstant);
+            session.setVersion(version);
+            session.doSetLastActivityInstant(Instant.ofEpochMilli(expiration).minus(manager.getSessionTimeout())
+                    .minus(manager.getSessionSlop()));
+            for (final String address : addresses) {
+                session.doBindToAddress(address);
             }
-        } catch (final IOException e) {
-            log.warn("Ignoring exception while updating secondary index", e);
-        } catch (final VersionMismatchException e) {
-            log.debug("Ignoring version mismatch while updating secondary index");
+            // An absent mapping is used to signify the existence of a record not yet loaded.
+            for (final String flowId : flowIds) {
+                session.getAuthenticationResultMap().put(flowId, Optional.empty());
+            }
+            for (final String serviceId : serviceIds) {
+                session.getSPSessionMap().put(serviceId, Optional.empty());
+            }
+            return session;
         }
 
-        return builder.build();
+        /**
+         * Get the keys of a map of results or SP sessions.
+         * 
+         * @param <T> type of value
+         * @param map the map
+         * @param loadedOnly whether to include only the keys of loaded values
+         * 
+         * @return the keys
+         */
+        @Nonnull @NonnullElements private static <T> List<String> keys(
+                @Nonnull @NonnullElements final Map<String,Optional<T>> map, final boolean loadedOnly) {
+            final List<String> keys = new ArrayList<>(map.size());
+            for (final Map.Entry<String,Optional<T>> entry : map.entrySet()) {
+                if (!loadedOnly || entry.getValue().isPresent()) {
+                    keys.add(entry.getKey());
+                }
+            }
+            return List.copyOf(keys);
+        }
     }
-    
+
     /**
      * Simplifies Spring wiring of a true/false condition for the consistentAddress feature.
      * 
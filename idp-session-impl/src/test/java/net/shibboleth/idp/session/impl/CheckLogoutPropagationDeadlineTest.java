@@ -0,0 +1,86 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.idp.profile.testing.RequestContextBuilder;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link CheckLogoutPropagationDeadline} unit test. */
+public class CheckLogoutPropagationDeadlineTest {
+    
+    private RequestContext src;
+    
+    private ProfileRequestContext prc;
+    
+    private CheckLogoutPropagationDeadline action;
+    
+    @BeforeMethod public void setUp() {
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+        
+        action = new CheckLogoutPropagationDeadline();
+    }
+    
+    @Test public void testNoContext() throws ComponentInitializationException {
+        action.initialize();
+        
+        ActionTestingSupport.assertEvent(action.execute(src), EventIds.INVALID_PROFILE_CTX);
+    }
+
+    @Test public void testNoDeadline() throws ComponentInitializationException {
+        action.initialize();
+        final LogoutContext logoutCtx = prc.getSubcontext(LogoutContext.class, true);
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        Assert.assertNull(logoutCtx.getPropagationDeadline());
+    }
+
+    @Test public void testDeadline() throws ComponentInitializationException {
+        action.setDeadline(Duration.ofMinutes(1));
+        action.initialize();
+        final LogoutContext logoutCtx = prc.getSubcontext(LogoutContext.class, true);
+        logoutCtx.getSessionMap().put("https://sp.example.org",
+                new BasicSPSession("https://sp.example.org", Instant.now(), Instant.now().plusSeconds(60)));
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        final Instant deadline = logoutCtx.getPropagationDeadline();
+        Assert.assertNotNull(deadline);
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        Assert.assertEquals(logoutCtx.getPropagationDeadline(), deadline);
+        
+        logoutCtx.setPropagationDeadline(Instant.now().minusSeconds(1));
+        ActionTestingSupport.assertEvent(action.execute(src), CheckLogoutPropagationDeadline.DEADLINE_PASSED);
+    }
+    
+}
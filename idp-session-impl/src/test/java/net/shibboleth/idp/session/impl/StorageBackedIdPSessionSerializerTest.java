@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.time.Instant;
+import java.util.Set;
 
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.testng.Assert;
@@ -32,6 +33,7 @@ import org.testng.reporters.Files;
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
 import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.CompactRecordSupport;
 import net.shibboleth.idp.session.SPSessionSerializerRegistry;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.net.CookieManager;
@@ -56,6 +58,12 @@ public class StorageBackedIdPSessionSerializerTest {
     private StorageBackedIdPSessionSerializer serializer;
     
     @BeforeMethod public void setUp() throws ComponentInitializationException {
+        manager = createManager(false);
+        serializer = new StorageBackedIdPSessionSerializer(manager, null);
+        serializer.initialize();
+    }
+
+    private StorageBackedSessionManager createManager(final boolean compact) throws ComponentInitializationException {
         final MemoryStorageService storageService = new MemoryStorageService();
         storageService.setId("TestStorageService");
         storageService.initialize();
@@ -65,7 +73,7 @@ public class StorageBackedIdPSessionSerializerTest {
         cookieManager.setHttpServletResponse(new ThreadLocalHttpServletResponseProxy());
         cookieManager.initialize();
         
-        manager = new StorageBackedSessionManager();
+        final StorageBackedSessionManager manager = new StorageBackedSessionManager();
         manager.setStorageService(storageService);
         manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
         manager.setHttpServletRequest(new ThreadLocalHttpServletRequestProxy());
@@ -74,10 +82,9 @@ public class StorageBackedIdPSessionSerializerTest {
         manager.setId("Test Session Manager");
         manager.setTrackSPSessions(true);
         manager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        manager.setCompactSerialization(compact);
         manager.initialize();
-
-        serializer = new StorageBackedIdPSessionSerializer(manager, null);
-        serializer.initialize();
+        return manager;
     }
 
     @Test public void testInvalid() throws Exception {
@@ -161,6 +168,75 @@ public class StorageBackedIdPSessionSerializerTest {
         Assert.assertFalse(session.checkAddress("bugbear"));
     }
     
+    @Test public void testCompact() throws Exception {
+        final Instant exp = Instant.ofEpochMilli(INSTANT).plusSeconds(3600);
+        
+        final StorageBackedSessionManager compactManager = createManager(true);
+        final StorageBackedIdPSessionSerializer compactSerializer =
+                new StorageBackedIdPSessionSerializer(compactManager, null);
+        compactSerializer.initialize();
+        
+        StorageBackedIdPSession session =
+                new StorageBackedIdPSession(compactManager, "test", "foo", Instant.ofEpochMilli(INSTANT));
+        session.doBindToAddress("127.0.0.1");
+        session.doBindToAddress("::1");
+        session.doAddAuthenticationResult(new AuthenticationResult("authn/Password", new UsernamePrincipal("jdoe")));
+        session.doAddAuthenticationResult(new AuthenticationResult("a", new UsernamePrincipal("jdoe")));
+        session.doAddSPSession(new BasicSPSession("bar", Instant.ofEpochMilli(INSTANT), exp));
+        
+        final String s = compactSerializer.serialize(session);
+        Assert.assertTrue(CompactRecordSupport.isCompact(s));
+        Assert.assertTrue(s.length() < serializer.serialize(session).length());
+        
+        // Either serializer reads either format.
+        for (final String value : new String[] {s, serializer.serialize(session)}) {
+            final StorageBackedIdPSession session2 = serializer.deserialize(1, "test", KEY, value, exp.toEpochMilli());
+            Assert.assertEquals(session2.getId(), session.getId());
+            Assert.assertEquals(session2.getPrincipalName(), "foo");
+            Assert.assertEquals(session2.getCreationInstant(), session.getCreationInstant());
+            Assert.assertEquals(session2.getLastActivityInstant(), session.getLastActivityInstant());
+            Assert.assertTrue(session2.checkAddress("127.0.0.1"));
+            Assert.assertTrue(session2.checkAddress("::1"));
+            Assert.assertEquals(session2.getAuthenticationResultMap().keySet(), Set.of("authn/Password", "a"));
+            Assert.assertEquals(session2.getSPSessionMap().keySet(), Set.of("bar"));
+        }
+        
+        try {
+            serializer.deserialize(1, "test", KEY, s.substring(0, s.length() - 4), exp.toEpochMilli());
+            Assert.fail();
+        } catch (final IOException e) {
+            
+        }
+    }
+    
+    @Test public void testCompactSize() throws Exception {
+        final Instant exp = Instant.ofEpochMilli(INSTANT).plusSeconds(3600);
+        
+        final StorageBackedSessionManager compactManager = createManager(true);
+        final StorageBackedIdPSessionSerializer compactSerializer =
+                new StorageBackedIdPSessionSerializer(compactManager, null);
+        compactSerializer.initialize();
+        
+        final StorageBackedIdPSession session =
+                new StorageBackedIdPSession(compactManager, "test", "jdoe", Instant.ofEpochMilli(INSTANT));
+        session.doBindToAddress("192.168.1.1");
+        session.doBindToAddress("2001:db8::1");
+        session.doAddAuthenticationResult(new AuthenticationResult("authn/Password", new UsernamePrincipal("jdoe")));
+        session.doAddAuthenticationResult(new AuthenticationResult("authn/MFA", new UsernamePrincipal("jdoe")));
+        
+        int previous = 0;
+        for (int i = 0; i < 100; i++) {
+            session.doAddSPSession(new BasicSPSession("https://sp" + i + ".example.org/shibboleth",
+                    Instant.ofEpochMilli(INSTANT), exp));
+            final int compact = compactSerializer.serialize(session).length();
+            final int json = serializer.serialize(session).length();
+            Assert.assertTrue(compact < json, "Compact record of " + compact
+                    + " characters is not smaller than JSON record of " + json + " with " + (i + 1) + " SP sessions");
+            Assert.assertTrue(compact > previous);
+            previous = compact;
+        }
+    }
+    
     private String fileToString(String pathname) throws URISyntaxException, IOException {
         try (FileInputStream stream = new FileInputStream(
                 new File(StorageBackedIdPSessionSerializerTest.class.getResource(pathname).toURI()))) {
@@ -27,6 +27,9 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.json.JsonObject;
 import javax.json.stream.JsonGenerator;
@@ -39,6 +42,7 @@ import net.shibboleth.idp.authn.principal.UsernamePrincipal;
 import net.shibboleth.idp.authn.testing.TestPrincipal;
 import net.shibboleth.idp.session.BasicSPSession;
 import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.MultiReadStorageService;
 import net.shibboleth.idp.session.SPSession;
 import net.shibboleth.idp.session.SPSessionSerializerRegistry;
 import net.shibboleth.idp.session.SessionException;
@@ -48,11 +52,16 @@ import net.shibboleth.idp.session.criterion.SessionIdCriterion;
 import net.shibboleth.idp.session.impl.testing.SessionManagerBaseTestCase;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+import net.shibboleth.utilities.java.support.net.CookieManager;
 import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.security.impl.SecureRandomIdentifierGenerationStrategy;
 
+import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.impl.MemoryStorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -325,6 +334,41 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         sessionManager.destroySession(session.getId(), true);
     }
     
+    @Test
+    public void testBatchLoad() throws ResolverException, SessionException, IOException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final Instant now = Instant.now();
+        
+        final AuthenticationResult foo =
+                new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe"));
+        final AuthenticationResult bar =
+                new AuthenticationResult("AuthenticationFlow/Bar", new UsernamePrincipal("joe"));
+        Assert.assertNull(session.addAuthenticationResult(foo));
+        Assert.assertNull(session.addAuthenticationResult(bar));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNull(session.addSPSession(
+                    new BasicSPSession("https://sp" + i + ".example.org/shibboleth", now, now.plusSeconds(3600))));
+        }
+        
+        // A fresh copy has none of the subsidiary records loaded, so these load them together.
+        IdPSession session2 = sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertEquals(session2.getAuthenticationResults().size(), 2);
+        Assert.assertEquals(session2.getSPSessions().size(), 5);
+        Assert.assertNotNull(session2.getSPSession("https://sp3.example.org/shibboleth"));
+        
+        // Records that have disappeared are dropped from the set.
+        Assert.assertTrue(session.removeAuthenticationResult(bar));
+        session2 = sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        sessionManager.getStorageService().delete(session.getId(), "https://sp1.example.org/shibboleth");
+        Assert.assertEquals(session2.getAuthenticationResults().size(), 1);
+        Assert.assertEquals(session2.getSPSessions().size(), 4);
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+    
     @Test
     public void testSecondaryLookup() throws ResolverException, SessionException, InterruptedException {
         
@@ -378,6 +422,334 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         Assert.assertEquals(sessions.size(), 0);
     }
 
+    @Test
+    public void testBucketedSecondaryLookup() throws ComponentInitializationException, ResolverException,
+            SessionException {
+        
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequest(requestProxy);
+        cookieManager.setHttpServletResponse(responseProxy);
+        cookieManager.initialize();
+
+        // Second manager sharing the same storage but indexing into buckets.
+        final StorageBackedSessionManager bucketedManager = new StorageBackedSessionManager();
+        bucketedManager.setId("Bucketed Session Manager");
+        bucketedManager.setSessionTimeout(Duration.ofSeconds(15));
+        bucketedManager.setStorageService(storageService);
+        bucketedManager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        bucketedManager.setHttpServletRequest(requestProxy);
+        bucketedManager.setHttpServletResponse(responseProxy);
+        bucketedManager.setCookieManager(cookieManager);
+        bucketedManager.setAuthenticationFlowDescriptors(flowDescriptors);
+        bucketedManager.setTrackSPSessions(true);
+        bucketedManager.setSecondaryServiceIndex(true);
+        bucketedManager.setSecondaryServiceIndexBuckets(4);
+        bucketedManager.setSessionSlop(sessionSlop);
+        bucketedManager.setSPSessionSerializerRegistry(serializerRegistry);
+        bucketedManager.initialize();
+        
+        try {
+            HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+            
+            final Instant now = Instant.now();
+            final SPSession foo = new ExtendedSPSession("https://sp3.example.org/shibboleth", now,
+                    now.plusSeconds(3600));
+
+            // One session indexed in the original format, the rest in buckets.
+            final IdPSession legacy = sessionManager.createSession("joe");
+            Assert.assertNull(legacy.addSPSession(foo));
+            
+            final List<IdPSession> created = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                final IdPSession session = bucketedManager.createSession("joe" + i);
+                Assert.assertNull(session.addSPSession(foo));
+                created.add(session);
+            }
+            
+            final CriteriaSet criteria = new CriteriaSet(
+                    new SPSessionCriterion("https://sp3.example.org/shibboleth", ExtendedSPSession.SESSION_KEY));
+            
+            List<IdPSession> sessions = new ArrayList<>();
+            bucketedManager.resolve(criteria).forEach(sessions::add);
+            Assert.assertEquals(sessions.size(), 7);
+            
+            // A manager without buckets only sees the original format.
+            sessions.clear();
+            sessionManager.resolve(criteria).forEach(sessions::add);
+            Assert.assertEquals(sessions.size(), 1);
+            
+            bucketedManager.destroySession(legacy.getId(), true);
+            bucketedManager.destroySession(created.get(0).getId(), true);
+
+            sessions.clear();
+            bucketedManager.resolve(criteria).forEach(sessions::add);
+            Assert.assertEquals(sessions.size(), 5);
+            
+            for (final IdPSession session : created.subList(1, created.size())) {
+                bucketedManager.destroySession(session.getId(), true);
+            }
+            
+            sessions.clear();
+            bucketedManager.resolve(criteria).forEach(sessions::add);
+            Assert.assertTrue(sessions.isEmpty());
+        } finally {
+            HttpServletRequestResponseContext.clearCurrent();
+            bucketedManager.destroy();
+        }
+    }
+
+    @Test
+    public void testBucketedKeyCollision() throws ComponentInitializationException, ResolverException,
+            SessionException, IOException {
+        
+        final StorageBackedSessionManager bucketedManager = createManager("Bucketed Session Manager", storageService,
+                null, 4);
+        
+        try {
+            HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+            
+            final Instant now = Instant.now();
+            final String serviceId = "https://sp4.example.org/shibboleth";
+            final IdPSession session = bucketedManager.createSession("joe");
+            Assert.assertNull(session.addSPSession(new ExtendedSPSession(serviceId, now, now.plusSeconds(3600))));
+            
+            // Original-format records for a different key that ends in what looks like a bucket number.
+            final IdPSession other = sessionManager.createSession("jim");
+            for (int bucket = 0; bucket < 4; bucket++) {
+                storageService.create(serviceId, ExtendedSPSession.SESSION_KEY + "#" + bucket, other.getId() + ",",
+                        now.plusSeconds(3600).toEpochMilli());
+            }
+            
+            final List<IdPSession> sessions = new ArrayList<>();
+            bucketedManager.resolve(new CriteriaSet(new SPSessionCriterion(serviceId, ExtendedSPSession.SESSION_KEY)))
+                .forEach(sessions::add);
+            Assert.assertEquals(sessions.size(), 1);
+            Assert.assertEquals(sessions.get(0).getId(), session.getId());
+            
+            sessions.clear();
+            bucketedManager.resolve(new CriteriaSet(new SPSessionCriterion(serviceId,
+                    ExtendedSPSession.SESSION_KEY + "#0"))).forEach(sessions::add);
+            Assert.assertEquals(sessions.size(), 1);
+            Assert.assertEquals(sessions.get(0).getId(), other.getId());
+        } finally {
+            HttpServletRequestResponseContext.clearCurrent();
+            bucketedManager.destroy();
+        }
+    }
+
+    @Test
+    public void testSessionCache() throws ComponentInitializationException, ResolverException, SessionException {
+        
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequest(requestProxy);
+        cookieManager.setHttpServletResponse(responseProxy);
+        cookieManager.initialize();
+
+        // Second manager, standing in for another node, sharing the same storage but caching sessions.
+        final StorageBackedSessionManager cachingManager = new StorageBackedSessionManager();
+        cachingManager.setId("Caching Session Manager");
+        cachingManager.setSessionTimeout(Duration.ofSeconds(15));
+        cachingManager.setStorageService(storageService);
+        cachingManager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        cachingManager.setHttpServletRequest(requestProxy);
+        cachingManager.setHttpServletResponse(responseProxy);
+        cachingManager.setCookieManager(cookieManager);
+        cachingManager.setAuthenticationFlowDescriptors(flowDescriptors);
+        cachingManager.setTrackSPSessions(true);
+        cachingManager.setSessionSlop(sessionSlop);
+        cachingManager.setSPSessionSerializerRegistry(serializerRegistry);
+        cachingManager.setSessionCacheSize(10);
+        cachingManager.initialize();
+        
+        try {
+            HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+            
+            final IdPSession session = cachingManager.createSession("joe");
+            final AuthenticationResult foo =
+                    new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe"));
+            Assert.assertNull(session.addAuthenticationResult(foo));
+            
+            final CriteriaSet criteria = new CriteriaSet(new SessionIdCriterion(session.getId()));
+            
+            // Each lookup gets its own copy of the cached state.
+            final IdPSession copy1 = cachingManager.resolveSingle(criteria);
+            final IdPSession copy2 = cachingManager.resolveSingle(criteria);
+            Assert.assertNotSame(copy1, copy2);
+            Assert.assertEquals(copy1.getPrincipalName(), "joe");
+            Assert.assertEquals(copy1.getCreationInstant(), session.getCreationInstant());
+            Assert.assertEquals(copy1.getAuthenticationResults().size(), 1);
+            Assert.assertNotNull(copy2.getAuthenticationResult("AuthenticationFlow/Foo"));
+            
+            // Changes made through another node are picked up.
+            final Instant now = Instant.now();
+            final IdPSession other = sessionManager.resolveSingle(criteria);
+            Assert.assertNull(other.addSPSession(
+                    new BasicSPSession("https://sp.example.org/shibboleth", now, now.plusSeconds(3600))));
+            Assert.assertEquals(cachingManager.resolveSingle(criteria).getSPSessions().size(), 1);
+            
+            // Activity updates change only the record expiration, not its version.
+            final Instant activity = Instant.ofEpochMilli(System.currentTimeMillis() + 5000);
+            other.setLastActivityInstant(activity);
+            
+            final IdPSession copy3 = cachingManager.resolveSingle(criteria);
+            Assert.assertEquals(copy3.getSPSessions().size(), 1);
+            Assert.assertEquals(copy3.getAuthenticationResults().size(), 1);
+            Assert.assertEquals(copy3.getLastActivityInstant(), activity);
+            
+            // As are changes made through the cache.
+            Assert.assertTrue(copy3.removeAuthenticationResult(foo));
+            Assert.assertTrue(cachingManager.resolveSingle(criteria).getAuthenticationResults().isEmpty());
+            Assert.assertTrue(sessionManager.resolveSingle(criteria).getAuthenticationResults().isEmpty());
+            
+            cachingManager.destroySession(session.getId(), true);
+            Assert.assertNull(cachingManager.resolveSingle(criteria));
+        } finally {
+            HttpServletRequestResponseContext.clearCurrent();
+            cachingManager.destroy();
+        }
+    }
+
+    @Test
+    public void testParallelBatchLoad() throws ComponentInitializationException, ResolverException,
+            SessionException, IOException {
+        
+        final AtomicInteger tasks = new AtomicInteger();
+        final Executor executor = task -> {
+            tasks.incrementAndGet();
+            ForkJoinPool.commonPool().execute(task);
+        };
+        final StorageBackedSessionManager parallelManager =
+                createManager("Parallel Session Manager", storageService, executor);
+        
+        try {
+            HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+            
+            final IdPSession session = populateSession(parallelManager);
+            final CriteriaSet criteria = new CriteriaSet(new SessionIdCriterion(session.getId()));
+            
+            IdPSession session2 = parallelManager.resolveSingle(criteria);
+            Assert.assertEquals(session2.getAuthenticationResults().size(), 2);
+            Assert.assertEquals(session2.getSPSessions().size(), 5);
+            Assert.assertNotNull(session2.getSPSession("https://sp3.example.org/shibboleth"));
+            Assert.assertTrue(tasks.get() >= 7);
+            
+            // Records that have disappeared are dropped from the set.
+            session2 = parallelManager.resolveSingle(criteria);
+            storageService.delete(session.getId(), "https://sp1.example.org/shibboleth");
+            Assert.assertEquals(session2.getSPSessions().size(), 4);
+            
+            parallelManager.destroySession(session.getId(), true);
+        } finally {
+            HttpServletRequestResponseContext.clearCurrent();
+            parallelManager.destroy();
+        }
+    }
+    
+    @Test
+    public void testMultiReadBatchLoad() throws ComponentInitializationException, ResolverException,
+            SessionException, IOException {
+        
+        final MultiReadMemoryStorageService multiReadStorage = new MultiReadMemoryStorageService();
+        multiReadStorage.setId("MultiReadStorageService");
+        multiReadStorage.initialize();
+        
+        // The executor is bypassed in favour of the storage service's own batch read.
+        final StorageBackedSessionManager multiReadManager = createManager("Multi-Read Session Manager",
+                multiReadStorage, task -> Assert.fail("Executor should not be used"));
+        
+        try {
+            HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+            
+            final IdPSession session = populateSession(multiReadManager);
+            final CriteriaSet criteria = new CriteriaSet(new SessionIdCriterion(session.getId()));
+            
+            multiReadStorage.readAllCount.set(0);
+            IdPSession session2 = multiReadManager.resolveSingle(criteria);
+            Assert.assertEquals(session2.getAuthenticationResults().size(), 2);
+            Assert.assertEquals(session2.getSPSessions().size(), 5);
+            Assert.assertEquals(multiReadStorage.readAllCount.get(), 2);
+            
+            // Records that have disappeared are dropped from the set.
+            session2 = multiReadManager.resolveSingle(criteria);
+            multiReadStorage.delete(session.getId(), "https://sp1.example.org/shibboleth");
+            Assert.assertEquals(session2.getSPSessions().size(), 4);
+            
+            multiReadManager.destroySession(session.getId(), true);
+        } finally {
+            HttpServletRequestResponseContext.clearCurrent();
+            multiReadManager.destroy();
+            multiReadStorage.destroy();
+        }
+    }
+    
+    private StorageBackedSessionManager createManager(final String id, final StorageService storage,
+            final Executor readExecutor) throws ComponentInitializationException {
+        return createManager(id, storage, readExecutor, 0);
+    }
+
+    private StorageBackedSessionManager createManager(final String id, final StorageService storage,
+            final Executor readExecutor, final int buckets) throws ComponentInitializationException {
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequest(requestProxy);
+        cookieManager.setHttpServletResponse(responseProxy);
+        cookieManager.initialize();
+
+        final StorageBackedSessionManager manager = new StorageBackedSessionManager();
+        manager.setId(id);
+        manager.setSessionTimeout(Duration.ofSeconds(15));
+        manager.setStorageService(storage);
+        manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        manager.setHttpServletRequest(requestProxy);
+        manager.setHttpServletResponse(responseProxy);
+        manager.setCookieManager(cookieManager);
+        manager.setAuthenticationFlowDescriptors(flowDescriptors);
+        manager.setTrackSPSessions(true);
+        manager.setSessionSlop(sessionSlop);
+        manager.setSPSessionSerializerRegistry(serializerRegistry);
+        manager.setReadExecutor(readExecutor);
+        if (buckets > 0) {
+            manager.setSecondaryServiceIndex(true);
+            manager.setSecondaryServiceIndexBuckets(buckets);
+        }
+        manager.initialize();
+        return manager;
+    }
+    
+    private IdPSession populateSession(final StorageBackedSessionManager manager) throws SessionException {
+        final IdPSession session = manager.createSession("joe");
+        final Instant now = Instant.now();
+        
+        Assert.assertNull(session.addAuthenticationResult(
+                new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe"))));
+        Assert.assertNull(session.addAuthenticationResult(
+                new AuthenticationResult("AuthenticationFlow/Bar", new UsernamePrincipal("joe"))));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNull(session.addSPSession(
+                    new BasicSPSession("https://sp" + i + ".example.org/shibboleth", now, now.plusSeconds(3600))));
+        }
+        return session;
+    }
+
+    private static class MultiReadMemoryStorageService extends MemoryStorageService
+            implements MultiReadStorageService {
+        
+        private final AtomicInteger readAllCount = new AtomicInteger();
+
+        /** {@inheritDoc} */
+        public <T> Map<String,StorageRecord<T>> readAll(final String context, final Collection<String> keys)
+                throws IOException {
+            readAllCount.incrementAndGet();
+            final Map<String,StorageRecord<T>> records = new HashMap<>();
+            for (final String key : keys) {
+                final StorageRecord<T> record = read(context, key);
+                if (record != null) {
+                    records.put(key, record);
+                }
+            }
+            return records;
+        }
+    }
+
     private static class ExtendedSPSession extends BasicSPSession {
 
         public static final String SESSION_KEY = "PerSessionNameWouldGoHere";